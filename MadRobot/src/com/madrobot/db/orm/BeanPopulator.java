@@ -19,8 +19,10 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import android.database.Cursor;
 
@@ -286,14 +288,27 @@ public class BeanPopulator {
 		return columnToProperty;
 	}
 
-	private static void populateBean(Object bean, Cursor cursor, String[] columns,
-			PropertyDescriptor[] propDesc) throws IllegalArgumentException,
-			IllegalAccessException, InvocationTargetException {
+	/**
+	 * Returns the setter for each column of <code>cursor</code>, or null for
+	 * columns without a setter.
+	 */
+	private static Method[] mapColumnsToSetters(Cursor cursor, Class<?> type)
+			throws IntrospectionException {
+		PropertyDescriptor[] propDesc = BeanUtils.getPropertyDescriptors(type);
+		String[] columns = cursor.getColumnNames();
+		Method[] setters = new Method[columns.length];
 		for (int i = 0; i < columns.length; i++) {
-			Method method= BeanUtils.getWriteMethod(propDesc, columns[i]);
-			if(method!=null){
-				int columnIndex = cursor.getColumnIndex(columns[i]);
-				Object[] params = getPrimitveMethodParamter(method, cursor, columnIndex);
+			setters[i] = BeanUtils.getWriteMethod(propDesc, columns[i]);
+		}
+		return setters;
+	}
+
+	private static void populateBean(Object bean, Cursor cursor, Method[] setters)
+			throws IllegalArgumentException, IllegalAccessException, InvocationTargetException {
+		for (int i = 0; i < setters.length; i++) {
+			Method method = setters[i];
+			if (method != null) {
+				Object[] params = getPrimitveMethodParamter(method, cursor, i);
 				if (params != null)
 					method.invoke(bean, params);
 			}
@@ -516,16 +531,66 @@ public class BeanPopulator {
 		if (columns == null || columns.length == 0)
 			return results;
 		cursor.moveToFirst();
-		PropertyDescriptor[] propDesc = BeanUtils.getPropertyDescriptors(type);
+		Method[] setters = mapColumnsToSetters(cursor, type);
 		for (int i = 0; i < cursor.getCount(); i++) {
 			T bean = ClassUtils.newInstance(type);
-			populateBean(bean, cursor, columns, propDesc);
+			populateBean(bean, cursor, setters);
 			results.add(bean);
 			cursor.moveToNext();
 		}
 		return results;
 	}
 
+	/**
+	 * Returns an iterator that populates a bean from each remaining row of
+	 * <code>cursor</code> as it is reached, instead of building a list of all
+	 * the rows. Columns are matched to setters as in
+	 * {@link #toBeanList(Cursor, Class)}, once for the whole cursor.
+	 * <p>
+	 * Only the current row is held, so memory use does not grow with the
+	 * number of rows. The cursor is not closed by the iterator.
+	 * </p>
+	 * 
+	 * @param <T>
+	 * @param cursor
+	 * @param type
+	 * @return the bean iterator. Its <code>next()</code> method throws an
+	 *         {@link IllegalStateException} if a bean cannot be populated.
+	 * @throws IntrospectionException
+	 *             If there is trouble in getting the infromation from the class
+	 */
+	public static <T> Iterator<T> toBeanIterator(final Cursor cursor, final Class<T> type)
+			throws IntrospectionException {
+		final Method[] setters = mapColumnsToSetters(cursor, type);
+		return new Iterator<T>() {
+			@Override
+			public boolean hasNext() {
+				return cursor.getPosition() < cursor.getCount() - 1;
+			}
+
+			@Override
+			public T next() {
+				if (!cursor.moveToNext()) {
+					throw new NoSuchElementException();
+				}
+				try {
+					T bean = ClassUtils.newInstance(type);
+					populateBean(bean, cursor, setters);
+					return bean;
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e.getMessage());
+				} catch (InvocationTargetException e) {
+					throw new IllegalStateException(e.getMessage());
+				}
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
 	/**
 	 * Convert a <code>ResultSet</code> into a <code>List</code> of JavaBeans.
 	 * This implementation uses reflection and <code>BeanInfo</code> classes to
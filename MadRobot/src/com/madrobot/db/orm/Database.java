@@ -19,6 +19,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import com.madrobot.db.DBException;
@@ -100,6 +101,8 @@ public class Database {
 			return "bool";
 		if (c.getSuperclass() == DatabaseClient.class)
 			return "int";
+		if (c == LazyEntity.class)
+			return "int";
 		throw new IllegalArgumentException("Class cannot be stored in Sqlite3 database.");
 	}
 
@@ -136,6 +139,11 @@ public class Database {
 
 	private SQLiteDatabase _database;
 
+	/**
+	 * Entities loaded from this database
+	 */
+	final EntitiesMap entities = new EntitiesMap();
+
 	private DatabaseOpenHelper _dbHelper;
 
 	private String _path;
@@ -172,11 +180,23 @@ public class Database {
 		_database.beginTransaction();
 	}
 
+	/**
+	 * Compiles an SQL statement for repeated execution. The caller must close
+	 * the returned statement.
+	 * 
+	 * @param sql
+	 *            Standard SQLite compatible SQL, with "?" for the arguments.
+	 */
+	public SQLiteStatement compileStatement(String sql) {
+		return _database.compileStatement(sql);
+	}
+
 	public void close() {
 		String d = _database.toString();
 		if (_database != null)
 			_database.close();
 		_database = null;
+		entities.clear();
 		Log.e("MadRobot", CNAME + " .close(): db obj " + d + " set to null");
 	}
 
@@ -364,6 +384,14 @@ public class Database {
 		return _database.rawQuery(sql, params);
 	}
 
+	/**
+	 * Marks the current transaction as successful, so that
+	 * {@link #endTransaction()} commits it instead of rolling it back.
+	 */
+	public void setTransactionSuccessful() {
+		_database.setTransactionSuccessful();
+	}
+
 	public void setVersion(int version) throws DBException {
 		if (null == _database || !_database.isOpen()) {
 			Log.e("MadRobot", CNAME + ".setVersion(): ERROR - db object is null or closed");
@@ -11,15 +11,16 @@
 package com.madrobot.db.orm;
 
 import java.lang.reflect.Field;
-import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteException;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteStatement;
 
 import com.madrobot.db.DBException;
 import com.madrobot.text.WordUtils;
@@ -32,8 +33,6 @@ import com.madrobot.text.WordUtils;
  */
 public class DatabaseClient {
 
-	static EntitiesMap s_EntitiesMap = new EntitiesMap();
-
 	/**
 	 * Creates new ActiveRecord instance. Returned instances is not initially
 	 * opened. Calling application must explicitly open it by calling open()
@@ -68,6 +67,11 @@ public class DatabaseClient {
 
 	boolean m_NeedsInsert = true;
 
+	/**
+	 * Fields loaded by a projection query, or null if all fields were loaded
+	 */
+	boolean[] m_LoadedFields;
+
 	protected DatabaseClient() {
 	}
 
@@ -122,6 +126,7 @@ public class DatabaseClient {
 			throw new DBException("Set database first");
 		boolean toRet = m_Database.delete(getTableName(), "_id = ?",
 				new String[] { String.valueOf(_id) }) != 0;
+		m_Database.entities.remove(getClass(), _id);
 		_id = 0;
 		m_NeedsInsert = true;
 		return toRet;
@@ -213,7 +218,7 @@ public class DatabaseClient {
 		}
 		Cursor c = m_Database.query(distinct, entity.getTableName(), null, whereClause,
 				whereArgs, groupBy, having, orderBy, limit);
-		return populateList(c, s_EntitiesMap, type);
+		return populateList(c, type);
 	}
 
 	/**
@@ -254,22 +259,179 @@ public class DatabaseClient {
 			throw new DBException(e1.getLocalizedMessage());
 		}
 		Cursor c = m_Database.query(entity.getTableName(), null, whereClause, whereArgs);
-		return populateList(c, s_EntitiesMap, type);
+		return populateList(c, type);
+	}
+
+	/**
+	 * Return the instances of an entity that match the given criteria, with
+	 * only the given columns loaded. The other fields are left at their
+	 * default values, and {@link #update()} writes only the loaded columns.
+	 * <p>
+	 * Entities loaded this way are new instances, separate from the entities
+	 * loaded in full.
+	 * </p>
+	 * 
+	 * @param <T>
+	 *            Any ActiveRecordBase class.
+	 * @param type
+	 *            The class of the entities to return.
+	 * @param columns
+	 *            The columns to load, as in the DB schema. The _id column is
+	 *            always loaded.
+	 * @param whereClause
+	 *            The condition to match (Don't include "where").
+	 * @param whereArgs
+	 *            The arguments to replace "?" with.
+	 * @return A generic list of all matching entities.
+	 * @throws DBException
+	 */
+	public <T extends DatabaseClient> List<T> find(Class<T> type, String[] columns,
+			String whereClause, String[] whereArgs) throws DBException {
+		if (m_Database == null)
+			throw new DBException("Set database first");
+		Cursor c = m_Database.query(EntityMapper.forClass(type).tableName,
+				withID(columns), whereClause, whereArgs);
+		return populateList(c, type);
+	}
+
+	/**
+	 * Return a page of the instances of an entity that match the given
+	 * criteria, in the order of their ids.
+	 * <p>
+	 * Pages are selected by the last id of the previous page rather than by an
+	 * offset, so each page costs the same no matter how far into the table it
+	 * is, and rows inserted or deleted meanwhile do not shift the pages:
+	 * 
+	 * <pre>
+	 * List&lt;Order&gt; page = client.findPage(Order.class, null, null, null, 0, 100);
+	 * while (!page.isEmpty()) {
+	 * 	...
+	 * 	long last = page.get(page.size() - 1).getID();
+	 * 	page = client.findPage(Order.class, null, null, null, last, 100);
+	 * }
+	 * </pre>
+	 * 
+	 * </p>
+	 * 
+	 * @param <T>
+	 *            Any ActiveRecordBase class.
+	 * @param type
+	 *            The class of the entities to return.
+	 * @param columns
+	 *            The columns to load as in {@link #find(Class, String[], String,
+	 *            String[])}, or null to load all.
+	 * @param whereClause
+	 *            The condition to match (Don't include "where"), or null.
+	 * @param whereArgs
+	 *            The arguments to replace "?" with.
+	 * @param afterID
+	 *            The id of the last entity of the previous page, 0 for the
+	 *            first page.
+	 * @param limit
+	 *            The maximum number of entities in the page.
+	 * @return The entities with ids greater than afterID, at most limit of
+	 *         them.
+	 * @throws DBException
+	 */
+	public <T extends DatabaseClient> List<T> findPage(Class<T> type, String[] columns,
+			String whereClause, String[] whereArgs, long afterID, int limit)
+			throws DBException {
+		if (m_Database == null)
+			throw new DBException("Set database first");
+		String where = whereClause == null ? "_id > ?" : "_id > ? AND (" + whereClause + ")";
+		int argCount = whereArgs == null ? 0 : whereArgs.length;
+		String[] args = new String[argCount + 1];
+		args[0] = String.valueOf(afterID);
+		if (argCount > 0)
+			System.arraycopy(whereArgs, 0, args, 1, argCount);
+		Cursor c = m_Database.query(false, EntityMapper.forClass(type).tableName,
+				withID(columns), where, args, null, null, "_id", String.valueOf(limit));
+		return populateList(c, type);
+	}
+
+	/**
+	 * Iterate over the instances of an entity that match the given criteria,
+	 * in the order of their ids.
+	 * <p>
+	 * The entities are read one page of <code>windowSize</code> entities at a
+	 * time with {@link #findPage(Class, String[], String, String[], long, int)},
+	 * so memory use depends on the window size and not on the number of
+	 * matching rows, and no cursor is held open between pages.
+	 * </p>
+	 * 
+	 * @param <T>
+	 *            Any ActiveRecordBase class.
+	 * @param type
+	 *            The class of the entities to return.
+	 * @param columns
+	 *            The columns to load as in {@link #find(Class, String[], String,
+	 *            String[])}, or null to load all.
+	 * @param whereClause
+	 *            The condition to match (Don't include "where"), or null.
+	 * @param whereArgs
+	 *            The arguments to replace "?" with.
+	 * @param windowSize
+	 *            The number of entities read at a time.
+	 * @return The iterator over the matching entities.
+	 */
+	public <T extends DatabaseClient> EntityIterator<T> iterate(Class<T> type,
+			String[] columns, String whereClause, String[] whereArgs, int windowSize) {
+		return new EntityIterator<T>(this, type, columns, whereClause, whereArgs, windowSize);
+	}
+
+	/**
+	 * Iterate over all instances of an entity, in the order of their ids.
+	 * 
+	 * @see #iterate(Class, String[], String, String[], int)
+	 */
+	public <T extends DatabaseClient> EntityIterator<T> iterateAll(Class<T> type,
+			int windowSize) {
+		return iterate(type, null, null, null, windowSize);
+	}
+
+	/**
+	 * Returns <code>columns</code> with the _id column added if missing.
+	 */
+	private static String[] withID(String[] columns) {
+		if (columns == null)
+			return null;
+		for (String column : columns) {
+			if ("_id".equalsIgnoreCase(column))
+				return columns;
+		}
+		String[] withID = new String[columns.length + 1];
+		System.arraycopy(columns, 0, withID, 0, columns.length);
+		withID[columns.length] = "_id";
+		return withID;
 	}
 
-	private <T extends DatabaseClient> List<T> populateList(Cursor c,
-			EntitiesMap s_EntitiesMap, Class<T> type) throws DBException {
+	/**
+	 * Reads all rows of <code>c</code>. Entities already in the entities map
+	 * are reused, and the entities referenced by the new ones are loaded with
+	 * one query per referenced type. If the cursor has only some of the
+	 * columns, new partially loaded entities are returned instead.
+	 */
+	private <T extends DatabaseClient> List<T> populateList(Cursor c, Class<T> type)
+			throws DBException {
 		List<T> toRet = new ArrayList<T>();
+		EntitiesMap entities = m_Database.entities;
+		EntityMapper.References references = new EntityMapper.References();
 		T entity = null;
 		try {
+			EntityMapper mapper = EntityMapper.forClass(type);
+			int[] indexes = mapper.columnIndexes(c);
+			boolean[] loaded = mapper.loadedFields(indexes);
+			int idIndex = c.getColumnIndex("_id");
 			while (c.moveToNext()) {
-				entity = s_EntitiesMap.get(type, c.getLong(c.getColumnIndex("_id")));
+				entity = loaded == null ? entities.get(type, c.getLong(idIndex)) : null;
 				if (entity == null) {
 					entity = type.newInstance();
 					entity.m_NeedsInsert = false;
-					entity.inflate(c);
 					entity.m_Database = m_Database;
-
+					entity.m_LoadedFields = loaded;
+					mapper.inflate(entity, c, indexes, m_Database, references);
+					if (loaded == null)
+						entities.set(entity);
 				}
 				toRet.add(entity);
 			}
@@ -280,6 +442,7 @@ public class DatabaseClient {
 		} finally {
 			c.close();
 		}
+		references.resolve(this);
 		return toRet;
 	}
 
@@ -333,7 +496,7 @@ public class DatabaseClient {
 	public <T extends DatabaseClient> T findByID(Class<T> type, long id) throws DBException {
 		if (m_Database == null)
 			throw new DBException("Set database first");
-		T entity = s_EntitiesMap.get(type, id);
+		T entity = m_Database.entities.get(type, id);
 		if (entity != null)
 			return entity;
 
@@ -347,17 +510,21 @@ public class DatabaseClient {
 
 		Cursor c = m_Database.query(entity.getTableName(), null, "_id = ?",
 				new String[] { String.valueOf(id) });
+		EntityMapper.References references = new EntityMapper.References();
 		try {
 			if (!c.moveToNext()) {
 				return null;
 			} else {
-				entity.inflate(c);
 				entity.m_NeedsInsert = false;
 				entity.m_Database = m_Database;
+				EntityMapper mapper = EntityMapper.forClass(type);
+				mapper.inflate(entity, c, mapper.columnIndexes(c), m_Database, references);
+				m_Database.entities.set(entity);
 			}
 		} finally {
 			c.close();
 		}
+		references.resolve(this);
 		return entity;
 	}
 
@@ -454,102 +621,125 @@ public class DatabaseClient {
 	}
 
 	/**
-	 * Inflate this entity using the current row from the given cursor.
+	 * Insert this entity into the database.
 	 * 
-	 * @param cursor
-	 *            The cursor to get object data from.
-	 * @throws IllegalArgumentException
-	 * @throws IllegalAccessException
-	 * @throws InstantiationException
+	 * @return the row ID of the newly inserted row, or -1 if an error occurred
+	 * @throws DBException
 	 */
-	@SuppressWarnings("unchecked")
-	void inflate(Cursor cursor) throws DBException {
-		HashMap<Field, Long> entities = new HashMap<Field, Long>();
-		for (Field field : getColumnFields()) {
-			try {
-				String typeString = field.getType().getName();
-				String colName = WordUtils.toSQLName(field.getName());
-				if (typeString.equals("long")) {
-					field.setLong(this, cursor.getLong(cursor.getColumnIndex(colName)));
-				} else if (typeString.equals("java.lang.String")) {
-					String val = cursor.getString(cursor.getColumnIndex(colName));
-					field.set(this, val.equals("null") ? null : val);
-				} else if (typeString.equals("double")) {
-					field.setDouble(this, cursor.getDouble(cursor.getColumnIndex(colName)));
-				} else if (typeString.equals("boolean")) {
-					field.setBoolean(this, cursor.getString(cursor.getColumnIndex(colName))
-							.equals("true"));
-				} else if (typeString.equals("[B")) {
-					field.set(this, cursor.getBlob(cursor.getColumnIndex(colName)));
-				} else if (typeString.equals("int")) {
-					field.setInt(this, cursor.getInt(cursor.getColumnIndex(colName)));
-				} else if (typeString.equals("float")) {
-					field.setFloat(this, cursor.getFloat(cursor.getColumnIndex(colName)));
-				} else if (typeString.equals("short")) {
-					field.setShort(this, cursor.getShort(cursor.getColumnIndex(colName)));
-				} else if (typeString.equals("java.sql.Timestamp")) {
-					long l = cursor.getLong(cursor.getColumnIndex(colName));
-					field.set(this, new Timestamp(l));
-				} else if (field.getType().getSuperclass() == DatabaseClient.class) {
-					long id = cursor.getLong(cursor.getColumnIndex(colName));
-					if (id > 0)
-						entities.put(field, id);
-					else
-						field.set(this, null);
-				} else
-					throw new DBException("Class cannot be read from Sqlite3 database.");
-			} catch (IllegalArgumentException e) {
-				throw new DBException(e.getLocalizedMessage());
-			} catch (IllegalAccessException e) {
-				throw new DBException(e.getLocalizedMessage());
-			}
-
-		}
+	public long insert() throws DBException {
+		ContentValues values = EntityMapper.forClass(getClass()).toContentValues(this, _id > 0);
+		_id = m_Database.insert(getTableName(), values);
+		if (-1 != _id)
+			m_NeedsInsert = false;
 
-		s_EntitiesMap.set(this);
-		for (Field f : entities.keySet()) {
-			try {
-				f.set(this,
-						this.findByID((Class<? extends DatabaseClient>) f.getType(),
-								entities.get(f)));
-			} catch (SQLiteException e) {
-				throw new DBException(e.getLocalizedMessage());
-			} catch (IllegalArgumentException e) {
-				throw new DBException(e.getLocalizedMessage());
-			} catch (IllegalAccessException e) {
-				throw new DBException(e.getLocalizedMessage());
-			}
-		}
+		return _id;
 	}
 
 	/**
-	 * Insert this entity into the database.
+	 * Insert entities into the database in a single transaction.
+	 * <p>
+	 * The insert statement of each entity class is compiled once and reused
+	 * for all entities of that class, which makes this much faster than
+	 * calling {@link #insert()} for each entity. Entities that already have an
+	 * id are inserted with it, replacing any row with the same id. If any
+	 * insert fails none of the entities are inserted and their ids are left
+	 * unchanged.
+	 * </p>
+	 * <p>
+	 * Entities loaded with only some of their columns, as by
+	 * {@link #find(Class, String[], String, String[])}, cannot be inserted in
+	 * full and fail the insert; save them with {@link #saveAll(Collection)}.
+	 * </p>
 	 * 
-	 * @return the row ID of the newly inserted row, or -1 if an error occurred
+	 * @param entities
+	 *            The entities to insert. Entities they refer to must already
+	 *            be saved.
+	 * @return The number of entities inserted
 	 * @throws DBException
 	 */
-	public long insert() throws DBException {
-		List<Field> columns = _id > 0 ? getColumnFields() : getColumnFieldsWithoutID();
-		ContentValues values = new ContentValues(columns.size());
-		for (Field column : columns) {
-			try {
-				if (column.getType().getSuperclass() == DatabaseClient.class)
-					values.put(
-							WordUtils.toSQLName(column.getName()),
-							column.get(this) != null ? String.valueOf(((DatabaseClient) column
-									.get(this))._id) : "0");
-				else
-					values.put(WordUtils.toSQLName(column.getName()),
-							String.valueOf(column.get(this)));
-			} catch (IllegalAccessException e) {
-				throw new DBException(e.getLocalizedMessage());
+	public <T extends DatabaseClient> int insertAll(Collection<T> entities) throws DBException {
+		return writeAll(entities, false);
+	}
+
+	/**
+	 * Inserts, or with <code>save</code> saves, entities in a single
+	 * transaction with statements compiled once per entity class.
+	 */
+	private <T extends DatabaseClient> int writeAll(Collection<T> entities, boolean save)
+			throws DBException {
+		if (m_Database == null)
+			throw new DBException("Set database first");
+		long[] ids = new long[entities.size()];
+		HashMap<Class<?>, SQLiteStatement[]> statements = new HashMap<Class<?>, SQLiteStatement[]>();
+		SQLiteStatement changes = null;
+		m_Database.beginTransaction();
+		try {
+			int i = 0;
+			for (T entity : entities) {
+				EntityMapper mapper = EntityMapper.forClass(entity.getClass());
+				SQLiteStatement[] compiled = statements.get(entity.getClass());
+				if (compiled == null) {
+					compiled = new SQLiteStatement[EntityMapper.STATEMENT_COUNT];
+					statements.put(entity.getClass(), compiled);
+				}
+				long id = entity._id;
+				boolean updated = false;
+				if (save && id > 0 && entity.m_LoadedFields != null) {
+					// loaded by a projection: only the loaded columns are written
+					ContentValues values = mapper.toContentValues(entity, false);
+					updated = values.size() == 0
+							|| m_Database.update(mapper.tableName, values, "_id = ?",
+									new String[] { String.valueOf(id) }) > 0;
+				} else if (save && id > 0) {
+					if (compiled[EntityMapper.UPDATE] == null) {
+						compiled[EntityMapper.UPDATE] = m_Database.compileStatement(mapper.updateSQL());
+					}
+					mapper.bindUpdate(compiled[EntityMapper.UPDATE], entity);
+					compiled[EntityMapper.UPDATE].execute();
+					if (changes == null) {
+						changes = m_Database.compileStatement("SELECT changes()");
+					}
+					updated = changes.simpleQueryForLong() > 0;
+				}
+				if (!updated && save && entity.m_LoadedFields != null) {
+					id = m_Database.insert(mapper.tableName, mapper.toContentValues(entity, true));
+					if (id == -1)
+						throw new DBException("Could not insert into " + mapper.tableName);
+				} else if (!updated) {
+					boolean withID = id > 0;
+					int slot = withID ? EntityMapper.INSERT_WITH_ID : EntityMapper.INSERT;
+					if (compiled[slot] == null) {
+						compiled[slot] = m_Database.compileStatement(mapper.insertSQL(withID));
+					}
+					mapper.bind(compiled[slot], entity, withID);
+					id = compiled[slot].executeInsert();
+				}
+				ids[i++] = id;
+			}
+			m_Database.setTransactionSuccessful();
+		} catch (SQLException e) {
+			throw new DBException(e.getLocalizedMessage());
+		} finally {
+			for (SQLiteStatement[] compiled : statements.values()) {
+				for (SQLiteStatement statement : compiled) {
+					if (statement != null)
+						statement.close();
+				}
 			}
+			if (changes != null)
+				changes.close();
+			m_Database.endTransaction();
 		}
-		_id = m_Database.insert(getTableName(), values);
-		if (-1 != _id)
-			m_NeedsInsert = false;
 
-		return _id;
+		int i = 0;
+		for (T entity : entities) {
+			entity._id = ids[i++];
+			entity.m_NeedsInsert = false;
+			entity.m_Database = m_Database;
+			if (entity.m_LoadedFields == null)
+				m_Database.entities.set(entity);
+		}
+		return ids.length;
 	}
 
 	/**
@@ -607,11 +797,28 @@ public class DatabaseClient {
 			r = insert();
 		else
 			r = update();
-		s_EntitiesMap.set(this);
+		if (m_LoadedFields == null)
+			m_Database.entities.set(this);
 
 		return r;
 	}
 
+	/**
+	 * Saves entities to the database in a single transaction, as
+	 * {@link #save()} does for each of them. Entities with an id update the
+	 * row with that id, so the row is not deleted and its delete triggers and
+	 * cascades do not run; if there is no such row they are inserted with
+	 * their id. New entities are inserted. Entities loaded with only some of
+	 * their columns write only those columns, as {@link #update()} does.
+	 * 
+	 * @return The number of entities saved
+	 * @throws DBException
+	 * @see #insertAll(Collection)
+	 */
+	public <T extends DatabaseClient> int saveAll(Collection<T> entities) throws DBException {
+		return writeAll(entities, true);
+	}
+
 	/**
 	 * Call this once at application launch, sets the database to use for
 	 * AREntities.
@@ -630,24 +837,7 @@ public class DatabaseClient {
 	 * @throws NoSuchFieldException
 	 */
 	public int update() throws DBException {
-		List<Field> columns = getColumnFieldsWithoutID();
-		ContentValues values = new ContentValues(columns.size());
-		for (Field column : columns) {
-			try {
-				if (column.getType().getSuperclass() == DatabaseClient.class)
-					values.put(
-							WordUtils.toSQLName(column.getName()),
-							column.get(this) != null ? String.valueOf(((DatabaseClient) column
-									.get(this))._id) : "0");
-				else
-					values.put(WordUtils.toSQLName(column.getName()),
-							String.valueOf(column.get(this)));
-			} catch (IllegalArgumentException e) {
-				throw new DBException("No column " + column.getName());
-			} catch (IllegalAccessException e) {
-				throw new DBException("No column " + column.getName());
-			}
-		}
+		ContentValues values = EntityMapper.forClass(getClass()).toContentValues(this, false);
 		int r = m_Database.update(getTableName(), values, "_id = ?",
 				new String[] { String.valueOf(_id) });
 		return r;
@@ -11,35 +11,84 @@
 package com.madrobot.db.orm;
 
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.WeakHashMap;
 
 /**
- * 
+ * Identity map of the entities loaded from one {@link Database}.
+ * <p>
+ * Loading a row that is already in the map returns the same entity instance.
+ * Entities are held weakly, and the map keeps at most <code>capacity</code>
+ * entries, dropping the least recently used.
+ * </p>
  */
 class EntitiesMap {
-	WeakHashMap<DatabaseClient, String> _map = new WeakHashMap<DatabaseClient, String>();
-	private Map<String, WeakReference<DatabaseClient>> map = new HashMap<String, WeakReference<DatabaseClient>>();
+
+	static final int DEFAULT_CAPACITY = 4096;
+
+	private static final class Key {
+		final Class<?> type;
+		final long id;
+
+		Key(Class<?> type, long id) {
+			this.type = type;
+			this.id = id;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return id == other.id && type == other.type;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * type.hashCode() + (int) (id ^ (id >>> 32));
+		}
+	}
+
+	private final LinkedHashMap<Key, WeakReference<DatabaseClient>> map;
+
+	EntitiesMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	EntitiesMap(final int capacity) {
+		map = new LinkedHashMap<Key, WeakReference<DatabaseClient>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Key, WeakReference<DatabaseClient>> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
 
 	@SuppressWarnings("unchecked")
-	<T extends DatabaseClient> T get(Class<T> c, long id) {
-		String key = makeKey(c, id);
+	synchronized <T extends DatabaseClient> T get(Class<T> c, long id) {
+		Key key = new Key(c, id);
 		WeakReference<DatabaseClient> i = map.get(key);
 		if (i == null)
 			return null;
-		return (T) i.get();
+		DatabaseClient entity = i.get();
+		if (entity == null)
+			map.remove(key);
+		return (T) entity;
 	}
 
-	@SuppressWarnings("unchecked")
-	private String makeKey(Class entityType, long id) {
-		StringBuilder sb = new StringBuilder();
-		sb.append(entityType.getName()).append(id);
-		return sb.toString();
+	synchronized void set(DatabaseClient e) {
+		map.put(new Key(e.getClass(), e.getID()), new WeakReference<DatabaseClient>(e));
+	}
+
+	synchronized void remove(Class<?> c, long id) {
+		map.remove(new Key(c, id));
 	}
 
-	void set(DatabaseClient e) {
-		String key = makeKey(e.getClass(), e.getID());
-		map.put(key, new WeakReference<DatabaseClient>(e));
+	synchronized void clear() {
+		map.clear();
 	}
 }
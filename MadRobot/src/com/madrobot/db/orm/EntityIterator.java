@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.db.orm;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.madrobot.db.DBException;
+
+/**
+ * Iterates over the entities matching a query, reading them a window at a
+ * time.
+ * <p>
+ * Each window is a page from
+ * {@link DatabaseClient#findPage(Class, String[], String, String[], long, int)}
+ * , starting after the last id of the previous window. Entities already
+ * returned are released, so only one window is held in memory.
+ * </p>
+ * 
+ * <pre>
+ * EntityIterator&lt;Order&gt; orders = client.iterateAll(Order.class, 200);
+ * while (orders.hasNext()) {
+ * 	Order order = orders.next();
+ * 	...
+ * }
+ * </pre>
+ * 
+ * @param <T>
+ *            type of the entities
+ * @see DatabaseClient#iterate(Class, String[], String, String[], int)
+ */
+public final class EntityIterator<T extends DatabaseClient> {
+
+	private final DatabaseClient client;
+	private final Class<T> type;
+	private final String[] columns;
+	private final String whereClause;
+	private final String[] whereArgs;
+	private final int windowSize;
+
+	private List<T> window = Collections.emptyList();
+	private int position;
+	private long windowEnd;
+	private long lastID;
+	private boolean done;
+
+	EntityIterator(DatabaseClient client, Class<T> type, String[] columns, String whereClause,
+			String[] whereArgs, int windowSize) {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException("Window size must be positive");
+		}
+		this.client = client;
+		this.type = type;
+		this.columns = columns;
+		this.whereClause = whereClause;
+		this.whereArgs = whereArgs;
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Returns true if there is another entity, reading the next window if
+	 * needed.
+	 */
+	public boolean hasNext() throws DBException {
+		if (position < window.size()) {
+			return true;
+		}
+		if (done) {
+			return false;
+		}
+		window = client.findPage(type, columns, whereClause, whereArgs, windowEnd, windowSize);
+		position = 0;
+		if (window.size() < windowSize) {
+			done = true;
+		}
+		if (window.isEmpty()) {
+			return false;
+		}
+		windowEnd = window.get(window.size() - 1).getID();
+		return true;
+	}
+
+	/**
+	 * Returns the next entity.
+	 * 
+	 * @throws NoSuchElementException
+	 *             if there are no more entities
+	 */
+	public T next() throws DBException {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		T entity = window.get(position);
+		window.set(position++, null);
+		lastID = entity.getID();
+		return entity;
+	}
+
+	/**
+	 * Returns the id of the last entity returned, which can be passed to
+	 * {@link DatabaseClient#findPage(Class, String[], String, String[], long, int)}
+	 * to continue from there later.
+	 */
+	public long getLastID() {
+		return lastID;
+	}
+}
@@ -0,0 +1,582 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.db.orm;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+import com.madrobot.db.DBException;
+import com.madrobot.text.WordUtils;
+import com.madrobot.util.collections.LongObjectMap;
+
+/**
+ * Column mapping of an entity class, worked out once per class.
+ * <p>
+ * The column fields, their SQL names and their types are resolved when the
+ * mapper is created. Reading a cursor resolves the column indexes once with
+ * {@link #columnIndexes(Cursor)}, and each row is then read with the typed
+ * cursor getters. Referenced entities are collected in {@link References} and
+ * loaded for all rows together. Writing binds the typed values to a
+ * {@link ContentValues} or to a compiled {@link SQLiteStatement}.
+ * </p>
+ * <p>
+ * Booleans are stored as <code>"true"</code>/<code>"false"</code>,
+ * timestamps as milliseconds and a missing entity reference as id 0, as
+ * {@link DatabaseClient} always read them.
+ * </p>
+ */
+final class EntityMapper {
+
+	private static final int TYPE_LONG = 0;
+	private static final int TYPE_INT = 1;
+	private static final int TYPE_SHORT = 2;
+	private static final int TYPE_DOUBLE = 3;
+	private static final int TYPE_FLOAT = 4;
+	private static final int TYPE_BOOLEAN = 5;
+	private static final int TYPE_STRING = 6;
+	private static final int TYPE_BLOB = 7;
+	private static final int TYPE_TIMESTAMP = 8;
+	private static final int TYPE_ENTITY = 9;
+	private static final int TYPE_LAZY = 10;
+
+	/**
+	 * Largest number of ids in one <code>IN</code> query, below the SQLite
+	 * limit of 999 arguments
+	 */
+	private static final int MAX_IN_IDS = 500;
+
+	/**
+	 * Column index of a field that is not in the cursor
+	 */
+	static final int NO_COLUMN = -1;
+
+	/**
+	 * Indexes of the statements {@link DatabaseClient} compiles for each entity
+	 * class when it writes entities in a batch
+	 */
+	static final int INSERT = 0, INSERT_WITH_ID = 1, UPDATE = 2, STATEMENT_COUNT = 3;
+
+	private static final ConcurrentHashMap<Class<?>, EntityMapper> mappers = new ConcurrentHashMap<Class<?>, EntityMapper>();
+
+	/**
+	 * Returns the mapper for <code>type</code>, creating it on first use.
+	 */
+	static EntityMapper forClass(Class<? extends DatabaseClient> type) throws DBException {
+		EntityMapper mapper = mappers.get(type);
+		if (mapper == null) {
+			DatabaseClient prototype;
+			try {
+				prototype = type.newInstance();
+			} catch (IllegalAccessException e) {
+				throw new DBException(e.getLocalizedMessage());
+			} catch (InstantiationException e) {
+				throw new DBException(e.getLocalizedMessage());
+			}
+			mapper = new EntityMapper(prototype);
+			EntityMapper existing = mappers.putIfAbsent(type, mapper);
+			if (existing != null) {
+				mapper = existing;
+			}
+		}
+		return mapper;
+	}
+
+	final String tableName;
+	/**
+	 * Column fields, the <code>_id</code> field last
+	 */
+	private final Field[] fields;
+	private final String[] columns;
+	private final int[] types;
+	/**
+	 * Entity type of the entity and lazy entity fields
+	 */
+	private final Class<? extends DatabaseClient>[] referencedTypes;
+	/**
+	 * Number of fields excluding <code>_id</code>
+	 */
+	private final int valueCount;
+
+	@SuppressWarnings("unchecked")
+	private EntityMapper(DatabaseClient prototype) throws DBException {
+		tableName = prototype.getTableName();
+		List<Field> withoutID = prototype.getColumnFieldsWithoutID();
+		List<Field> all = prototype.getColumnFields();
+		valueCount = withoutID.size();
+		fields = new Field[all.size()];
+		for (int i = 0; i < valueCount; i++) {
+			fields[i] = withoutID.get(i);
+		}
+		int next = valueCount;
+		for (Field field : all) {
+			if (!withoutID.contains(field)) {
+				fields[next++] = field;
+			}
+		}
+		columns = new String[fields.length];
+		types = new int[fields.length];
+		referencedTypes = new Class[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			fields[i].setAccessible(true);
+			columns[i] = WordUtils.toSQLName(fields[i].getName());
+			types[i] = typeOf(fields[i]);
+			if (types[i] == TYPE_ENTITY) {
+				referencedTypes[i] = (Class<? extends DatabaseClient>) fields[i].getType();
+			} else if (types[i] == TYPE_LAZY) {
+				referencedTypes[i] = lazyEntityType(fields[i]);
+			}
+		}
+	}
+
+	private static int typeOf(Field field) throws DBException {
+		Class<?> type = field.getType();
+		if (type == long.class) {
+			return TYPE_LONG;
+		} else if (type == int.class) {
+			return TYPE_INT;
+		} else if (type == short.class) {
+			return TYPE_SHORT;
+		} else if (type == double.class) {
+			return TYPE_DOUBLE;
+		} else if (type == float.class) {
+			return TYPE_FLOAT;
+		} else if (type == boolean.class) {
+			return TYPE_BOOLEAN;
+		} else if (type == String.class) {
+			return TYPE_STRING;
+		} else if (type == byte[].class) {
+			return TYPE_BLOB;
+		} else if (type == Timestamp.class) {
+			return TYPE_TIMESTAMP;
+		} else if (type.getSuperclass() == DatabaseClient.class) {
+			return TYPE_ENTITY;
+		} else if (type == LazyEntity.class) {
+			return TYPE_LAZY;
+		}
+		throw new DBException("Class cannot be read from Sqlite3 database: " + type.getName());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<? extends DatabaseClient> lazyEntityType(Field field)
+			throws DBException {
+		Type type = field.getGenericType();
+		if (type instanceof ParameterizedType) {
+			Type argument = ((ParameterizedType) type).getActualTypeArguments()[0];
+			if (argument instanceof Class
+					&& DatabaseClient.class.isAssignableFrom((Class<?>) argument)) {
+				return (Class<? extends DatabaseClient>) argument;
+			}
+		}
+		throw new DBException("Entity type of " + field.getName() + " is not declared");
+	}
+
+	/**
+	 * Returns the index in <code>cursor</code> of each column field, or
+	 * {@link #NO_COLUMN} for fields the cursor does not have.
+	 */
+	int[] columnIndexes(Cursor cursor) {
+		int[] indexes = new int[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			indexes[i] = cursor.getColumnIndex(columns[i]);
+		}
+		return indexes;
+	}
+
+	/**
+	 * Returns which fields have a column in a cursor, or null if all of them
+	 * have.
+	 * 
+	 * @param indexes
+	 *            the column indexes from {@link #columnIndexes(Cursor)}
+	 */
+	boolean[] loadedFields(int[] indexes) {
+		boolean[] loaded = null;
+		for (int i = 0; i < indexes.length; i++) {
+			if (indexes[i] == NO_COLUMN) {
+				if (loaded == null) {
+					loaded = new boolean[indexes.length];
+					for (int j = 0; j < indexes.length; j++) {
+						loaded[j] = indexes[j] != NO_COLUMN;
+					}
+				}
+				break;
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Sets the fields of <code>entity</code> from the current row of
+	 * <code>cursor</code>. Fields that refer to other entities are added to
+	 * <code>references</code>, to be loaded for all rows at once.
+	 * 
+	 * @param indexes
+	 *            the column indexes from {@link #columnIndexes(Cursor)}
+	 */
+	void inflate(DatabaseClient entity, Cursor cursor, int[] indexes, Database database,
+			References references) throws DBException {
+		try {
+			for (int i = 0; i < fields.length; i++) {
+				int index = indexes[i];
+				if (index == NO_COLUMN) {
+					continue;
+				}
+				Field field = fields[i];
+				switch (types[i]) {
+				case TYPE_LONG:
+					field.setLong(entity, cursor.getLong(index));
+					break;
+				case TYPE_INT:
+					field.setInt(entity, cursor.getInt(index));
+					break;
+				case TYPE_SHORT:
+					field.setShort(entity, cursor.getShort(index));
+					break;
+				case TYPE_DOUBLE:
+					field.setDouble(entity, cursor.getDouble(index));
+					break;
+				case TYPE_FLOAT:
+					field.setFloat(entity, cursor.getFloat(index));
+					break;
+				case TYPE_BOOLEAN:
+					String flag = cursor.getString(index);
+					field.setBoolean(entity, "true".equals(flag) || "1".equals(flag));
+					break;
+				case TYPE_STRING:
+					String value = cursor.getString(index);
+					field.set(entity, "null".equals(value) ? null : value);
+					break;
+				case TYPE_BLOB:
+					field.set(entity, cursor.isNull(index) ? null : cursor.getBlob(index));
+					break;
+				case TYPE_TIMESTAMP:
+					field.set(entity, cursor.isNull(index) ? null : new Timestamp(cursor
+							.getLong(index)));
+					break;
+				case TYPE_ENTITY:
+					long id = cursor.getLong(index);
+					if (id > 0) {
+						references.add(referencedTypes[i], id, entity, field);
+					} else {
+						field.set(entity, null);
+					}
+					break;
+				case TYPE_LAZY:
+					long lazyID = cursor.getLong(index);
+					field.set(entity, lazyID > 0 ? newLazyEntity(database, referencedTypes[i],
+							lazyID) : null);
+					break;
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			throw new DBException(e.getLocalizedMessage());
+		} catch (IllegalAccessException e) {
+			throw new DBException(e.getLocalizedMessage());
+		}
+	}
+
+	private static <T extends DatabaseClient> LazyEntity<T> newLazyEntity(Database database,
+			Class<T> type, long id) {
+		return new LazyEntity<T>(database, type, id);
+	}
+
+	/**
+	 * Returns the column values of <code>entity</code>. Only the columns that
+	 * were loaded are included for an entity loaded with a projection.
+	 *
+	 * @param withID
+	 *            true to include the <code>_id</code> column
+	 */
+	ContentValues toContentValues(DatabaseClient entity, boolean withID) throws DBException {
+		int count = withID ? fields.length : valueCount;
+		boolean[] loaded = entity.m_LoadedFields;
+		ContentValues values = new ContentValues(count);
+		try {
+			for (int i = 0; i < count; i++) {
+				if (loaded != null && !loaded[i]) {
+					continue;
+				}
+				Object value = fields[i].get(entity);
+				String column = columns[i];
+				if (value == null) {
+					if (types[i] == TYPE_ENTITY || types[i] == TYPE_LAZY) {
+						values.put(column, 0L);
+					} else {
+						values.putNull(column);
+					}
+					continue;
+				}
+				switch (types[i]) {
+				case TYPE_LONG:
+					values.put(column, (Long) value);
+					break;
+				case TYPE_INT:
+					values.put(column, (Integer) value);
+					break;
+				case TYPE_SHORT:
+					values.put(column, (Short) value);
+					break;
+				case TYPE_DOUBLE:
+					values.put(column, (Double) value);
+					break;
+				case TYPE_FLOAT:
+					values.put(column, (Float) value);
+					break;
+				case TYPE_BOOLEAN:
+				case TYPE_STRING:
+					values.put(column, value.toString());
+					break;
+				case TYPE_BLOB:
+					values.put(column, (byte[]) value);
+					break;
+				case TYPE_TIMESTAMP:
+					values.put(column, ((Timestamp) value).getTime());
+					break;
+				case TYPE_ENTITY:
+					values.put(column, ((DatabaseClient) value)._id);
+					break;
+				case TYPE_LAZY:
+					values.put(column, ((LazyEntity<?>) value).getID());
+					break;
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw new DBException(e.getLocalizedMessage());
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the insert statement for this entity's table.
+	 *
+	 * @param withID
+	 *            true to insert the <code>_id</code> column, replacing any row
+	 *            with the same id
+	 */
+	String insertSQL(boolean withID) {
+		int count = withID ? fields.length : valueCount;
+		StringBuilder sql = new StringBuilder(withID ? "INSERT OR REPLACE INTO "
+				: "INSERT INTO ").append(tableName);
+		if (count == 0) {
+			return sql.append(" DEFAULT VALUES").toString();
+		}
+		sql.append(" (");
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			sql.append(columns[i]);
+		}
+		sql.append(") VALUES (");
+		for (int i = 0; i < count; i++) {
+			sql.append(i > 0 ? ", ?" : "?");
+		}
+		return sql.append(')').toString();
+	}
+
+	/**
+	 * Returns the statement updating the row of an entity by its id. Its
+	 * arguments are bound by {@link #bindUpdate(SQLiteStatement, DatabaseClient)}.
+	 */
+	String updateSQL() {
+		StringBuilder sql = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+		if (valueCount == 0) {
+			sql.append("_id = _id");
+		}
+		for (int i = 0; i < valueCount; i++) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			sql.append(columns[i]).append(" = ?");
+		}
+		return sql.append(" WHERE _id = ?").toString();
+	}
+
+	/**
+	 * Binds the column values and the id of <code>entity</code> to a statement
+	 * compiled from {@link #updateSQL()}.
+	 */
+	void bindUpdate(SQLiteStatement statement, DatabaseClient entity) throws DBException {
+		bind(statement, entity, false);
+		statement.bindLong(valueCount + 1, entity._id);
+	}
+
+	/**
+	 * Binds the column values of <code>entity</code> to a statement compiled
+	 * from {@link #insertSQL(boolean)}. Every column is bound, so an entity
+	 * loaded with a projection is rejected; its other columns would be reset.
+	 */
+	void bind(SQLiteStatement statement, DatabaseClient entity, boolean withID)
+			throws DBException {
+		if (entity.m_LoadedFields != null) {
+			throw new DBException("Entity loaded with a projection cannot be written in full: "
+					+ entity.getClass().getName());
+		}
+		int count = withID ? fields.length : valueCount;
+		statement.clearBindings();
+		try {
+			for (int i = 0; i < count; i++) {
+				Field field = fields[i];
+				int index = i + 1;
+				switch (types[i]) {
+				case TYPE_LONG:
+					statement.bindLong(index, field.getLong(entity));
+					break;
+				case TYPE_INT:
+					statement.bindLong(index, field.getInt(entity));
+					break;
+				case TYPE_SHORT:
+					statement.bindLong(index, field.getShort(entity));
+					break;
+				case TYPE_DOUBLE:
+					statement.bindDouble(index, field.getDouble(entity));
+					break;
+				case TYPE_FLOAT:
+					statement.bindDouble(index, field.getFloat(entity));
+					break;
+				case TYPE_BOOLEAN:
+					statement.bindString(index, field.getBoolean(entity) ? "true" : "false");
+					break;
+				case TYPE_STRING:
+					String value = (String) field.get(entity);
+					if (value == null) {
+						statement.bindNull(index);
+					} else {
+						statement.bindString(index, value);
+					}
+					break;
+				case TYPE_BLOB:
+					byte[] blob = (byte[]) field.get(entity);
+					if (blob == null) {
+						statement.bindNull(index);
+					} else {
+						statement.bindBlob(index, blob);
+					}
+					break;
+				case TYPE_TIMESTAMP:
+					Timestamp time = (Timestamp) field.get(entity);
+					if (time == null) {
+						statement.bindNull(index);
+					} else {
+						statement.bindLong(index, time.getTime());
+					}
+					break;
+				case TYPE_ENTITY:
+					DatabaseClient reference = (DatabaseClient) field.get(entity);
+					statement.bindLong(index, reference == null ? 0 : reference._id);
+					break;
+				case TYPE_LAZY:
+					LazyEntity<?> lazy = (LazyEntity<?>) field.get(entity);
+					statement.bindLong(index, lazy == null ? 0 : lazy.getID());
+					break;
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw new DBException(e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Entity fields waiting to be loaded. The referenced entities are loaded
+	 * with one query per entity type, instead of one query per row.
+	 */
+	static final class References {
+
+		private final HashMap<Class<? extends DatabaseClient>, List<Reference>> byType = new HashMap<Class<? extends DatabaseClient>, List<Reference>>();
+
+		private static final class Reference {
+			final long id;
+			final DatabaseClient owner;
+			final Field field;
+
+			Reference(long id, DatabaseClient owner, Field field) {
+				this.id = id;
+				this.owner = owner;
+				this.field = field;
+			}
+		}
+
+		void add(Class<? extends DatabaseClient> type, long id, DatabaseClient owner, Field field) {
+			List<Reference> references = byType.get(type);
+			if (references == null) {
+				references = new ArrayList<Reference>();
+				byType.put(type, references);
+			}
+			references.add(new Reference(id, owner, field));
+		}
+
+		/**
+		 * Loads the referenced entities that are not in the entities map and
+		 * sets the waiting fields. A field whose entity no longer exists is set
+		 * to null.
+		 */
+		void resolve(DatabaseClient client) throws DBException {
+			if (byType.isEmpty()) {
+				return;
+			}
+			EntitiesMap entities = client.m_Database.entities;
+			for (Map.Entry<Class<? extends DatabaseClient>, List<Reference>> entry : byType
+					.entrySet()) {
+				Class<? extends DatabaseClient> type = entry.getKey();
+				List<Reference> references = entry.getValue();
+
+				LongObjectMap<DatabaseClient> loaded = new LongObjectMap<DatabaseClient>(
+						references.size());
+				List<String> missing = new ArrayList<String>();
+				for (Reference reference : references) {
+					if (!loaded.containsKey(reference.id)) {
+						DatabaseClient entity = entities.get(type, reference.id);
+						loaded.put(reference.id, entity);
+						if (entity == null) {
+							missing.add(String.valueOf(reference.id));
+						}
+					}
+				}
+				for (int start = 0; start < missing.size(); start += MAX_IN_IDS) {
+					List<String> ids = missing.subList(start,
+							Math.min(start + MAX_IN_IDS, missing.size()));
+					for (DatabaseClient entity : client.find(type, inClause(ids.size()),
+							ids.toArray(new String[ids.size()]))) {
+						loaded.put(entity._id, entity);
+					}
+				}
+
+				try {
+					for (Reference reference : references) {
+						reference.field.set(reference.owner, loaded.get(reference.id));
+					}
+				} catch (IllegalAccessException e) {
+					throw new DBException(e.getLocalizedMessage());
+				}
+			}
+			byType.clear();
+		}
+
+		private static String inClause(int count) {
+			StringBuilder sb = new StringBuilder(count * 3 + 10).append("_id IN (?");
+			for (int i = 1; i < count; i++) {
+				sb.append(",?");
+			}
+			return sb.append(')').toString();
+		}
+	}
+}
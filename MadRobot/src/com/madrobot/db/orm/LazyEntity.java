@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.db.orm;
+
+import com.madrobot.db.DBException;
+
+/**
+ * Reference to another entity that is loaded the first time it is used.
+ * <p>
+ * A field of an entity type is loaded together with the entity that holds it.
+ * Declaring the field as a <code>LazyEntity</code> instead stores the same
+ * column, but defers the query until {@link #get()} is called:
+ * 
+ * <pre>
+ * public class Order extends DatabaseClient {
+ * 	public LazyEntity&lt;Customer&gt; customer;
+ * 	...
+ * }
+ * 
+ * Customer customer = order.customer.get();
+ * order.customer = new LazyEntity&lt;Customer&gt;(otherCustomer);
+ * </pre>
+ * 
+ * </p>
+ * 
+ * @param <T>
+ *            type of the referenced entity
+ */
+public final class LazyEntity<T extends DatabaseClient> {
+
+	private final Class<T> type;
+	private final long id;
+	private Database database;
+	private T entity;
+
+	/**
+	 * Creates a reference to an entity. The entity must be saved before the
+	 * entity holding the reference is saved.
+	 */
+	@SuppressWarnings("unchecked")
+	public LazyEntity(T entity) {
+		this.type = (Class<T>) entity.getClass();
+		this.id = 0;
+		this.entity = entity;
+	}
+
+	LazyEntity(Database database, Class<T> type, long id) {
+		this.type = type;
+		this.id = id;
+		this.database = database;
+	}
+
+	/**
+	 * Returns the id of the referenced entity.
+	 */
+	public long getID() {
+		return entity != null ? entity.getID() : id;
+	}
+
+	/**
+	 * Returns true if the referenced entity has been loaded.
+	 */
+	public synchronized boolean isLoaded() {
+		return entity != null;
+	}
+
+	/**
+	 * Returns the referenced entity, loading it on first use.
+	 * 
+	 * @return the entity, or null if it no longer exists
+	 * @throws DBException
+	 */
+	public synchronized T get() throws DBException {
+		if (entity == null) {
+			entity = DatabaseClient.createInstance(database).findByID(type, id);
+			if (entity != null) {
+				database = null;
+			}
+		}
+		return entity;
+	}
+}
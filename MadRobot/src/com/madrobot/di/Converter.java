@@ -37,6 +37,14 @@ public final class Converter {
 
 	private static Map<Class<?>, Integer> clzTypeKeyMap = new HashMap<Class<?>, Integer>();
 
+	/** Date formats of this thread by field, and under null for no field */
+	private static final ThreadLocal<Map<Field, SimpleDateFormat>> dateFormats = new ThreadLocal<Map<Field, SimpleDateFormat>>() {
+		@Override
+		protected Map<Field, SimpleDateFormat> initialValue() {
+			return new HashMap<Field, SimpleDateFormat>();
+		}
+	};
+
 	private static final int TYPE_BOOLEAN = 8;
 	private static final int TYPE_CHAR = 5;
 	private static final int TYPE_DATE = 9;
@@ -201,53 +209,152 @@ public final class Converter {
 		return clzTypeKeyMap.containsKey(clz);
 	}
 
-	public static void storeValue(final JSONObject jsonObject, final String key, Object value,
-			final Field field) throws JSONException {
-
-		Class<?> classType = field.getType();
-
-		if (clzTypeKeyMap.containsKey(classType)) {
-			final int code = clzTypeKeyMap.get(classType);
+	/**
+	 * Converts the text of a JSON value to the type of <code>field</code>,
+	 * applying its {@link BooleanFormat} and
+	 * {@link com.madrobot.di.json.annotation.DateFormat} annotations. Numbers
+	 * with a fraction are truncated for integer types; numbers out of the
+	 * range of the type fail the conversion.
+	 * 
+	 * @param raw
+	 *            Text of a JSON string, number or boolean
+	 * @param clz
+	 *            Target type to be converted to
+	 * @param field
+	 *            Field the value is converted for, or null if there is none
+	 * @return Converted value, or null if the conversion failed
+	 */
+	public static Object convertTo(final String raw, final Class<?> clz, final Field field) {
+		Integer code = clzTypeKeyMap.get(clz);
+		if (code == null) {
+			return null;
+		}
+		try {
 			switch (code) {
-			case TYPE_STRING:
 			case TYPE_SHORT:
+				return (short) parseLong(raw, Short.MIN_VALUE, Short.MAX_VALUE);
 			case TYPE_INT:
+				return (int) parseLong(raw, Integer.MIN_VALUE, Integer.MAX_VALUE);
 			case TYPE_LONG:
-			case TYPE_CHAR:
-			case TYPE_FLOAT:
-			case TYPE_DOUBLE:
-				break;
+				return parseLong(raw, Long.MIN_VALUE, Long.MAX_VALUE);
 			case TYPE_BOOLEAN:
-				Boolean userValue = (Boolean) value;
-				if (field.isAnnotationPresent(BooleanFormat.class)) {
+				if (field != null && field.isAnnotationPresent(BooleanFormat.class)) {
 					BooleanFormat formatAnnotation = field.getAnnotation(BooleanFormat.class);
 					String trueFormat = formatAnnotation.trueFormat();
 					String falseFormat = formatAnnotation.falseFormat();
-					if (userValue) {
-						value = trueFormat;
-					} else {
-						value = falseFormat;
+					if (trueFormat.equals(raw)) {
+						return true;
+					} else if (falseFormat.equals(raw)) {
+						return false;
 					}
-				} else {
-					value = userValue;
+					Log.e(JSONDeserializer.TAG, "Expecting " + trueFormat + " / " + falseFormat
+							+ " but its " + raw);
+					return null;
 				}
-				break;
+				return Boolean.parseBoolean(raw);
 			case TYPE_DATE:
-				Date date = (Date) value;
-				SimpleDateFormat simpleDateFormat = null;
-				if (field
-						.isAnnotationPresent(com.madrobot.di.json.annotation.DateFormat.class)) {
-					com.madrobot.di.json.annotation.DateFormat formatAnnotation = field
-							.getAnnotation(com.madrobot.di.json.annotation.DateFormat.class);
-					String dateFormat = formatAnnotation.format();
-					simpleDateFormat = new SimpleDateFormat(dateFormat);
+				return dateFormat(field).parse(raw);
+			default:
+				return convertTo(raw, clz);
+			}
+		} catch (NumberFormatException e) {
+			Log.e(JSONDeserializer.TAG, e.getMessage());
+		} catch (ParseException e) {
+			Log.e(JSONDeserializer.TAG, e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Parses an integer, truncating a fraction.
+	 * 
+	 * @throws NumberFormatException
+	 *             if <code>raw</code> is not a number, or is out of the range
+	 *             from <code>min</code> to <code>max</code>
+	 */
+	private static long parseLong(final String raw, final long min, final long max) {
+		long value;
+		try {
+			value = Long.parseLong(raw);
+		} catch (NumberFormatException e) {
+			double number = Double.parseDouble(raw);
+			double truncated = number < 0 ? Math.ceil(number) : Math.floor(number);
+			// max + 1.0 is exact for long too, where max itself rounds up
+			if (Double.isNaN(truncated) || truncated < min || truncated >= max + 1.0) {
+				throw new NumberFormatException("Value out of range: " + raw);
+			}
+			value = (long) truncated;
+		}
+		if (value < min || value > max) {
+			throw new NumberFormatException("Value out of range: " + raw);
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the value to store in JSON for the value of <code>field</code>,
+	 * applying its {@link BooleanFormat} and
+	 * {@link com.madrobot.di.json.annotation.DateFormat} annotations.
+	 * 
+	 * @return the formatted value, or <code>value</code> itself if it needs no
+	 *         formatting
+	 */
+	public static Object formatValue(Object value, final Field field) {
+		Integer code = clzTypeKeyMap.get(field.getType());
+		if (code == null) {
+			return value;
+		}
+		switch (code) {
+		case TYPE_BOOLEAN:
+			Boolean userValue = (Boolean) value;
+			if (field.isAnnotationPresent(BooleanFormat.class)) {
+				BooleanFormat formatAnnotation = field.getAnnotation(BooleanFormat.class);
+				String trueFormat = formatAnnotation.trueFormat();
+				String falseFormat = formatAnnotation.falseFormat();
+				if (userValue) {
+					value = trueFormat;
 				} else {
-					simpleDateFormat = new SimpleDateFormat();
+					value = falseFormat;
 				}
-				value = simpleDateFormat.format(date);
-				break;
+			} else {
+				value = userValue;
 			}
-			jsonObject.put(key, value);
+			break;
+		case TYPE_DATE:
+			value = dateFormat(field).format((Date) value);
+			break;
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the format of the dates of <code>field</code>, used both to
+	 * write and to read them: the pattern of its
+	 * {@link com.madrobot.di.json.annotation.DateFormat} annotation, or the
+	 * default {@link SimpleDateFormat} pattern. Formats are not thread-safe,
+	 * so each thread creates its own, once per field.
+	 */
+	private static SimpleDateFormat dateFormat(final Field field) {
+		Map<Field, SimpleDateFormat> formats = dateFormats.get();
+		SimpleDateFormat format = formats.get(field);
+		if (format == null) {
+			if (field != null
+					&& field.isAnnotationPresent(com.madrobot.di.json.annotation.DateFormat.class)) {
+				com.madrobot.di.json.annotation.DateFormat formatAnnotation = field
+						.getAnnotation(com.madrobot.di.json.annotation.DateFormat.class);
+				format = new SimpleDateFormat(formatAnnotation.format());
+			} else {
+				format = new SimpleDateFormat();
+			}
+			formats.put(field, format);
+		}
+		return format;
+	}
+
+	public static void storeValue(final JSONObject jsonObject, final String key, Object value,
+			final Field field) throws JSONException {
+		if (clzTypeKeyMap.containsKey(field.getType())) {
+			jsonObject.put(key, formatValue(value, field));
 		}
 	}
 
@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright (c) 2012 MadRobot.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the GNU Lesser Public License v2.1
+ *  which accompanies this distribution, and is available at
+ *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ *  Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.di.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+/**
+ * Reads CSV records into objects of a class.
+ * <p>
+ * Each column is bound to the field of the same name, ignoring case and any
+ * <code>_</code>, <code>-</code> or space. The fields of a class are looked up
+ * once and the columns are matched to them once per reader, so reading a
+ * record only parses its fields and sets them. Numbers are parsed from the
+ * tokenizer's buffer, and primitive fields are set without boxing. Columns
+ * with no field are skipped.
+ * </p>
+ * <p>
+ * Fields may be strings, primitives and their wrappers, {@link java.util.Date}
+ * and enums. An empty field leaves a primitive field at its default and sets
+ * other fields to null, except strings, which are set to the empty string.
+ * </p>
+ *
+ * <pre>
+ * CSVBeanReader&lt;Trade&gt; reader = new CSVBeanReader&lt;Trade&gt;(new CSVTokenizer(in), Trade.class);
+ * Trade trade;
+ * while ((trade = reader.read()) != null) {
+ * 	...
+ * }
+ * reader.close();
+ * </pre>
+ *
+ * @param <T>
+ *            type of the objects
+ */
+public final class CSVBeanReader<T> implements Closeable {
+
+	private final CSVTokenizer tokenizer;
+	private final Class<T> type;
+	private final CSVBinding binding;
+	private final String[] header;
+	/** Columns with a field, in column order */
+	private final int[] columns;
+	/** Field index of each entry of columns */
+	private final int[] targets;
+	private SimpleDateFormat dateFormat = new SimpleDateFormat(CSVWriter.DEFAULT_DATE_FORMAT);
+
+	/**
+	 * Constructs CSVBeanReader reading the column names from the first record.
+	 *
+	 * @throws IOException
+	 *             if the header cannot be read
+	 */
+	public CSVBeanReader(CSVTokenizer tokenizer, Class<T> type) throws IOException {
+		this(tokenizer, type, tokenizer.nextRecord() ? tokenizer.getFields() : new String[0]);
+	}
+
+	/**
+	 * Constructs CSVBeanReader with supplied column names, for records with no
+	 * header.
+	 */
+	public CSVBeanReader(CSVTokenizer tokenizer, Class<T> type, String[] header) {
+		this.tokenizer = tokenizer;
+		this.type = type;
+		this.binding = CSVBinding.forClass(type);
+		this.header = header;
+		int[] columns = new int[header.length];
+		int[] targets = new int[header.length];
+		int count = 0;
+		for (int i = 0; i < header.length; i++) {
+			int target = binding.indexOf(header[i].trim());
+			if (target >= 0) {
+				columns[count] = i;
+				targets[count++] = target;
+			}
+		}
+		this.columns = new int[count];
+		this.targets = new int[count];
+		System.arraycopy(columns, 0, this.columns, 0, count);
+		System.arraycopy(targets, 0, this.targets, 0, count);
+	}
+
+	/**
+	 * Returns the column names.
+	 */
+	public String[] getHeader() {
+		return header.clone();
+	}
+
+	/**
+	 * Sets the {@link SimpleDateFormat} pattern of date fields. The default is
+	 * {@link CSVWriter#DEFAULT_DATE_FORMAT}.
+	 */
+	public void setDateFormat(String pattern) {
+		dateFormat = new SimpleDateFormat(pattern);
+	}
+
+	/**
+	 * Reads the next record into a new object.
+	 *
+	 * @return the object, or null if there are no more records
+	 * @throws IOException
+	 *             if the record cannot be read, or has a value that cannot be
+	 *             converted to the type of its field
+	 */
+	public T read() throws IOException {
+		if (!tokenizer.nextRecord()) {
+			return null;
+		}
+		T bean = type.cast(binding.newInstance());
+		int fieldCount = tokenizer.getFieldCount();
+		for (int i = 0; i < columns.length; i++) {
+			int column = columns[i];
+			if (column >= fieldCount) {
+				break;
+			}
+			try {
+				set(bean, targets[i], column);
+			} catch (RuntimeException e) {
+				throw invalid(column, e);
+			} catch (ParseException e) {
+				throw invalid(column, e);
+			}
+		}
+		return bean;
+	}
+
+	private IOException invalid(int column, Exception cause) {
+		IOException e = new IOException("Invalid " + header[column] + " in record "
+				+ tokenizer.getRecordNumber() + ": " + tokenizer.getField(column));
+		e.initCause(cause);
+		return e;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void set(Object bean, int target, int column) throws ParseException {
+		Field field = binding.fields[target];
+		CSVTokenizer t = tokenizer;
+		int kind = binding.kinds[target];
+		try {
+			if (kind == CSVBinding.KIND_STRING) {
+				field.set(bean, t.getField(column));
+			} else if (t.isEmpty(column)) {
+				if (!binding.primitive[target]) {
+					field.set(bean, null);
+				}
+			} else if (binding.primitive[target]) {
+				switch (kind) {
+				case CSVBinding.KIND_INT:
+					field.setInt(bean, t.getInt(column));
+					break;
+				case CSVBinding.KIND_LONG:
+					field.setLong(bean, t.getLong(column));
+					break;
+				case CSVBinding.KIND_DOUBLE:
+					field.setDouble(bean, t.getDouble(column));
+					break;
+				case CSVBinding.KIND_FLOAT:
+					field.setFloat(bean, (float) t.getDouble(column));
+					break;
+				case CSVBinding.KIND_SHORT:
+					field.setShort(bean, (short) checkRange(t.getInt(column), Short.MIN_VALUE,
+							Short.MAX_VALUE));
+					break;
+				case CSVBinding.KIND_BYTE:
+					field.setByte(bean, (byte) checkRange(t.getInt(column), Byte.MIN_VALUE,
+							Byte.MAX_VALUE));
+					break;
+				case CSVBinding.KIND_BOOLEAN:
+					field.setBoolean(bean, isTrue(column));
+					break;
+				case CSVBinding.KIND_CHAR:
+					field.setChar(bean, t.getBuffer()[t.getFieldStart(column)]);
+					break;
+				}
+			} else {
+				Object value;
+				switch (kind) {
+				case CSVBinding.KIND_INT:
+					value = Integer.valueOf(t.getInt(column));
+					break;
+				case CSVBinding.KIND_LONG:
+					value = Long.valueOf(t.getLong(column));
+					break;
+				case CSVBinding.KIND_DOUBLE:
+					value = Double.valueOf(t.getDouble(column));
+					break;
+				case CSVBinding.KIND_FLOAT:
+					value = Float.valueOf((float) t.getDouble(column));
+					break;
+				case CSVBinding.KIND_SHORT:
+					value = Short.valueOf((short) checkRange(t.getInt(column), Short.MIN_VALUE,
+							Short.MAX_VALUE));
+					break;
+				case CSVBinding.KIND_BYTE:
+					value = Byte.valueOf((byte) checkRange(t.getInt(column), Byte.MIN_VALUE,
+							Byte.MAX_VALUE));
+					break;
+				case CSVBinding.KIND_BOOLEAN:
+					value = Boolean.valueOf(isTrue(column));
+					break;
+				case CSVBinding.KIND_CHAR:
+					value = Character.valueOf(t.getBuffer()[t.getFieldStart(column)]);
+					break;
+				case CSVBinding.KIND_DATE:
+					value = dateFormat.parse(t.getField(column));
+					break;
+				default:
+					value = Enum.valueOf((Class) field.getType(), t.getField(column).trim());
+					break;
+				}
+				field.set(bean, value);
+			}
+		} catch (IllegalAccessException e) {
+			// the fields are made accessible by the binding
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static int checkRange(int value, int min, int max) {
+		if (value < min || value > max) {
+			throw new NumberFormatException("Value out of range: " + value);
+		}
+		return value;
+	}
+
+	/**
+	 * Returns true if a field is <code>true</code>, in any case, or
+	 * <code>1</code>.
+	 */
+	private boolean isTrue(int column) {
+		char[] buffer = tokenizer.getBuffer();
+		int start = tokenizer.getFieldStart(column);
+		int length = tokenizer.getFieldLength(column);
+		if (length == 1) {
+			return buffer[start] == '1';
+		}
+		if (length != 4) {
+			return false;
+		}
+		return (buffer[start] == 't' || buffer[start] == 'T')
+				&& (buffer[start + 1] == 'r' || buffer[start + 1] == 'R')
+				&& (buffer[start + 2] == 'u' || buffer[start + 2] == 'U')
+				&& (buffer[start + 3] == 'e' || buffer[start + 3] == 'E');
+	}
+
+	/**
+	 * Closes the tokenizer.
+	 */
+	@Override
+	public void close() throws IOException {
+		tokenizer.close();
+	}
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2012 MadRobot.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the GNU Lesser Public License v2.1
+ *  which accompanies this distribution, and is available at
+ *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ *  Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.di.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * Writes objects of a class as CSV records.
+ * <p>
+ * The columns are bound to fields as by {@link CSVBeanReader}, once per writer.
+ * Each field is written with the {@link CSVWriter} field method of its type,
+ * so primitive fields are read without boxing and numbers and dates are
+ * formatted straight into the writer's buffer. Strings, characters and enums
+ * are quoted; numbers, booleans and dates are not. A null field is written as
+ * an empty field.
+ * </p>
+ *
+ * <pre>
+ * CSVBeanWriter&lt;Trade&gt; writer = new CSVBeanWriter&lt;Trade&gt;(new CSVWriter(out), Trade.class);
+ * writer.writeHeader();
+ * writer.writeAll(trades);
+ * writer.close();
+ * </pre>
+ *
+ * @param <T>
+ *            type of the objects
+ */
+public final class CSVBeanWriter<T> implements Closeable {
+
+	private final CSVWriter writer;
+	private final CSVBinding binding;
+	private final String[] header;
+	/** Field index of each column, -1 for columns with no field */
+	private final int[] targets;
+
+	/**
+	 * Constructs CSVBeanWriter writing every bound field, in declaration
+	 * order.
+	 */
+	public CSVBeanWriter(CSVWriter writer, Class<T> type) {
+		this(writer, type, CSVBinding.forClass(type).getNames());
+	}
+
+	/**
+	 * Constructs CSVBeanWriter writing the fields bound to the supplied
+	 * columns. Columns with no field are written empty.
+	 */
+	public CSVBeanWriter(CSVWriter writer, Class<T> type, String[] header) {
+		this.writer = writer;
+		this.binding = CSVBinding.forClass(type);
+		this.header = header.clone();
+		this.targets = new int[header.length];
+		for (int i = 0; i < header.length; i++) {
+			targets[i] = binding.indexOf(header[i]);
+		}
+	}
+
+	/**
+	 * Writes the column names as a record.
+	 */
+	public void writeHeader() {
+		writer.writeNext(header);
+	}
+
+	/**
+	 * Writes an object as a record.
+	 */
+	public void write(T bean) {
+		try {
+			for (int target : targets) {
+				if (target < 0) {
+					writer.writeField((String) null);
+				} else {
+					writeField(bean, target);
+				}
+			}
+		} catch (IllegalAccessException e) {
+			// the fields are made accessible by the binding
+			throw new IllegalStateException(e);
+		}
+		writer.endRecord();
+	}
+
+	/**
+	 * Writes each object as a record.
+	 */
+	public void writeAll(Collection<? extends T> beans) {
+		for (T bean : beans) {
+			write(bean);
+		}
+	}
+
+	private void writeField(Object bean, int target) throws IllegalAccessException {
+		Field field = binding.fields[target];
+		int kind = binding.kinds[target];
+		if (binding.primitive[target]) {
+			switch (kind) {
+			case CSVBinding.KIND_INT:
+				writer.writeField(field.getInt(bean));
+				break;
+			case CSVBinding.KIND_LONG:
+				writer.writeField(field.getLong(bean));
+				break;
+			case CSVBinding.KIND_DOUBLE:
+				writer.writeField(field.getDouble(bean));
+				break;
+			case CSVBinding.KIND_FLOAT:
+				writer.writeField(field.getFloat(bean));
+				break;
+			case CSVBinding.KIND_SHORT:
+				writer.writeField(field.getShort(bean));
+				break;
+			case CSVBinding.KIND_BYTE:
+				writer.writeField(field.getByte(bean));
+				break;
+			case CSVBinding.KIND_BOOLEAN:
+				writer.writeField(field.getBoolean(bean));
+				break;
+			default:
+				writer.writeField(String.valueOf(field.getChar(bean)));
+				break;
+			}
+			return;
+		}
+		Object value = field.get(bean);
+		if (value == null) {
+			writer.writeField((String) null);
+			return;
+		}
+		switch (kind) {
+		case CSVBinding.KIND_INT:
+		case CSVBinding.KIND_LONG:
+		case CSVBinding.KIND_SHORT:
+		case CSVBinding.KIND_BYTE:
+			writer.writeField(((Number) value).longValue());
+			break;
+		case CSVBinding.KIND_DOUBLE:
+			writer.writeField(((Double) value).doubleValue());
+			break;
+		case CSVBinding.KIND_FLOAT:
+			writer.writeField(((Float) value).floatValue());
+			break;
+		case CSVBinding.KIND_BOOLEAN:
+			writer.writeField(((Boolean) value).booleanValue());
+			break;
+		case CSVBinding.KIND_DATE:
+			writer.writeDate(((Date) value).getTime());
+			break;
+		case CSVBinding.KIND_ENUM:
+			writer.writeField(((Enum<?>) value).name());
+			break;
+		default:
+			writer.writeField(value.toString());
+			break;
+		}
+	}
+
+	/**
+	 * Flushes the writer.
+	 */
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	/**
+	 * Closes the writer.
+	 */
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
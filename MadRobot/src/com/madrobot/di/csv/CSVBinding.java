@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2012 MadRobot.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the GNU Lesser Public License v2.1
+ *  which accompanies this distribution, and is available at
+ *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ *  Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.di.csv;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How the fields of a class are bound to CSV columns.
+ * <p>
+ * The bindable fields of a class and their value kinds are looked up once, the
+ * first time the class is bound, and reused by every reader and writer of the
+ * class after that. A column is matched to a field by name, ignoring case and
+ * any <code>_</code>, <code>-</code> or space, so that the column
+ * <code>ORDER_ID</code> binds to the field <code>orderId</code>. Fields that
+ * are static, transient or of a type with no CSV form are not bound.
+ * </p>
+ */
+final class CSVBinding {
+
+	static final int KIND_STRING = 0;
+	static final int KIND_INT = 1;
+	static final int KIND_LONG = 2;
+	static final int KIND_DOUBLE = 3;
+	static final int KIND_FLOAT = 4;
+	static final int KIND_SHORT = 5;
+	static final int KIND_BYTE = 6;
+	static final int KIND_BOOLEAN = 7;
+	static final int KIND_CHAR = 8;
+	static final int KIND_DATE = 9;
+	static final int KIND_ENUM = 10;
+
+	private static final ConcurrentHashMap<Class<?>, CSVBinding> bindings = new ConcurrentHashMap<Class<?>, CSVBinding>();
+
+	/**
+	 * Returns the binding of <code>type</code>, creating it the first time.
+	 */
+	static CSVBinding forClass(Class<?> type) {
+		CSVBinding binding = bindings.get(type);
+		if (binding == null) {
+			binding = new CSVBinding(type);
+			CSVBinding existing = bindings.putIfAbsent(type, binding);
+			if (existing != null) {
+				binding = existing;
+			}
+		}
+		return binding;
+	}
+
+	/**
+	 * Returns the value kind of <code>type</code>, or -1 if it has no CSV form.
+	 */
+	static int kindOf(Class<?> type) {
+		if (type == String.class) {
+			return KIND_STRING;
+		} else if (type == int.class || type == Integer.class) {
+			return KIND_INT;
+		} else if (type == long.class || type == Long.class) {
+			return KIND_LONG;
+		} else if (type == double.class || type == Double.class) {
+			return KIND_DOUBLE;
+		} else if (type == float.class || type == Float.class) {
+			return KIND_FLOAT;
+		} else if (type == short.class || type == Short.class) {
+			return KIND_SHORT;
+		} else if (type == byte.class || type == Byte.class) {
+			return KIND_BYTE;
+		} else if (type == boolean.class || type == Boolean.class) {
+			return KIND_BOOLEAN;
+		} else if (type == char.class || type == Character.class) {
+			return KIND_CHAR;
+		} else if (type == Date.class) {
+			return KIND_DATE;
+		} else if (type.isEnum()) {
+			return KIND_ENUM;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the name a column or field is matched by.
+	 */
+	static String normalize(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c != '_' && c != '-' && c != ' ') {
+				sb.append(Character.toLowerCase(c));
+			}
+		}
+		return sb.toString();
+	}
+
+	final Class<?> type;
+	/** Bound fields, in declaration order, superclass fields first */
+	final Field[] fields;
+	/** Value kind of each field */
+	final int[] kinds;
+	/** Whether each field is of a primitive type */
+	final boolean[] primitive;
+	private final Constructor<?> constructor;
+	/** Field indexes by normalized name */
+	private final HashMap<String, Integer> byName = new HashMap<String, Integer>();
+
+	private CSVBinding(Class<?> type) {
+		this.type = type;
+		List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+			hierarchy.add(0, c);
+		}
+		List<Field> bound = new ArrayList<Field>();
+		for (Class<?> c : hierarchy) {
+			for (Field field : c.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)
+						|| field.isSynthetic() || kindOf(field.getType()) < 0) {
+					continue;
+				}
+				field.setAccessible(true);
+				bound.add(field);
+			}
+		}
+		fields = bound.toArray(new Field[bound.size()]);
+		kinds = new int[fields.length];
+		primitive = new boolean[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			kinds[i] = kindOf(fields[i].getType());
+			primitive[i] = fields[i].getType().isPrimitive();
+			byName.put(normalize(fields[i].getName()), i);
+		}
+
+		Constructor<?> found = null;
+		try {
+			found = type.getDeclaredConstructor();
+			found.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			// beans of the class can be written but not read
+		}
+		constructor = found;
+	}
+
+	/**
+	 * Returns the index of the field bound to <code>column</code>, or -1 if no
+	 * field is.
+	 */
+	int indexOf(String column) {
+		Integer index = byName.get(normalize(column));
+		return index == null ? -1 : index.intValue();
+	}
+
+	/**
+	 * Returns the names of the bound fields.
+	 */
+	String[] getNames() {
+		String[] names = new String[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			names[i] = fields[i].getName();
+		}
+		return names;
+	}
+
+	/**
+	 * Creates an instance of the class with its no-argument constructor.
+	 *
+	 * @throws IllegalStateException
+	 *             if the class cannot be instantiated
+	 */
+	Object newInstance() {
+		if (constructor == null) {
+			throw new IllegalStateException(type.getName() + " has no no-argument constructor");
+		}
+		try {
+			return constructor.newInstance();
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot instantiate " + type.getName(), e);
+		}
+	}
+}
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright (c) 2012 MadRobot.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the GNU Lesser Public License v2.1
+ *  which accompanies this distribution, and is available at
+ *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ *  Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.di.csv;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+
+/**
+ * The columns of a CSV source, each read into an array of its type.
+ * <p>
+ * Numeric columns are read into <code>int[]</code>, <code>long[]</code> or
+ * <code>double[]</code> arrays, parsed from the tokenizer's buffer, so no
+ * object is created per value. This takes far less memory than a list of
+ * objects or string arrays and suits sources that are aggregated by column.
+ * </p>
+ *
+ * <pre>
+ * CSVColumns columns = CSVColumns.read(new CSVTokenizer(in), true, new Class&lt;?&gt;[] { long.class,
+ * 		String.class, double.class });
+ * long[] ids = columns.getLongs(0);
+ * double[] prices = columns.getDoubles(2);
+ * </pre>
+ */
+public final class CSVColumns {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final String[] header;
+	private final Class<?>[] types;
+	private final Object[] columns;
+	private int rowCount;
+
+	private CSVColumns(String[] header, Class<?>[] types) {
+		this.header = header;
+		this.types = types.clone();
+		this.columns = new Object[types.length];
+		for (int i = 0; i < types.length; i++) {
+			columns[i] = newColumn(types[i], INITIAL_CAPACITY);
+		}
+	}
+
+	/**
+	 * Reads all remaining records of <code>tokenizer</code>.
+	 *
+	 * @param hasHeader
+	 *            true if the first record has the column names
+	 * @param types
+	 *            the type of each column: <code>int.class</code>,
+	 *            <code>long.class</code>, <code>double.class</code>,
+	 *            <code>boolean.class</code> or <code>String.class</code>, or
+	 *            null to skip the column. Empty numeric fields are read as 0.
+	 * @throws IOException
+	 *             if the source cannot be read or a field is not of its
+	 *             column's type
+	 * @throws IllegalArgumentException
+	 *             if a type is not supported
+	 */
+	public static CSVColumns read(CSVTokenizer tokenizer, boolean hasHeader, Class<?>[] types)
+			throws IOException {
+		String[] header = null;
+		if (hasHeader && tokenizer.nextRecord()) {
+			header = tokenizer.getFields();
+		}
+		CSVColumns result = new CSVColumns(header, types);
+		while (tokenizer.nextRecord()) {
+			result.add(tokenizer);
+		}
+		result.trim();
+		return result;
+	}
+
+	private static Object newColumn(Class<?> type, int capacity) {
+		if (type == null) {
+			return null;
+		} else if (type == int.class) {
+			return new int[capacity];
+		} else if (type == long.class) {
+			return new long[capacity];
+		} else if (type == double.class) {
+			return new double[capacity];
+		} else if (type == boolean.class) {
+			return new boolean[capacity];
+		} else if (type == String.class) {
+			return new String[capacity];
+		}
+		throw new IllegalArgumentException("Unsupported column type " + type.getName());
+	}
+
+	private void add(CSVTokenizer tokenizer) throws IOException {
+		if (rowCount == capacity()) {
+			resize(rowCount * 2);
+		}
+		int fieldCount = tokenizer.getFieldCount();
+		for (int i = 0; i < types.length; i++) {
+			Class<?> type = types[i];
+			if (type == null || i >= fieldCount) {
+				continue;
+			}
+			boolean empty = tokenizer.isEmpty(i);
+			try {
+				if (type == int.class) {
+					((int[]) columns[i])[rowCount] = empty ? 0 : tokenizer.getInt(i);
+				} else if (type == long.class) {
+					((long[]) columns[i])[rowCount] = empty ? 0 : tokenizer.getLong(i);
+				} else if (type == double.class) {
+					((double[]) columns[i])[rowCount] = empty ? 0 : tokenizer.getDouble(i);
+				} else if (type == boolean.class) {
+					((boolean[]) columns[i])[rowCount] = tokenizer.fieldEquals(i, "true")
+							|| tokenizer.fieldEquals(i, "1");
+				} else {
+					((String[]) columns[i])[rowCount] = tokenizer.getField(i);
+				}
+			} catch (NumberFormatException e) {
+				IOException invalid = new IOException("Invalid " + type.getName() + " in record "
+						+ tokenizer.getRecordNumber() + ", column " + i + ": "
+						+ tokenizer.getField(i));
+				invalid.initCause(e);
+				throw invalid;
+			}
+		}
+		rowCount++;
+	}
+
+	private int capacity() {
+		for (Object column : columns) {
+			if (column != null) {
+				return Array.getLength(column);
+			}
+		}
+		// every column is skipped; only the rows are counted
+		return Integer.MAX_VALUE;
+	}
+
+	private void resize(int capacity) {
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i] != null) {
+				Object resized = newColumn(types[i], capacity);
+				System.arraycopy(columns[i], 0, resized, 0, rowCount);
+				columns[i] = resized;
+			}
+		}
+	}
+
+	private void trim() {
+		if (rowCount < capacity()) {
+			resize(rowCount);
+		}
+	}
+
+	/**
+	 * Returns the column names, or null if the source had no header.
+	 */
+	public String[] getHeader() {
+		return header == null ? null : header.clone();
+	}
+
+	/**
+	 * Returns the index of the column named <code>name</code>, or -1 if there
+	 * is no header or no such column.
+	 */
+	public int indexOf(String name) {
+		if (header != null) {
+			for (int i = 0; i < header.length; i++) {
+				if (header[i].equals(name)) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the number of records read.
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Returns the values of an <code>int</code> column. The array is not
+	 * copied.
+	 */
+	public int[] getInts(int column) {
+		return (int[]) getColumn(column, int.class);
+	}
+
+	/**
+	 * Returns the values of a <code>long</code> column. The array is not
+	 * copied.
+	 */
+	public long[] getLongs(int column) {
+		return (long[]) getColumn(column, long.class);
+	}
+
+	/**
+	 * Returns the values of a <code>double</code> column. The array is not
+	 * copied.
+	 */
+	public double[] getDoubles(int column) {
+		return (double[]) getColumn(column, double.class);
+	}
+
+	/**
+	 * Returns the values of a <code>boolean</code> column. The array is not
+	 * copied.
+	 */
+	public boolean[] getBooleans(int column) {
+		return (boolean[]) getColumn(column, boolean.class);
+	}
+
+	/**
+	 * Returns the values of a <code>String</code> column. The array is not
+	 * copied.
+	 */
+	public String[] getStrings(int column) {
+		return (String[]) getColumn(column, String.class);
+	}
+
+	private Object getColumn(int column, Class<?> type) {
+		if (types[column] != type) {
+			throw new IllegalArgumentException("Column " + column + " is not read as "
+					+ type.getName());
+		}
+		return columns[column];
+	}
+}
@@ -0,0 +1,487 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.di.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits CSV text into records and fields without creating a string per
+ * field.
+ * <p>
+ * The text is read into a reusable character buffer. {@link #nextRecord()}
+ * finds the next record in the buffer and unescapes its fields in place; each
+ * field is then a view of the buffer, given by {@link #getBuffer()},
+ * {@link #getFieldStart(int)} and {@link #getFieldLength(int)}. Fields are
+ * turned into strings or numbers only when asked for, and numbers are parsed
+ * straight from the buffer. The views are valid until the next call to
+ * {@link #nextRecord()}.
+ * </p>
+ * <p>
+ * Records end at <code>\n</code>, <code>\r\n</code> or <code>\r</code>
+ * outside quotes. Inside quotes, a doubled quote or an escaped quote stands for
+ * a quote and line breaks are part of the field. White space in front of an
+ * opening quote is dropped.
+ * </p>
+ *
+ * <pre>
+ * CSVTokenizer tokenizer = new CSVTokenizer(reader);
+ * while (tokenizer.nextRecord()) {
+ * 	long id = tokenizer.getLong(0);
+ * 	if (tokenizer.fieldEquals(1, &quot;active&quot;)) {
+ * 		String name = tokenizer.getField(2);
+ * 		...
+ * 	}
+ * }
+ * </pre>
+ *
+ * @see ParallelCSVReader
+ */
+public final class CSVTokenizer implements Closeable {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Largest power of ten that is an exact double
+	 */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7,
+			1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21,
+			1e22 };
+
+	private final Reader reader;
+	private final char separator;
+	/**
+	 * Quote and escape characters, -1 for none
+	 */
+	private final int quotechar;
+	private final int escape;
+
+	private char[] buffer;
+	/**
+	 * End of the characters read into the buffer
+	 */
+	private int limit;
+	/**
+	 * Start of the next record
+	 */
+	private int position;
+	private boolean eof;
+
+	private int fieldCount;
+	private int[] fieldStarts = new int[16];
+	private int[] fieldLengths = new int[16];
+	private long recordNumber;
+
+	/**
+	 * Constructs CSVTokenizer using a comma for the separator.
+	 */
+	public CSVTokenizer(Reader reader) {
+		this(reader, CSVParser.DEFAULT_SEPARATOR, CSVParser.DEFAULT_QUOTE_CHARACTER,
+				CSVParser.DEFAULT_ESCAPE_CHARACTER, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructs CSVTokenizer with supplied separator, quote char and escape
+	 * char.
+	 *
+	 * @param reader
+	 *            the reader to an underlying CSV source.
+	 * @param separator
+	 *            the delimiter to use for separating entries
+	 * @param quotechar
+	 *            the character to use for quoted elements, or
+	 *            {@link CSVParser#NULL_CHARACTER} for none
+	 * @param escape
+	 *            the character to use for escaping a quote, or
+	 *            {@link CSVParser#NULL_CHARACTER} for none
+	 * @param bufferSize
+	 *            the initial size of the character buffer. The buffer grows
+	 *            if a record does not fit.
+	 */
+	public CSVTokenizer(Reader reader, char separator, char quotechar, char escape,
+			int bufferSize) {
+		if (separator == CSVParser.NULL_CHARACTER) {
+			throw new UnsupportedOperationException("The separator character must be defined!");
+		}
+		if (separator == quotechar || separator == escape
+				|| (quotechar != CSVParser.NULL_CHARACTER && quotechar == escape)) {
+			throw new UnsupportedOperationException(
+					"The separator, quote, and escape characters must be different!");
+		}
+		this.reader = reader;
+		this.separator = separator;
+		this.quotechar = quotechar == CSVParser.NULL_CHARACTER ? -1 : quotechar;
+		this.escape = escape == CSVParser.NULL_CHARACTER ? -1 : escape;
+		this.buffer = new char[Math.max(bufferSize, 16)];
+	}
+
+	/**
+	 * Moves to the next record.
+	 *
+	 * @return false if there are no more records
+	 * @throws IOException
+	 *             if the underlying reader fails, or a quoted field is not
+	 *             closed before the end of the text
+	 */
+	public boolean nextRecord() throws IOException {
+		fieldCount = 0;
+		int end = findRecordEnd();
+		if (end < 0) {
+			return false;
+		}
+		int start = position;
+		int next = end;
+		if (next < limit && buffer[next] == '\r') {
+			next++;
+		}
+		if (next < limit && buffer[next] == '\n') {
+			next++;
+		}
+		position = next;
+		splitFields(start, end);
+		recordNumber++;
+		return true;
+	}
+
+	/**
+	 * Returns the end of the record starting at {@link #position}, reading
+	 * more text as needed, or -1 if there are no more records.
+	 */
+	private int findRecordEnd() throws IOException {
+		int scan = position;
+		boolean inQuotes = false;
+		while (true) {
+			while (scan < limit) {
+				char c = buffer[scan];
+				if (inQuotes) {
+					if (c == escape) {
+						if (scan + 1 == limit && !eof) {
+							// never split an escape from the character it escapes
+							break;
+						}
+						if (scan + 1 < limit
+								&& (buffer[scan + 1] == quotechar || buffer[scan + 1] == escape)) {
+							scan += 2;
+							continue;
+						}
+					}
+					if (c == quotechar) {
+						inQuotes = false;
+					}
+				} else if (c == '\n' || c == '\r') {
+					// a \r\n split across reads is completed before returning
+					if (c == '\r' && scan + 1 == limit && !eof) {
+						break;
+					}
+					return scan;
+				} else if (c == quotechar) {
+					inQuotes = true;
+				}
+				scan++;
+			}
+			if (eof) {
+				if (inQuotes) {
+					throw new IOException("Un-terminated quoted field at end of CSV record "
+							+ (recordNumber + 1));
+				}
+				return scan > position ? scan : -1;
+			}
+			// keep the part of the record scanned so far and read more
+			int shift = position;
+			if (shift == 0 && limit == buffer.length) {
+				char[] grown = new char[buffer.length * 2];
+				System.arraycopy(buffer, 0, grown, 0, limit);
+				buffer = grown;
+			} else if (shift > 0) {
+				System.arraycopy(buffer, shift, buffer, 0, limit - shift);
+				limit -= shift;
+				position = 0;
+				scan -= shift;
+			}
+			int read = reader.read(buffer, limit, buffer.length - limit);
+			if (read < 0) {
+				eof = true;
+			} else {
+				limit += read;
+			}
+		}
+	}
+
+	/**
+	 * Splits the record in <code>[start, end)</code> into fields, unescaping
+	 * them in place.
+	 */
+	private void splitFields(int start, int end) {
+		int write = start;
+		int fieldStart = start;
+		boolean inQuotes = false;
+		boolean onlyWhiteSpace = true;
+		int read = start;
+		while (read < end) {
+			char c = buffer[read++];
+			if (inQuotes) {
+				if (c == escape && read < end
+						&& (buffer[read] == quotechar || buffer[read] == escape)) {
+					buffer[write++] = buffer[read++];
+				} else if (c == quotechar) {
+					if (read < end && buffer[read] == quotechar) {
+						buffer[write++] = c;
+						read++;
+					} else {
+						inQuotes = false;
+					}
+				} else {
+					buffer[write++] = c;
+				}
+			} else if (c == separator) {
+				addField(fieldStart, write - fieldStart);
+				fieldStart = write;
+				onlyWhiteSpace = true;
+			} else if (c == quotechar) {
+				if (onlyWhiteSpace) {
+					write = fieldStart;
+				}
+				inQuotes = true;
+				onlyWhiteSpace = false;
+			} else {
+				if (onlyWhiteSpace && !Character.isWhitespace(c)) {
+					onlyWhiteSpace = false;
+				}
+				buffer[write++] = c;
+			}
+		}
+		addField(fieldStart, write - fieldStart);
+	}
+
+	private void addField(int start, int length) {
+		if (fieldCount == fieldStarts.length) {
+			int[] starts = new int[fieldCount * 2];
+			System.arraycopy(fieldStarts, 0, starts, 0, fieldCount);
+			fieldStarts = starts;
+			int[] lengths = new int[fieldCount * 2];
+			System.arraycopy(fieldLengths, 0, lengths, 0, fieldCount);
+			fieldLengths = lengths;
+		}
+		fieldStarts[fieldCount] = start;
+		fieldLengths[fieldCount] = length;
+		fieldCount++;
+	}
+
+	/**
+	 * Returns the number of fields in the current record. An empty line is a
+	 * record with one empty field.
+	 */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * Returns the number of records read so far, which is the number of the
+	 * current record counting from 1.
+	 */
+	public long getRecordNumber() {
+		return recordNumber;
+	}
+
+	/**
+	 * Returns the buffer holding the fields of the current record. The buffer
+	 * must not be modified.
+	 */
+	public char[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Returns the offset in {@link #getBuffer()} of a field.
+	 */
+	public int getFieldStart(int field) {
+		checkField(field);
+		return fieldStarts[field];
+	}
+
+	/**
+	 * Returns the length of a field.
+	 */
+	public int getFieldLength(int field) {
+		checkField(field);
+		return fieldLengths[field];
+	}
+
+	/**
+	 * Returns a field as a new string.
+	 */
+	public String getField(int field) {
+		checkField(field);
+		return new String(buffer, fieldStarts[field], fieldLengths[field]);
+	}
+
+	/**
+	 * Returns all fields of the current record as new strings, as
+	 * {@link CSVReader#readNext()} does.
+	 */
+	public String[] getFields() {
+		String[] fields = new String[fieldCount];
+		for (int i = 0; i < fieldCount; i++) {
+			fields[i] = new String(buffer, fieldStarts[i], fieldLengths[i]);
+		}
+		return fields;
+	}
+
+	/**
+	 * Appends a field to <code>sb</code>.
+	 */
+	public StringBuilder appendField(int field, StringBuilder sb) {
+		checkField(field);
+		return sb.append(buffer, fieldStarts[field], fieldLengths[field]);
+	}
+
+	/**
+	 * Returns true if a field has the same characters as <code>value</code>.
+	 */
+	public boolean fieldEquals(int field, CharSequence value) {
+		checkField(field);
+		int length = fieldLengths[field];
+		if (value.length() != length) {
+			return false;
+		}
+		int start = fieldStarts[field];
+		for (int i = 0; i < length; i++) {
+			if (buffer[start + i] != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if a field is empty.
+	 */
+	public boolean isEmpty(int field) {
+		checkField(field);
+		return fieldLengths[field] == 0;
+	}
+
+	/**
+	 * Parses a field as an int.
+	 *
+	 * @throws NumberFormatException
+	 *             if the field is not an int
+	 */
+	public int getInt(int field) {
+		long value = getLong(field);
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new NumberFormatException("Invalid int: " + getField(field));
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Parses a field as a long. Surrounding white space is ignored.
+	 *
+	 * @throws NumberFormatException
+	 *             if the field is not a long
+	 */
+	public long getLong(int field) {
+		checkField(field);
+		int i = fieldStarts[field];
+		int end = i + fieldLengths[field];
+		while (i < end && buffer[i] <= ' ') {
+			i++;
+		}
+		while (end > i && buffer[end - 1] <= ' ') {
+			end--;
+		}
+		boolean negative = false;
+		if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+			negative = buffer[i] == '-';
+			i++;
+		}
+		if (i == end) {
+			throw new NumberFormatException("Invalid long: " + getField(field));
+		}
+		// accumulated negatively, so that Long.MIN_VALUE fits
+		long value = 0;
+		long min = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		for (; i < end; i++) {
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9 || value < (min + digit) / 10) {
+				throw new NumberFormatException("Invalid long: " + getField(field));
+			}
+			value = value * 10 - digit;
+		}
+		return negative ? value : -value;
+	}
+
+	/**
+	 * Parses a field as a double. Plain decimals of up to 15 digits are parsed
+	 * from the buffer, other forms with {@link Double#parseDouble(String)}.
+	 *
+	 * @throws NumberFormatException
+	 *             if the field is not a number
+	 */
+	public double getDouble(int field) {
+		checkField(field);
+		int i = fieldStarts[field];
+		int end = i + fieldLengths[field];
+		while (i < end && buffer[i] <= ' ') {
+			i++;
+		}
+		while (end > i && buffer[end - 1] <= ' ') {
+			end--;
+		}
+		boolean negative = false;
+		if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+			negative = buffer[i] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int scale = -1;
+		boolean simple = i < end;
+		for (; i < end && simple; i++) {
+			char c = buffer[i];
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				if (mantissa > 0) {
+					digits++;
+				}
+				if (scale >= 0) {
+					scale++;
+				}
+			} else if (c == '.' && scale < 0) {
+				scale = 0;
+			} else {
+				simple = false;
+			}
+		}
+		if (simple && digits <= 15 && scale != 0 && scale < POWERS_OF_TEN.length) {
+			// both values are exact, so the division is correctly rounded
+			double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+			return negative ? -value : value;
+		}
+		return Double.parseDouble(getField(field).trim());
+	}
+
+	private void checkField(int field) {
+		if (field < 0 || field >= fieldCount) {
+			throw new IndexOutOfBoundsException("Field " + field + " of " + fieldCount);
+		}
+	}
+
+	/**
+	 * Closes the underlying reader.
+	 */
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
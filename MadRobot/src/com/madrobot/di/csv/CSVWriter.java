@@ -17,10 +17,33 @@ import java.io.PrintWriter;
 import java.io.Writer;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
 
 /**
  * A very simple CSV writer released under a commercial-friendly license.
+ * <p>
+ * Records are written into a reusable buffer, which is passed to the writer
+ * when it is full or flushed. Besides whole records of strings, a record can be
+ * written a field at a time with {@link #writeField(long)},
+ * {@link #writeField(double)}, {@link #writeDate(long)} and the other field
+ * methods, followed by {@link #endRecord()}. Numbers and dates written this way
+ * are formatted straight into the buffer without creating objects.
+ * </p>
+ * 
+ * <pre>
+ * CSVWriter writer = new CSVWriter(out);
+ * for (Trade trade : trades) {
+ * 	writer.writeField(trade.id);
+ * 	writer.writeField(trade.symbol);
+ * 	writer.writeField(trade.price);
+ * 	writer.writeDate(trade.time);
+ * 	writer.endRecord();
+ * }
+ * writer.close();
+ * </pre>
  * 
  * @author Glen Smith
  * 
@@ -44,14 +67,44 @@ public class CSVWriter implements Closeable {
 
 	public static final int INITIAL_STRING_SIZE = 128;
 
+	/** Default size of the write buffer. */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/** Default pattern for dates written with {@link #writeDate(long)}. */
+	public static final String DEFAULT_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
 	/** The escape constant to use when you wish to suppress all escaping. */
 	public static final char NO_ESCAPE_CHARACTER = '\u0000';
 
 	/** The quote constant to use when you wish to suppress all quoting. */
 	public static final char NO_QUOTE_CHARACTER = '\u0000';
 
+	private static final int FRACTION_DIGITS = 9;
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7,
+			1e8, 1e9 };
+
+	private static final int FIELD_MARK = 0x10000000;
+
+	/** Largest long that converts to a double exactly, 2^53 */
+	private static final double MAX_EXACT_LONG = 9007199254740992.0;
+
+	private char[] buffer;
+
+	/**
+	 * Compiled date pattern: literal characters as themselves, fields as
+	 * <code>(FIELD_MARK | calendarField &lt;&lt; 8 | width)</code>
+	 */
+	private int[] datePattern;
+
+	private int position;
+
+	private Calendar calendar;
+
 	private char escapechar;
 
+	private int fieldsInRecord;
+
 	private String lineEnd;
 
 	private PrintWriter pw;
@@ -139,6 +192,8 @@ public class CSVWriter implements Closeable {
 		this.quotechar = quotechar;
 		this.escapechar = escapechar;
 		this.lineEnd = lineEnd;
+		this.buffer = new char[DEFAULT_BUFFER_SIZE];
+		setDateFormat(DEFAULT_DATE_FORMAT);
 	}
 
 	/**
@@ -161,6 +216,7 @@ public class CSVWriter implements Closeable {
 	 * Checks to see if the there has been an error in the printstream.
 	 */
 	public boolean checkError() {
+		flushBuffer();
 		return pw.checkError();
 	}
 
@@ -185,11 +241,51 @@ public class CSVWriter implements Closeable {
 	 *             if bad things happen
 	 */
 	public void flush() throws IOException {
-
+		flushBuffer();
 		pw.flush();
 
 	}
 
+	private void flushBuffer() {
+		if (position > 0) {
+			pw.write(buffer, 0, position);
+			position = 0;
+		}
+	}
+
+	/**
+	 * Makes room for <code>length</code> more characters in the buffer.
+	 */
+	private void reserve(int length) {
+		if (position + length > buffer.length) {
+			flushBuffer();
+			if (length > buffer.length) {
+				buffer = new char[Math.max(length, buffer.length * 2)];
+			}
+		}
+	}
+
+	private void append(char c) {
+		if (position == buffer.length) {
+			flushBuffer();
+		}
+		buffer[position++] = c;
+	}
+
+	private void append(String s) {
+		int length = s.length();
+		reserve(length);
+		s.getChars(0, length, buffer, position);
+		position += length;
+	}
+
+	private void append(StringBuilder s) {
+		int length = s.length();
+		reserve(length);
+		s.getChars(0, length, buffer, position);
+		position += length;
+	}
+
 	protected StringBuilder processLine(String nextElement) {
 		StringBuilder sb = new StringBuilder(INITIAL_STRING_SIZE);
 		for (int j = 0; j < nextElement.length(); j++) {
@@ -210,6 +306,90 @@ public class CSVWriter implements Closeable {
 		this.resultService = resultService;
 	}
 
+	/**
+	 * Sets the pattern for dates written with {@link #writeDate(long)}. The
+	 * pattern uses the letters of {@link java.text.SimpleDateFormat} for the
+	 * numeric fields only: <code>y</code>, <code>M</code>, <code>d</code>,
+	 * <code>H</code>, <code>m</code>, <code>s</code> and <code>S</code>. Other
+	 * characters, and text in single quotes, are written as they are.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the pattern has another letter, or a text field such as
+	 *             <code>MMM</code>
+	 */
+	public void setDateFormat(String pattern) {
+		int[] compiled = new int[pattern.length()];
+		int count = 0;
+		int length = pattern.length();
+		for (int i = 0; i < length;) {
+			char c = pattern.charAt(i);
+			if (c == '\'') {
+				int end = pattern.indexOf('\'', i + 1);
+				if (end < 0) {
+					throw new IllegalArgumentException("Unterminated quote in " + pattern);
+				}
+				if (end == i + 1) {
+					compiled[count++] = '\'';
+				}
+				for (int j = i + 1; j < end; j++) {
+					compiled[count++] = pattern.charAt(j);
+				}
+				i = end + 1;
+			} else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+				int end = i + 1;
+				while (end < length && pattern.charAt(end) == c) {
+					end++;
+				}
+				int field;
+				switch (c) {
+				case 'y':
+					field = Calendar.YEAR;
+					break;
+				case 'M':
+					if (end - i > 2) {
+						throw new IllegalArgumentException("Unsupported month name "
+								+ pattern.substring(i, end) + " in " + pattern);
+					}
+					field = Calendar.MONTH;
+					break;
+				case 'd':
+					field = Calendar.DAY_OF_MONTH;
+					break;
+				case 'H':
+					field = Calendar.HOUR_OF_DAY;
+					break;
+				case 'm':
+					field = Calendar.MINUTE;
+					break;
+				case 's':
+					field = Calendar.SECOND;
+					break;
+				case 'S':
+					field = Calendar.MILLISECOND;
+					break;
+				default:
+					throw new IllegalArgumentException("Unsupported letter " + c + " in "
+							+ pattern);
+				}
+				compiled[count++] = FIELD_MARK | field << 8 | (end - i);
+				i = end;
+			} else {
+				compiled[count++] = c;
+				i++;
+			}
+		}
+		datePattern = new int[count];
+		System.arraycopy(compiled, 0, datePattern, 0, count);
+	}
+
+	/**
+	 * Sets the time zone of dates written with {@link #writeDate(long)}. The
+	 * default time zone is used if none is set.
+	 */
+	public void setTimeZone(TimeZone zone) {
+		calendar = Calendar.getInstance(zone);
+	}
+
 	private boolean stringContainsSpecialCharacters(String line) {
 		return line.indexOf(quotechar) != -1 || line.indexOf(escapechar) != -1;
 	}
@@ -272,29 +452,195 @@ public class CSVWriter implements Closeable {
 		if (nextLine == null)
 			return;
 
-		StringBuilder sb = new StringBuilder(INITIAL_STRING_SIZE);
 		for (int i = 0; i < nextLine.length; i++) {
+			writeField(nextLine[i]);
+		}
+		endRecord();
 
-			if (i != 0) {
-				sb.append(separator);
+	}
+
+	private void beginField() {
+		if (fieldsInRecord++ > 0) {
+			append(separator);
+		}
+	}
+
+	/**
+	 * Writes a field of the current record, quoted as by
+	 * {@link #writeNext(String[])}. A value with quote or escape characters is
+	 * escaped by {@link #processLine(String)}. A null value is written as an
+	 * empty field.
+	 */
+	public void writeField(String value) {
+		beginField();
+		if (value == null)
+			return;
+		boolean quoted = quotechar != NO_QUOTE_CHARACTER;
+		if (quoted)
+			append(quotechar);
+		if (stringContainsSpecialCharacters(value)) {
+			append(processLine(value));
+		} else {
+			append(value);
+		}
+		if (quoted)
+			append(quotechar);
+	}
+
+	/**
+	 * Writes a field of the current record with no quotes.
+	 */
+	public void writeField(long value) {
+		beginField();
+		appendLong(value, 1);
+	}
+
+	/**
+	 * Writes a field of the current record with no quotes. Whole numbers are
+	 * written with no fraction. Values with up to nine fraction digits are
+	 * written without creating objects; other values, and infinities and NaN,
+	 * as by {@link Double#toString(double)}.
+	 */
+	public void writeField(double value) {
+		beginField();
+		if (!appendDecimal(value, false)) {
+			append(Double.toString(value));
+		}
+	}
+
+	/**
+	 * Writes a field of the current record with no quotes, as
+	 * {@link #writeField(double)} does but with the digits needed for a float.
+	 */
+	public void writeField(float value) {
+		beginField();
+		if (!appendDecimal(value, true)) {
+			append(Float.toString(value));
+		}
+	}
+
+	/**
+	 * Appends the shortest decimal with up to nine fraction digits that reads
+	 * back as <code>value</code>, as a float if <code>single</code>.
+	 * 
+	 * @return false if there is no such decimal
+	 */
+	private boolean appendDecimal(double value, boolean single) {
+		if (value == (long) value && value != Long.MIN_VALUE) {
+			appendLong((long) value, 1);
+			return true;
+		}
+		double magnitude = Math.abs(value);
+		if (!(magnitude < 1e9)) {
+			return false;
+		}
+		for (int scale = 1; scale <= FRACTION_DIGITS; scale++) {
+			double scaled = magnitude * POWERS_OF_TEN[scale];
+			if (scaled >= MAX_EXACT_LONG) {
+				return false;
 			}
+			long unscaled = (long) Math.rint(scaled);
+			double parsed = unscaled / POWERS_OF_TEN[scale];
+			// exact when dividing back gives the same value
+			if (single ? (float) parsed == (float) magnitude : parsed == magnitude) {
+				if (value < 0) {
+					append('-');
+				}
+				appendLong(unscaled / (long) POWERS_OF_TEN[scale], 1);
+				append('.');
+				appendLong(unscaled % (long) POWERS_OF_TEN[scale], scale);
+				return true;
+			}
+		}
+		return false;
+	}
 
-			String nextElement = nextLine[i];
-			if (nextElement == null)
-				continue;
-			if (quotechar != NO_QUOTE_CHARACTER)
-				sb.append(quotechar);
+	/**
+	 * Writes a field of the current record with no quotes.
+	 */
+	public void writeField(boolean value) {
+		beginField();
+		append(value ? "true" : "false");
+	}
 
-			sb.append(stringContainsSpecialCharacters(nextElement) ? processLine(nextElement)
-					: nextElement);
+	/**
+	 * Writes a date field of the current record, formatted with the pattern
+	 * set by {@link #setDateFormat(String)}, with no quotes.
+	 * 
+	 * @param millis
+	 *            the date in milliseconds since the epoch
+	 */
+	public void writeDate(long millis) {
+		beginField();
+		if (calendar == null) {
+			calendar = Calendar.getInstance();
+		}
+		calendar.setTimeInMillis(millis);
+		for (int op : datePattern) {
+			if ((op & FIELD_MARK) == 0) {
+				append((char) op);
+			} else {
+				int field = (op >> 8) & 0xff;
+				int value = calendar.get(field);
+				if (field == Calendar.MONTH) {
+					value++;
+				}
+				int width = op & 0xff;
+				if (field == Calendar.YEAR && width == 2) {
+					value %= 100;
+				}
+				appendLong(value, width);
+			}
+		}
+	}
 
-			if (quotechar != NO_QUOTE_CHARACTER)
-				sb.append(quotechar);
+	/**
+	 * Writes a date field of the current record, or an empty field for a null
+	 * date.
+	 * 
+	 * @see #writeDate(long)
+	 */
+	public void writeDate(Date date) {
+		if (date == null) {
+			writeField((String) null);
+		} else {
+			writeDate(date.getTime());
 		}
+	}
 
-		sb.append(lineEnd);
-		pw.write(sb.toString());
+	/**
+	 * Ends the record written with the field methods.
+	 */
+	public void endRecord() {
+		append(lineEnd);
+		fieldsInRecord = 0;
+	}
 
+	/**
+	 * Appends the digits of <code>value</code>, zero padded to at least
+	 * <code>width</code> digits.
+	 */
+	private void appendLong(long value, int width) {
+		if (value == Long.MIN_VALUE) {
+			append(Long.toString(value));
+			return;
+		}
+		if (value < 0) {
+			append('-');
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		int length = Math.max(digits, width);
+		reserve(length);
+		int end = position + length;
+		for (int i = end - 1; i >= position; i--) {
+			buffer[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		position = end;
 	}
 
 }
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.di.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a large CSV file in parallel.
+ * <p>
+ * The file is split into chunks that each start at the beginning of a record,
+ * and each chunk is tokenized by its own {@link CSVTokenizer} on an executor.
+ * To find the record boundaries, the file is first scanned for quotes and line
+ * breaks, which is much quicker than tokenizing it, so that line breaks inside
+ * quoted fields never split a chunk.
+ * </p>
+ * <p>
+ * The separator, quote, escape and line break characters must each be one
+ * byte in the file's encoding, as in UTF-8 and the ISO-8859 encodings.
+ * </p>
+ *
+ * <pre>
+ * ParallelCSVReader reader = new ParallelCSVReader(file, &quot;UTF-8&quot;);
+ * List&lt;Long&gt; sums = reader.read(8, executor, new ParallelCSVReader.ChunkHandler&lt;Long&gt;() {
+ * 	public Long process(int chunk, CSVTokenizer tokenizer) throws IOException {
+ * 		long sum = 0;
+ * 		while (tokenizer.nextRecord()) {
+ * 			sum += tokenizer.getLong(2);
+ * 		}
+ * 		return sum;
+ * 	}
+ * });
+ * </pre>
+ */
+public final class ParallelCSVReader {
+
+	/**
+	 * Processes the records of one chunk.
+	 *
+	 * @param <R>
+	 *            type of the chunk result
+	 */
+	public interface ChunkHandler<R> {
+		/**
+		 * Called on an executor thread for each chunk.
+		 *
+		 * @param chunk
+		 *            the index of the chunk, 0 for the chunk at the start of
+		 *            the file, which has the header if there is one
+		 * @param tokenizer
+		 *            the tokenizer over the records of the chunk
+		 * @return the result of the chunk
+		 */
+		R process(int chunk, CSVTokenizer tokenizer) throws IOException;
+	}
+
+	/**
+	 * Smallest chunk worth handing to another thread
+	 */
+	private static final long MIN_CHUNK_SIZE = 256 * 1024;
+
+	private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+	private final String charsetName;
+	private final char separator;
+	private final char quotechar;
+	private final char escape;
+
+	/**
+	 * Constructs ParallelCSVReader using a comma for the separator.
+	 */
+	public ParallelCSVReader(File file, String charsetName) throws UnsupportedEncodingException {
+		this(file, charsetName, CSVParser.DEFAULT_SEPARATOR, CSVParser.DEFAULT_QUOTE_CHARACTER,
+				CSVParser.DEFAULT_ESCAPE_CHARACTER);
+	}
+
+	/**
+	 * Constructs ParallelCSVReader with supplied separator, quote char and
+	 * escape char.
+	 *
+	 * @throws UnsupportedEncodingException
+	 *             if the charset is not supported
+	 * @throws IllegalArgumentException
+	 *             if a special character is not a single byte in the charset
+	 * @see CSVTokenizer#CSVTokenizer(java.io.Reader, char, char, char, int)
+	 */
+	public ParallelCSVReader(File file, String charsetName, char separator, char quotechar,
+			char escape) throws UnsupportedEncodingException {
+		this.file = file;
+		this.charsetName = charsetName;
+		this.separator = separator;
+		this.quotechar = quotechar;
+		this.escape = escape;
+		char[] special = { separator, quotechar, escape, '\n', '\r' };
+		for (char c : special) {
+			if (c != CSVParser.NULL_CHARACTER) {
+				byte[] encoded = String.valueOf(c).getBytes(charsetName);
+				if (c >= 0x80 || encoded.length != 1 || encoded[0] != c) {
+					throw new IllegalArgumentException("Character " + (int) c
+							+ " is not a single byte in " + charsetName);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Splits the file into at most <code>chunks</code> chunks and processes
+	 * them on <code>executor</code>.
+	 *
+	 * @return the chunk results, in file order
+	 * @throws IOException
+	 *             if the file cannot be read, or thrown by the handler
+	 */
+	public <R> List<R> read(int chunks, ExecutorService executor, final ChunkHandler<R> handler)
+			throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		List<Future<R>> futures = new ArrayList<Future<R>>();
+		try {
+			final FileChannel channel = raf.getChannel();
+			long[] boundaries = findBoundaries(channel, chunks);
+			for (int i = 0; i + 1 < boundaries.length; i++) {
+				final int chunk = i;
+				final long start = boundaries[i];
+				final long end = boundaries[i + 1];
+				futures.add(executor.submit(new Callable<R>() {
+					@Override
+					public R call() throws Exception {
+						CSVTokenizer tokenizer = new CSVTokenizer(new InputStreamReader(
+								new RegionInputStream(channel, start, end), charsetName),
+								separator, quotechar, escape, CSVTokenizer.DEFAULT_BUFFER_SIZE);
+						return handler.process(chunk, tokenizer);
+					}
+				}));
+			}
+
+			List<R> results = new ArrayList<R>(futures.size());
+			for (Future<R> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		} finally {
+			// stop the chunks still running after a failure
+			for (Future<R> future : futures) {
+				future.cancel(true);
+			}
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the chunk boundaries: the file start, the start of the first
+	 * record at or after each even split point, and the file end.
+	 */
+	private long[] findBoundaries(FileChannel channel, int chunks) throws IOException {
+		long size = channel.size();
+		chunks = (int) Math.max(1, Math.min(chunks, size / MIN_CHUNK_SIZE));
+		long[] boundaries = new long[chunks + 1];
+		int count = 1;
+		long target = size / chunks;
+
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+		boolean inQuotes = false;
+		boolean skipNext = false;
+		boolean afterCR = false;
+		long position = 0;
+		while (count < chunks && position < size) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read && count < chunks; i++) {
+				int b = buffer.get(i);
+				if (afterCR) {
+					afterCR = false;
+					long start = b == '\n' ? position + i + 1 : position + i;
+					if (start >= target && start < size) {
+						boundaries[count++] = start;
+						target = size / chunks * count;
+					}
+					if (b == '\n') {
+						continue;
+					}
+				}
+				if (skipNext) {
+					skipNext = false;
+				} else if (inQuotes) {
+					if (b == escape && escape != CSVParser.NULL_CHARACTER) {
+						int next = i + 1 < read ? buffer.get(i + 1) : peek(channel, position
+								+ i + 1);
+						skipNext = next == quotechar || next == escape;
+					} else if (b == quotechar) {
+						inQuotes = false;
+					}
+				} else if (b == quotechar && quotechar != CSVParser.NULL_CHARACTER) {
+					inQuotes = true;
+				} else if (b == '\r') {
+					afterCR = true;
+				} else if (b == '\n') {
+					long start = position + i + 1;
+					if (start >= target && start < size) {
+						boundaries[count++] = start;
+						target = size / chunks * count;
+					}
+				}
+			}
+			position += read;
+		}
+		boundaries[count++] = size;
+		if (count < boundaries.length) {
+			long[] shorter = new long[count];
+			System.arraycopy(boundaries, 0, shorter, 0, count);
+			boundaries = shorter;
+		}
+		return boundaries;
+	}
+
+	private static int peek(FileChannel channel, long position) throws IOException {
+		ByteBuffer one = ByteBuffer.allocate(1);
+		return channel.read(one, position) == 1 ? one.get(0) : -1;
+	}
+
+	/**
+	 * Reads a region of a file channel with positional reads, so that several
+	 * regions can be read at once.
+	 */
+	private static final class RegionInputStream extends InputStream {
+		private final FileChannel channel;
+		private long position;
+		private final long end;
+
+		RegionInputStream(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.position = start;
+			this.end = end;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) == 1 ? one[0] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (position >= end) {
+				return -1;
+			}
+			len = (int) Math.min(len, end - position);
+			int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+			if (read > 0) {
+				position += read;
+			}
+			return read;
+		}
+	}
+}
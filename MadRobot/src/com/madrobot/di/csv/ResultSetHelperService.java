@@ -42,6 +42,11 @@ public class ResultSetHelperService implements ResultSetHelper {
 	// These types don't exist in Java 5
 	private static final int NVARCHAR = -9;
 
+	/** Reused for every value; a helper serves one writer at a time */
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd-MMM-yyyy");
+
+	private final SimpleDateFormat timeFormat = new SimpleDateFormat("dd-MMM-yyyy HH:mm:ss");
+
 	private static String read(Clob c) throws SQLException, IOException {
 		StringBuilder sb = new StringBuilder((int) c.length());
 		Reader r = c.getCharacterStream();
@@ -153,7 +158,6 @@ public class ResultSetHelperService implements ResultSetHelper {
 		java.sql.Date date = rs.getDate(columnIndex);
 		String value = null;
 		if (date != null) {
-			SimpleDateFormat dateFormat = new SimpleDateFormat("dd-MMM-yyyy");
 			value = dateFormat.format(date);
 		}
 		return value;
@@ -178,7 +182,6 @@ public class ResultSetHelperService implements ResultSetHelper {
 	}
 
 	private String handleTimestamp(Timestamp timestamp) {
-		SimpleDateFormat timeFormat = new SimpleDateFormat("dd-MMM-yyyy HH:mm:ss");
 		return timestamp == null ? null : timeFormat.format(timestamp);
 	}
 }
@@ -0,0 +1,382 @@
+/*******************************************************************************
+ * Copyright (c) 2012 MadRobot.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the GNU Lesser Public License v2.1
+ *  which accompanies this distribution, and is available at
+ *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ *  Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.di.json;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONException;
+
+import android.util.Log;
+
+import com.madrobot.di.Converter;
+import com.madrobot.di.json.JSONReader.Token;
+import com.madrobot.di.json.annotation.ItemType;
+import com.madrobot.di.json.annotation.SerializedName;
+
+/**
+ * How the fields of a class are read from and written to JSON.
+ * <p>
+ * The fields, JSON keys, accessor methods and {@link ItemType} of a class are
+ * looked up once, the first time the class is bound, and reused for every
+ * object of the class after that. The rules are those of
+ * {@link JSONDeserializer} and {@link JSONSerializer}: a field is matched by
+ * its name or {@link SerializedName}, set through its setter, read through its
+ * getter, and collection items are added through its <code>add</code> method.
+ * </p>
+ */
+final class BeanBinding {
+
+	private static final int KIND_VALUE = 0;
+	private static final int KIND_OBJECT = 1;
+	private static final int KIND_COLLECTION = 2;
+
+	private static final ConcurrentHashMap<Class<?>, BeanBinding> bindings = new ConcurrentHashMap<Class<?>, BeanBinding>();
+
+	/**
+	 * Returns the binding of <code>type</code>, creating it the first time.
+	 */
+	static BeanBinding forClass(Class<?> type) {
+		BeanBinding binding = bindings.get(type);
+		if (binding == null) {
+			binding = new BeanBinding(type);
+			BeanBinding existing = bindings.putIfAbsent(type, binding);
+			if (existing != null) {
+				binding = existing;
+			}
+		}
+		return binding;
+	}
+
+	/**
+	 * A field and the methods used to access it.
+	 */
+	private static final class Property {
+		final Field field;
+		final String key;
+		final Class<?> type;
+		final int kind;
+		final Method setter;
+		final Method getter;
+		final Method adder;
+		final Class<?> itemType;
+		final int itemLimit;
+		final boolean canEmpty;
+
+		Property(Class<?> owner, Field field) {
+			this.field = field;
+			this.type = field.getType();
+			String fieldName = field.getName();
+			this.key = field.isAnnotationPresent(SerializedName.class) ? field.getAnnotation(
+					SerializedName.class).value() : fieldName;
+			if (Converter.isPseudoPrimitive(type)) {
+				kind = KIND_VALUE;
+			} else if (Converter.isCollectionType(type)) {
+				kind = KIND_COLLECTION;
+			} else {
+				kind = KIND_OBJECT;
+			}
+			this.setter = findMethod(owner, getSetMethodName(fieldName, type), type);
+			this.getter = findMethod(owner, getGetMethodName(fieldName, type));
+
+			ItemType itemTypeAnnotation = field.getAnnotation(ItemType.class);
+			if (kind == KIND_COLLECTION && itemTypeAnnotation != null) {
+				this.itemType = itemTypeAnnotation.value();
+				this.itemLimit = itemTypeAnnotation.size();
+				this.canEmpty = itemTypeAnnotation.canEmpty();
+				this.adder = findMethod(owner, getAddMethodName(fieldName), itemType);
+			} else {
+				this.itemType = null;
+				this.itemLimit = JSONDeserializer.DEFAULT_ITEM_COLLECTION_SIZE;
+				this.canEmpty = true;
+				this.adder = null;
+			}
+		}
+	}
+
+	private final Class<?> type;
+	/** Properties by JSON key and by field name */
+	private final HashMap<String, Property> byKey = new HashMap<String, Property>();
+	/** Properties with a getter, in declaration order */
+	private final Property[] readable;
+
+	private BeanBinding(Class<?> type) {
+		this.type = type;
+		Field[] fields = type.getDeclaredFields();
+		List<Property> readableList = new ArrayList<Property>(fields.length);
+		Property[] properties = new Property[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			Field field = fields[i];
+			if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+				continue;
+			}
+			properties[i] = new Property(type, field);
+			if (properties[i].getter != null) {
+				readableList.add(properties[i]);
+			}
+		}
+		// the first declared field wins, by its name or serialized name
+		for (int i = fields.length - 1; i >= 0; i--) {
+			if (properties[i] != null) {
+				byKey.put(properties[i].key, properties[i]);
+				byKey.put(properties[i].field.getName(), properties[i]);
+			}
+		}
+		this.readable = readableList.toArray(new Property[readableList.size()]);
+	}
+
+	Object newInstance() throws InstantiationException, IllegalAccessException {
+		return type.newInstance();
+	}
+
+	/**
+	 * Reads the next JSON object into <code>target</code>. Members without a
+	 * matching field, or whose value does not fit the field, are skipped.
+	 */
+	void read(JSONReader reader, Object target) throws IOException, JSONException {
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String key = reader.nextName();
+			Property property = byKey.get(key);
+			if (property == null) {
+				reader.skipValue();
+				continue;
+			}
+			try {
+				readProperty(reader, target, property);
+			} catch (IllegalAccessException e) {
+				Log.e(JSONDeserializer.TAG, e.getMessage());
+			} catch (InvocationTargetException e) {
+				Log.e(JSONDeserializer.TAG, e.getMessage());
+			} catch (InstantiationException e) {
+				Log.e(JSONDeserializer.TAG, e.getMessage());
+			}
+		}
+		reader.endObject();
+	}
+
+	private void readProperty(JSONReader reader, Object target, Property property)
+			throws IOException, JSONException, IllegalAccessException,
+			InvocationTargetException, InstantiationException {
+		Token token = reader.peek();
+		switch (property.kind) {
+		case KIND_VALUE:
+			if (token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY) {
+				Log.e(JSONDeserializer.TAG, "Expecting value type for " + property.key);
+				reader.skipValue();
+				return;
+			}
+			String raw = reader.nextString();
+			if (raw == null || property.setter == null) {
+				return;
+			}
+			Object value = Converter.convertTo(raw, property.type, property.field);
+			if (value != null) {
+				property.setter.invoke(target, value);
+			}
+			return;
+		case KIND_OBJECT:
+			if (token != Token.BEGIN_OBJECT || property.setter == null) {
+				if (token != Token.NULL) {
+					Log.e(JSONDeserializer.TAG, "Expecting composite type for " + property.key);
+				}
+				reader.skipValue();
+				return;
+			}
+			property.setter.invoke(target, readObject(reader, property.type));
+			return;
+		default:
+			if (token != Token.BEGIN_ARRAY || property.adder == null) {
+				if (token != Token.BEGIN_ARRAY && token != Token.NULL) {
+					Log.e(JSONDeserializer.TAG, "Expecting collection type for " + property.key);
+				}
+				reader.skipValue();
+				return;
+			}
+			reader.beginArray();
+			int index = 0;
+			while (reader.hasNext()) {
+				if (property.itemLimit != JSONDeserializer.DEFAULT_ITEM_COLLECTION_SIZE
+						&& index >= property.itemLimit) {
+					reader.skipValue();
+					continue;
+				}
+				index++;
+				Object item = readItem(reader, property.itemType, property.field);
+				if (item != null) {
+					property.adder.invoke(target, item);
+				}
+			}
+			reader.endArray();
+		}
+	}
+
+	/**
+	 * Reads the next JSON object as a new instance of <code>objType</code>.
+	 */
+	static Object readObject(JSONReader reader, Class<?> objType) throws IOException,
+			JSONException, InstantiationException, IllegalAccessException {
+		BeanBinding binding = forClass(objType);
+		Object object;
+		try {
+			object = binding.newInstance();
+		} catch (InstantiationException e) {
+			reader.skipValue();
+			throw e;
+		} catch (IllegalAccessException e) {
+			reader.skipValue();
+			throw e;
+		}
+		binding.read(reader, object);
+		return object;
+	}
+
+	/**
+	 * Reads the next array item as <code>itemType</code>, or returns null if
+	 * the item does not fit the type.
+	 */
+	static Object readItem(JSONReader reader, Class<?> itemType, Field field)
+			throws IOException, JSONException, InstantiationException, IllegalAccessException {
+		Token token = reader.peek();
+		if (Converter.isPseudoPrimitive(itemType)) {
+			if (token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY) {
+				reader.skipValue();
+				return null;
+			}
+			String raw = reader.nextString();
+			return raw == null ? null : Converter.convertTo(raw, itemType, field);
+		}
+		if (token != Token.BEGIN_OBJECT) {
+			reader.skipValue();
+			return null;
+		}
+		return readObject(reader, itemType);
+	}
+
+	/**
+	 * Writes <code>source</code> as a JSON object. Null values are left out.
+	 */
+	void write(JSONWriter writer, Object source) throws IOException {
+		writer.beginObject();
+		for (Property property : readable) {
+			try {
+				Object value = property.getter.invoke(source);
+				if (value != null) {
+					writeProperty(writer, property, value);
+				}
+			} catch (IllegalAccessException e) {
+				Log.e(JSONDeserializer.TAG, e.getMessage());
+			} catch (InvocationTargetException e) {
+				Log.e(JSONDeserializer.TAG, e.getMessage());
+			}
+		}
+		writer.endObject();
+	}
+
+	private static void writeProperty(JSONWriter writer, Property property, Object value)
+			throws IOException {
+		switch (property.kind) {
+		case KIND_VALUE:
+			writer.name(property.key);
+			writeValue(writer, Converter.formatValue(value, property.field));
+			return;
+		case KIND_OBJECT:
+			writer.name(property.key);
+			forClass(value.getClass()).write(writer, value);
+			return;
+		default:
+			if (value instanceof Collection) {
+				Collection<?> collection = (Collection<?>) value;
+				if (collection.isEmpty() && !property.canEmpty) {
+					return;
+				}
+				writer.name(property.key);
+				writer.beginArray();
+				for (Object item : collection) {
+					writeValue(writer, item);
+				}
+				writer.endArray();
+			} else if (value instanceof Map) {
+				writer.name(property.key);
+				writer.beginArray();
+				writer.beginObject();
+				for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+					writer.name(String.valueOf(entry.getKey()));
+					writeValue(writer, entry.getValue());
+				}
+				writer.endObject();
+				writer.endArray();
+			}
+		}
+	}
+
+	/**
+	 * Writes a string, number, boolean or character as such, and any other
+	 * object with its binding.
+	 */
+	static void writeValue(JSONWriter writer, Object value) throws IOException {
+		if (value == null) {
+			writer.nullValue();
+		} else if (value instanceof String) {
+			writer.value((String) value);
+		} else if (value instanceof Number) {
+			writer.value((Number) value);
+		} else if (value instanceof Boolean) {
+			writer.value(((Boolean) value).booleanValue());
+		} else if (value instanceof Character) {
+			writer.value(value.toString());
+		} else {
+			forClass(value.getClass()).write(writer, value);
+		}
+	}
+
+	private static Method findMethod(Class<?> owner, String name, Class<?>... parameterTypes) {
+		try {
+			Method method = owner.getDeclaredMethod(name, parameterTypes);
+			method.setAccessible(true);
+			return method;
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (SecurityException e) {
+			return null;
+		}
+	}
+
+	static String getAddMethodName(String fieldName) {
+		return "add" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+	}
+
+	static String getSetMethodName(final String fieldName, final Class<?> classType) {
+		if (Converter.isBoolean(classType) && fieldName.startsWith("is") && fieldName.length() > 2) {
+			return "set" + Character.toUpperCase(fieldName.charAt(2)) + fieldName.substring(3);
+		}
+		return "set" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+	}
+
+	static String getGetMethodName(final String fieldName, final Class<?> classType) {
+		if (Converter.isBoolean(classType)) {
+			if (fieldName.startsWith("is")) {
+				return fieldName;
+			}
+			return "is" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+		}
+		return "get" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+	}
+}
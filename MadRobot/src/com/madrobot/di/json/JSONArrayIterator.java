@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * Copyright (c) 2012 MadRobot.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the GNU Lesser Public License v2.1
+ *  which accompanies this distribution, and is available at
+ *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ *  Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.di.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.json.JSONException;
+
+import android.util.Log;
+
+import com.madrobot.di.json.JSONReader.Token;
+
+/**
+ * Reads the items of a JSON array one at a time, binding each to a new
+ * object as it is reached.
+ * <p>
+ * Only the item being bound is held in memory, so arrays of any length can be
+ * processed. The array is either the top-level value or is selected by a path
+ * of member names and array indexes, such as <code>data.orders</code> or
+ * <code>$.pages[0].rows</code>. Items are bound with the same rules as
+ * {@link JSONDeserializer#deserializeStreaming(Class, java.io.Reader)}.
+ * </p>
+ * <p>
+ * {@link #nextBatch(int, ExecutorService)} reads a batch of items and binds
+ * them on an executor. The items are still read in order on the calling
+ * thread, but the binding, which is the larger part of the work, runs in
+ * parallel.
+ * </p>
+ *
+ * <pre>
+ * JSONArrayIterator&lt;Order&gt; orders = JSONDeserializer.iterate(Order.class, in, &quot;data.orders&quot;);
+ * try {
+ * 	while (orders.hasNext()) {
+ * 		Order order = orders.next();
+ * 		...
+ * 	}
+ * } finally {
+ * 	orders.close();
+ * }
+ * </pre>
+ *
+ * @param <T>
+ *            type of the items
+ */
+public final class JSONArrayIterator<T> implements Closeable {
+
+	/**
+	 * Number of parts a parallel batch is split into
+	 */
+	private static final int PARALLEL_CHUNKS = Runtime.getRuntime().availableProcessors() * 2;
+
+	private final JSONReader reader;
+	private final Class<T> itemType;
+	private boolean done;
+
+	/**
+	 * Positions <code>reader</code> at the first item of the array at
+	 * <code>path</code>.
+	 *
+	 * @throws JSONException
+	 *             if there is no array at the path
+	 */
+	JSONArrayIterator(JSONReader reader, Class<T> itemType, String path) throws IOException,
+			JSONException {
+		this.reader = reader;
+		this.itemType = itemType;
+		if (path != null) {
+			select(path);
+		}
+		if (reader.peek() != Token.BEGIN_ARRAY) {
+			throw new JSONException("No array at " + (path == null ? "$" : path));
+		}
+		reader.beginArray();
+	}
+
+	/**
+	 * Moves the reader to the value at <code>path</code>.
+	 */
+	private void select(String path) throws IOException, JSONException {
+		int start = path.startsWith("$") ? 1 : 0;
+		int length = path.length();
+		while (start < length) {
+			char c = path.charAt(start);
+			if (c == '.') {
+				start++;
+			} else if (c == '[') {
+				int end = path.indexOf(']', start);
+				if (end < 0) {
+					throw new IllegalArgumentException("Invalid path " + path);
+				}
+				int index = Integer.parseInt(path.substring(start + 1, end).trim());
+				if (reader.peek() != Token.BEGIN_ARRAY) {
+					throw new JSONException("No array at " + path.substring(0, start));
+				}
+				reader.beginArray();
+				for (int i = 0; i < index && reader.hasNext(); i++) {
+					reader.skipValue();
+				}
+				if (!reader.hasNext()) {
+					throw new JSONException("No element at " + path.substring(0, end + 1));
+				}
+				start = end + 1;
+			} else {
+				int end = start;
+				while (end < length && path.charAt(end) != '.' && path.charAt(end) != '[') {
+					end++;
+				}
+				String name = path.substring(start, end);
+				if (reader.peek() != Token.BEGIN_OBJECT) {
+					throw new JSONException("No object at " + path.substring(0, start));
+				}
+				reader.beginObject();
+				boolean found = false;
+				while (reader.hasNext()) {
+					if (reader.nextName().equals(name)) {
+						found = true;
+						break;
+					}
+					reader.skipValue();
+				}
+				if (!found) {
+					throw new JSONException("No member at " + path.substring(0, end));
+				}
+				start = end;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the array has another item.
+	 */
+	public boolean hasNext() throws IOException, JSONException {
+		if (done) {
+			return false;
+		}
+		if (reader.hasNext()) {
+			return true;
+		}
+		reader.endArray();
+		done = true;
+		return false;
+	}
+
+	/**
+	 * Reads and binds the next item.
+	 *
+	 * @return the item, or null if the item could not be bound to the item
+	 *         type
+	 * @throws NoSuchElementException
+	 *             if there are no more items
+	 */
+	public T next() throws IOException, JSONException {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return bind(reader);
+	}
+
+	/**
+	 * Reads and binds up to <code>maxItems</code> items.
+	 *
+	 * @return the items, empty if there are no more items
+	 */
+	public List<T> nextBatch(int maxItems) throws IOException, JSONException {
+		List<T> batch = new ArrayList<T>(Math.min(maxItems, 1024));
+		while (batch.size() < maxItems && hasNext()) {
+			batch.add(bind(reader));
+		}
+		return batch;
+	}
+
+	/**
+	 * Reads up to <code>maxItems</code> items and binds them in parallel on
+	 * <code>executor</code>.
+	 *
+	 * @return the items in array order, empty if there are no more items
+	 */
+	public List<T> nextBatch(int maxItems, ExecutorService executor) throws IOException,
+			JSONException {
+		// the items are copied unparsed in chunks, each chunk as the text of an
+		// array, and parsed and bound by the executor
+		int chunkSize = Math.max(1, (maxItems + PARALLEL_CHUNKS - 1) / PARALLEL_CHUNKS);
+		List<Future<List<T>>> chunks = new ArrayList<Future<List<T>>>();
+		StringBuilder text = new StringBuilder();
+		int count = 0;
+		while (count < maxItems && hasNext()) {
+			text.setLength(0);
+			text.append('[');
+			int chunkCount = 0;
+			while (chunkCount < chunkSize && count < maxItems && hasNext()) {
+				if (chunkCount > 0) {
+					text.append(',');
+				}
+				reader.nextRawValue(text);
+				chunkCount++;
+				count++;
+			}
+			text.append(']');
+			final String chunk = text.toString();
+			final int chunkLength = chunkCount;
+			chunks.add(executor.submit(new Callable<List<T>>() {
+				@Override
+				public List<T> call() throws Exception {
+					List<T> items = new ArrayList<T>(chunkLength);
+					JSONReader chunkReader = new JSONReader(new StringReader(chunk));
+					chunkReader.beginArray();
+					while (chunkReader.hasNext()) {
+						items.add(bind(chunkReader));
+					}
+					return items;
+				}
+			}));
+		}
+
+		List<T> batch = new ArrayList<T>(count);
+		try {
+			for (Future<List<T>> chunk : chunks) {
+				batch.addAll(chunk.get());
+			}
+		} catch (InterruptedException e) {
+			for (Future<List<T>> chunk : chunks) {
+				chunk.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof JSONException) {
+				throw (JSONException) cause;
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+		return batch;
+	}
+
+	/**
+	 * Closes the underlying reader.
+	 */
+	@Override
+	public void close() throws IOException {
+		done = true;
+		reader.close();
+	}
+
+	private T bind(JSONReader itemReader) throws IOException, JSONException {
+		try {
+			return itemType.cast(BeanBinding.readItem(itemReader, itemType, null));
+		} catch (IllegalAccessException e) {
+			Log.e(JSONDeserializer.TAG, e.getMessage());
+		} catch (InstantiationException e) {
+			Log.e(JSONDeserializer.TAG, e.getMessage());
+		}
+		return null;
+	}
+
+}
@@ -10,10 +10,10 @@
  ******************************************************************************/
 package com.madrobot.di.json;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -75,6 +75,7 @@ public final class JSONDeserializer {
 	 * @return {@link #deserialize(Class, JSONObject)}
 	 * 
 	 * @see #deserialize(Class, JSONObject)
+	 * @see #deserializeStreaming(Class, InputStream)
 	 * 
 	 * @throws JSONException
 	 *             If an exception occurs during parsing
@@ -87,6 +88,99 @@ public final class JSONDeserializer {
 		return deserialize(objType, new JSONObject(IOUtils.streamWithLinesToString(jsonContentStream)));
 	}
 
+	/**
+	 * Deserializes the json data from the input to the corresponding entity
+	 * type, as it is parsed <br/>
+	 * The input is read as UTF-8 and closed.
+	 * 
+	 * @see #deserializeStreaming(Class, Reader)
+	 */
+	public static <T> T deserializeStreaming(final Class<T> objType,
+			final InputStream jsonContentStream) throws JSONException, IOException {
+		try {
+			return deserializeStreaming(objType, new InputStreamReader(jsonContentStream, "UTF-8"));
+		} finally {
+			jsonContentStream.close();
+		}
+	}
+
+	/**
+	 * Deserializes the json data from the reader to the corresponding entity
+	 * type, as it is parsed <br/>
+	 * No {@link JSONObject} tree is built. The fields, accessors and
+	 * {@link ItemType} information of each entity type are looked up once and
+	 * reused for later objects of the type. Unlike
+	 * {@link #deserialize(Class, JSONObject)}, members that do not match a
+	 * field and <code>null</code> values are skipped, and dates are parsed with
+	 * the pattern of their {@link com.madrobot.di.json.annotation.DateFormat}
+	 * annotation.
+	 * 
+	 * @param objType
+	 *            Type of the entity to deserialize data to
+	 * @param reader
+	 *            Reader to read data from. It is not closed.
+	 * 
+	 * @return Deserialized object, if successful, null otherwise
+	 * 
+	 * @throws JSONException
+	 *             If the data is not valid JSON
+	 * 
+	 * @throws IOException
+	 *             If an exception occurs during reading
+	 */
+	public static <T> T deserializeStreaming(final Class<T> objType, final Reader reader)
+			throws JSONException, IOException {
+		try {
+			return objType.cast(BeanBinding.readObject(new JSONReader(reader), objType));
+		} catch (IllegalAccessException e) {
+			Log.e(TAG, e.getMessage());
+		} catch (InstantiationException e) {
+			Log.e(TAG, e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Returns an iterator over the items of a JSON array, binding each item to
+	 * <code>itemType</code> as it is read <br/>
+	 * Only the current item is held in memory, whatever the size of the array.
+	 * The input is read as UTF-8 and closed when the iterator is closed.
+	 * 
+	 * @param itemType
+	 *            Type of the entity to deserialize each item to
+	 * @param jsonContentStream
+	 *            Input stream to read data from
+	 * @param path
+	 *            Path of the array, such as <code>data.items</code> or
+	 *            <code>$.pages[0].rows</code>, or null for a top-level array
+	 * 
+	 * @see JSONArrayIterator
+	 * 
+	 * @throws JSONException
+	 *             If there is no array at the path
+	 * 
+	 * @throws IOException
+	 *             If an exception occurs during reading
+	 */
+	public static <T> JSONArrayIterator<T> iterate(final Class<T> itemType,
+			final InputStream jsonContentStream, final String path) throws JSONException,
+			IOException {
+		return iterate(itemType, new InputStreamReader(jsonContentStream, "UTF-8"), path);
+	}
+
+	/**
+	 * Returns an iterator over the items of a JSON array, binding each item to
+	 * <code>itemType</code> as it is read <br/>
+	 * Only the current item is held in memory, whatever the size of the array.
+	 * The reader is closed when the iterator is closed.
+	 * 
+	 * @see #iterate(Class, InputStream, String)
+	 */
+	public static <T> JSONArrayIterator<T> iterate(final Class<T> itemType, final Reader reader,
+			final String path) throws JSONException, IOException {
+		return new JSONArrayIterator<T>(new JSONReader(reader), itemType, path);
+	}
+
 	/**
 	 * Deserializes the JSON data from the input to the corresponding entity
 	 * type <br/>
@@ -0,0 +1,548 @@
+/*******************************************************************************
+ * Copyright (c) 2012 MadRobot.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the GNU Lesser Public License v2.1
+ *  which accompanies this distribution, and is available at
+ *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ *  Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.di.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+
+import org.json.JSONException;
+
+/**
+ * Pull parser that reads JSON tokens from a {@link Reader} one at a time,
+ * without building a {@link org.json.JSONObject} tree.
+ * <p>
+ * Objects are read by calling {@link #beginObject()}, then
+ * {@link #nextName()} and a value method for each member while
+ * {@link #hasNext()} is true, then {@link #endObject()}. Arrays are read the
+ * same way with {@link #beginArray()} and {@link #endArray()}. Values that are
+ * not needed are passed over with {@link #skipValue()}.
+ * </p>
+ * <p>
+ * Malformed input is reported with a {@link JSONException} giving the
+ * position in the input.
+ * </p>
+ *
+ * @see JSONWriter
+ */
+public final class JSONReader implements Closeable {
+
+	/**
+	 * Kind of the next token in the input
+	 */
+	public enum Token {
+		BEGIN_ARRAY, BEGIN_OBJECT, BOOLEAN, END_ARRAY, END_DOCUMENT, END_OBJECT, NAME, NULL, NUMBER, STRING
+	}
+
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int DANGLING_NAME = 5;
+	private static final int NONEMPTY_OBJECT = 6;
+
+	private final Reader in;
+	private final char[] buffer = new char[8192];
+	private int pos;
+	private int limit;
+	/** Number of characters read before the start of the buffer */
+	private long bufferStart;
+
+	private int[] stack = new int[32];
+	private int stackSize;
+
+	private Token peeked;
+	/** Text of the peeked name, string, number or boolean */
+	private String peekedText;
+	private final StringBuilder text = new StringBuilder();
+
+	public JSONReader(Reader in) {
+		if (in == null) {
+			throw new IllegalArgumentException("Reader may not be null");
+		}
+		this.in = in;
+		stack[stackSize++] = EMPTY_DOCUMENT;
+	}
+
+	/**
+	 * Consumes the start of an array.
+	 */
+	public void beginArray() throws IOException, JSONException {
+		expect(Token.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+		peeked = null;
+	}
+
+	/**
+	 * Consumes the end of the current array.
+	 */
+	public void endArray() throws IOException, JSONException {
+		expect(Token.END_ARRAY);
+		stackSize--;
+		peeked = null;
+	}
+
+	/**
+	 * Consumes the start of an object.
+	 */
+	public void beginObject() throws IOException, JSONException {
+		expect(Token.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+		peeked = null;
+	}
+
+	/**
+	 * Consumes the end of the current object.
+	 */
+	public void endObject() throws IOException, JSONException {
+		expect(Token.END_OBJECT);
+		stackSize--;
+		peeked = null;
+	}
+
+	/**
+	 * Returns true if the current array or object has another element.
+	 */
+	public boolean hasNext() throws IOException, JSONException {
+		Token token = peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY
+				&& token != Token.END_DOCUMENT;
+	}
+
+	/**
+	 * Returns the name of the next object member.
+	 */
+	public String nextName() throws IOException, JSONException {
+		expect(Token.NAME);
+		peeked = null;
+		return peekedText;
+	}
+
+	/**
+	 * Returns the next string, number or boolean value as text, or null if
+	 * the value is <code>null</code>.
+	 */
+	public String nextString() throws IOException, JSONException {
+		Token token = peek();
+		if (token == Token.NULL) {
+			peeked = null;
+			return null;
+		}
+		if (token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN) {
+			throw syntaxError("Expected a value but was " + token);
+		}
+		peeked = null;
+		return peekedText;
+	}
+
+	/**
+	 * Returns the next boolean value.
+	 */
+	public boolean nextBoolean() throws IOException, JSONException {
+		expect(Token.BOOLEAN);
+		peeked = null;
+		return peekedText.equals("true");
+	}
+
+	/**
+	 * Consumes the next <code>null</code> value.
+	 */
+	public void nextNull() throws IOException, JSONException {
+		expect(Token.NULL);
+		peeked = null;
+	}
+
+	/**
+	 * Returns the next number, or string holding a number, as a long.
+	 * Fractions are truncated.
+	 */
+	public long nextLong() throws IOException, JSONException {
+		String number = nextString();
+		try {
+			return Long.parseLong(number);
+		} catch (NumberFormatException e) {
+			try {
+				return (long) Double.parseDouble(number);
+			} catch (NumberFormatException e2) {
+				throw syntaxError("Expected a number but was " + number);
+			}
+		}
+	}
+
+	/**
+	 * Returns the next number, or string holding a number, as a double.
+	 */
+	public double nextDouble() throws IOException, JSONException {
+		String number = nextString();
+		try {
+			return Double.parseDouble(number);
+		} catch (NumberFormatException e) {
+			throw syntaxError("Expected a number but was " + number);
+		}
+	}
+
+	/**
+	 * Skips the next value, including all nested values of an array or
+	 * object.
+	 */
+	public void skipValue() throws IOException, JSONException {
+		int depth = 0;
+		do {
+			Token token = peek();
+			if (token == Token.BEGIN_ARRAY) {
+				beginArray();
+				depth++;
+			} else if (token == Token.BEGIN_OBJECT) {
+				beginObject();
+				depth++;
+			} else if (token == Token.END_ARRAY) {
+				endArray();
+				depth--;
+			} else if (token == Token.END_OBJECT) {
+				endObject();
+				depth--;
+			} else if (token == Token.END_DOCUMENT) {
+				throw syntaxError("Expected a value");
+			} else {
+				// a name is followed by its value, which is skipped next
+				peeked = null;
+			}
+		} while (depth > 0 || peeked == null && stack[stackSize - 1] == DANGLING_NAME);
+	}
+
+	/**
+	 * Appends the JSON text of the next value to <code>out</code>. An array or
+	 * object is copied without being parsed, only matching its brackets, so
+	 * it is not checked for errors.
+	 */
+	void nextRawValue(StringBuilder out) throws IOException, JSONException {
+		Token token = peek();
+		if (token != Token.BEGIN_OBJECT && token != Token.BEGIN_ARRAY) {
+			StringWriter text = new StringWriter();
+			JSONWriter writer = new JSONWriter(text);
+			if (token == Token.STRING) {
+				writer.value(nextString());
+			} else {
+				writer.numberValue(String.valueOf(nextString()));
+			}
+			writer.flush();
+			out.append(text.getBuffer());
+			return;
+		}
+		out.append(token == Token.BEGIN_OBJECT ? '{' : '[');
+		peeked = null;
+		int depth = 1;
+		boolean inString = false;
+		while (true) {
+			int start = pos;
+			while (pos < limit) {
+				char c = buffer[pos++];
+				if (inString) {
+					if (c == '"') {
+						inString = false;
+					} else if (c == '\\') {
+						if (pos == limit) {
+							// the escaped character is in the next buffer
+							out.append(buffer, start, pos - start);
+							if (!fill()) {
+								throw syntaxError("Unterminated escape sequence");
+							}
+							start = pos;
+						}
+						pos++;
+					}
+				} else if (c == '"') {
+					inString = true;
+				} else if (c == '{' || c == '[') {
+					depth++;
+				} else if ((c == '}' || c == ']') && --depth == 0) {
+					out.append(buffer, start, pos - start);
+					return;
+				}
+			}
+			out.append(buffer, start, pos - start);
+			if (!fill()) {
+				throw syntaxError("Unexpected end of input");
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of arrays and objects the reader is in.
+	 */
+	public int getDepth() {
+		return stackSize - 1;
+	}
+
+	/**
+	 * Returns the kind of the next token without consuming it.
+	 */
+	public Token peek() throws IOException, JSONException {
+		if (peeked != null) {
+			return peeked;
+		}
+		int c;
+		int scope = stack[stackSize - 1];
+		switch (scope) {
+		case EMPTY_ARRAY:
+			stack[stackSize - 1] = NONEMPTY_ARRAY;
+			c = nextNonWhitespace();
+			if (c == ']') {
+				return peeked = Token.END_ARRAY;
+			}
+			break;
+		case NONEMPTY_ARRAY:
+			c = nextNonWhitespace();
+			if (c == ']') {
+				return peeked = Token.END_ARRAY;
+			} else if (c != ',') {
+				throw syntaxError("Expected ',' or ']'");
+			}
+			c = nextNonWhitespace();
+			break;
+		case EMPTY_OBJECT:
+		case NONEMPTY_OBJECT:
+			c = nextNonWhitespace();
+			if (c == '}') {
+				return peeked = Token.END_OBJECT;
+			}
+			if (scope == NONEMPTY_OBJECT) {
+				if (c != ',') {
+					throw syntaxError("Expected ',' or '}'");
+				}
+				c = nextNonWhitespace();
+			}
+			if (c != '"') {
+				throw syntaxError("Expected a name");
+			}
+			stack[stackSize - 1] = DANGLING_NAME;
+			peekedText = readString();
+			return peeked = Token.NAME;
+		case DANGLING_NAME:
+			if (nextNonWhitespace() != ':') {
+				throw syntaxError("Expected ':'");
+			}
+			stack[stackSize - 1] = NONEMPTY_OBJECT;
+			c = nextNonWhitespace();
+			break;
+		case EMPTY_DOCUMENT:
+			stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+			c = nextNonWhitespace();
+			break;
+		default:
+			c = nextNonWhitespace();
+			if (c == -1) {
+				return peeked = Token.END_DOCUMENT;
+			}
+			throw syntaxError("Expected end of document");
+		}
+		return peeked = readValue(c);
+	}
+
+	/**
+	 * Closes the underlying reader.
+	 */
+	@Override
+	public void close() throws IOException {
+		peeked = null;
+		stackSize = 0;
+		in.close();
+	}
+
+	private Token readValue(int c) throws IOException, JSONException {
+		switch (c) {
+		case -1:
+			throw syntaxError("Unexpected end of input");
+		case '{':
+			return Token.BEGIN_OBJECT;
+		case '[':
+			return Token.BEGIN_ARRAY;
+		case '"':
+			peekedText = readString();
+			return Token.STRING;
+		default:
+			pos--;
+			String literal = readLiteral();
+			if (literal.equals("true") || literal.equals("false")) {
+				peekedText = literal;
+				return Token.BOOLEAN;
+			} else if (literal.equals("null")) {
+				peekedText = null;
+				return Token.NULL;
+			}
+			char first = literal.length() == 0 ? ' ' : literal.charAt(0);
+			if (first == '-' || (first >= '0' && first <= '9')) {
+				peekedText = literal;
+				return Token.NUMBER;
+			}
+			throw syntaxError("Unexpected value '" + (literal.length() == 0 ? (char) c : literal)
+					+ "'");
+		}
+	}
+
+	/**
+	 * Reads a string whose opening quote has been consumed.
+	 */
+	private String readString() throws IOException, JSONException {
+		text.setLength(0);
+		while (true) {
+			int start = pos;
+			while (pos < limit) {
+				char c = buffer[pos++];
+				if (c == '"') {
+					if (text.length() == 0) {
+						return new String(buffer, start, pos - start - 1);
+					}
+					text.append(buffer, start, pos - start - 1);
+					return text.toString();
+				} else if (c == '\\') {
+					text.append(buffer, start, pos - start - 1);
+					text.append(readEscape());
+					start = pos;
+				}
+			}
+			text.append(buffer, start, pos - start);
+			if (!fill()) {
+				throw syntaxError("Unterminated string");
+			}
+		}
+	}
+
+	private char readEscape() throws IOException, JSONException {
+		if (pos == limit && !fill()) {
+			throw syntaxError("Unterminated escape sequence");
+		}
+		char c = buffer[pos++];
+		switch (c) {
+		case 'b':
+			return '\b';
+		case 'f':
+			return '\f';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 't':
+			return '\t';
+		case 'u':
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				if (pos == limit && !fill()) {
+					throw syntaxError("Unterminated escape sequence");
+				}
+				int digit = Character.digit(buffer[pos++], 16);
+				if (digit == -1) {
+					throw syntaxError("Invalid escape sequence");
+				}
+				value = (value << 4) | digit;
+			}
+			return (char) value;
+		default:
+			// \" \\ \/ and, leniently, any other escaped character
+			return c;
+		}
+	}
+
+	/**
+	 * Reads an unquoted number or keyword.
+	 */
+	private String readLiteral() throws IOException {
+		text.setLength(0);
+		while (true) {
+			int start = pos;
+			while (pos < limit) {
+				switch (buffer[pos]) {
+				case ' ':
+				case '\t':
+				case '\n':
+				case '\r':
+				case ',':
+				case ':':
+				case '[':
+				case ']':
+				case '{':
+				case '}':
+				case '"':
+					if (text.length() == 0) {
+						return new String(buffer, start, pos - start);
+					}
+					text.append(buffer, start, pos - start);
+					return text.toString();
+				default:
+					pos++;
+				}
+			}
+			text.append(buffer, start, pos - start);
+			if (!fill()) {
+				return text.toString();
+			}
+		}
+	}
+
+	/**
+	 * Consumes and returns the next character that is not whitespace, or -1 at
+	 * the end of the input.
+	 */
+	private int nextNonWhitespace() throws IOException {
+		while (true) {
+			while (pos < limit) {
+				char c = buffer[pos++];
+				if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+					return c;
+				}
+			}
+			if (!fill()) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Replaces the consumed buffer with the next characters of the input.
+	 *
+	 * @return false at the end of the input
+	 */
+	private boolean fill() throws IOException {
+		bufferStart += limit;
+		pos = 0;
+		limit = 0;
+		int read;
+		while ((read = in.read(buffer, 0, buffer.length)) == 0) {
+		}
+		if (read == -1) {
+			return false;
+		}
+		limit = read;
+		return true;
+	}
+
+	private void expect(Token expected) throws IOException, JSONException {
+		Token token = peek();
+		if (token != expected) {
+			throw syntaxError("Expected " + expected + " but was " + token);
+		}
+	}
+
+	private void push(int scope) {
+		if (stackSize == stack.length) {
+			int[] grown = new int[stackSize * 2];
+			System.arraycopy(stack, 0, grown, 0, stackSize);
+			stack = grown;
+		}
+		stack[stackSize++] = scope;
+	}
+
+	private JSONException syntaxError(String message) {
+		return new JSONException(message + " at character " + (bufferStart + pos));
+	}
+}
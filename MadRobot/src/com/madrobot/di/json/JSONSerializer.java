@@ -10,6 +10,8 @@
  ******************************************************************************/
 package com.madrobot.di.json;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -183,4 +185,26 @@ public class JSONSerializer {
 
 		return jsonObject.toString();
 	}
+
+	/**
+	 * Serializes the object to the writer as JSON, as its fields are read <br/>
+	 * 
+	 * No {@link JSONObject} tree is built. The fields, accessors and
+	 * {@link ItemType} information of each class are looked up once and reused
+	 * for later objects of the class. Fields without a getter and null values
+	 * are left out.
+	 * 
+	 * @param object
+	 *            Java Object to write JSON for
+	 * @param writer
+	 *            Writer to write to. It is flushed but not closed.
+	 * 
+	 * @throws IOException
+	 *             If an exception occurs during writing
+	 */
+	public void serialize(final Object object, final Writer writer) throws IOException {
+		JSONWriter jsonWriter = new JSONWriter(writer);
+		BeanBinding.forClass(object.getClass()).write(jsonWriter, object);
+		jsonWriter.flush();
+	}
 }
@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright (c) 2012 MadRobot.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the GNU Lesser Public License v2.1
+ *  which accompanies this distribution, and is available at
+ *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ *  Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.di.json;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes JSON tokens to a {@link Writer} as they are produced, without
+ * building a {@link org.json.JSONObject} tree.
+ * <p>
+ * Output is buffered internally; call {@link #flush()} or {@link #close()}
+ * when done. Commas and colons are inserted as needed, and calls that would
+ * produce malformed JSON throw an {@link IllegalStateException}.
+ * </p>
+ *
+ * @see JSONReader
+ */
+public final class JSONWriter implements Closeable, Flushable {
+
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int DANGLING_NAME = 5;
+	private static final int NONEMPTY_OBJECT = 6;
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final Writer out;
+	private final char[] buffer = new char[8192];
+	private int count;
+
+	private int[] stack = new int[32];
+	private int stackSize;
+
+	public JSONWriter(Writer out) {
+		if (out == null) {
+			throw new IllegalArgumentException("Writer may not be null");
+		}
+		this.out = out;
+		stack[stackSize++] = EMPTY_DOCUMENT;
+	}
+
+	public JSONWriter beginArray() throws IOException {
+		beforeValue();
+		push(EMPTY_ARRAY);
+		write('[');
+		return this;
+	}
+
+	public JSONWriter endArray() throws IOException {
+		return close(EMPTY_ARRAY, NONEMPTY_ARRAY, ']');
+	}
+
+	public JSONWriter beginObject() throws IOException {
+		beforeValue();
+		push(EMPTY_OBJECT);
+		write('{');
+		return this;
+	}
+
+	public JSONWriter endObject() throws IOException {
+		return close(EMPTY_OBJECT, NONEMPTY_OBJECT, '}');
+	}
+
+	/**
+	 * Writes the name of the next object member.
+	 */
+	public JSONWriter name(String name) throws IOException {
+		if (name == null) {
+			throw new IllegalArgumentException("Name may not be null");
+		}
+		int scope = stack[stackSize - 1];
+		if (scope == NONEMPTY_OBJECT) {
+			write(',');
+		} else if (scope != EMPTY_OBJECT) {
+			throw new IllegalStateException("Name outside of an object");
+		}
+		stack[stackSize - 1] = DANGLING_NAME;
+		writeString(name);
+		write(':');
+		return this;
+	}
+
+	/**
+	 * Writes a string value, or <code>null</code> if <code>value</code> is
+	 * null.
+	 */
+	public JSONWriter value(String value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		beforeValue();
+		writeString(value);
+		return this;
+	}
+
+	public JSONWriter value(boolean value) throws IOException {
+		beforeValue();
+		write(value ? "true" : "false");
+		return this;
+	}
+
+	public JSONWriter value(long value) throws IOException {
+		beforeValue();
+		write(Long.toString(value));
+		return this;
+	}
+
+	/**
+	 * Writes a number. Whole numbers are written without a fraction.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>value</code> is NaN or infinite
+	 */
+	public JSONWriter value(double value) throws IOException {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException("Numeric values must be finite, but was "
+					+ value);
+		}
+		beforeValue();
+		long longValue = (long) value;
+		write(longValue == value ? Long.toString(longValue) : Double.toString(value));
+		return this;
+	}
+
+	/**
+	 * Writes a number, or <code>null</code> if <code>value</code> is null.
+	 */
+	public JSONWriter value(Number value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		if (value instanceof Double || value instanceof Float) {
+			return value(value.doubleValue());
+		}
+		if (value instanceof Long || value instanceof Integer || value instanceof Short
+				|| value instanceof Byte) {
+			return value(value.longValue());
+		}
+		beforeValue();
+		write(value.toString());
+		return this;
+	}
+
+	/**
+	 * Writes a number read by {@link JSONReader} as it is.
+	 */
+	JSONWriter numberValue(String literal) throws IOException {
+		beforeValue();
+		write(literal);
+		return this;
+	}
+
+	public JSONWriter nullValue() throws IOException {
+		beforeValue();
+		write("null");
+		return this;
+	}
+
+	/**
+	 * Writes the buffered output to the underlying writer and flushes it.
+	 */
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	/**
+	 * Flushes and closes the underlying writer.
+	 *
+	 * @throws IllegalStateException
+	 *             if an array or object is not closed
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+		out.close();
+		if (stackSize > 1 || stack[0] != NONEMPTY_DOCUMENT) {
+			throw new IllegalStateException("Incomplete document");
+		}
+	}
+
+	private void beforeValue() throws IOException {
+		switch (stack[stackSize - 1]) {
+		case EMPTY_DOCUMENT:
+			stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+			break;
+		case EMPTY_ARRAY:
+			stack[stackSize - 1] = NONEMPTY_ARRAY;
+			break;
+		case NONEMPTY_ARRAY:
+			write(',');
+			break;
+		case DANGLING_NAME:
+			stack[stackSize - 1] = NONEMPTY_OBJECT;
+			break;
+		case NONEMPTY_DOCUMENT:
+			throw new IllegalStateException("JSON must have only one top-level value");
+		default:
+			throw new IllegalStateException("Value without a name inside an object");
+		}
+	}
+
+	private JSONWriter close(int empty, int nonEmpty, char bracket) throws IOException {
+		int scope = stack[stackSize - 1];
+		if (scope != empty && scope != nonEmpty) {
+			throw new IllegalStateException("Nesting problem");
+		}
+		stackSize--;
+		write(bracket);
+		return this;
+	}
+
+	private void push(int scope) {
+		if (stackSize == stack.length) {
+			int[] grown = new int[stackSize * 2];
+			System.arraycopy(stack, 0, grown, 0, stackSize);
+			stack = grown;
+		}
+		stack[stackSize++] = scope;
+	}
+
+	private void writeString(String value) throws IOException {
+		write('"');
+		int length = value.length();
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			String replacement;
+			if (c == '"') {
+				replacement = "\\\"";
+			} else if (c == '\\') {
+				replacement = "\\\\";
+			} else if (c >= 0x20 && c != '\u2028' && c != '\u2029') {
+				continue;
+			} else if (c == '\n') {
+				replacement = "\\n";
+			} else if (c == '\r') {
+				replacement = "\\r";
+			} else if (c == '\t') {
+				replacement = "\\t";
+			} else if (c == '\b') {
+				replacement = "\\b";
+			} else if (c == '\f') {
+				replacement = "\\f";
+			} else {
+				replacement = new String(new char[] { '\\', 'u', HEX_DIGITS[c >> 12],
+						HEX_DIGITS[(c >> 8) & 0xf], HEX_DIGITS[(c >> 4) & 0xf],
+						HEX_DIGITS[c & 0xf] });
+			}
+			write(value, start, i);
+			write(replacement);
+			start = i + 1;
+		}
+		write(value, start, length);
+		write('"');
+	}
+
+	private void write(char c) throws IOException {
+		if (count == buffer.length) {
+			flushBuffer();
+		}
+		buffer[count++] = c;
+	}
+
+	private void write(String value) throws IOException {
+		write(value, 0, value.length());
+	}
+
+	private void write(String value, int start, int end) throws IOException {
+		while (start < end) {
+			if (count == buffer.length) {
+				flushBuffer();
+			}
+			int chunk = Math.min(end - start, buffer.length - count);
+			value.getChars(start, start + chunk, buffer, count);
+			count += chunk;
+			start += chunk;
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+}
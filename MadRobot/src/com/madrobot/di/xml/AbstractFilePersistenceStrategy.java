@@ -27,6 +27,7 @@ import java.util.Map.Entry;
 
 import com.madrobot.di.xml.converter.ConverterLookup;
 import com.madrobot.di.xml.core.PersistenceStrategy;
+import com.madrobot.di.xml.io.BinaryStreamDriver;
 import com.madrobot.di.xml.io.StreamException;
 
 /**
@@ -177,9 +178,25 @@ abstract class AbstractFilePersistenceStrategy implements PersistenceStrategy {
 		return oldValue;
 	}
 
+	/**
+	 * Returns true if the files are written by a {@link BinaryStreamDriver},
+	 * which reads and writes bytes rather than characters in an encoding.
+	 */
+	private boolean isBinary() {
+		return xstream.getHierarchicalStreamDriver() instanceof BinaryStreamDriver;
+	}
+
 	private Object readFile(final File file) {
 		try {
 			final FileInputStream in = new FileInputStream(file);
+			if (isBinary()) {
+				// the binary reader buffers the stream itself
+				try {
+					return xstream.fromXML(in);
+				} finally {
+					in.close();
+				}
+			}
 			final Reader reader = encoding != null ? new InputStreamReader(in, encoding)
 					: new InputStreamReader(in);
 			try {
@@ -215,6 +232,14 @@ abstract class AbstractFilePersistenceStrategy implements PersistenceStrategy {
 	private void writeFile(final File file, final Object value) {
 		try {
 			final FileOutputStream out = new FileOutputStream(file);
+			if (isBinary()) {
+				try {
+					xstream.toXML(value, out);
+				} finally {
+					out.close();
+				}
+				return;
+			}
 			final Writer writer = encoding != null ? new OutputStreamWriter(out, encoding)
 					: new OutputStreamWriter(out);
 			try {
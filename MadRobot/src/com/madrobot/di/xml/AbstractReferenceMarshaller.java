@@ -4,71 +4,320 @@
  *  are made available under the terms of the GNU Lesser Public License v2.1
  *  which accompanies this distribution, and is available at
  *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
- *  
+ *
  *  Contributors:
  *  Elton Kent - initial API and implementation
  ******************************************************************************/
 
 package com.madrobot.di.xml;
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
-import com.madrobot.beans.ObjectIdDictionary;
 import com.madrobot.di.xml.converter.ConversionException;
 import com.madrobot.di.xml.converter.Converter;
 import com.madrobot.di.xml.converter.ConverterLookup;
 import com.madrobot.di.xml.converter.MarshallingContext;
+import com.madrobot.di.xml.io.AbstractWriter;
 import com.madrobot.di.xml.io.HierarchicalStreamWriter;
+import com.madrobot.di.xml.io.WriterWrapper;
 import com.madrobot.di.xml.io.path.Path;
-import com.madrobot.di.xml.io.path.PathTracker;
-import com.madrobot.di.xml.io.path.PathTrackingWriter;
+import com.madrobot.util.collections.IdentityIntMap;
 
 /**
  * Abstract base class for a TreeMarshaller, that can build references.
- * 
- * 
+ * <p>
+ * The objects seen are kept in an identity hash table that maps each object
+ * to the number of a record holding its reference key and its element. No
+ * path is built while marshalling: the element of an object is recorded as
+ * its name, its index among the siblings of the same name and its parent's
+ * record, and turned into a {@link Path} only when the object is referenced
+ * again. Element records are only kept when the subclass works with paths.
+ * </p>
+ *
  * @since 1.2
  */
 abstract class AbstractReferenceMarshaller extends TreeMarshaller implements
 		MarshallingContext {
 
-	private static class Id {
-		private Object item;
-		private Path path;
-
-		public Id(Object item, Path path) {
-			this.item = item;
-			this.path = path;
+	public static class ReferencedImplicitElementException extends ConversionException {
+		public ReferencedImplicitElementException(final Object item, final Path path) {
+			super("Cannot reference implicit element");
+			add("implicit-element", item.toString());
+			add("referencing-element", path.toString());
 		}
+	}
+
+	/**
+	 * Counts the child elements of an element by name, to index the elements
+	 * as in a path. Most elements have few child names, which are kept in
+	 * arrays; elements with many are counted in a map.
+	 */
+	private static final class SiblingCounter {
+		private static final int MAX_NAMES = 8;
+
+		private final String[] names = new String[MAX_NAMES];
+		private final int[] counts = new int[MAX_NAMES];
+		private int size;
+		private Map<String, int[]> overflow;
 
-		protected Object getItem() {
-			return this.item;
+		/**
+		 * Counts an element named <code>name</code> and returns its index,
+		 * starting at 1.
+		 */
+		int increment(String name) {
+			for (int i = 0; i < size; i++) {
+				String existing = names[i];
+				if (existing == name || existing.equals(name)) {
+					return ++counts[i];
+				}
+			}
+			if (size < MAX_NAMES) {
+				names[size] = name;
+				counts[size++] = 1;
+				return 1;
+			}
+			if (overflow == null) {
+				overflow = new HashMap<String, int[]>();
+			}
+			int[] count = overflow.get(name);
+			if (count == null) {
+				count = new int[1];
+				overflow.put(name, count);
+			}
+			return ++count[0];
 		}
 
-		protected Path getPath() {
-			return this.path;
+		void reset() {
+			for (int i = 0; i < size; i++) {
+				names[i] = null;
+			}
+			size = 0;
+			overflow = null;
 		}
 	}
 
-	public static class ReferencedImplicitElementException extends ConversionException {
-		public ReferencedImplicitElementException(final Object item, final Path path) {
-			super("Cannot reference implicit element");
-			add("implicit-element", item.toString());
-			add("referencing-element", path.toString());
+	/**
+	 * Keeps the stack of open elements for the references.
+	 */
+	private final class ElementTrackingWriter extends WriterWrapper {
+		private final boolean isNameEncoding;
+
+		ElementTrackingWriter(HierarchicalStreamWriter writer) {
+			super(writer);
+			this.isNameEncoding = writer.underlyingWriter() instanceof AbstractWriter;
+		}
+
+		@Override
+		public void endNode() {
+			super.endNode();
+			popElement();
+		}
+
+		@Override
+		public void startNode(String name) {
+			pushElement(encode(name));
+			super.startNode(name);
+		}
+
+		@Override
+		public void startNode(String name, Class clazz) {
+			pushElement(encode(name));
+			super.startNode(name, clazz);
+		}
+
+		private String encode(String name) {
+			return isNameEncoding ? ((AbstractWriter) wrapped.underlyingWriter())
+					.encodeNode(name) : name;
 		}
 	}
 
-	private ObjectIdDictionary implicitElements = new ObjectIdDictionary();
-	private Path lastPath;
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final boolean tracksPaths;
 
-	private PathTracker pathTracker = new PathTracker();
+	/** Item to the number of its record */
+	private final IdentityIntMap references = new IdentityIntMap();
+	private final IdentityIntMap implicitElements = new IdentityIntMap();
 
-	private ObjectIdDictionary references = new ObjectIdDictionary();
+	/*
+	 * The records of the referenced items: their reference key, the record of
+	 * their element (or -1 if paths are not tracked) and the version of the
+	 * element stack when they were recorded.
+	 */
+	private Object[] recordKeys = new Object[INITIAL_CAPACITY];
+	private int[] recordElements = new int[INITIAL_CAPACITY];
+	private int[] recordVersions = new int[INITIAL_CAPACITY];
+	private int recordCount;
 
+	/*
+	 * The stack of open elements. Each element has a serial number in document
+	 * order; the version changes whenever an element starts or ends.
+	 */
+	private String[] stackNames = new String[16];
+	private int[] stackIndexes = new int[16];
+	private int[] stackSerials = new int[16];
+	/** The element record of each open element, or -1 if it has none yet */
+	private int[] stackElements = new int[16];
+	/** The child counter of each open element, and of the document at 0 */
+	private SiblingCounter[] stackSiblings = new SiblingCounter[17];
+	private int depth;
+	private int serial;
+	private int version;
+	/** Serial number of the element of the last recorded item */
+	private int lastSerial = -2;
+
+	/*
+	 * The records of the elements of the recorded items and their ancestors:
+	 * name, index among the siblings of the same name and parent record.
+	 */
+	private String[] elementNames;
+	private int[] elementIndexes;
+	private int[] elementParents;
+	private int elementCount;
+
+	/**
+	 * @param tracksPaths
+	 *            true if the references need the paths of the elements
+	 */
 	AbstractReferenceMarshaller(HierarchicalStreamWriter writer,
-			ConverterLookup converterLookup, Mapper mapper) {
+			ConverterLookup converterLookup, Mapper mapper, boolean tracksPaths) {
 		super(writer, converterLookup, mapper);
-		this.writer = new PathTrackingWriter(writer, pathTracker);
+		this.writer = new ElementTrackingWriter(writer);
+		this.tracksPaths = tracksPaths;
+		if (tracksPaths) {
+			elementNames = new String[INITIAL_CAPACITY];
+			elementIndexes = new int[INITIAL_CAPACITY];
+			elementParents = new int[INITIAL_CAPACITY];
+		}
+	}
+
+	private void pushElement(String name) {
+		if (depth == stackNames.length) {
+			int capacity = depth * 2;
+			stackNames = grow(stackNames, capacity);
+			stackIndexes = grow(stackIndexes, capacity);
+			stackSerials = grow(stackSerials, capacity);
+			stackElements = grow(stackElements, capacity);
+			SiblingCounter[] siblings = new SiblingCounter[capacity + 1];
+			System.arraycopy(stackSiblings, 0, siblings, 0, stackSiblings.length);
+			stackSiblings = siblings;
+		}
+		stackNames[depth] = name;
+		stackSerials[depth] = serial++;
+		stackElements[depth] = -1;
+		if (tracksPaths) {
+			SiblingCounter siblings = stackSiblings[depth];
+			if (siblings == null) {
+				siblings = stackSiblings[depth] = new SiblingCounter();
+			}
+			stackIndexes[depth] = siblings.increment(name);
+		}
+		depth++;
+		version++;
+	}
+
+	private void popElement() {
+		depth--;
+		stackNames[depth] = null;
+		if (tracksPaths && stackSiblings[depth + 1] != null) {
+			stackSiblings[depth + 1].reset();
+		}
+		version++;
+	}
+
+	/**
+	 * Returns the record of the open element at <code>depth</code>, recording
+	 * it and its ancestors if needed.
+	 */
+	private int elementAt(int depth) {
+		if (depth == 0) {
+			return -1;
+		}
+		int level = depth - 1;
+		while (level >= 0 && stackElements[level] < 0) {
+			level--;
+		}
+		for (level++; level < depth; level++) {
+			if (elementCount == elementNames.length) {
+				int capacity = elementCount * 2;
+				elementNames = grow(elementNames, capacity);
+				elementIndexes = grow(elementIndexes, capacity);
+				elementParents = grow(elementParents, capacity);
+			}
+			elementNames[elementCount] = stackNames[level];
+			elementIndexes[elementCount] = stackIndexes[level];
+			elementParents[elementCount] = level == 0 ? -1 : stackElements[level - 1];
+			stackElements[level] = elementCount++;
+		}
+		return stackElements[depth - 1];
+	}
+
+	private int addRecord(Object key, int element, int version) {
+		if (recordCount == recordKeys.length) {
+			int capacity = recordCount * 2;
+			Object[] keys = new Object[capacity];
+			System.arraycopy(recordKeys, 0, keys, 0, recordCount);
+			recordKeys = keys;
+			recordElements = grow(recordElements, capacity);
+			recordVersions = grow(recordVersions, capacity);
+		}
+		recordKeys[recordCount] = key;
+		recordElements[recordCount] = element;
+		recordVersions[recordCount] = version;
+		return recordCount++;
+	}
+
+	private static String[] grow(String[] array, int capacity) {
+		String[] grown = new String[capacity];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		int[] grown = new int[capacity];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static String chunk(String name, int index) {
+		return index > 1 ? name + '[' + index + ']' : name;
+	}
+
+	/**
+	 * Returns the path of the current element. Without path tracking the
+	 * path has no indexes.
+	 */
+	protected Path getCurrentPath() {
+		return getPath(depth);
+	}
+
+	private Path getPath(int depth) {
+		String[] chunks = new String[depth + 1];
+		chunks[0] = "";
+		for (int i = 0; i < depth; i++) {
+			chunks[i + 1] = tracksPaths ? chunk(stackNames[i], stackIndexes[i]) : stackNames[i];
+		}
+		return new Path(chunks);
+	}
+
+	private Path getElementPath(int element) {
+		int length = 1;
+		for (int e = element; e >= 0; e = elementParents[e]) {
+			length++;
+		}
+		String[] chunks = new String[length];
+		chunks[0] = "";
+		for (int e = element; e >= 0; e = elementParents[e]) {
+			chunks[--length] = chunk(elementNames[e], elementIndexes[e]);
+		}
+		return new Path(chunks);
+	}
+
+	private Object getReferenceKey(int record) {
+		Object key = recordKeys[record];
+		return key == null && tracksPaths ? getElementPath(recordElements[record]) : key;
 	}
 
 	@Override
@@ -77,24 +326,30 @@ abstract class AbstractReferenceMarshaller extends TreeMarshaller implements
 			// strings, ints, dates, etc... don't bother using references.
 			converter.marshal(item, writer, this);
 		} else {
-			final Path currentPath = pathTracker.getPath();
-			Id existingReference = (Id) references.lookupId(item);
-			if (existingReference != null && existingReference.getPath() != currentPath) {
+			final int currentVersion = version;
+			final int currentDepth = depth;
+			final int existingRecord = references.get(item, -1);
+			if (existingRecord >= 0 && recordVersions[existingRecord] != currentVersion) {
 				String attributeName = getMapper().aliasForSystemAttribute("reference");
 				if (attributeName != null) {
-					writer.addAttribute(attributeName,
-							createReference(currentPath, existingReference.getItem()));
+					writer.addAttribute(
+							attributeName,
+							createReference(recordKeys[existingRecord],
+									tracksPaths ? getElementPath(recordElements[existingRecord])
+											: null));
 				}
 			} else {
-				final Object newReferenceKey = existingReference == null ? createReferenceKey(
-						currentPath, item) : existingReference.getItem();
-				if (lastPath == null || !currentPath.isAncestor(lastPath)) {
+				final Object newReferenceKey = existingRecord < 0 ? createReferenceKey(item)
+						: recordKeys[existingRecord];
+				int currentSerial = depth == 0 ? -1 : stackSerials[depth - 1];
+				// only the first item of an element is recorded
+				if (lastSerial < currentSerial) {
 					fireValidReference(newReferenceKey);
-					lastPath = currentPath;
-					references.associateId(item, new Id(newReferenceKey, currentPath));
+					lastSerial = currentSerial;
+					references.put(item, addRecord(newReferenceKey,
+							tracksPaths ? elementAt(currentDepth) : -1, currentVersion));
 				}
 				converter.marshal(item, writer, new ReferencingMarshallingContext() {
-
 					@Override
 					public void convertAnother(Object nextItem) {
 						AbstractReferenceMarshaller.this.convertAnother(nextItem);
@@ -105,13 +360,10 @@ abstract class AbstractReferenceMarshaller extends TreeMarshaller implements
 						AbstractReferenceMarshaller.this.convertAnother(nextItem, converter);
 					}
 
-					/**
-					 * @deprecated As of 1.4.2
-					 */
 					@Deprecated
 					@Override
 					public Path currentPath() {
-						return pathTracker.getPath();
+						return getCurrentPath();
 					}
 
 					@Override
@@ -126,8 +378,7 @@ abstract class AbstractReferenceMarshaller extends TreeMarshaller implements
 
 					@Override
 					public Object lookupReference(Object item) {
-						Id id = (Id) references.lookupId(item);
-						return id.getItem();
+						return getReferenceKey(references.get(item, -1));
 					}
 
 					@Override
@@ -137,25 +388,39 @@ abstract class AbstractReferenceMarshaller extends TreeMarshaller implements
 
 					@Override
 					public void registerImplicit(Object item) {
-						if (implicitElements.containsId(item)) {
-							throw new ReferencedImplicitElementException(item, currentPath);
+						if (implicitElements.containsKey(item)) {
+							throw new ReferencedImplicitElementException(item,
+									getPath(currentDepth));
 						}
-						implicitElements.associateId(item, newReferenceKey);
+						implicitElements.put(item, 0);
 					}
 
 					@Override
 					public void replace(Object original, Object replacement) {
-						references.associateId(replacement, new Id(newReferenceKey,
-								currentPath));
+						references.put(replacement, addRecord(newReferenceKey,
+								tracksPaths ? elementAt(currentDepth) : -1, currentVersion));
 					}
 				});
 			}
 		}
 	}
 
-	protected abstract String createReference(Path currentPath, Object existingReferenceKey);
+	/**
+	 * Creates the value of the reference attribute.
+	 *
+	 * @param existingReferenceKey
+	 *            the key created for the referenced item
+	 * @param existingPath
+	 *            the path of the referenced item, or null if paths are not
+	 *            tracked
+	 */
+	protected abstract String createReference(Object existingReferenceKey, Path existingPath);
 
-	protected abstract Object createReferenceKey(Path currentPath, Object item);
+	/**
+	 * Creates the reference key of an item, or returns null if the item is
+	 * referenced by its path.
+	 */
+	protected abstract Object createReferenceKey(Object item);
 
 	protected abstract void fireValidReference(Object referenceKey);
 }
@@ -28,6 +28,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.madrobot.di.xml.annotation.Alias;
 import com.madrobot.di.xml.annotation.AsAttribute;
@@ -83,6 +84,11 @@ class AnnotationMapper extends MapperWrapper implements AnnotationConfiguration
 	}
 
 	private final Set<Class<?>> annotatedTypes = new HashSet<Class<?>>();
+	/**
+	 * Types whose annotations, and those of the types they reach, have been
+	 * processed; read without locking
+	 */
+	private final Map<Class<?>, Boolean> processedTypes = new ConcurrentHashMap<Class<?>, Boolean>();
 	private final Object[] arguments;
 	private final AttributeMapper attributeMapper;
 	private final ClassAliasingMapper classAliasingMapper;
@@ -302,7 +308,7 @@ class AnnotationMapper extends MapperWrapper implements AnnotationConfiguration
 	}
 
 	private void processAnnotations(final Class initialType) {
-		if (initialType == null) {
+		if (initialType == null || processedTypes.containsKey(initialType)) {
 			return;
 		}
 		synchronized (annotatedTypes) {
@@ -310,6 +316,7 @@ class AnnotationMapper extends MapperWrapper implements AnnotationConfiguration
 			types.add(initialType);
 			processTypes(types);
 		}
+		processedTypes.put(initialType, Boolean.TRUE);
 	}
 
 	@Override
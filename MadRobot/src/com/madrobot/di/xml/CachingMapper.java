@@ -12,9 +12,8 @@
 package com.madrobot.di.xml;
 
 import java.lang.ref.WeakReference;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.madrobot.di.xml.core.Caching;
 
@@ -38,7 +37,7 @@ class CachingMapper extends MapperWrapper implements Caching {
 	}
 
 	private Object readResolve() {
-		realClassCache = Collections.synchronizedMap(new HashMap(128));
+		realClassCache = new ConcurrentHashMap(128);
 		return this;
 	}
 
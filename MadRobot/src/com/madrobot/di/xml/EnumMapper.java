@@ -12,8 +12,7 @@
 package com.madrobot.di.xml;
 
 import java.util.EnumSet;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.madrobot.di.xml.converter.EnumSingleValueConverter;
 import com.madrobot.di.xml.converter.SingleValueConverter;
@@ -29,7 +28,7 @@ import com.madrobot.di.xml.core.Caching;
 class EnumMapper extends MapperWrapper implements Caching {
 
 	private transient AttributeMapper attributeMapper;
-	private transient Map<Class, SingleValueConverter> enumConverterMap;
+	private transient ConcurrentHashMap<Class, SingleValueConverter> enumConverterMap;
 
 	// /**
 	// * @deprecated As of 1.3.1, use {@link #EnumMapper(Mapper)}
@@ -47,11 +46,7 @@ class EnumMapper extends MapperWrapper implements Caching {
 
 	@Override
 	public void flushCache() {
-		if (enumConverterMap.size() > 0) {
-			synchronized (enumConverterMap) {
-				enumConverterMap.clear();
-			}
-		}
+		enumConverterMap.clear();
 	}
 
 	@Override
@@ -76,20 +71,21 @@ class EnumMapper extends MapperWrapper implements Caching {
 				&& Enum.class.isAssignableFrom(type)
 				&& attributeMapper.shouldLookForSingleValueConverter(fieldName, type,
 						definedIn)) {
-			synchronized (enumConverterMap) {
-				SingleValueConverter singleValueConverter = enumConverterMap.get(type);
+			SingleValueConverter singleValueConverter = enumConverterMap.get(type);
+			if (singleValueConverter == null) {
+				singleValueConverter = super.getConverterFromItemType(fieldName, type, definedIn);
 				if (singleValueConverter == null) {
-					singleValueConverter = super.getConverterFromItemType(fieldName, type,
-							definedIn);
-					if (singleValueConverter == null) {
-						@SuppressWarnings("unchecked")
-						Class<? extends Enum> enumType = type;
-						singleValueConverter = new EnumSingleValueConverter(enumType);
-					}
-					enumConverterMap.put(type, singleValueConverter);
+					@SuppressWarnings("unchecked")
+					Class<? extends Enum> enumType = type;
+					singleValueConverter = new EnumSingleValueConverter(enumType);
+				}
+				SingleValueConverter existing = enumConverterMap.putIfAbsent(type,
+						singleValueConverter);
+				if (existing != null) {
+					singleValueConverter = existing;
 				}
-				return singleValueConverter;
 			}
+			return singleValueConverter;
 		}
 		return null;
 	}
@@ -100,7 +96,7 @@ class EnumMapper extends MapperWrapper implements Caching {
 	}
 
 	private Object readResolve() {
-		this.enumConverterMap = new HashMap<Class, SingleValueConverter>();
+		this.enumConverterMap = new ConcurrentHashMap<Class, SingleValueConverter>();
 		this.attributeMapper = (AttributeMapper) lookupMapperOfType(AttributeMapper.class);
 		return this;
 	}
@@ -30,17 +30,17 @@ class ReferenceByIdMarshaller extends AbstractReferenceMarshaller {
 
 	ReferenceByIdMarshaller(HierarchicalStreamWriter writer, ConverterLookup converterLookup,
 			Mapper mapper, IDGenerator idGenerator) {
-		super(writer, converterLookup, mapper);
+		super(writer, converterLookup, mapper, false);
 		this.idGenerator = idGenerator;
 	}
 
 	@Override
-	protected String createReference(Path currentPath, Object existingReferenceKey) {
+	protected String createReference(Object existingReferenceKey, Path existingPath) {
 		return existingReferenceKey.toString();
 	}
 
 	@Override
-	protected Object createReferenceKey(Path currentPath, Object item) {
+	protected Object createReferenceKey(Object item) {
 		return idGenerator.next(item);
 	}
 
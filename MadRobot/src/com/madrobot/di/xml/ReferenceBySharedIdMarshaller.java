@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2012 MadRobot.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the GNU Lesser Public License v2.1
+ *  which accompanies this distribution, and is available at
+ *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *  
+ *  Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+
+package com.madrobot.di.xml;
+
+import com.madrobot.di.xml.converter.ConverterLookup;
+import com.madrobot.di.xml.converter.DataHolder;
+import com.madrobot.di.xml.io.ExtendedHierarchicalStreamWriter;
+import com.madrobot.di.xml.io.HierarchicalStreamWriter;
+import com.madrobot.di.xml.io.path.Path;
+import com.madrobot.util.collections.IdentityIntMap;
+
+/**
+ * ID marshaller that only writes an id attribute on objects that are referenced
+ * again.
+ * <p>
+ * Before anything is written, the object graph is marshalled once to a writer
+ * that discards its output, only to find the objects that end up as a
+ * reference. The second pass writes the XML and gives ids to these objects
+ * alone, so the graph is converted twice.
+ * </p>
+ */
+class ReferenceBySharedIdMarshaller extends ReferenceByIdMarshaller {
+
+	/**
+	 * Marshaller of the first pass, which records every object written as a
+	 * reference.
+	 */
+	private static final class SharedObjectFinder extends AbstractReferenceMarshaller {
+
+		private final IdentityIntMap sharedObjects;
+
+		SharedObjectFinder(ConverterLookup converterLookup, Mapper mapper,
+				IdentityIntMap sharedObjects) {
+			super(new NullWriter(), converterLookup, mapper, false);
+			this.sharedObjects = sharedObjects;
+		}
+
+		@Override
+		protected String createReference(Object existingReferenceKey, Path existingPath) {
+			sharedObjects.put(existingReferenceKey, 0);
+			return "";
+		}
+
+		@Override
+		protected Object createReferenceKey(Object item) {
+			return item;
+		}
+
+		@Override
+		protected void fireValidReference(Object referenceKey) {
+		}
+	}
+
+	private static final class NullWriter implements ExtendedHierarchicalStreamWriter {
+
+		@Override
+		public void addAttribute(String name, String value) {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public void endNode() {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void setValue(String text) {
+		}
+
+		@Override
+		public void startNode(String name) {
+		}
+
+		@Override
+		public void startNode(String name, Class clazz) {
+		}
+
+		@Override
+		public HierarchicalStreamWriter underlyingWriter() {
+			return this;
+		}
+	}
+
+	/** Reference key of the objects that are written only once */
+	private static final Object UNSHARED = new Object();
+
+	private final IdentityIntMap sharedObjects = new IdentityIntMap();
+
+	ReferenceBySharedIdMarshaller(HierarchicalStreamWriter writer,
+			ConverterLookup converterLookup, Mapper mapper) {
+		super(writer, converterLookup, mapper);
+	}
+
+	@Override
+	protected Object createReferenceKey(Object item) {
+		return sharedObjects.containsKey(item) ? super.createReferenceKey(item) : UNSHARED;
+	}
+
+	@Override
+	protected void fireValidReference(Object referenceKey) {
+		if (referenceKey != UNSHARED) {
+			super.fireValidReference(referenceKey);
+		}
+	}
+
+	@Override
+	public void start(Object item, DataHolder dataHolder) {
+		new SharedObjectFinder(converterLookup, getMapper(), sharedObjects).start(item,
+				dataHolder);
+		super.start(item, dataHolder);
+	}
+}
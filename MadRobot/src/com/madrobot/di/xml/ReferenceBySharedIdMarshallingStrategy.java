@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2012 MadRobot.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the GNU Lesser Public License v2.1
+ *  which accompanies this distribution, and is available at
+ *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *  
+ *  Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+
+package com.madrobot.di.xml;
+
+import com.madrobot.di.xml.converter.ConverterLookup;
+import com.madrobot.di.xml.io.HierarchicalStreamReader;
+import com.madrobot.di.xml.io.HierarchicalStreamWriter;
+
+/**
+ * ID strategy that only marks the objects referenced more than once, at the
+ * cost of converting the object graph twice when writing.
+ * 
+ * @see XMLWizard#SHARED_ID_REFERENCES
+ */
+class ReferenceBySharedIdMarshallingStrategy extends AbstractTreeMarshallingStrategy {
+
+	@Override
+	protected TreeMarshaller createMarshallingContext(HierarchicalStreamWriter writer,
+			ConverterLookup converterLookup, Mapper mapper) {
+		return new ReferenceBySharedIdMarshaller(writer, converterLookup, mapper);
+	}
+
+	@Override
+	protected TreeUnmarshaller createUnmarshallingContext(Object root,
+			HierarchicalStreamReader reader, ConverterLookup converterLookup, Mapper mapper) {
+		return new ReferenceByIdUnmarshaller(root, reader, converterLookup, mapper);
+	}
+}
@@ -21,22 +21,22 @@ class ReferenceByXPathMarshaller extends AbstractReferenceMarshaller {
 
 	ReferenceByXPathMarshaller(HierarchicalStreamWriter writer,
 			ConverterLookup converterLookup, Mapper mapper, int mode) {
-		super(writer, converterLookup, mapper);
+		super(writer, converterLookup, mapper, true);
 		this.mode = mode;
 	}
 
 	@Override
-	protected String createReference(Path currentPath, Object existingReferenceKey) {
-		Path existingPath = (Path) existingReferenceKey;
+	protected String createReference(Object existingReferenceKey, Path existingPath) {
 		Path referencePath = (mode & ReferenceByXPathMarshallingStrategy.ABSOLUTE) > 0 ? existingPath
-				: currentPath.relativeTo(existingPath);
+				: getCurrentPath().relativeTo(existingPath);
 		return (mode & ReferenceByXPathMarshallingStrategy.SINGLE_NODE) > 0 ? referencePath
 				.explicit() : referencePath.toString();
 	}
 
 	@Override
-	protected Object createReferenceKey(Path currentPath, Object item) {
-		return currentPath;
+	protected Object createReferenceKey(Object item) {
+		// the item is referenced by the path of its element
+		return null;
 	}
 
 	@Override
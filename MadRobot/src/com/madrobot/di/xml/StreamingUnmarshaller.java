@@ -0,0 +1,303 @@
+/*******************************************************************************
+ * Copyright (c) 2012 MadRobot.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the GNU Lesser Public License v2.1
+ *  which accompanies this distribution, and is available at
+ *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ *  Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.di.xml;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.madrobot.di.xml.io.HierarchicalStreamReader;
+
+/**
+ * Unmarshals the elements at a path of a document one at a time, without
+ * building the object graph of the whole document.
+ * <p>
+ * Large documents are often one root wrapping many repeated elements. This
+ * class walks the document with the {@link HierarchicalStreamReader}, skips
+ * the elements off the path and unmarshals each element at the end of the
+ * path on its own, as {@link XMLWizard#unmarshal(HierarchicalStreamReader)}
+ * would. An element is no longer referenced once it has been handed out, so
+ * memory use is bound by the largest element rather than the document.
+ * </p>
+ * <p>
+ * The path is the element names from the root separated by <code>/</code>;
+ * <code>*</code> matches any name. Each element is unmarshalled on its own,
+ * so references between elements or to elements off the path cannot be
+ * resolved; use {@link XMLWizard#NO_REFERENCES} or references within an
+ * element only.
+ * </p>
+ *
+ * <pre>
+ * StreamingUnmarshaller items = wizard.createStreamingUnmarshaller(in, &quot;feed/items/item&quot;);
+ * try {
+ * 	while (items.hasNext()) {
+ * 		Item item = (Item) items.next();
+ * 		...
+ * 	}
+ * } finally {
+ * 	items.close();
+ * }
+ * </pre>
+ * <p>
+ * The elements can also be pushed to a {@link Handler} on worker threads, so
+ * that parsing and processing overlap:
+ * </p>
+ *
+ * <pre>
+ * items.forEach(handler, 4);
+ * </pre>
+ *
+ * @see XMLWizard#createStreamingUnmarshaller(java.io.InputStream, String)
+ */
+public class StreamingUnmarshaller implements Iterator<Object> {
+
+	/**
+	 * Receives the unmarshalled elements.
+	 */
+	public interface Handler {
+		/**
+		 * Handles an unmarshalled element. With a worker pool, this method is
+		 * called on the worker threads.
+		 */
+		void handle(Object item);
+	}
+
+	private static final String ANY = "*";
+
+	private final XMLWizard wizard;
+	private final HierarchicalStreamReader reader;
+	private final String[] path;
+	/** Depth of the reader's node below the root */
+	private int depth;
+	/** True if the reader is at an element at the end of the path */
+	private boolean matched;
+	private boolean done;
+
+	/**
+	 * Constructs a StreamingUnmarshaller reading the elements at
+	 * <code>path</code> from <code>reader</code>, which must be at the root
+	 * element.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the path is empty
+	 */
+	public StreamingUnmarshaller(XMLWizard wizard, HierarchicalStreamReader reader, String path) {
+		this.wizard = wizard;
+		this.reader = reader;
+		this.path = split(path);
+		if (!matches(0, reader.getNodeName())) {
+			done = true;
+		} else if (this.path.length == 1) {
+			matched = true;
+		}
+	}
+
+	private static String[] split(String path) {
+		List<String> segments = new ArrayList<String>();
+		int start = 0;
+		int length = path.length();
+		while (start <= length) {
+			int end = path.indexOf('/', start);
+			if (end < 0) {
+				end = length;
+			}
+			if (end > start) {
+				segments.add(path.substring(start, end));
+			}
+			start = end + 1;
+		}
+		if (segments.isEmpty()) {
+			throw new IllegalArgumentException("Empty path: " + path);
+		}
+		return segments.toArray(new String[segments.size()]);
+	}
+
+	private boolean matches(int depth, String name) {
+		String segment = path[depth];
+		return segment.equals(ANY) || segment.equals(name);
+	}
+
+	/**
+	 * Returns true if there is another element at the path. Moves the reader
+	 * past the elements off the path.
+	 */
+	@Override
+	public boolean hasNext() {
+		int last = path.length - 1;
+		while (!matched && !done) {
+			if (reader.hasMoreChildren()) {
+				reader.moveDown();
+				depth++;
+				if (!matches(depth, reader.getNodeName())) {
+					reader.moveUp();
+					depth--;
+				} else if (depth == last) {
+					matched = true;
+				}
+			} else if (depth == 0) {
+				done = true;
+			} else {
+				reader.moveUp();
+				depth--;
+			}
+		}
+		return matched;
+	}
+
+	/**
+	 * Unmarshals the next element at the path.
+	 *
+	 * @throws NoSuchElementException
+	 *             if there is none
+	 * @throws XMLWizardException
+	 *             if the element cannot be unmarshalled
+	 */
+	@Override
+	public Object next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		matched = false;
+		Object item = wizard.unmarshal(reader);
+		if (depth == 0) {
+			// the path is the root itself
+			done = true;
+		} else {
+			reader.moveUp();
+			depth--;
+		}
+		return item;
+	}
+
+	/**
+	 * @throws UnsupportedOperationException
+	 *             always
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Passes each remaining element to <code>handler</code> on the calling
+	 * thread.
+	 *
+	 * @return the number of elements handled
+	 */
+	public int forEach(Handler handler) {
+		int count = 0;
+		while (hasNext()) {
+			handler.handle(next());
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Passes each remaining element to <code>handler</code> on a pool of
+	 * <code>threads</code> worker threads, which is shut down when done.
+	 *
+	 * @see #forEach(Handler, Executor, int)
+	 */
+	public int forEach(Handler handler, int threads) {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			return forEach(handler, executor, threads * 2);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Passes each remaining element to <code>handler</code> on
+	 * <code>executor</code>. The elements are unmarshalled on the calling
+	 * thread while the handler runs on the executor's threads; at most
+	 * <code>maxPending</code> elements are unmarshalled and not yet handled,
+	 * after which unmarshalling waits for the handlers. The method returns
+	 * once every element is handled.
+	 * <p>
+	 * If the handler throws, no further elements are unmarshalled and the
+	 * exception is thrown from this method once the running handlers are
+	 * done. The method never returns or throws while a handler is running,
+	 * also when an element cannot be unmarshalled, the executor rejects a
+	 * handler or the calling thread is interrupted.
+	 * </p>
+	 *
+	 * @return the number of elements handled
+	 * @throws XMLWizardException
+	 *             if an element cannot be unmarshalled, or the calling thread
+	 *             is interrupted
+	 */
+	public int forEach(final Handler handler, Executor executor, int maxPending) {
+		if (maxPending < 1) {
+			throw new IllegalArgumentException("maxPending must be positive: " + maxPending);
+		}
+		final Semaphore pending = new Semaphore(maxPending);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		int count = 0;
+		try {
+			while (failure.get() == null && hasNext()) {
+				pending.acquire();
+				boolean submitted = false;
+				try {
+					final Object item = next();
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								handler.handle(item);
+							} catch (Throwable t) {
+								failure.compareAndSet(null, t);
+							} finally {
+								pending.release();
+							}
+						}
+					});
+					submitted = true;
+				} finally {
+					if (!submitted) {
+						pending.release();
+					}
+				}
+				count++;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new XMLWizardException("Interrupted while handling the elements", e);
+		} finally {
+			// wait for the running handlers, also when unmarshalling failed
+			pending.acquireUninterruptibly(maxPending);
+			pending.release(maxPending);
+		}
+		Throwable t = failure.get();
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		} else if (t != null) {
+			throw new XMLWizardException(t);
+		}
+		return count;
+	}
+
+	/**
+	 * Closes the reader.
+	 */
+	public void close() {
+		reader.close();
+	}
+}
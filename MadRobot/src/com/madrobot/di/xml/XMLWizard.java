@@ -242,6 +242,12 @@ import com.madrobot.lang.reflect.CompositeClassLoader;
  * such as when using hand-written XML, this is easier to work with.</td>
  * </tr>
  * <tr>
+ * <td><code>xmlWizard.setMode(XMLWizard.SHARED_ID_REFERENCES);</code></td>
+ * <td>Uses ID references like <code>ID_REFERENCES</code>, but only writes an
+ * id on the objects that are referenced again. The object graph is converted
+ * twice when writing to find these objects.</td>
+ * </tr>
+ * <tr>
  * <td><code>xmlWizard.setMode(XmlWizard.NO_REFERENCES);</code></td>
  * <td>This disables object graph support and treats the object structure like a
  * tree. Duplicate references are treated as two separate objects and circular
@@ -267,13 +273,14 @@ import com.madrobot.lang.reflect.CompositeClassLoader;
  */
 public class XMLWizard {
 
-	private static final String ANNOTATION_MAPPER_TYPE = "com.madrobot.di.wizard.xml.AnnotationMapper";
+	private static final String ANNOTATION_MAPPER_TYPE = "com.madrobot.di.xml.AnnotationMapper";
 	public static final int ID_REFERENCES = 1002;
 	public static final int NO_REFERENCES = 1001;
 	public static final int PRIORITY_LOW = -10;
 	public static final int PRIORITY_NORMAL = 0;
 	public static final int PRIORITY_VERY_HIGH = 10000;
 	public static final int PRIORITY_VERY_LOW = -20;
+	public static final int SHARED_ID_REFERENCES = 1007;
 
 	public static final int SINGLE_NODE_XPATH_ABSOLUTE_REFERENCES = 1006;
 	public static final int SINGLE_NODE_XPATH_RELATIVE_REFERENCES = 1005;
@@ -943,6 +950,31 @@ public class XMLWizard {
 		return createObjectInputStream(hierarchicalStreamDriver.createReader(xmlReader));
 	}
 
+	/**
+	 * Creates a StreamingUnmarshaller that unmarshals the elements at
+	 * <code>path</code> of a document one at a time.
+	 * 
+	 * @param path
+	 *            the element names from the root, separated by <code>/</code>
+	 * @see StreamingUnmarshaller
+	 */
+	public StreamingUnmarshaller createStreamingUnmarshaller(InputStream in, String path) {
+		return new StreamingUnmarshaller(this, hierarchicalStreamDriver.createReader(in), path);
+	}
+
+	/**
+	 * Creates a StreamingUnmarshaller that unmarshals the elements at
+	 * <code>path</code> of a document one at a time.
+	 * 
+	 * @param path
+	 *            the element names from the root, separated by <code>/</code>
+	 * @see StreamingUnmarshaller
+	 */
+	public StreamingUnmarshaller createStreamingUnmarshaller(Reader xmlReader, String path) {
+		return new StreamingUnmarshaller(this, hierarchicalStreamDriver.createReader(xmlReader),
+				path);
+	}
+
 	/**
 	 * Creates an ObjectOutputStream that serializes a stream of objects to the
 	 * writer using XMLWizard.
@@ -1149,7 +1181,9 @@ public class XMLWizard {
 	 * Deserialize an object from an XML Reader.
 	 * 
 	 * @throws XMLWizardException
-	 *             if the object cannot be deserialized
+	 *             if the object cannot be deserialized, or the driver has a binary
+	 *             form, such as {@link com.madrobot.di.xml.io.BinaryStreamDriver},
+	 *             and only supports byte streams
 	 */
 	public Object fromXML(Reader reader) {
 		return unmarshal(hierarchicalStreamDriver.createReader(reader), null);
@@ -1162,7 +1196,9 @@ public class XMLWizard {
 	 * directly into the raw memory area of the existing object. Use with care!
 	 * 
 	 * @throws XMLWizardException
-	 *             if the object cannot be deserialized
+	 *             if the object cannot be deserialized, or the driver has a binary
+	 *             form, such as {@link com.madrobot.di.xml.io.BinaryStreamDriver},
+	 *             and only supports byte streams
 	 */
 	public Object fromXML(Reader xml, Object root) {
 		return unmarshal(hierarchicalStreamDriver.createReader(xml), root);
@@ -1172,7 +1208,9 @@ public class XMLWizard {
 	 * Deserialize an object from an XML String.
 	 * 
 	 * @throws XMLWizardException
-	 *             if the object cannot be deserialized
+	 *             if the object cannot be deserialized, or the driver has a binary
+	 *             form, such as {@link com.madrobot.di.xml.io.BinaryStreamDriver},
+	 *             and only supports byte streams
 	 */
 	public Object fromXML(String xml) {
 		return fromXML(new StringReader(xml));
@@ -1185,7 +1223,9 @@ public class XMLWizard {
 	 * directly into the raw memory area of the existing object. Use with care!
 	 * 
 	 * @throws XMLWizardException
-	 *             if the object cannot be deserialized
+	 *             if the object cannot be deserialized, or the driver has a binary
+	 *             form, such as {@link com.madrobot.di.xml.io.BinaryStreamDriver},
+	 *             and only supports byte streams
 	 */
 	public Object fromXML(String xml, Object root) {
 		return fromXML(new StringReader(xml), root);
@@ -1256,6 +1296,10 @@ public class XMLWizard {
 		return reflectionProvider;
 	}
 
+	HierarchicalStreamDriver getHierarchicalStreamDriver() {
+		return hierarchicalStreamDriver;
+	}
+
 	/**
 	 * Serialize and object to a hierarchical data structure (such as XML).
 	 * 
@@ -1433,7 +1477,8 @@ public class XMLWizard {
 	 * Change mode for dealing with duplicate references. Valid values are
 	 * <code>XPATH_ABSOLUTE_REFERENCES</code>,
 	 * <code>XPATH_RELATIVE_REFERENCES</code>,
-	 * <code>XMLWizard.ID_REFERENCES</code> and
+	 * <code>XMLWizard.ID_REFERENCES</code>,
+	 * <code>XMLWizard.SHARED_ID_REFERENCES</code> and
 	 * <code>XMLWizard.NO_REFERENCES</code> .
 	 * 
 	 * @throws IllegalArgumentException
@@ -1441,6 +1486,7 @@ public class XMLWizard {
 	 * @see #XPATH_ABSOLUTE_REFERENCES
 	 * @see #XPATH_RELATIVE_REFERENCES
 	 * @see #ID_REFERENCES
+	 * @see #SHARED_ID_REFERENCES
 	 * @see #NO_REFERENCES
 	 */
 	public void setMode(int mode) {
@@ -1451,6 +1497,9 @@ public class XMLWizard {
 		case ID_REFERENCES:
 			setMarshallingStrategy(new ReferenceByIdMarshallingStrategy());
 			break;
+		case SHARED_ID_REFERENCES:
+			setMarshallingStrategy(new ReferenceBySharedIdMarshallingStrategy());
+			break;
 		case XPATH_RELATIVE_REFERENCES:
 			setMarshallingStrategy(new ReferenceByXPathMarshallingStrategy(
 					ReferenceByXPathMarshallingStrategy.RELATIVE));
@@ -1621,24 +1670,24 @@ public class XMLWizard {
 			// earlier
 			// JDKs
 			registerConverterDynamically(
-					"com.madrobot.di.wizard.xml.converters.SubjectConverter", PRIORITY_NORMAL,
+					"com.madrobot.di.xml.converter.SubjectConverter", PRIORITY_NORMAL,
 					new Class[] { Mapper.class }, new Object[] { mapper });
 			registerConverterDynamically(
-					"com.madrobot.di.wizard.xml.converters.ThrowableConverter",
+					"com.madrobot.di.xml.converter.ThrowableConverter",
 					PRIORITY_NORMAL, new Class[] { Converter.class },
 					new Object[] { reflectionConverter });
 			registerConverterDynamically(
-					"com.madrobot.di.wizard.xml.converters.StackTraceElementConverter",
+					"com.madrobot.di.xml.converter.StackTraceElementConverter",
 					PRIORITY_NORMAL, null, null);
 			registerConverterDynamically(
-					"com.madrobot.di.wizard.xml.converters.CurrencyConverter",
+					"com.madrobot.di.xml.converter.CurrencyConverter",
 					PRIORITY_NORMAL, null, null);
 			registerConverterDynamically(
-					"com.madrobot.di.wizard.xml.converters.RegexPatternConverter",
+					"com.madrobot.di.xml.converter.RegexPatternConverter",
 					PRIORITY_NORMAL, new Class[] { Converter.class },
 					new Object[] { reflectionConverter });
 			registerConverterDynamically(
-					"com.madrobot.di.wizard.xml.converters.CharsetConverter", PRIORITY_NORMAL,
+					"com.madrobot.di.xml.converter.CharsetConverter", PRIORITY_NORMAL,
 					null, null);
 		}
 
@@ -1648,23 +1697,23 @@ public class XMLWizard {
 			// JDKs
 			if (jvm.loadClass("javax.xml.datatype.Duration") != null) {
 				registerConverterDynamically(
-						"com.madrobot.di.wizard.xml.converters.DurationConverter",
+						"com.madrobot.di.xml.converter.DurationConverter",
 						PRIORITY_NORMAL, null, null);
 			}
 			registerConverterDynamically(
-					"com.madrobot.di.wizard.xml.converters.EnumConverter", PRIORITY_NORMAL,
+					"com.madrobot.di.xml.converter.EnumConverter", PRIORITY_NORMAL,
 					null, null);
 			registerConverterDynamically(
-					"com.madrobot.di.wizard.xml.converters.EnumSetConverter", PRIORITY_NORMAL,
+					"com.madrobot.di.xml.converter.EnumSetConverter", PRIORITY_NORMAL,
 					new Class[] { Mapper.class }, new Object[] { mapper });
 			registerConverterDynamically(
-					"com.madrobot.di.wizard.xml.converters.EnumMapConverter", PRIORITY_NORMAL,
+					"com.madrobot.di.xml.converter.EnumMapConverter", PRIORITY_NORMAL,
 					new Class[] { Mapper.class }, new Object[] { mapper });
 			registerConverterDynamically(
-					"com.madrobot.di.wizard.xml.converters.StringBuilderConverter",
+					"com.madrobot.di.xml.converter.StringBuilderConverter",
 					PRIORITY_NORMAL, null, null);
 			registerConverterDynamically(
-					"com.madrobot.di.wizard.xml.converters.UUIDConverter", PRIORITY_NORMAL,
+					"com.madrobot.di.xml.converter.UUIDConverter", PRIORITY_NORMAL,
 					null, null);
 		}
 
@@ -1757,7 +1806,9 @@ public class XMLWizard {
 	 * Serialize an object to a pretty-printed XML String.
 	 * 
 	 * @throws XMLWizardException
-	 *             if the object cannot be serialized
+	 *             if the object cannot be serialized, or the driver has a binary
+	 *             form, such as {@link com.madrobot.di.xml.io.BinaryStreamDriver},
+	 *             and only supports byte streams
 	 */
 	public String toXML(Object obj) {
 		Writer writer = new StringWriter();
@@ -1786,7 +1837,9 @@ public class XMLWizard {
 	 * will be flushed afterwards and in case of an exception.
 	 * 
 	 * @throws XMLWizardException
-	 *             if the object cannot be serialized
+	 *             if the object cannot be serialized, or the driver has a binary
+	 *             form, such as {@link com.madrobot.di.xml.io.BinaryStreamDriver},
+	 *             and only supports byte streams
 	 */
 	public void toXML(Object obj, Writer out) {
 		HierarchicalStreamWriter writer = hierarchicalStreamDriver.createWriter(out);
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright (c) 2012 MadRobot.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the GNU Lesser Public License v2.1
+ *  which accompanies this distribution, and is available at
+ *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ *  Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.di.xml.converter;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.madrobot.di.xml.core.Caching;
+
+/**
+ * ReflectionProvider that resolves the fields and the constructor of each
+ * class once and keeps them as accessors.
+ * <p>
+ * {@link PureJavaReflectionProvider} looks every field up in the
+ * {@link FieldDictionary} on each read and write, builds a key object for each
+ * lookup by declaring class, checks the field modifiers and access on each use
+ * and searches the constructors on each new instance. This provider does that
+ * work on the first use of a class only: the serializable fields are visited
+ * from a prepared array, field lookups by name hit a lock-free cache and new
+ * instances are created through the cached no-args constructor. This speeds
+ * up marshalling and unmarshalling of large object graphs with many objects of
+ * few classes.
+ * </p>
+ * <p>
+ * Types without a no-args constructor are instantiated as by
+ * {@link PureJavaReflectionProvider}.
+ * </p>
+ *
+ * <pre>
+ * XMLWizard wizard = new XMLWizard(new AccessorReflectionProvider());
+ * </pre>
+ */
+public class AccessorReflectionProvider extends PureJavaReflectionProvider implements Caching {
+
+	/** Marks a field name that is missing in a class */
+	private static final Object NONE = new Object();
+
+	private transient ConcurrentMap<Class<?>, ClassAccessor> accessors = new ConcurrentHashMap<Class<?>, ClassAccessor>();
+
+	public AccessorReflectionProvider() {
+		super();
+	}
+
+	public AccessorReflectionProvider(FieldDictionary fieldDictionary) {
+		super(fieldDictionary);
+	}
+
+	/**
+	 * The accessor of a field, with the field made accessible and its
+	 * modifiers checked once.
+	 */
+	private final class FieldAccessor {
+		final Field field;
+		final String name;
+		final Class<?> type;
+		final Class<?> definedIn;
+		final boolean serializable;
+		private volatile boolean writable;
+
+		FieldAccessor(Field field) {
+			this.field = field;
+			this.name = field.getName();
+			this.type = field.getType();
+			this.definedIn = field.getDeclaringClass();
+			this.serializable = fieldModifiersSupported(field);
+		}
+
+		Object get(Object object) {
+			try {
+				return field.get(object);
+			} catch (IllegalArgumentException e) {
+				throw new ObjectAccessException("Could not get field " + definedIn + "." + name,
+						e);
+			} catch (IllegalAccessException e) {
+				throw new ObjectAccessException("Could not get field " + definedIn + "." + name,
+						e);
+			}
+		}
+
+		void set(Object object, Object value) {
+			if (!writable) {
+				validateFieldAccess(field);
+				writable = true;
+			}
+			try {
+				field.set(object, value);
+			} catch (IllegalArgumentException e) {
+				throw new ObjectAccessException("Could not set field " + object.getClass() + "."
+						+ name, e);
+			} catch (IllegalAccessException e) {
+				throw new ObjectAccessException("Could not set field " + object.getClass() + "."
+						+ name, e);
+			}
+		}
+	}
+
+	/**
+	 * The accessors of a class. The serializable fields and the constructor
+	 * are resolved when the class is first used; field lookups by name are
+	 * cached as they are made.
+	 */
+	private final class ClassAccessor {
+		final Class<?> type;
+		final FieldAccessor[] serializableFields;
+		/** The no-args constructor, or null if the class has none */
+		final Constructor<?> constructor;
+		/** Field name to FieldAccessor, or NONE for missing fields */
+		private final ConcurrentMap<String, Object> byName = new ConcurrentHashMap<String, Object>();
+		/** Declaring class to the field name map of the fields it declares */
+		private final ConcurrentMap<Class<?>, ConcurrentMap<String, Object>> byDefinedIn = new ConcurrentHashMap<Class<?>, ConcurrentMap<String, Object>>();
+
+		ClassAccessor(Class<?> type) {
+			this.type = type;
+			List<FieldAccessor> fields = new ArrayList<FieldAccessor>();
+			for (Iterator<?> iterator = fieldDictionary.fieldsFor(type); iterator.hasNext();) {
+				Field field = (Field) iterator.next();
+				FieldAccessor accessor = new FieldAccessor(field);
+				if (accessor.serializable) {
+					validateFieldAccess(field);
+					fields.add(accessor);
+				}
+			}
+			this.serializableFields = fields.toArray(new FieldAccessor[fields.size()]);
+			this.constructor = findConstructor(type);
+		}
+
+		/**
+		 * Returns the accessor of a field, or null if the class has no such
+		 * field.
+		 */
+		FieldAccessor field(String name, Class<?> definedIn) {
+			ConcurrentMap<String, Object> cache;
+			if (definedIn == null) {
+				cache = byName;
+			} else {
+				cache = byDefinedIn.get(definedIn);
+				if (cache == null) {
+					ConcurrentMap<String, Object> created = new ConcurrentHashMap<String, Object>();
+					cache = byDefinedIn.putIfAbsent(definedIn, created);
+					if (cache == null) {
+						cache = created;
+					}
+				}
+			}
+			Object accessor = cache.get(name);
+			if (accessor == null) {
+				Field field = fieldDictionary.fieldOrNull(type, name, definedIn);
+				accessor = field == null ? NONE : new FieldAccessor(field);
+				Object existing = cache.putIfAbsent(name, accessor);
+				if (existing != null) {
+					accessor = existing;
+				}
+			}
+			return accessor == NONE ? null : (FieldAccessor) accessor;
+		}
+
+		FieldAccessor existingField(String name, Class<?> definedIn) {
+			FieldAccessor accessor = field(name, definedIn);
+			if (accessor == null) {
+				throw new MissingFieldException(type.getName(), name);
+			}
+			return accessor;
+		}
+	}
+
+	private static Constructor<?> findConstructor(Class<?> type) {
+		if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+			return null;
+		}
+		Constructor<?>[] constructors = type.getDeclaredConstructors();
+		for (int i = 0; i < constructors.length; i++) {
+			Constructor<?> constructor = constructors[i];
+			if (constructor.getParameterTypes().length == 0) {
+				if (!constructor.isAccessible()) {
+					constructor.setAccessible(true);
+				}
+				return constructor;
+			}
+		}
+		return null;
+	}
+
+	private ClassAccessor forClass(Class<?> type) {
+		ClassAccessor accessor = accessors.get(type);
+		if (accessor == null) {
+			// built outside of a lock; a concurrent build of the same class
+			// yields an equal accessor and only one is kept
+			ClassAccessor created = new ClassAccessor(type);
+			accessor = accessors.putIfAbsent(type, created);
+			if (accessor == null) {
+				accessor = created;
+			}
+		}
+		return accessor;
+	}
+
+	@Override
+	public boolean fieldDefinedInClass(String fieldName, Class type) {
+		FieldAccessor accessor = forClass(type).field(fieldName, null);
+		return accessor != null && !Modifier.isStatic(accessor.field.getModifiers());
+	}
+
+	@Override
+	public Field getField(Class definedIn, String fieldName) {
+		return forClass(definedIn).existingField(fieldName, null).field;
+	}
+
+	@Override
+	public Class getFieldType(Object object, String fieldName, Class definedIn) {
+		return forClass(object.getClass()).existingField(fieldName, definedIn).type;
+	}
+
+	@Override
+	public Object newInstance(Class type) {
+		Constructor<?> constructor = forClass(type).constructor;
+		if (constructor == null) {
+			return super.newInstance(type);
+		}
+		try {
+			return constructor.newInstance((Object[]) null);
+		} catch (InstantiationException e) {
+			throw new ObjectAccessException("Cannot construct " + type.getName(), e);
+		} catch (IllegalAccessException e) {
+			throw new ObjectAccessException("Cannot construct " + type.getName(), e);
+		} catch (InvocationTargetException e) {
+			if (e.getTargetException() instanceof RuntimeException) {
+				throw (RuntimeException) e.getTargetException();
+			} else if (e.getTargetException() instanceof Error) {
+				throw (Error) e.getTargetException();
+			}
+			throw new ObjectAccessException("Constructor for " + type.getName()
+					+ " threw an exception", e.getTargetException());
+		}
+	}
+
+	@Override
+	public void visitSerializableFields(Object object, ReflectionProvider.Visitor visitor) {
+		FieldAccessor[] fields = forClass(object.getClass()).serializableFields;
+		for (int i = 0; i < fields.length; i++) {
+			FieldAccessor field = fields[i];
+			visitor.visit(field.name, field.type, field.definedIn, field.get(object));
+		}
+	}
+
+	@Override
+	public void writeField(Object object, String fieldName, Object value, Class definedIn) {
+		forClass(object.getClass()).existingField(fieldName, definedIn).set(object, value);
+	}
+
+	@Override
+	public void setFieldDictionary(FieldDictionary dictionary) {
+		super.setFieldDictionary(dictionary);
+		flushCache();
+	}
+
+	/**
+	 * Discards the accessors, so that they are built again from the field
+	 * dictionary.
+	 */
+	@Override
+	public void flushCache() {
+		accessors.clear();
+	}
+
+	@Override
+	protected Object readResolve() {
+		accessors = new ConcurrentHashMap<Class<?>, ClassAccessor>();
+		return super.readResolve();
+	}
+}
@@ -20,6 +20,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.madrobot.di.xml.core.Caching;
 import com.madrobot.di.xml.core.JVM;
@@ -27,6 +28,11 @@ import com.madrobot.util.collections.OrderRetainingMap;
 
 /**
  * A field dictionary instance caches information about classes fields.
+ * <p>
+ * The fields of a class are collected once, under a lock, the first time the
+ * class is looked up. Later lookups read the concurrent caches without
+ * locking, so threads sharing one dictionary do not contend.
+ * </p>
  * 
  */
 public class FieldDictionary implements Caching {
@@ -45,7 +51,11 @@ public class FieldDictionary implements Caching {
 	}
 
 	private Map buildMap(final Class type, boolean tupleKeyed) {
-		final Map result;
+		Map result = (Map) (tupleKeyed ? keyedByFieldKeyCache.get(type) : keyedByFieldNameCache
+				.get(type));
+		if (result != null) {
+			return result;
+		}
 		Class cls = type;
 		synchronized (this) {
 			if (!keyedByFieldNameCache.containsKey(type)) {
@@ -89,8 +99,10 @@ public class FieldDictionary implements Caching {
 							keyedByFieldKey.put(fieldKey, field);
 						}
 						final Map sortedFieldKeys = sorter.sort(type, keyedByFieldKey);
-						keyedByFieldNameCache.put(cls, keyedByFieldName);
+						// the maps are complete before they are published, and
+						// never changed after
 						keyedByFieldKeyCache.put(cls, sortedFieldKeys);
+						keyedByFieldNameCache.put(cls, keyedByFieldName);
 						lastKeyedByFieldName = keyedByFieldName;
 						lastKeyedByFieldKey = sortedFieldKeys;
 					} else {
@@ -180,8 +192,8 @@ public class FieldDictionary implements Caching {
 	}
 
 	private void init() {
-		keyedByFieldNameCache = new HashMap();
-		keyedByFieldKeyCache = new HashMap();
+		keyedByFieldNameCache = new ConcurrentHashMap();
+		keyedByFieldKeyCache = new ConcurrentHashMap();
 		keyedByFieldNameCache.put(Object.class, Collections.EMPTY_MAP);
 		keyedByFieldKeyCache.put(Object.class, Collections.EMPTY_MAP);
 	}
@@ -11,10 +11,9 @@
 
 package com.madrobot.di.xml.converter;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.madrobot.beans.BeanInfo;
 import com.madrobot.beans.IntrospectionException;
@@ -28,7 +27,7 @@ import com.madrobot.util.collections.OrderRetainingMap;
  * 
  */
 public class PropertyDictionary implements Caching {
-	private transient Map propertyNameCache = Collections.synchronizedMap(new HashMap());
+	private transient Map propertyNameCache = new ConcurrentHashMap();
 	private final PropertySorter sorter;
 
 	public PropertyDictionary() {
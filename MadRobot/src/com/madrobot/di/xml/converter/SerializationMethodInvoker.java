@@ -16,9 +16,8 @@ import java.io.ObjectOutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.madrobot.di.xml.core.Caching;
 import com.madrobot.di.xml.core.FastField;
@@ -42,7 +41,7 @@ public class SerializationMethodInvoker implements Caching {
 			new FastField(Object.class, "writeReplace"),
 			new FastField(Object.class, "readObject"),
 			new FastField(Object.class, "writeObject") };
-	private Map cache = Collections.synchronizedMap(new HashMap());
+	private Map cache = new ConcurrentHashMap();
 	{
 		for (int i = 0; i < OBJECT_TYPE_FIELDS.length; ++i) {
 			cache.put(OBJECT_TYPE_FIELDS[i], NO_METHOD);
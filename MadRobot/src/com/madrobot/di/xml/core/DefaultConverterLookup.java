@@ -11,11 +11,9 @@
 
 package com.madrobot.di.xml.core;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.madrobot.di.xml.converter.ConversionException;
 import com.madrobot.di.xml.converter.Converter;
@@ -25,12 +23,16 @@ import com.madrobot.util.collections.PrioritizedList;
 
 /**
  * The default implementation of converters lookup.
+ * <p>
+ * The converter of a type is searched for once and then read from a
+ * concurrent cache without locking.
+ * </p>
  * 
  */
 public class DefaultConverterLookup implements ConverterLookup, ConverterRegistry, Caching {
 
 	private final PrioritizedList converters = new PrioritizedList();
-	private transient Map typeToConverterMap = Collections.synchronizedMap(new WeakHashMap());
+	private transient Map typeToConverterMap = new ConcurrentHashMap();
 
 	public DefaultConverterLookup() {
 	}
@@ -49,7 +51,9 @@ public class DefaultConverterLookup implements ConverterLookup, ConverterRegistr
 
 	@Override
 	public Converter lookupConverterForType(Class type) {
-		Converter cachedConverter = (Converter) typeToConverterMap.get(type);
+		// the cache has no null key
+		Converter cachedConverter = type == null ? null : (Converter) typeToConverterMap
+				.get(type);
 		if (cachedConverter != null) {
 			return cachedConverter;
 		}
@@ -57,7 +61,9 @@ public class DefaultConverterLookup implements ConverterLookup, ConverterRegistr
 		while (iterator.hasNext()) {
 			Converter converter = (Converter) iterator.next();
 			if (converter.canConvert(type)) {
-				typeToConverterMap.put(type, converter);
+				if (type != null) {
+					typeToConverterMap.put(type, converter);
+				}
 				return converter;
 			}
 		}
@@ -65,7 +71,7 @@ public class DefaultConverterLookup implements ConverterLookup, ConverterRegistr
 	}
 
 	private Object readResolve() {
-		typeToConverterMap = Collections.synchronizedMap(new HashMap());
+		typeToConverterMap = new ConcurrentHashMap();
 		return this;
 	}
 
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2012 MadRobot.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the GNU Lesser Public License v2.1
+ *  which accompanies this distribution, and is available at
+ *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ *  Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.di.xml.io;
+
+/**
+ * Layout of the stream written by {@link BinaryStreamWriter}.
+ * <p>
+ * The stream starts with {@link #MAGIC} and {@link #VERSION}, followed by one
+ * token per writer call. A token is a byte with the token kind in the low
+ * three bits and, for attributes and values, the value type in the high bits:
+ * </p>
+ * <ul>
+ * <li>{@link #START_NODE}: the node name as a symbol</li>
+ * <li>{@link #ATTRIBUTE}: the attribute name as a symbol, then the value</li>
+ * <li>{@link #VALUE}: the value</li>
+ * <li>{@link #END_NODE}: nothing</li>
+ * </ul>
+ * <p>
+ * A symbol is a varint: 0 is followed by the symbol text, which gets the next
+ * symbol id while the table holds fewer than {@link #MAX_SYMBOLS}; any other
+ * number <code>n</code> is the symbol with the id <code>n - 1</code>. Text is
+ * its varint length in chars followed by each char in one to three bytes, as
+ * in UTF-8. Integers are zigzag encoded varints.
+ * </p>
+ */
+final class BinaryFormat {
+
+	static final byte[] MAGIC = { 'M', 'R', 'B' };
+
+	static final int VERSION = 1;
+
+	static final int START_NODE = 1;
+	static final int END_NODE = 2;
+	static final int ATTRIBUTE = 3;
+	static final int VALUE = 4;
+
+	static final int KIND_MASK = 0x07;
+	static final int TYPE_SHIFT = 3;
+
+	/** Text written as is */
+	static final int TYPE_TEXT = 0;
+	/** The empty string */
+	static final int TYPE_EMPTY = 1;
+	static final int TYPE_TRUE = 2;
+	static final int TYPE_FALSE = 3;
+	/** Decimal integer text, written as a varint */
+	static final int TYPE_LONG = 4;
+	/** Short text, written as a symbol */
+	static final int TYPE_SYMBOL = 5;
+
+	/** Longest value text that is written as a symbol */
+	static final int MAX_SYMBOL_VALUE_LENGTH = 32;
+
+	/** Symbols kept per stream, bounding the table of both sides */
+	static final int MAX_SYMBOLS = 1 << 16;
+
+	private BinaryFormat() {
+	}
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2012 MadRobot.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the GNU Lesser Public License v2.1
+ *  which accompanies this distribution, and is available at
+ *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ *  Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.di.xml.io;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * A {@link HierarchicalStreamDriver} that writes the node stream in a compact
+ * binary form instead of XML.
+ * <p>
+ * The same nodes, attributes and values are written as by the XML drivers, so
+ * every converter works unchanged, but names are written once per stream and
+ * integers and booleans as numbers, and no text has to be escaped or parsed.
+ * This suits objects persisted and read back by the same application, such as
+ * a local object store:
+ * </p>
+ *
+ * <pre>
+ * XMLWizard wizard = new XMLWizard(new BinaryStreamDriver());
+ * wizard.toXML(order, new FileOutputStream(file));
+ * Order read = (Order) wizard.fromXML(new FileInputStream(file));
+ * </pre>
+ * <p>
+ * The form is binary, so only byte streams are supported; the methods taking
+ * a character {@link Reader} or {@link Writer} throw a
+ * {@link StreamException}. With this driver, use the
+ * {@link com.madrobot.di.xml.XMLWizard} methods taking an
+ * {@link InputStream}, {@link OutputStream}, file or URL instead of those
+ * taking a String, Reader or Writer.
+ * </p>
+ */
+public class BinaryStreamDriver extends AbstractDriver {
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public HierarchicalStreamReader createReader(InputStream in) {
+		return new BinaryStreamReader(in);
+	}
+
+	/**
+	 * @throws StreamException
+	 *             always
+	 */
+	@Override
+	public HierarchicalStreamReader createReader(Reader in) {
+		throw new StreamException("The binary driver cannot read from a character stream;"
+				+ " use XMLWizard.fromXML(InputStream) or another method taking an InputStream");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public HierarchicalStreamWriter createWriter(OutputStream out) {
+		return new BinaryStreamWriter(out);
+	}
+
+	/**
+	 * @throws StreamException
+	 *             always
+	 */
+	@Override
+	public HierarchicalStreamWriter createWriter(Writer out) {
+		throw new StreamException("The binary driver cannot write to a character stream;"
+				+ " use XMLWizard.toXML(Object, OutputStream) or another method taking an"
+				+ " OutputStream");
+	}
+}
@@ -0,0 +1,354 @@
+/*******************************************************************************
+ * Copyright (c) 2012 MadRobot.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the GNU Lesser Public License v2.1
+ *  which accompanies this distribution, and is available at
+ *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ *  Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.di.xml.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.madrobot.di.xml.converter.ErrorWriter;
+
+/**
+ * Reads the node stream written by {@link BinaryStreamWriter}.
+ * <p>
+ * The attributes and the value of a node are read when the reader moves down
+ * to it; its children are read as the reader moves on. Like the XML readers,
+ * the reader starts at the root node.
+ * </p>
+ *
+ * @see BinaryStreamDriver
+ */
+public class BinaryStreamReader implements ExtendedHierarchicalStreamReader {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/** A node on the path from the root, reused for the nodes at its depth */
+	private static final class Node {
+		String name;
+		String value;
+		String[] attributeNames = new String[4];
+		String[] attributeValues = new String[4];
+		int attributeCount;
+
+		void addAttribute(String name, String value) {
+			if (attributeCount == attributeNames.length) {
+				String[] names = new String[attributeCount * 2];
+				String[] values = new String[attributeCount * 2];
+				System.arraycopy(attributeNames, 0, names, 0, attributeCount);
+				System.arraycopy(attributeValues, 0, values, 0, attributeCount);
+				attributeNames = names;
+				attributeValues = values;
+			}
+			attributeNames[attributeCount] = name;
+			attributeValues[attributeCount] = value;
+			attributeCount++;
+		}
+	}
+
+	private final InputStream in;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position;
+	private int limit;
+	/** Offset in the stream of the start of the buffer */
+	private long offset;
+	private final List<String> symbols = new ArrayList<String>();
+	private Node[] nodes = new Node[16];
+	private int depth = -1;
+	/** The next token, or -1 if it has not been read */
+	private int peekedToken = -1;
+	/** The name of the next node, if peeked */
+	private String peekedName;
+
+	public BinaryStreamReader(InputStream in) {
+		this.in = in;
+		for (int i = 0; i < BinaryFormat.MAGIC.length; i++) {
+			if (readByte() != BinaryFormat.MAGIC[i]) {
+				throw new StreamException("Not a binary node stream");
+			}
+		}
+		int version = readByte();
+		if (version != BinaryFormat.VERSION) {
+			throw new StreamException("Unsupported binary node stream version " + version);
+		}
+		moveDown();
+	}
+
+	@Override
+	public void appendErrors(ErrorWriter errorWriter) {
+		errorWriter.add("stream offset", String.valueOf(offset + position));
+	}
+
+	@Override
+	public void close() {
+		try {
+			in.close();
+		} catch (IOException e) {
+			throw new StreamException(e);
+		}
+	}
+
+	@Override
+	public String getAttribute(int index) {
+		Node node = nodes[depth];
+		return index < node.attributeCount ? node.attributeValues[index] : null;
+	}
+
+	@Override
+	public String getAttribute(String name) {
+		Node node = nodes[depth];
+		for (int i = 0; i < node.attributeCount; i++) {
+			if (node.attributeNames[i].equals(name)) {
+				return node.attributeValues[i];
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public int getAttributeCount() {
+		return nodes[depth].attributeCount;
+	}
+
+	@Override
+	public String getAttributeName(int index) {
+		Node node = nodes[depth];
+		return index < node.attributeCount ? node.attributeNames[index] : null;
+	}
+
+	@Override
+	public Iterator getAttributeNames() {
+		return new AttributeNameIterator(this);
+	}
+
+	@Override
+	public String getNodeName() {
+		return nodes[depth].name;
+	}
+
+	@Override
+	public String getValue() {
+		String value = nodes[depth].value;
+		return value == null ? "" : value;
+	}
+
+	@Override
+	public boolean hasMoreChildren() {
+		int kind;
+		while ((kind = peekToken() & BinaryFormat.KIND_MASK) != BinaryFormat.START_NODE
+				&& kind != BinaryFormat.END_NODE) {
+			// a value written after the children
+			skipToken();
+		}
+		return kind == BinaryFormat.START_NODE;
+	}
+
+	@Override
+	public void moveDown() {
+		if (!hasMoreChildrenOrRoot()) {
+			throw new StreamException("No child node to move down to");
+		}
+		String name = peekNextChild();
+		peekedToken = -1;
+		peekedName = null;
+		if (++depth == nodes.length) {
+			Node[] grown = new Node[depth * 2];
+			System.arraycopy(nodes, 0, grown, 0, depth);
+			nodes = grown;
+		}
+		Node node = nodes[depth];
+		if (node == null) {
+			node = nodes[depth] = new Node();
+		}
+		node.name = name;
+		node.value = null;
+		node.attributeCount = 0;
+		while (true) {
+			int token = peekToken();
+			int kind = token & BinaryFormat.KIND_MASK;
+			if (kind == BinaryFormat.ATTRIBUTE) {
+				peekedToken = -1;
+				String attributeName = readSymbol();
+				node.addAttribute(attributeName, readValue(token));
+			} else if (kind == BinaryFormat.VALUE) {
+				peekedToken = -1;
+				node.value = readValue(token);
+				break;
+			} else {
+				break;
+			}
+		}
+	}
+
+	private boolean hasMoreChildrenOrRoot() {
+		return depth < 0 ? (peekToken() & BinaryFormat.KIND_MASK) == BinaryFormat.START_NODE
+				: hasMoreChildren();
+	}
+
+	@Override
+	public void moveUp() {
+		int level = 0;
+		while (true) {
+			int kind = peekToken() & BinaryFormat.KIND_MASK;
+			skipToken();
+			if (kind == BinaryFormat.START_NODE) {
+				level++;
+			} else if (kind == BinaryFormat.END_NODE && level-- == 0) {
+				break;
+			}
+		}
+		depth--;
+	}
+
+	@Override
+	public String peekNextChild() {
+		if ((peekToken() & BinaryFormat.KIND_MASK) != BinaryFormat.START_NODE) {
+			return null;
+		}
+		if (peekedName == null) {
+			peekedName = readSymbol();
+		}
+		return peekedName;
+	}
+
+	@Override
+	public HierarchicalStreamReader underlyingReader() {
+		return this;
+	}
+
+	private int peekToken() {
+		if (peekedToken < 0) {
+			peekedToken = readByte();
+		}
+		return peekedToken;
+	}
+
+	/**
+	 * Reads past the peeked token. Symbols are still read, so that the symbol
+	 * table stays in step with the writer's.
+	 */
+	private void skipToken() {
+		int token = peekedToken;
+		peekedToken = -1;
+		switch (token & BinaryFormat.KIND_MASK) {
+		case BinaryFormat.START_NODE:
+			if (peekedName == null) {
+				readSymbol();
+			}
+			peekedName = null;
+			break;
+		case BinaryFormat.ATTRIBUTE:
+			readSymbol();
+			readValue(token);
+			break;
+		case BinaryFormat.VALUE:
+			readValue(token);
+			break;
+		case BinaryFormat.END_NODE:
+			break;
+		default:
+			throw new StreamException("Invalid token " + token + " at stream offset "
+					+ (offset + position - 1));
+		}
+	}
+
+	private String readValue(int token) {
+		switch (token >>> BinaryFormat.TYPE_SHIFT) {
+		case BinaryFormat.TYPE_EMPTY:
+			return "";
+		case BinaryFormat.TYPE_TRUE:
+			return "true";
+		case BinaryFormat.TYPE_FALSE:
+			return "false";
+		case BinaryFormat.TYPE_LONG:
+			long zigzag = readVarLong();
+			return Long.toString((zigzag >>> 1) ^ -(zigzag & 1));
+		case BinaryFormat.TYPE_SYMBOL:
+			return readSymbol();
+		case BinaryFormat.TYPE_TEXT:
+			return readText();
+		default:
+			throw new StreamException("Invalid value type in token " + token
+					+ " at stream offset " + (offset + position - 1));
+		}
+	}
+
+	private String readSymbol() {
+		long id = readVarLong();
+		if (id == 0) {
+			String symbol = readText();
+			if (symbols.size() < BinaryFormat.MAX_SYMBOLS) {
+				symbols.add(symbol);
+			}
+			return symbol;
+		}
+		if (id > symbols.size()) {
+			throw new StreamException("Unknown symbol " + (id - 1) + " at stream offset "
+					+ (offset + position));
+		}
+		return symbols.get((int) id - 1);
+	}
+
+	private String readText() {
+		int length = (int) readVarLong();
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			int b = readByte();
+			if (b < 0x80) {
+				chars[i] = (char) b;
+			} else if (b < 0xE0) {
+				chars[i] = (char) (((b & 0x1F) << 6) | (readByte() & 0x3F));
+			} else {
+				chars[i] = (char) (((b & 0x0F) << 12) | ((readByte() & 0x3F) << 6) | (readByte() & 0x3F));
+			}
+		}
+		return new String(chars);
+	}
+
+	private long readVarLong() {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new StreamException("Invalid varint at stream offset " + (offset + position));
+	}
+
+	private int readByte() {
+		if (position == limit) {
+			fill();
+		}
+		return buffer[position++] & 0xFF;
+	}
+
+	private void fill() {
+		offset += limit;
+		position = 0;
+		limit = 0;
+		try {
+			int read;
+			do {
+				read = in.read(buffer, 0, buffer.length);
+			} while (read == 0);
+			if (read < 0) {
+				throw new StreamException("Unexpected end of binary node stream at offset "
+						+ offset);
+			}
+			limit = read;
+		} catch (IOException e) {
+			throw new StreamException(e);
+		}
+	}
+}
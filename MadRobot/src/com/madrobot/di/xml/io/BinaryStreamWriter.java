@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2012 MadRobot.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the GNU Lesser Public License v2.1
+ *  which accompanies this distribution, and is available at
+ *  http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ *  Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.di.xml.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the node stream in the compact binary form read by
+ * {@link BinaryStreamReader}.
+ * <p>
+ * Node and attribute names and short values are written once per stream and
+ * referenced by number afterwards. Values that are decimal integers or
+ * booleans are written as numbers, so that reading them back yields the same
+ * text. The output is buffered and flushed to the stream when the root node
+ * ends.
+ * </p>
+ *
+ * @see BinaryStreamDriver
+ */
+public class BinaryStreamWriter implements ExtendedHierarchicalStreamWriter {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int count;
+	private final Map<String, Integer> symbols = new HashMap<String, Integer>();
+	private int depth;
+
+	public BinaryStreamWriter(OutputStream out) {
+		this.out = out;
+		System.arraycopy(BinaryFormat.MAGIC, 0, buffer, 0, BinaryFormat.MAGIC.length);
+		count = BinaryFormat.MAGIC.length;
+		buffer[count++] = BinaryFormat.VERSION;
+	}
+
+	@Override
+	public void addAttribute(String name, String value) {
+		int type = typeOf(value);
+		writeToken(BinaryFormat.ATTRIBUTE, type);
+		writeSymbol(name);
+		writeValue(type, value);
+	}
+
+	@Override
+	public void close() {
+		flush();
+		try {
+			out.close();
+		} catch (IOException e) {
+			throw new StreamException(e);
+		}
+	}
+
+	@Override
+	public void endNode() {
+		writeToken(BinaryFormat.END_NODE, 0);
+		if (--depth == 0) {
+			flush();
+		}
+	}
+
+	@Override
+	public void flush() {
+		try {
+			flushBuffer();
+			out.flush();
+		} catch (IOException e) {
+			throw new StreamException(e);
+		}
+	}
+
+	@Override
+	public void setValue(String text) {
+		int type = typeOf(text);
+		writeToken(BinaryFormat.VALUE, type);
+		writeValue(type, text);
+	}
+
+	@Override
+	public void startNode(String name) {
+		writeToken(BinaryFormat.START_NODE, 0);
+		writeSymbol(name);
+		depth++;
+	}
+
+	@Override
+	public void startNode(String name, Class clazz) {
+		startNode(name);
+	}
+
+	@Override
+	public HierarchicalStreamWriter underlyingWriter() {
+		return this;
+	}
+
+	private static int typeOf(String value) {
+		if (value == null || value.length() == 0) {
+			return BinaryFormat.TYPE_EMPTY;
+		} else if (value.equals("true")) {
+			return BinaryFormat.TYPE_TRUE;
+		} else if (value.equals("false")) {
+			return BinaryFormat.TYPE_FALSE;
+		} else if (isCanonicalLong(value)) {
+			return BinaryFormat.TYPE_LONG;
+		} else if (value.length() <= BinaryFormat.MAX_SYMBOL_VALUE_LENGTH) {
+			return BinaryFormat.TYPE_SYMBOL;
+		}
+		return BinaryFormat.TYPE_TEXT;
+	}
+
+	/**
+	 * Returns true if <code>value</code> is an integer written as
+	 * {@link Long#toString(long)} would write it, with at most 18 digits so
+	 * that it cannot overflow.
+	 */
+	private static boolean isCanonicalLong(String value) {
+		int length = value.length();
+		int start = value.charAt(0) == '-' ? 1 : 0;
+		int digits = length - start;
+		if (digits == 0 || digits > 18) {
+			return false;
+		}
+		char first = value.charAt(start);
+		if (first == '0' && (digits > 1 || start == 1)) {
+			// leading zero or -0
+			return false;
+		}
+		for (int i = start; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void writeValue(int type, String value) {
+		switch (type) {
+		case BinaryFormat.TYPE_LONG:
+			long number = Long.parseLong(value);
+			writeVarLong((number << 1) ^ (number >> 63));
+			break;
+		case BinaryFormat.TYPE_SYMBOL:
+			writeSymbol(value);
+			break;
+		case BinaryFormat.TYPE_TEXT:
+			writeText(value);
+			break;
+		default:
+			// the type is the value
+			break;
+		}
+	}
+
+	private void writeToken(int kind, int type) {
+		ensure(1);
+		buffer[count++] = (byte) (kind | (type << BinaryFormat.TYPE_SHIFT));
+	}
+
+	private void writeSymbol(String symbol) {
+		Integer id = symbols.get(symbol);
+		if (id != null) {
+			writeVarLong(id.intValue() + 1);
+			return;
+		}
+		writeVarLong(0);
+		writeText(symbol);
+		if (symbols.size() < BinaryFormat.MAX_SYMBOLS) {
+			symbols.put(symbol, Integer.valueOf(symbols.size()));
+		}
+	}
+
+	private void writeText(String text) {
+		int length = text.length();
+		writeVarLong(length);
+		for (int i = 0; i < length; i++) {
+			ensure(3);
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				buffer[count++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[count++] = (byte) (0xC0 | (c >> 6));
+				buffer[count++] = (byte) (0x80 | (c & 0x3F));
+			} else {
+				buffer[count++] = (byte) (0xE0 | (c >> 12));
+				buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[count++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	private void writeVarLong(long value) {
+		ensure(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer[count++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[count++] = (byte) value;
+	}
+
+	private void ensure(int bytes) {
+		if (count + bytes > buffer.length) {
+			try {
+				flushBuffer();
+			} catch (IOException e) {
+				throw new StreamException(e);
+			}
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.madrobot.io.file;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary journal and snapshot index format used by {@link DiskLRUCache} when
+ * it is opened with a binary journal.
+ * <p>
+ * Both files start with the same 16 byte header: the magic number, the format
+ * version, the application's version and the value count, each a big-endian
+ * {@code int}.
+ * <p>
+ * The snapshot index ({@value #INDEX_FILE}) is written each time the journal
+ * is compacted. After the header it holds the number of entries followed by
+ * one record per clean entry, least recently used first:
+ *
+ * <pre>
+ * short keyLength, byte[keyLength] key, long[valueCount] lengths
+ * </pre>
+ *
+ * The journal ({@value #JOURNAL_FILE}) holds the operations performed since
+ * the index was written, one record each:
+ *
+ * <pre>
+ * byte op, short keyLength, byte[keyLength] key [, long[valueCount] lengths]
+ * </pre>
+ *
+ * The lengths are only present for {@link #OP_CLEAN} records. Numbers are
+ * stored in fixed-width binary form, so replaying a record never parses
+ * text. Both files are read through a {@link MappedByteBuffer}. A truncated
+ * trailing journal record, left by a crash during an append, ends the
+ * replay the same way the end of the file does; the journal is then
+ * rewritten so that later records are not appended after the partial one.
+ */
+final class BinaryJournal {
+	static final String INDEX_FILE = "journal.idx";
+	static final String INDEX_FILE_TMP = "journal.idx.tmp";
+	static final String JOURNAL_FILE = "journal.bin";
+	static final String JOURNAL_FILE_TMP = "journal.bin.tmp";
+
+	static final int MAGIC = 0x444c5243;
+
+	static final byte OP_CLEAN = 1;
+	static final byte OP_DIRTY = 2;
+	static final byte OP_READ = 3;
+	static final byte OP_REMOVE = 4;
+
+	static final int VERSION_1 = 1;
+
+	/**
+	 * Maps {@code file} read-only. The mapping stays valid after the channel
+	 * is closed.
+	 */
+	static MappedByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the journal op for the text journal {@code state}.
+	 */
+	static byte opFor(String state) {
+		if (DiskLRUCache.CLEAN.equals(state)) {
+			return OP_CLEAN;
+		} else if (DiskLRUCache.DIRTY.equals(state)) {
+			return OP_DIRTY;
+		} else if (DiskLRUCache.READ.equals(state)) {
+			return OP_READ;
+		} else if (DiskLRUCache.REMOVE.equals(state)) {
+			return OP_REMOVE;
+		}
+		throw new IllegalArgumentException("unknown journal state: " + state);
+	}
+
+	/**
+	 * Reads and checks the header at the current position of {@code buffer}.
+	 */
+	static void readHeader(ByteBuffer buffer, File file, int appVersion, int valueCount)
+			throws IOException {
+		try {
+			int magic = buffer.getInt();
+			int version = buffer.getInt();
+			int appVersionInFile = buffer.getInt();
+			int valueCountInFile = buffer.getInt();
+			if (magic != MAGIC || version != VERSION_1 || appVersionInFile != appVersion
+					|| valueCountInFile != valueCount) {
+				throw new IOException("unexpected header in " + file.getName() + ": [" + magic
+						+ ", " + version + ", " + appVersionInFile + ", " + valueCountInFile
+						+ "]");
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("truncated header in " + file.getName());
+		}
+	}
+
+	/**
+	 * Reads a length-prefixed key. Throws {@link BufferUnderflowException} if
+	 * the buffer ends inside the key.
+	 */
+	static String readKey(ByteBuffer buffer) {
+		int length = buffer.getShort() & 0xffff;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, DiskLRUCache.UTF_8);
+	}
+
+	static void readLengths(ByteBuffer buffer, long[] lengths) {
+		for (int i = 0; i < lengths.length; i++) {
+			lengths[i] = buffer.getLong();
+		}
+	}
+
+	static void writeHeader(DataOutputStream out, int appVersion, int valueCount)
+			throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION_1);
+		out.writeInt(appVersion);
+		out.writeInt(valueCount);
+	}
+
+	static void writeKey(DataOutputStream out, String key) throws IOException {
+		byte[] bytes = key.getBytes(DiskLRUCache.UTF_8);
+		if (bytes.length > 0xffff) {
+			throw new IllegalArgumentException("key is too long: " + bytes.length + " bytes");
+		}
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	static void writeLengths(DataOutputStream out, long[] lengths) throws IOException {
+		for (long length : lengths) {
+			out.writeLong(length);
+		}
+	}
+
+	static void writeRecord(DataOutputStream out, byte op, String key, long[] lengths)
+			throws IOException {
+		out.writeByte(op);
+		writeKey(out, key);
+		if (op == OP_CLEAN) {
+			writeLengths(out, lengths);
+		}
+	}
+
+	private BinaryJournal() {
+	}
+}
@@ -0,0 +1,1136 @@
+package com.madrobot.io.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link DiskLRUCache} for caches that are shared by many threads.
+ * <p>
+ * The public contract, the directory layout and the text journal format are
+ * the same as {@link DiskLRUCache}, so a cache directory written by one can be
+ * opened by the other. A directory holding a binary journal (see
+ * {@link DiskLRUCache#open(File, int, int, long, boolean)}) is replayed and
+ * migrated to the text journal when it is opened. The difference is in how
+ * concurrent callers are coordinated:
+ * <ul>
+ * <li>Edits and removals take one of a fixed number of locks, selected by the
+ * hash of the key. Operations on keys that map to different stripes never
+ * contend.</li>
+ * <li>Reads of clean entries take no lock. Each entry counts the commits that
+ * publish new files; a read that overlaps a commit is retried, so it always
+ * observes the full set of values of a single edit.</li>
+ * <li>Journal records are queued and appended by whichever thread currently
+ * holds the journal lock. Callers never wait for another thread's journal
+ * write unless they need the journal flushed.</li>
+ * <li>LRU order is tracked with per-entry access stamps instead of an
+ * access-ordered map. Eviction orders entries by their stamps in the
+ * background.</li>
+ * </ul>
+ */
+public final class ConcurrentDiskLRUCache implements Closeable {
+	/**
+	 * Edits the values for an entry.
+	 */
+	public final class Editor {
+		private class FaultHidingOutputStream extends FilterOutputStream {
+			private FaultHidingOutputStream(OutputStream out) {
+				super(out);
+			}
+
+			@Override
+			public void close() {
+				try {
+					out.close();
+				} catch (IOException e) {
+					hasErrors = true;
+				}
+			}
+
+			@Override
+			public void flush() {
+				try {
+					out.flush();
+				} catch (IOException e) {
+					hasErrors = true;
+				}
+			}
+
+			@Override
+			public void write(byte[] buffer, int offset, int length) {
+				try {
+					out.write(buffer, offset, length);
+				} catch (IOException e) {
+					hasErrors = true;
+				}
+			}
+
+			@Override
+			public void write(int oneByte) {
+				try {
+					out.write(oneByte);
+				} catch (IOException e) {
+					hasErrors = true;
+				}
+			}
+		}
+
+		private final Entry entry;
+
+		private volatile boolean hasErrors;
+
+		private Editor(Entry entry) {
+			this.entry = entry;
+		}
+
+		/**
+		 * Aborts this edit. This releases the edit lock so another edit may be
+		 * started on the same key.
+		 */
+		public void abort() throws IOException {
+			completeEdit(this, false);
+		}
+
+		/**
+		 * Commits this edit so it is visible to readers. This releases the edit
+		 * lock so another edit may be started on the same key.
+		 */
+		public void commit() throws IOException {
+			if (hasErrors) {
+				completeEdit(this, false);
+				remove(entry.key); // the previous entry is stale
+			} else {
+				completeEdit(this, true);
+			}
+		}
+
+		/**
+		 * Returns the last committed value as a string, or null if no value has
+		 * been committed.
+		 */
+		public String getString(int index) throws IOException {
+			InputStream in = newInputStream(index);
+			return in != null ? DiskLRUCache.inputStreamToString(in) : null;
+		}
+
+		/**
+		 * Returns an unbuffered input stream to read the last committed value,
+		 * or null if no value has been committed.
+		 */
+		public InputStream newInputStream(int index) throws IOException {
+			if (entry.currentEditor != this) {
+				throw new IllegalStateException();
+			}
+			if (!entry.readable) {
+				return null;
+			}
+			return new FileInputStream(entry.getCleanFile(index));
+		}
+
+		/**
+		 * Returns a new unbuffered output stream to write the value at
+		 * {@code index}. If the underlying output stream encounters errors when
+		 * writing to the filesystem, this edit will be aborted when
+		 * {@link #commit} is called. The returned output stream does not throw
+		 * IOExceptions.
+		 */
+		public OutputStream newOutputStream(int index) throws IOException {
+			if (entry.currentEditor != this) {
+				throw new IllegalStateException();
+			}
+			return new FaultHidingOutputStream(new FileOutputStream(entry.getDirtyFile(index)));
+		}
+
+		/**
+		 * Sets the value at {@code index} to {@code value}.
+		 */
+		public void set(int index, String value) throws IOException {
+			Writer writer = null;
+			try {
+				writer = new OutputStreamWriter(newOutputStream(index), DiskLRUCache.UTF_8);
+				writer.write(value);
+			} finally {
+				DiskLRUCache.closeQuietly(writer);
+			}
+		}
+	}
+
+	private final class Entry {
+		/**
+		 * Incremented before and after the clean files of this entry are
+		 * replaced or deleted. Odd while files are being published. Only
+		 * written while holding the entry's stripe lock.
+		 */
+		private volatile int commitCount;
+
+		/** The ongoing edit or null if this entry is not being edited. */
+		private volatile Editor currentEditor;
+
+		private final String key;
+
+		/** Value of the access clock at the last read or edit. */
+		private volatile long lastAccess;
+
+		/** Lengths of this entry's files. Guarded by the stripe lock. */
+		private final long[] lengths;
+
+		/** True if this entry has ever been published */
+		private volatile boolean readable;
+
+		/**
+		 * The sequence number of the most recently committed edit to this
+		 * entry.
+		 */
+		private volatile long sequenceNumber;
+
+		private Entry(String key) {
+			this.key = key;
+			this.lengths = new long[valueCount];
+		}
+
+		public File getCleanFile(int i) {
+			return new File(directory, key + "." + i);
+		}
+
+		public File getDirtyFile(int i) {
+			return new File(directory, key + "." + i + ".tmp");
+		}
+
+		public String getLengths() {
+			StringBuilder result = new StringBuilder();
+			for (long size : lengths) {
+				result.append(' ').append(size);
+			}
+			return result.toString();
+		}
+
+		/**
+		 * Set lengths using decimal numbers like "10123".
+		 */
+		private void setLengths(String[] strings) throws IOException {
+			if (strings.length != valueCount) {
+				throw new IOException("unexpected journal line: " + Arrays.toString(strings));
+			}
+
+			try {
+				for (int i = 0; i < strings.length; i++) {
+					lengths[i] = Long.parseLong(strings[i]);
+				}
+			} catch (NumberFormatException e) {
+				throw new IOException("unexpected journal line: " + Arrays.toString(strings));
+			}
+		}
+	}
+
+	/**
+	 * An entry and its access stamp, captured once so that sorting is not
+	 * affected by concurrent reads.
+	 */
+	private static final class AccessStamp implements Comparable<AccessStamp> {
+		private final Entry entry;
+		private final long lastAccess;
+
+		private AccessStamp(Entry entry) {
+			this.entry = entry;
+			this.lastAccess = entry.lastAccess;
+		}
+
+		@Override
+		public int compareTo(AccessStamp another) {
+			return lastAccess < another.lastAccess ? -1
+					: (lastAccess == another.lastAccess ? 0 : 1);
+		}
+	}
+
+	/**
+	 * A snapshot of the values for an entry.
+	 */
+	public final class Snapshot implements Closeable {
+		private final InputStream[] ins;
+		private final String key;
+		private final long sequenceNumber;
+
+		private Snapshot(String key, long sequenceNumber, InputStream[] ins) {
+			this.key = key;
+			this.sequenceNumber = sequenceNumber;
+			this.ins = ins;
+		}
+
+		@Override
+		public void close() {
+			for (InputStream in : ins) {
+				DiskLRUCache.closeQuietly(in);
+			}
+		}
+
+		/**
+		 * Returns an editor for this snapshot's entry, or null if either the
+		 * entry has changed since this snapshot was created or if another edit
+		 * is in progress.
+		 */
+		public Editor edit() throws IOException {
+			return ConcurrentDiskLRUCache.this.edit(key, sequenceNumber);
+		}
+
+		/**
+		 * Returns the unbuffered stream with the value for {@code index}.
+		 */
+		public InputStream getInputStream(int index) {
+			return ins[index];
+		}
+
+		/**
+		 * Returns the string value for {@code index}.
+		 */
+		public String getString(int index) throws IOException {
+			return DiskLRUCache.inputStreamToString(getInputStream(index));
+		}
+	}
+
+	/** Number of entry lock stripes used by {@link #open(File, int, int, long)}. */
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	/**
+	 * Number of lock-free attempts a read makes before it falls back to taking
+	 * the stripe lock of its key.
+	 */
+	private static final int MAX_OPTIMISTIC_READS = 4;
+
+	private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+	/**
+	 * Opens the cache in {@code directory} with
+	 * {@link #DEFAULT_CONCURRENCY_LEVEL} lock stripes, creating a cache if none
+	 * exists there.
+	 *
+	 * @see #open(File, int, int, long, int)
+	 */
+	public static ConcurrentDiskLRUCache open(File directory, int appVersion, int valueCount,
+			long maxSize) throws IOException {
+		return open(directory, appVersion, valueCount, maxSize, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * Opens the cache in {@code directory}, creating a cache if none exists
+	 * there.
+	 *
+	 * @param directory
+	 *            a writable directory
+	 * @param appVersion
+	 * @param valueCount
+	 *            the number of values per cache entry. Must be positive.
+	 * @param maxSize
+	 *            the maximum number of bytes this cache should use to store
+	 * @param concurrencyLevel
+	 *            the estimated number of threads editing the cache at the
+	 *            same time. Rounded up to a power of two.
+	 * @throws IOException
+	 *             if reading or writing the cache directory fails
+	 */
+	public static ConcurrentDiskLRUCache open(File directory, int appVersion, int valueCount,
+			long maxSize, int concurrencyLevel) throws IOException {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		if (valueCount <= 0) {
+			throw new IllegalArgumentException("valueCount <= 0");
+		}
+		if (concurrencyLevel <= 0) {
+			throw new IllegalArgumentException("concurrencyLevel <= 0");
+		}
+
+		// prefer to pick up where we left off
+		ConcurrentDiskLRUCache cache = new ConcurrentDiskLRUCache(directory, appVersion,
+				valueCount, maxSize, concurrencyLevel);
+		File binaryJournalFile = new File(directory, BinaryJournal.JOURNAL_FILE);
+		boolean hasBinaryJournal = binaryJournalFile.exists();
+		if (hasBinaryJournal || cache.journalFile.exists()) {
+			try {
+				if (hasBinaryJournal) {
+					cache.readBinaryJournal(binaryJournalFile);
+					cache.processJournal();
+					// migrate to the text journal
+					cache.rebuildJournal();
+					DiskLRUCache.deleteIfExists(binaryJournalFile);
+					DiskLRUCache.deleteIfExists(new File(directory, BinaryJournal.INDEX_FILE));
+					return cache;
+				}
+				cache.readJournal();
+				cache.processJournal();
+				cache.journalWriter = new BufferedWriter(new FileWriter(cache.journalFile,
+						true));
+				return cache;
+			} catch (IOException journalIsCorrupt) {
+				System.out.println("DiskLruCache " + directory + " is corrupt: "
+						+ journalIsCorrupt.getMessage() + ", removing");
+				cache.delete();
+			}
+		}
+
+		// create a new empty cache
+		directory.mkdirs();
+		cache = new ConcurrentDiskLRUCache(directory, appVersion, valueCount, maxSize,
+				concurrencyLevel);
+		cache.rebuildJournal();
+		return cache;
+	}
+
+	/** Source of the stamps used to approximate LRU order. */
+	private final AtomicLong accessClock = new AtomicLong();
+	private final int appVersion;
+	private final Callable<Void> cleanupCallable = new Callable<Void>() {
+		@Override
+		public Void call() throws Exception {
+			if (closed) {
+				return null;
+			}
+			trimToSize();
+			if (journalRebuildRequired()) {
+				rebuildJournal();
+			}
+			return null;
+		}
+	};
+	private volatile boolean closed;
+	private final File directory;
+	/** This cache uses a single background thread to evict entries. */
+	private final ExecutorService executorService = new ThreadPoolExecutor(0, 1, 60L,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+	private final File journalFile;
+	private final File journalFileTmp;
+
+	/**
+	 * Held by the single thread that appends queued records to the journal.
+	 * Never held while acquiring a stripe lock.
+	 */
+	private final ReentrantLock journalLock = new ReentrantLock();
+
+	/** Records waiting to be appended to the journal. */
+	private final ConcurrentLinkedQueue<String> journalQueue = new ConcurrentLinkedQueue<String>();
+
+	/** Guarded by {@link #journalLock}. */
+	private Writer journalWriter;
+
+	private final ConcurrentHashMap<String, Entry> lruEntries;
+
+	private final long maxSize;
+
+	/**
+	 * To differentiate between old and current snapshots, each entry is given a
+	 * sequence number each time an edit is committed. A snapshot is stale if
+	 * its sequence number is not equal to its entry's sequence number.
+	 */
+	private final AtomicLong nextSequenceNumber = new AtomicLong();
+
+	private final AtomicInteger redundantOpCount = new AtomicInteger();
+
+	private final AtomicLong size = new AtomicLong();
+
+	private final ReentrantLock[] stripes;
+
+	private final int valueCount;
+
+	private ConcurrentDiskLRUCache(File directory, int appVersion, int valueCount,
+			long maxSize, int concurrencyLevel) {
+		this.directory = directory;
+		this.appVersion = appVersion;
+		this.journalFile = new File(directory, DiskLRUCache.JOURNAL_FILE);
+		this.journalFileTmp = new File(directory, DiskLRUCache.JOURNAL_FILE_TMP);
+		this.valueCount = valueCount;
+		this.maxSize = maxSize;
+
+		int stripeCount = 1;
+		while (stripeCount < concurrencyLevel) {
+			stripeCount <<= 1;
+		}
+		this.stripes = new ReentrantLock[stripeCount];
+		for (int i = 0; i < stripeCount; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+		this.lruEntries = new ConcurrentHashMap<String, Entry>(16, 0.75f, stripeCount);
+	}
+
+	/**
+	 * Queues {@code record} for the journal and, if no other thread is
+	 * appending, writes out everything that is queued.
+	 */
+	private void appendJournal(String record) throws IOException {
+		journalQueue.add(record);
+		while (journalLock.tryLock()) {
+			try {
+				drainJournal();
+				if (journalWriter == null) {
+					return; // closed; the record is dropped
+				}
+			} finally {
+				journalLock.unlock();
+			}
+			// a record queued while this thread held the lock was left for
+			// it to write
+			if (journalQueue.isEmpty()) {
+				return;
+			}
+		}
+	}
+
+	private void checkNotClosed() {
+		if (closed) {
+			throw new IllegalStateException("cache is closed");
+		}
+	}
+
+	/**
+	 * Closes this cache. Stored values will remain on the filesystem.
+	 */
+	@Override
+	public void close() throws IOException {
+		lockAllStripes();
+		try {
+			if (closed) {
+				return; // already closed
+			}
+			if (journalWriter == null) {
+				return; // never opened, such as a corrupt cache being deleted
+			}
+			for (Entry entry : new ArrayList<Entry>(lruEntries.values())) {
+				Editor editor = entry.currentEditor;
+				if (editor != null) {
+					editor.abort();
+				}
+			}
+			trimToSize();
+			closed = true;
+			journalLock.lock();
+			try {
+				drainJournal();
+				journalWriter.close();
+				journalWriter = null;
+			} finally {
+				journalLock.unlock();
+			}
+		} finally {
+			unlockAllStripes();
+		}
+	}
+
+	private void completeEdit(Editor editor, boolean success) throws IOException {
+		Entry entry = editor.entry;
+		ReentrantLock lock = stripeFor(entry.key);
+		lock.lock();
+		try {
+			if (entry.currentEditor != editor) {
+				throw new IllegalStateException();
+			}
+
+			// if this edit is creating the entry for the first time, every
+			// index must have a value
+			if (success && !entry.readable) {
+				for (int i = 0; i < valueCount; i++) {
+					if (!entry.getDirtyFile(i).exists()) {
+						editor.abort();
+						throw new IllegalStateException("edit didn't create file " + i);
+					}
+				}
+			}
+
+			entry.commitCount++;
+			try {
+				for (int i = 0; i < valueCount; i++) {
+					File dirty = entry.getDirtyFile(i);
+					if (success) {
+						if (dirty.exists()) {
+							File clean = entry.getCleanFile(i);
+							dirty.renameTo(clean);
+							long oldLength = entry.lengths[i];
+							long newLength = clean.length();
+							entry.lengths[i] = newLength;
+							size.addAndGet(newLength - oldLength);
+						}
+					} else {
+						DiskLRUCache.deleteIfExists(dirty);
+					}
+				}
+				if (success) {
+					entry.readable = true;
+					entry.sequenceNumber = nextSequenceNumber.getAndIncrement();
+				}
+			} finally {
+				entry.commitCount++;
+			}
+
+			redundantOpCount.incrementAndGet();
+			entry.currentEditor = null;
+			if (entry.readable) {
+				appendJournal(DiskLRUCache.CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+			} else {
+				lruEntries.remove(entry.key);
+				appendJournal(DiskLRUCache.REMOVE + ' ' + entry.key + '\n');
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		if (size.get() > maxSize || journalRebuildRequired()) {
+			executorService.submit(cleanupCallable);
+		}
+	}
+
+	/**
+	 * Closes the cache and deletes all of its stored values. This will delete
+	 * all files in the cache directory including files that weren't created by
+	 * the cache.
+	 */
+	public void delete() throws IOException {
+		close();
+		DiskLRUCache.deleteContents(directory);
+	}
+
+	/**
+	 * Writes every queued journal record. The caller must hold
+	 * {@link #journalLock}.
+	 */
+	private void drainJournal() throws IOException {
+		if (journalWriter == null) {
+			return; // closed or rebuilding
+		}
+		String record;
+		while ((record = journalQueue.poll()) != null) {
+			journalWriter.write(record);
+		}
+	}
+
+	/**
+	 * Returns an editor for the entry named {@code key}, or null if another
+	 * edit is in progress.
+	 */
+	public Editor edit(String key) throws IOException {
+		return edit(key, DiskLRUCache.ANY_SEQUENCE_NUMBER);
+	}
+
+	private Editor edit(String key, long expectedSequenceNumber) throws IOException {
+		checkNotClosed();
+		validateKey(key);
+		ReentrantLock lock = stripeFor(key);
+		lock.lock();
+		try {
+			Entry entry = lruEntries.get(key);
+			if (expectedSequenceNumber != DiskLRUCache.ANY_SEQUENCE_NUMBER
+					&& (entry == null || entry.sequenceNumber != expectedSequenceNumber)) {
+				return null; // snapshot is stale
+			}
+			if (entry == null) {
+				entry = new Entry(key);
+				lruEntries.put(key, entry);
+			} else if (entry.currentEditor != null) {
+				return null; // another edit is in progress
+			}
+
+			Editor editor = new Editor(entry);
+			entry.currentEditor = editor;
+			entry.lastAccess = accessClock.incrementAndGet();
+
+			// flush the journal before creating files to prevent file leaks
+			appendJournal(DiskLRUCache.DIRTY + ' ' + key + '\n');
+			flushJournal();
+			return editor;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Force buffered operations to the filesystem.
+	 */
+	public void flush() throws IOException {
+		checkNotClosed();
+		trimToSize();
+		flushJournal();
+	}
+
+	private void flushJournal() throws IOException {
+		journalLock.lock();
+		try {
+			drainJournal();
+			if (journalWriter != null) {
+				journalWriter.flush();
+			}
+		} finally {
+			journalLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the entry named {@code key}, or null if it doesn't
+	 * exist is not currently readable. If a value is returned, it is moved to
+	 * the head of the LRU queue.
+	 * <p>
+	 * This method does not lock unless a commit to the same key keeps racing
+	 * with it.
+	 */
+	public Snapshot get(String key) throws IOException {
+		checkNotClosed();
+		validateKey(key);
+
+		for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+			Entry entry = lruEntries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			int commits = entry.commitCount;
+			if ((commits & 1) != 0) {
+				Thread.yield(); // a commit is publishing files
+				continue;
+			}
+			if (!entry.readable) {
+				return null;
+			}
+			long sequenceNumber = entry.sequenceNumber;
+			InputStream[] ins = openCleanFiles(entry);
+			if (commits == entry.commitCount) {
+				// a file must have been deleted manually!
+				return ins != null ? publishRead(entry, sequenceNumber, ins) : null;
+			}
+			closeAll(ins);
+		}
+
+		ReentrantLock lock = stripeFor(key);
+		lock.lock();
+		try {
+			Entry entry = lruEntries.get(key);
+			if (entry == null || !entry.readable) {
+				return null;
+			}
+			InputStream[] ins = openCleanFiles(entry);
+			return ins != null ? publishRead(entry, entry.sequenceNumber, ins) : null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the directory where this cache stores its data.
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Returns true if this cache has been closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * We only rebuild the journal when it will halve the size of the journal
+	 * and eliminate at least 2000 ops.
+	 */
+	private boolean journalRebuildRequired() {
+		int redundantOps = redundantOpCount.get();
+		return redundantOps >= REDUNDANT_OP_COMPACT_THRESHOLD
+				&& redundantOps >= lruEntries.size();
+	}
+
+	private void lockAllStripes() {
+		for (ReentrantLock stripe : stripes) {
+			stripe.lock();
+		}
+	}
+
+	/**
+	 * Returns the maximum number of bytes that this cache should use to store
+	 * its data.
+	 */
+	public long maxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Opens all streams eagerly so that they come from a single published
+	 * edit. Returns null if a file is missing.
+	 */
+	private InputStream[] openCleanFiles(Entry entry) {
+		InputStream[] ins = new InputStream[valueCount];
+		try {
+			for (int i = 0; i < valueCount; i++) {
+				ins[i] = new FileInputStream(entry.getCleanFile(i));
+			}
+		} catch (FileNotFoundException e) {
+			closeAll(ins);
+			return null;
+		}
+		return ins;
+	}
+
+	private static void closeAll(InputStream[] ins) {
+		if (ins != null) {
+			for (InputStream in : ins) {
+				DiskLRUCache.closeQuietly(in);
+			}
+		}
+	}
+
+	/**
+	 * Computes the initial size and collects garbage as a part of opening the
+	 * cache. Dirty entries are assumed to be inconsistent and will be deleted.
+	 * Entries that were never published are dropped.
+	 */
+	private void processJournal() throws IOException {
+		DiskLRUCache.deleteIfExists(journalFileTmp);
+		for (Iterator<Entry> i = lruEntries.values().iterator(); i.hasNext();) {
+			Entry entry = i.next();
+			if (entry.currentEditor == null) {
+				if (!entry.readable) {
+					i.remove();
+					continue;
+				}
+				for (int t = 0; t < valueCount; t++) {
+					size.addAndGet(entry.lengths[t]);
+				}
+			} else {
+				entry.currentEditor = null;
+				for (int t = 0; t < valueCount; t++) {
+					DiskLRUCache.deleteIfExists(entry.getCleanFile(t));
+					DiskLRUCache.deleteIfExists(entry.getDirtyFile(t));
+				}
+				i.remove();
+			}
+		}
+	}
+
+	private Snapshot publishRead(Entry entry, long sequenceNumber, InputStream[] ins)
+			throws IOException {
+		entry.lastAccess = accessClock.incrementAndGet();
+		redundantOpCount.incrementAndGet();
+		appendJournal(DiskLRUCache.READ + ' ' + entry.key + '\n');
+		if (journalRebuildRequired()) {
+			executorService.submit(cleanupCallable);
+		}
+		return new Snapshot(entry.key, sequenceNumber, ins);
+	}
+
+	/**
+	 * Replays the journal into an access-ordered map, then stamps the entries
+	 * in that order so the LRU order survives a restart.
+	 */
+	private void readJournal() throws IOException {
+		LinkedHashMap<String, Entry> replayed = new LinkedHashMap<String, Entry>(0, 0.75f,
+				true);
+		InputStream in = new BufferedInputStream(new FileInputStream(journalFile));
+		try {
+			String magic = DiskLRUCache.readAsciiLine(in);
+			String version = DiskLRUCache.readAsciiLine(in);
+			String appVersionString = DiskLRUCache.readAsciiLine(in);
+			String valueCountString = DiskLRUCache.readAsciiLine(in);
+			String blank = DiskLRUCache.readAsciiLine(in);
+			if (!DiskLRUCache.MAGIC.equals(magic) || !DiskLRUCache.VERSION_1.equals(version)
+					|| !Integer.toString(appVersion).equals(appVersionString)
+					|| !Integer.toString(valueCount).equals(valueCountString)
+					|| !"".equals(blank)) {
+				throw new IOException("unexpected journal header: [" + magic + ", " + version
+						+ ", " + valueCountString + ", " + blank + "]");
+			}
+
+			while (true) {
+				try {
+					readJournalLine(replayed, DiskLRUCache.readAsciiLine(in));
+				} catch (EOFException endOfJournal) {
+					break;
+				}
+			}
+		} finally {
+			DiskLRUCache.closeQuietly(in);
+		}
+
+		for (Entry entry : replayed.values()) {
+			entry.lastAccess = accessClock.incrementAndGet();
+			lruEntries.put(entry.key, entry);
+		}
+	}
+
+	/**
+	 * Replays the snapshot index and the binary journal written by a
+	 * {@link DiskLRUCache} opened with a binary journal, like
+	 * {@link #readJournal()}. A truncated trailing record ends the replay.
+	 */
+	private void readBinaryJournal(File binaryJournalFile) throws IOException {
+		LinkedHashMap<String, Entry> replayed = new LinkedHashMap<String, Entry>(0, 0.75f,
+				true);
+		File indexFile = new File(directory, BinaryJournal.INDEX_FILE);
+		if (indexFile.exists()) {
+			MappedByteBuffer index = BinaryJournal.map(indexFile);
+			BinaryJournal.readHeader(index, indexFile, appVersion, valueCount);
+			try {
+				for (int count = index.getInt(); count > 0; count--) {
+					Entry entry = new Entry(BinaryJournal.readKey(index));
+					BinaryJournal.readLengths(index, entry.lengths);
+					entry.readable = true;
+					replayed.put(entry.key, entry);
+				}
+			} catch (BufferUnderflowException e) {
+				throw new IOException("truncated index: " + indexFile);
+			}
+		}
+
+		MappedByteBuffer journal = BinaryJournal.map(binaryJournalFile);
+		BinaryJournal.readHeader(journal, binaryJournalFile, appVersion, valueCount);
+		try {
+			while (journal.hasRemaining()) {
+				readBinaryJournalRecord(replayed, journal);
+			}
+		} catch (BufferUnderflowException endOfJournal) {
+			// the last append was interrupted
+		}
+
+		for (Entry entry : replayed.values()) {
+			entry.lastAccess = accessClock.incrementAndGet();
+			lruEntries.put(entry.key, entry);
+		}
+	}
+
+	private void readBinaryJournalRecord(Map<String, Entry> replayed, MappedByteBuffer journal)
+			throws IOException {
+		byte op = journal.get();
+		String key = BinaryJournal.readKey(journal);
+		if (op == BinaryJournal.OP_REMOVE) {
+			replayed.remove(key);
+			return;
+		}
+
+		Entry entry = replayed.get(key);
+		if (entry == null) {
+			entry = new Entry(key);
+			replayed.put(key, entry);
+		}
+
+		if (op == BinaryJournal.OP_CLEAN) {
+			BinaryJournal.readLengths(journal, entry.lengths);
+			entry.readable = true;
+			entry.currentEditor = null;
+		} else if (op == BinaryJournal.OP_DIRTY) {
+			entry.currentEditor = new Editor(entry);
+		} else if (op == BinaryJournal.OP_READ) {
+			// this work was already done by calling replayed.get()
+		} else {
+			throw new IOException("unexpected journal op " + op + " for " + key);
+		}
+	}
+
+	private void readJournalLine(Map<String, Entry> replayed, String line) throws IOException {
+		String[] parts = line.split(" ");
+		if (parts.length < 2) {
+			throw new IOException("unexpected journal line: " + line);
+		}
+
+		String key = parts[1];
+		if (parts[0].equals(DiskLRUCache.REMOVE) && parts.length == 2) {
+			replayed.remove(key);
+			return;
+		}
+
+		Entry entry = replayed.get(key);
+		if (entry == null) {
+			entry = new Entry(key);
+			replayed.put(key, entry);
+		}
+
+		if (parts[0].equals(DiskLRUCache.CLEAN) && parts.length == 2 + valueCount) {
+			entry.readable = true;
+			entry.currentEditor = null;
+			entry.setLengths(DiskLRUCache.copyOfRange(parts, 2, parts.length));
+		} else if (parts[0].equals(DiskLRUCache.DIRTY) && parts.length == 2) {
+			entry.currentEditor = new Editor(entry);
+		} else if (parts[0].equals(DiskLRUCache.READ) && parts.length == 2) {
+			// this work was already done by calling replayed.get()
+		} else {
+			throw new IOException("unexpected journal line: " + line);
+		}
+	}
+
+	/**
+	 * Creates a new journal that omits redundant information. This replaces the
+	 * current journal if it exists. Every stripe is locked so the new journal
+	 * reflects a consistent state; queued records are superseded by it.
+	 */
+	private void rebuildJournal() throws IOException {
+		lockAllStripes();
+		journalLock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			if (journalWriter != null) {
+				journalWriter.close();
+				journalWriter = null;
+			}
+
+			Writer writer = new BufferedWriter(new FileWriter(journalFileTmp));
+			writer.write(DiskLRUCache.MAGIC);
+			writer.write("\n");
+			writer.write(DiskLRUCache.VERSION_1);
+			writer.write("\n");
+			writer.write(Integer.toString(appVersion));
+			writer.write("\n");
+			writer.write(Integer.toString(valueCount));
+			writer.write("\n");
+			writer.write("\n");
+
+			for (AccessStamp stamp : accessOrder()) {
+				Entry entry = stamp.entry;
+				if (entry.currentEditor != null) {
+					writer.write(DiskLRUCache.DIRTY + ' ' + entry.key + '\n');
+				} else if (entry.readable) {
+					writer.write(DiskLRUCache.CLEAN + ' ' + entry.key + entry.getLengths()
+							+ '\n');
+				}
+			}
+
+			writer.close();
+			journalQueue.clear();
+			journalFileTmp.renameTo(journalFile);
+			journalWriter = new BufferedWriter(new FileWriter(journalFile, true));
+			redundantOpCount.set(0);
+		} finally {
+			journalLock.unlock();
+			unlockAllStripes();
+		}
+	}
+
+	/**
+	 * Returns the current entries, least recently used first.
+	 */
+	private List<AccessStamp> accessOrder() {
+		List<AccessStamp> stamps = new ArrayList<AccessStamp>(lruEntries.size());
+		for (Entry entry : lruEntries.values()) {
+			stamps.add(new AccessStamp(entry));
+		}
+		Collections.sort(stamps);
+		return stamps;
+	}
+
+	/**
+	 * Drops the entry for {@code key} if it exists and can be removed. Entries
+	 * actively being edited cannot be removed.
+	 *
+	 * @return true if an entry was removed.
+	 */
+	public boolean remove(String key) throws IOException {
+		checkNotClosed();
+		validateKey(key);
+		ReentrantLock lock = stripeFor(key);
+		lock.lock();
+		try {
+			Entry entry = lruEntries.get(key);
+			if (entry == null || entry.currentEditor != null) {
+				return false;
+			}
+
+			entry.commitCount++;
+			try {
+				for (int i = 0; i < valueCount; i++) {
+					File file = entry.getCleanFile(i);
+					if (!file.delete()) {
+						throw new IOException("failed to delete " + file);
+					}
+					size.addAndGet(-entry.lengths[i]);
+					entry.lengths[i] = 0;
+				}
+				entry.readable = false;
+			} finally {
+				entry.commitCount++;
+			}
+
+			redundantOpCount.incrementAndGet();
+			appendJournal(DiskLRUCache.REMOVE + ' ' + key + '\n');
+			lruEntries.remove(key);
+		} finally {
+			lock.unlock();
+		}
+
+		if (journalRebuildRequired()) {
+			executorService.submit(cleanupCallable);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the number of bytes currently being used to store the values in
+	 * this cache. This may be greater than the max size if a background
+	 * deletion is pending.
+	 */
+	public long size() {
+		return size.get();
+	}
+
+	private ReentrantLock stripeFor(String key) {
+		int hash = key.hashCode();
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		hash ^= (hash >>> 7) ^ (hash >>> 4);
+		return stripes[hash & (stripes.length - 1)];
+	}
+
+	/**
+	 * Evicts the least recently used entries until the cache fits in
+	 * {@link #maxSize}. Entries that are being edited are skipped.
+	 */
+	private void trimToSize() throws IOException {
+		if (size.get() <= maxSize) {
+			return;
+		}
+		for (AccessStamp stamp : accessOrder()) {
+			if (size.get() <= maxSize) {
+				break;
+			}
+			Entry entry = stamp.entry;
+			if (entry.currentEditor == null && lruEntries.get(entry.key) == entry) {
+				remove(entry.key);
+			}
+		}
+	}
+
+	private void unlockAllStripes() {
+		for (ReentrantLock stripe : stripes) {
+			stripe.unlock();
+		}
+	}
+
+	private void validateKey(String key) {
+		if (key.contains(" ") || key.contains("\n") || key.contains("\r")) {
+			throw new IllegalArgumentException("keys must not contain spaces or newlines: \""
+					+ key + "\"");
+		}
+	}
+}
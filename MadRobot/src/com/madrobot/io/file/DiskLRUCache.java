@@ -1,8 +1,10 @@
 package com.madrobot.io.file;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -19,6 +21,9 @@ import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Array;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -77,6 +82,20 @@ import java.util.concurrent.TimeUnit;
  * error occurs while writing a cache value, the edit will fail silently.
  * Callers should handle other problems by catching {@code IOException} and
  * responding appropriately.
+ *
+ * <p>
+ * All operations on this cache are serialized on a single monitor. Caches
+ * that are shared by many threads should use {@link ConcurrentDiskLRUCache},
+ * which reads and writes the same directory layout and text journal, and
+ * migrates a binary journal to the text one when it opens the directory.
+ *
+ * <p>
+ * By default the journal is a text file that is replayed line by line when
+ * the cache is opened. Caches with many entries can be opened with a binary
+ * journal instead (see {@link #open(File, int, int, long, boolean)}), which
+ * stores fixed-width records and a snapshot index written at every journal
+ * compaction, both read through a memory-mapped buffer. A journal in the
+ * other format is migrated automatically when the cache is opened.
  */
 public final class DiskLRUCache implements Closeable {
 	/**
@@ -304,6 +323,34 @@ public final class DiskLRUCache implements Closeable {
 			return DiskLRUCache.this.edit(key, sequenceNumber);
 		}
 
+		/**
+		 * Returns the file that holds the value for {@code index}. Unlike the
+		 * streams of this snapshot, the file is not pinned to this snapshot: a
+		 * later commit replaces it and a removal deletes it.
+		 */
+		public File getFile(int index) {
+			return new File(directory, key + "." + index);
+		}
+
+		/**
+		 * Returns a channel over the file that holds the value for
+		 * {@code index}. The channel shares the open file of this snapshot's
+		 * stream, so it keeps reading this snapshot's value after a later
+		 * commit replaces the file or a removal deletes it. It is closed with
+		 * the snapshot.
+		 */
+		public FileChannel getChannel(int index) {
+			return ((FileInputStream) ins[index]).getChannel();
+		}
+
+		/**
+		 * Returns the sequence number of the edit this snapshot reads. It
+		 * changes whenever an edit of the entry is committed.
+		 */
+		public long getSequenceNumber() {
+			return sequenceNumber;
+		}
+
 		/**
 		 * Returns the unbuffered stream with the value for {@code index}.
 		 */
@@ -320,23 +367,23 @@ public final class DiskLRUCache implements Closeable {
 	}
 
 	static final long ANY_SEQUENCE_NUMBER = -1;
-	private static final String CLEAN = "CLEAN";
-	private static final String DIRTY = "DIRTY";
+	static final String CLEAN = "CLEAN";
+	static final String DIRTY = "DIRTY";
 	static final String JOURNAL_FILE = "journal";
 	static final String JOURNAL_FILE_TMP = "journal.tmp";
 	static final String MAGIC = "libcore.io.DiskLruCache";
 
-	private static final String READ = "READ";
+	static final String READ = "READ";
 
-	private static final String REMOVE = "REMOVE";
+	static final String REMOVE = "REMOVE";
 
 	/* XXX From java.nio.charset.Charsets */
-	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	static final Charset UTF_8 = Charset.forName("UTF-8");
 
 	static final String VERSION_1 = "1";
 
 	/* XXX From libcore.io.IoUtils */
-	private static void closeQuietly(/* Auto */Closeable closeable) {
+	static void closeQuietly(/* Auto */Closeable closeable) {
 		if (closeable != null) {
 			try {
 				closeable.close();
@@ -349,7 +396,7 @@ public final class DiskLRUCache implements Closeable {
 
 	/* XXX From java.util.Arrays */
 	@SuppressWarnings("unchecked")
-	private static <T> T[] copyOfRange(T[] original, int start, int end) {
+	static <T> T[] copyOfRange(T[] original, int start, int end) {
 		int originalLength = original.length; // For exception priority
 												// compatibility.
 		if (start > end) {
@@ -399,7 +446,7 @@ public final class DiskLRUCache implements Closeable {
 	 */
 
 	/* XXX From libcore.io.IoUtils */
-	private static void deleteContents(File dir) throws IOException {
+	static void deleteContents(File dir) throws IOException {
 		File[] files = dir.listFiles();
 		if (files == null) {
 			throw new IllegalArgumentException("not a directory: " + dir);
@@ -414,7 +461,7 @@ public final class DiskLRUCache implements Closeable {
 		}
 	}
 
-	private static void deleteIfExists(File file) throws IOException {
+	static void deleteIfExists(File file) throws IOException {
 		/*
 		 * try { Libcore.os.remove(file.getPath()); } catch (ErrnoException
 		 * errnoException) { if (errnoException.errno != OsConstants.ENOENT) {
@@ -425,7 +472,7 @@ public final class DiskLRUCache implements Closeable {
 		}
 	}
 
-	private static String inputStreamToString(InputStream in) throws IOException {
+	static String inputStreamToString(InputStream in) throws IOException {
 		return /* Streams. */readFully(new InputStreamReader(in, /* Charsets. */
 		UTF_8));
 	}
@@ -446,6 +493,29 @@ public final class DiskLRUCache implements Closeable {
 	 */
 	public static DiskLRUCache open(File directory, int appVersion, int valueCount,
 			long maxSize) throws IOException {
+		return open(directory, appVersion, valueCount, maxSize, false);
+	}
+
+	/**
+	 * Opens the cache in {@code directory}, creating a cache if none exists
+	 * there.
+	 * 
+	 * @param directory
+	 *            a writable directory
+	 * @param appVersion
+	 * @param valueCount
+	 *            the number of values per cache entry. Must be positive.
+	 * @param maxSize
+	 *            the maximum number of bytes this cache should use to store
+	 * @param binaryJournal
+	 *            true to keep the journal in the binary format described in
+	 *            {@link BinaryJournal}. A journal found in the other format is
+	 *            migrated.
+	 * @throws IOException
+	 *             if reading or writing the cache directory fails
+	 */
+	public static DiskLRUCache open(File directory, int appVersion, int valueCount,
+			long maxSize, boolean binaryJournal) throws IOException {
 		if (maxSize <= 0) {
 			throw new IllegalArgumentException("maxSize <= 0");
 		}
@@ -454,13 +524,31 @@ public final class DiskLRUCache implements Closeable {
 		}
 
 		// prefer to pick up where we left off
-		DiskLRUCache cache = new DiskLRUCache(directory, appVersion, valueCount, maxSize);
-		if (cache.journalFile.exists()) {
+		DiskLRUCache cache = new DiskLRUCache(directory, appVersion, valueCount, maxSize,
+				binaryJournal);
+		boolean hasBinaryJournal = cache.binaryJournalFile.exists();
+		if (hasBinaryJournal || cache.journalFile.exists()) {
 			try {
-				cache.readJournal();
+				boolean complete = true;
+				if (hasBinaryJournal) {
+					complete = cache.readBinaryJournal();
+				} else {
+					cache.readJournal();
+				}
 				cache.processJournal();
-				cache.journalWriter = new BufferedWriter(new FileWriter(cache.journalFile,
-						true));
+				if (hasBinaryJournal != binaryJournal || !complete) {
+					// migrate to the requested format, or drop a torn
+					// trailing record that appends would otherwise follow
+					cache.rebuildJournal();
+					if (binaryJournal) {
+						deleteIfExists(cache.journalFile);
+					} else {
+						deleteIfExists(cache.binaryJournalFile);
+						deleteIfExists(cache.indexFile);
+					}
+				} else {
+					cache.openJournalWriter();
+				}
 				return cache;
 			} catch (IOException journalIsCorrupt) {
 				System.out.println("DiskLruCache " + directory + " is corrupt: "
@@ -471,13 +559,13 @@ public final class DiskLRUCache implements Closeable {
 
 		// create a new empty cache
 		directory.mkdirs();
-		cache = new DiskLRUCache(directory, appVersion, valueCount, maxSize);
+		cache = new DiskLRUCache(directory, appVersion, valueCount, maxSize, binaryJournal);
 		cache.rebuildJournal();
 		return cache;
 	}
 
 	/* XXX From libcore.io.Streams */
-	private static String readAsciiLine(InputStream in) throws IOException {
+	static String readAsciiLine(InputStream in) throws IOException {
 		// TODO: support UTF-8 here instead
 
 		StringBuilder result = new StringBuilder(80);
@@ -514,11 +602,16 @@ public final class DiskLRUCache implements Closeable {
 	}
 
 	private final int appVersion;
+	private final boolean binaryJournal;
+	private final File binaryJournalFile;
+	private final File binaryJournalFileTmp;
+	/** Appends to the binary journal, or null if the text journal is used. */
+	private DataOutputStream binaryJournalWriter;
 	private final Callable<Void> cleanupCallable = new Callable<Void>() {
 		@Override
 		public Void call() throws Exception {
 			synchronized (DiskLRUCache.this) {
-				if (journalWriter == null) {
+				if (isClosed()) {
 					return null; // closed
 				}
 				trimToSize();
@@ -535,9 +628,13 @@ public final class DiskLRUCache implements Closeable {
 	private final ExecutorService executorService = new ThreadPoolExecutor(0, 1, 60L,
 			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
 
+	private final File indexFile;
+	private final File indexFileTmp;
+
 	private final File journalFile;
 
 	private final File journalFileTmp;
+	/** Appends to the text journal, or null if the binary journal is used. */
 	private Writer journalWriter;
 
 	private final LinkedHashMap<String, Entry> lruEntries = new LinkedHashMap<String, Entry>(
@@ -549,8 +646,9 @@ public final class DiskLRUCache implements Closeable {
 	 * To differentiate between old and current snapshots, each entry is given a
 	 * sequence number each time an edit is committed. A snapshot is stale if
 	 * its sequence number is not equal to its entry's sequence number.
+	 * Entries read from the journal have 0, so numbering starts at 1.
 	 */
-	private long nextSequenceNumber = 0;
+	private long nextSequenceNumber = 1;
 
 	private int redundantOpCount;
 
@@ -558,17 +656,44 @@ public final class DiskLRUCache implements Closeable {
 
 	private final int valueCount;
 
-	private DiskLRUCache(File directory, int appVersion, int valueCount, long maxSize) {
+	private DiskLRUCache(File directory, int appVersion, int valueCount, long maxSize,
+			boolean binaryJournal) {
 		this.directory = directory;
 		this.appVersion = appVersion;
 		this.journalFile = new File(directory, JOURNAL_FILE);
 		this.journalFileTmp = new File(directory, JOURNAL_FILE_TMP);
+		this.binaryJournalFile = new File(directory, BinaryJournal.JOURNAL_FILE);
+		this.binaryJournalFileTmp = new File(directory, BinaryJournal.JOURNAL_FILE_TMP);
+		this.indexFile = new File(directory, BinaryJournal.INDEX_FILE);
+		this.indexFileTmp = new File(directory, BinaryJournal.INDEX_FILE_TMP);
+		this.binaryJournal = binaryJournal;
 		this.valueCount = valueCount;
 		this.maxSize = maxSize;
 	}
 
+	/**
+	 * Appends a record to the journal in whichever format this cache uses.
+	 * 
+	 * @param lengths
+	 *            the value lengths of a {@link #CLEAN} record, otherwise null
+	 */
+	private void appendJournal(String state, String key, long[] lengths) throws IOException {
+		if (binaryJournal) {
+			BinaryJournal.writeRecord(binaryJournalWriter, BinaryJournal.opFor(state), key,
+					lengths);
+			return;
+		}
+		StringBuilder line = new StringBuilder(state).append(' ').append(key);
+		if (lengths != null) {
+			for (long length : lengths) {
+				line.append(' ').append(length);
+			}
+		}
+		journalWriter.write(line.append('\n').toString());
+	}
+
 	private void checkNotClosed() {
-		if (journalWriter == null) {
+		if (isClosed()) {
 			throw new IllegalStateException("cache is closed");
 		}
 	}
@@ -578,7 +703,7 @@ public final class DiskLRUCache implements Closeable {
 	 */
 	@Override
 	public synchronized void close() throws IOException {
-		if (journalWriter == null) {
+		if (isClosed()) {
 			return; // already closed
 		}
 		for (Entry entry : new ArrayList<Entry>(lruEntries.values())) {
@@ -587,8 +712,18 @@ public final class DiskLRUCache implements Closeable {
 			}
 		}
 		trimToSize();
-		journalWriter.close();
-		journalWriter = null;
+		closeJournalWriter();
+	}
+
+	private void closeJournalWriter() throws IOException {
+		if (journalWriter != null) {
+			journalWriter.close();
+			journalWriter = null;
+		}
+		if (binaryJournalWriter != null) {
+			binaryJournalWriter.close();
+			binaryJournalWriter = null;
+		}
 	}
 
 	private synchronized void completeEdit(Editor editor, boolean success) throws IOException {
@@ -628,13 +763,13 @@ public final class DiskLRUCache implements Closeable {
 		entry.currentEditor = null;
 		if (entry.readable | success) {
 			entry.readable = true;
-			journalWriter.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+			appendJournal(CLEAN, entry.key, entry.lengths);
 			if (success) {
 				entry.sequenceNumber = nextSequenceNumber++;
 			}
 		} else {
 			lruEntries.remove(entry.key);
-			journalWriter.write(REMOVE + ' ' + entry.key + '\n');
+			appendJournal(REMOVE, entry.key, null);
 		}
 
 		if (size > maxSize || journalRebuildRequired()) {
@@ -680,8 +815,8 @@ public final class DiskLRUCache implements Closeable {
 		entry.currentEditor = editor;
 
 		// flush the journal before creating files to prevent file leaks
-		journalWriter.write(DIRTY + ' ' + key + '\n');
-		journalWriter.flush();
+		appendJournal(DIRTY, key, null);
+		flushJournal();
 		return editor;
 	}
 
@@ -691,7 +826,15 @@ public final class DiskLRUCache implements Closeable {
 	public synchronized void flush() throws IOException {
 		checkNotClosed();
 		trimToSize();
-		journalWriter.flush();
+		flushJournal();
+	}
+
+	private void flushJournal() throws IOException {
+		if (binaryJournal) {
+			binaryJournalWriter.flush();
+		} else {
+			journalWriter.flush();
+		}
 	}
 
 	/**
@@ -727,7 +870,7 @@ public final class DiskLRUCache implements Closeable {
 		}
 
 		redundantOpCount++;
-		journalWriter.append(READ + ' ' + key + '\n');
+		appendJournal(READ, key, null);
 		if (journalRebuildRequired()) {
 			executorService.submit(cleanupCallable);
 		}
@@ -746,7 +889,7 @@ public final class DiskLRUCache implements Closeable {
 	 * Returns true if this cache has been closed.
 	 */
 	public boolean isClosed() {
-		return journalWriter == null;
+		return journalWriter == null && binaryJournalWriter == null;
 	}
 
 	/**
@@ -773,6 +916,8 @@ public final class DiskLRUCache implements Closeable {
 	 */
 	private void processJournal() throws IOException {
 		deleteIfExists(journalFileTmp);
+		deleteIfExists(binaryJournalFileTmp);
+		deleteIfExists(indexFileTmp);
 		for (Iterator<Entry> i = lruEntries.values().iterator(); i.hasNext();) {
 			Entry entry = i.next();
 			if (entry.currentEditor == null) {
@@ -790,6 +935,67 @@ public final class DiskLRUCache implements Closeable {
 		}
 	}
 
+	/**
+	 * Replays the snapshot index, if there is one, followed by the binary
+	 * journal. Both files are read through a memory-mapped buffer.
+	 *
+	 * @return false if the journal ends with a truncated record
+	 */
+	private boolean readBinaryJournal() throws IOException {
+		if (indexFile.exists()) {
+			MappedByteBuffer index = BinaryJournal.map(indexFile);
+			BinaryJournal.readHeader(index, indexFile, appVersion, valueCount);
+			try {
+				for (int count = index.getInt(); count > 0; count--) {
+					Entry entry = new Entry(BinaryJournal.readKey(index));
+					BinaryJournal.readLengths(index, entry.lengths);
+					entry.readable = true;
+					lruEntries.put(entry.key, entry);
+				}
+			} catch (BufferUnderflowException e) {
+				throw new IOException("truncated index: " + indexFile);
+			}
+		}
+
+		MappedByteBuffer journal = BinaryJournal.map(binaryJournalFile);
+		BinaryJournal.readHeader(journal, binaryJournalFile, appVersion, valueCount);
+		while (journal.hasRemaining()) {
+			try {
+				readBinaryJournalRecord(journal);
+			} catch (BufferUnderflowException endOfJournal) {
+				return false; // the last append was interrupted
+			}
+		}
+		return true;
+	}
+
+	private void readBinaryJournalRecord(MappedByteBuffer journal) throws IOException {
+		byte op = journal.get();
+		String key = BinaryJournal.readKey(journal);
+		if (op == BinaryJournal.OP_REMOVE) {
+			lruEntries.remove(key);
+			return;
+		}
+
+		Entry entry = lruEntries.get(key);
+		if (entry == null) {
+			entry = new Entry(key);
+			lruEntries.put(key, entry);
+		}
+
+		if (op == BinaryJournal.OP_CLEAN) {
+			BinaryJournal.readLengths(journal, entry.lengths);
+			entry.readable = true;
+			entry.currentEditor = null;
+		} else if (op == BinaryJournal.OP_DIRTY) {
+			entry.currentEditor = new Editor(entry);
+		} else if (op == BinaryJournal.OP_READ) {
+			// this work was already done by calling lruEntries.get()
+		} else {
+			throw new IOException("unexpected journal op " + op + " for " + key);
+		}
+	}
+
 	private void readJournal() throws IOException {
 		InputStream in = new BufferedInputStream(new FileInputStream(journalFile));
 		try {
@@ -854,8 +1060,10 @@ public final class DiskLRUCache implements Closeable {
 	 * current journal if it exists.
 	 */
 	private synchronized void rebuildJournal() throws IOException {
-		if (journalWriter != null) {
-			journalWriter.close();
+		closeJournalWriter();
+		if (binaryJournal) {
+			rebuildBinaryJournal();
+			return;
 		}
 
 		Writer writer = new BufferedWriter(new FileWriter(journalFileTmp));
@@ -879,7 +1087,66 @@ public final class DiskLRUCache implements Closeable {
 
 		writer.close();
 		journalFileTmp.renameTo(journalFile);
-		journalWriter = new BufferedWriter(new FileWriter(journalFile, true));
+		openJournalWriter();
+	}
+
+	/**
+	 * Writes the clean entries to a new snapshot index and starts a binary
+	 * journal that holds only the entries being edited. The index is replaced
+	 * first: replaying the old journal over the new index yields the same
+	 * entries, so a crash between the two renames loses nothing.
+	 */
+	private void rebuildBinaryJournal() throws IOException {
+		int cleanCount = 0;
+		for (Entry entry : lruEntries.values()) {
+			if (entry.currentEditor == null) {
+				cleanCount++;
+			}
+		}
+
+		DataOutputStream index = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(indexFileTmp)));
+		try {
+			BinaryJournal.writeHeader(index, appVersion, valueCount);
+			index.writeInt(cleanCount);
+			for (Entry entry : lruEntries.values()) {
+				if (entry.currentEditor == null) {
+					BinaryJournal.writeKey(index, entry.key);
+					BinaryJournal.writeLengths(index, entry.lengths);
+				}
+			}
+		} finally {
+			index.close();
+		}
+
+		DataOutputStream journal = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(binaryJournalFileTmp)));
+		try {
+			BinaryJournal.writeHeader(journal, appVersion, valueCount);
+			for (Entry entry : lruEntries.values()) {
+				if (entry.currentEditor != null) {
+					BinaryJournal.writeRecord(journal, BinaryJournal.OP_DIRTY, entry.key, null);
+				}
+			}
+		} finally {
+			journal.close();
+		}
+
+		indexFileTmp.renameTo(indexFile);
+		binaryJournalFileTmp.renameTo(binaryJournalFile);
+		openJournalWriter();
+	}
+
+	/**
+	 * Opens the journal of this cache's format for appending.
+	 */
+	private void openJournalWriter() throws IOException {
+		if (binaryJournal) {
+			binaryJournalWriter = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(binaryJournalFile, true)));
+		} else {
+			journalWriter = new BufferedWriter(new FileWriter(journalFile, true));
+		}
 	}
 
 	/**
@@ -906,7 +1173,7 @@ public final class DiskLRUCache implements Closeable {
 		}
 
 		redundantOpCount++;
-		journalWriter.append(REMOVE + ' ' + key + '\n');
+		appendJournal(REMOVE, key, null);
 		lruEntries.remove(key);
 
 		if (journalRebuildRequired()) {
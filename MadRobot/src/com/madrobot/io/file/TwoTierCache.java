@@ -0,0 +1,552 @@
+package com.madrobot.io.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A cache with an in-memory tier in front of a {@link DiskLRUCache}.
+ * <p>
+ * The memory tier holds decoded values up to a fixed number of bytes, as
+ * reported by {@link Codec#sizeOf(Object)}, and evicts the least recently used
+ * values when it is over budget. Unlike a {@link java.lang.ref.SoftReference}
+ * based map, eviction only depends on the budget, never on garbage collection.
+ * <ul>
+ * <li>A value read from disk is promoted to the memory tier.</li>
+ * <li>{@link #put} stores the value in memory and returns immediately. The
+ * value is written to disk by a single background thread. Repeated puts of a
+ * key that has not been written yet are coalesced into one write. A value
+ * whose write fails, because of an I/O error, an exception of the codec or
+ * another edit of the disk entry, stays pending, and readable, until a later
+ * write of it succeeds.</li>
+ * <li>Concurrent misses on the same key share one disk read.</li>
+ * </ul>
+ * Each value is stored in the first value index of the disk cache, which
+ * should be opened with a value count of 1. Hit, miss and load time counters
+ * are kept for each tier; see {@link #memoryStats()} and {@link #diskStats()}.
+ *
+ * @param <V>
+ *            type of the cached values
+ */
+public final class TwoTierCache<V> implements Closeable {
+
+	/**
+	 * Converts values to and from their disk representation.
+	 *
+	 * @param <V>
+	 *            type of the cached values
+	 */
+	public interface Codec<V> {
+		/**
+		 * Reads a value written by {@link #encode}.
+		 */
+		V decode(InputStream in) throws IOException;
+
+		/**
+		 * Writes {@code value} to {@code out}.
+		 */
+		void encode(V value, OutputStream out) throws IOException;
+
+		/**
+		 * Returns the number of heap bytes {@code value} is charged against
+		 * the memory budget.
+		 */
+		int sizeOf(V value);
+	}
+
+	/**
+	 * Counters of one cache tier. The counters are updated without locking,
+	 * so a set of values read together may be slightly inconsistent.
+	 */
+	public static final class TierStats {
+		private final AtomicLong hitCount = new AtomicLong();
+		private final AtomicLong loadTimeNanos = new AtomicLong();
+		private final AtomicLong missCount = new AtomicLong();
+
+		private TierStats() {
+		}
+
+		/**
+		 * Returns the average time spent looking up a value in this tier, in
+		 * nanoseconds, or 0 if there was no lookup.
+		 */
+		public long averageLoadTimeNanos() {
+			long lookups = lookupCount();
+			return lookups == 0 ? 0 : loadTimeNanos.get() / lookups;
+		}
+
+		public long hitCount() {
+			return hitCount.get();
+		}
+
+		/**
+		 * Returns the ratio of lookups that were hits, or 1 if there was no
+		 * lookup.
+		 */
+		public double hitRate() {
+			long lookups = lookupCount();
+			return lookups == 0 ? 1.0 : (double) hitCount.get() / lookups;
+		}
+
+		public long lookupCount() {
+			return hitCount.get() + missCount.get();
+		}
+
+		public long missCount() {
+			return missCount.get();
+		}
+
+		/**
+		 * Returns the total time spent looking up values in this tier, in
+		 * nanoseconds.
+		 */
+		public long totalLoadTimeNanos() {
+			return loadTimeNanos.get();
+		}
+
+		private void record(boolean hit, long startNanos) {
+			loadTimeNanos.addAndGet(System.nanoTime() - startNanos);
+			if (hit) {
+				hitCount.incrementAndGet();
+			} else {
+				missCount.incrementAndGet();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + hitCount + ", misses=" + missCount + ", avgLoadNanos="
+					+ averageLoadTimeNanos();
+		}
+	}
+
+	/**
+	 * Writes the pending value of one key to disk.
+	 */
+	private final class WriteBehind implements Runnable {
+		private final String key;
+
+		private WriteBehind(String key) {
+			this.key = key;
+		}
+
+		@Override
+		public void run() {
+			Object pending = pendingWrites.get(key);
+			if (pending == null) {
+				return;
+			}
+			try {
+				if (pending == REMOVED) {
+					disk.remove(key);
+				} else {
+					write(key, pending);
+				}
+			} catch (IOException e) {
+				failed(pending);
+				return;
+			} catch (RuntimeException e) {
+				// thrown by the codec
+				failed(pending);
+				return;
+			}
+			if (!pendingWrites.remove(key, pending)) {
+				// replaced while writing; write the newer value too
+				writeExecutor.execute(this);
+			}
+		}
+
+		private void failed(Object pending) {
+			// keep the value pending, so that reads still find it after it
+			// is evicted from memory; the next put of the key or flush()
+			// retries the write
+			failedWrites.add(key);
+			if (pendingWrites.get(key) != pending && failedWrites.remove(key)) {
+				// replaced while writing; write the newer value
+				writeExecutor.execute(this);
+			}
+		}
+	}
+
+	/** Marks a key whose removal has not reached the disk yet. */
+	private static final Object REMOVED = new Object();
+
+	/**
+	 * Number of version stripes. Puts and removals of keys in the same stripe
+	 * invalidate each other's concurrent disk reads.
+	 */
+	private static final int VERSION_STRIPES = 64;
+
+	private volatile boolean closed;
+	private final Codec<V> codec;
+	private final DiskLRUCache disk;
+	private final TierStats diskStats = new TierStats();
+
+	/** Keys whose pending value failed to be written to disk. */
+	private final Set<String> failedWrites = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final ConcurrentHashMap<String, FutureTask<V>> inFlightLoads = new ConcurrentHashMap<String, FutureTask<V>>();
+	private final long maxMemorySize;
+
+	/** Guarded by itself. */
+	private final LinkedHashMap<String, V> memory = new LinkedHashMap<String, V>(0, 0.75f,
+			true);
+	/** Guarded by {@link #memory}. */
+	private long memorySize;
+	private final TierStats memoryStats = new TierStats();
+
+	/**
+	 * Counts the puts and removals of the keys of each stripe. Only
+	 * incremented holding {@link #memory}. A value read from disk is only
+	 * promoted if the count of its key's stripe did not change since the read
+	 * started.
+	 */
+	private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+	/**
+	 * Values, or {@link #REMOVED}, that are waiting to be written to disk.
+	 */
+	private final ConcurrentHashMap<String, Object> pendingWrites = new ConcurrentHashMap<String, Object>();
+
+	/** Writes to the disk tier happen on this single thread. */
+	private final ExecutorService writeExecutor = new ThreadPoolExecutor(0, 1, 60L,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+	/**
+	 * @param disk
+	 *            the disk tier. This cache takes ownership of it and closes it
+	 *            in {@link #close()}.
+	 * @param maxMemorySize
+	 *            the number of bytes the memory tier may hold
+	 * @param codec
+	 *            converts values to and from their disk representation
+	 */
+	public TwoTierCache(DiskLRUCache disk, long maxMemorySize, Codec<V> codec) {
+		if (maxMemorySize <= 0) {
+			throw new IllegalArgumentException("maxMemorySize <= 0");
+		}
+		this.disk = disk;
+		this.maxMemorySize = maxMemorySize;
+		this.codec = codec;
+	}
+
+	/**
+	 * Writes pending values to disk and closes the disk tier. The memory tier
+	 * is cleared.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		retryFailedWrites();
+		writeExecutor.shutdown();
+		try {
+			writeExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (memory) {
+			memory.clear();
+			memorySize = 0;
+		}
+		disk.close();
+	}
+
+	/**
+	 * Returns the counters of the disk tier. Only lookups that missed the
+	 * memory tier reach the disk tier.
+	 */
+	public TierStats diskStats() {
+		return diskStats;
+	}
+
+	/**
+	 * Blocks until every value put so far has been written to disk, then
+	 * flushes the disk cache. Values whose earlier write failed are written
+	 * again.
+	 *
+	 * @throws IllegalStateException
+	 *             if the cache is closed
+	 */
+	public void flush() throws IOException {
+		checkNotClosed();
+		retryFailedWrites();
+		FutureTask<Void> barrier = new FutureTask<Void>(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}, null);
+		writeExecutor.execute(barrier);
+		try {
+			barrier.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// the barrier does nothing
+		}
+		disk.flush();
+	}
+
+	/**
+	 * Returns the value for {@code key}, or null if neither tier has it.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(final String key) throws IOException {
+		long start = System.nanoTime();
+		// read before the pending writes are checked, so that a put or
+		// removal that the disk read could miss changes it
+		final long version = versions.get(stripe(key));
+		V value;
+		synchronized (memory) {
+			value = memory.get(key);
+		}
+		memoryStats.record(value != null, start);
+		if (value != null) {
+			return value;
+		}
+
+		Object pending = pendingWrites.get(key);
+		if (pending != null) {
+			// evicted from memory before it reached the disk
+			return pending == REMOVED ? null : (V) pending;
+		}
+
+		FutureTask<V> load = inFlightLoads.get(key);
+		if (load == null) {
+			FutureTask<V> newLoad = new FutureTask<V>(new Callable<V>() {
+				@Override
+				public V call() throws IOException {
+					return load(key, version);
+				}
+			});
+			load = inFlightLoads.putIfAbsent(key, newLoad);
+			if (load == null) {
+				load = newLoad;
+				try {
+					newLoad.run();
+				} finally {
+					inFlightLoads.remove(key, newLoad);
+				}
+			}
+		}
+
+		try {
+			return load.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for " + key);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(String.valueOf(cause));
+		}
+	}
+
+	/**
+	 * Reads {@code key} from disk and promotes it to the memory tier.
+	 *
+	 * @param version
+	 *            the version of the key's stripe before the pending writes
+	 *            were checked
+	 */
+	private V load(String key, long version) throws IOException {
+		long start = System.nanoTime();
+		V value = null;
+		DiskLRUCache.Snapshot snapshot = disk.get(key);
+		if (snapshot != null) {
+			try {
+				value = codec.decode(snapshot.getInputStream(0));
+			} finally {
+				snapshot.close();
+			}
+		}
+		diskStats.record(value != null, start);
+		if (value != null) {
+			promote(key, value, version);
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the maximum number of bytes the memory tier holds.
+	 */
+	public long maxMemorySize() {
+		return maxMemorySize;
+	}
+
+	/**
+	 * Returns the number of bytes currently held by the memory tier.
+	 */
+	public long memorySize() {
+		synchronized (memory) {
+			return memorySize;
+		}
+	}
+
+	/**
+	 * Returns the counters of the memory tier.
+	 */
+	public TierStats memoryStats() {
+		return memoryStats;
+	}
+
+	/**
+	 * Stores {@code value} in the memory tier and schedules its write to disk.
+	 */
+	public void put(String key, V value) {
+		if (key == null || value == null) {
+			throw new NullPointerException("key == null || value == null");
+		}
+		checkNotClosed();
+		synchronized (memory) {
+			putInMemory(key, value);
+			invalidateLoads(key);
+			schedule(key, value);
+		}
+	}
+
+	/**
+	 * Must be called holding {@link #memory}.
+	 */
+	private void putInMemory(String key, V value) {
+		int size = codec.sizeOf(value);
+		V previous = memory.remove(key);
+		if (previous != null) {
+			memorySize -= codec.sizeOf(previous);
+		}
+		if (size > maxMemorySize) {
+			return; // would evict everything else
+		}
+		memory.put(key, value);
+		memorySize += size;
+		trimMemory();
+	}
+
+	/**
+	 * Adds a value read from disk to the memory tier, unless the key was put
+	 * or removed since {@code version} was read, or still has a pending write.
+	 */
+	private void promote(String key, V value, long version) {
+		synchronized (memory) {
+			if (versions.get(stripe(key)) == version && !pendingWrites.containsKey(key)
+					&& !memory.containsKey(key)) {
+				putInMemory(key, value);
+			}
+		}
+	}
+
+	/**
+	 * Keeps disk reads of {@code key} that are under way from being promoted
+	 * or shared with later reads. Must be called holding {@link #memory}.
+	 */
+	private void invalidateLoads(String key) {
+		versions.incrementAndGet(stripe(key));
+		inFlightLoads.remove(key);
+	}
+
+	private void checkNotClosed() {
+		if (closed) {
+			throw new IllegalStateException("cache is closed");
+		}
+	}
+
+	/**
+	 * Schedules the writes that failed again.
+	 */
+	private void retryFailedWrites() {
+		for (String key : failedWrites) {
+			if (failedWrites.remove(key)) {
+				writeExecutor.execute(new WriteBehind(key));
+			}
+		}
+	}
+
+	/**
+	 * Removes {@code key} from both tiers. The disk removal happens in the
+	 * background, ordered after any pending write of the same key.
+	 */
+	public void remove(String key) {
+		checkNotClosed();
+		synchronized (memory) {
+			V previous = memory.remove(key);
+			if (previous != null) {
+				memorySize -= codec.sizeOf(previous);
+			}
+			invalidateLoads(key);
+			schedule(key, REMOVED);
+		}
+	}
+
+	private void schedule(String key, Object pending) {
+		if (pendingWrites.put(key, pending) == null || failedWrites.remove(key)) {
+			writeExecutor.execute(new WriteBehind(key));
+		}
+	}
+
+	private static int stripe(String key) {
+		int h = key.hashCode();
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return h & (VERSION_STRIPES - 1);
+	}
+
+	/**
+	 * Evicts the least recently used values until the memory tier is within
+	 * budget. Must be called holding {@link #memory}.
+	 */
+	private void trimMemory() {
+		Iterator<Map.Entry<String, V>> eldest = memory.entrySet().iterator();
+		while (memorySize > maxMemorySize && eldest.hasNext()) {
+			memorySize -= codec.sizeOf(eldest.next().getValue());
+			eldest.remove();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void write(String key, Object value) throws IOException {
+		DiskLRUCache.Editor editor = disk.edit(key);
+		if (editor == null) {
+			// fails like any other write, so the value stays pending and is
+			// written again by the next put of the key or flush()
+			throw new IOException("another edit of " + key + " is in progress");
+		}
+		boolean completed = false;
+		OutputStream out = editor.newOutputStream(0);
+		try {
+			codec.encode((V) value, out);
+			out.close();
+			// the edit is over once commit is called, even if it throws
+			completed = true;
+			editor.commit();
+		} finally {
+			if (!completed) {
+				DiskLRUCache.closeQuietly(out);
+				editor.abort();
+			}
+		}
+	}
+}
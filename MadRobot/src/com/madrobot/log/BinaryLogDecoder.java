@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import com.madrobot.util.collections.LongObjectMap;
+
+/**
+ * Renders the segments written by {@link LoggerStrategyBinaryFile} as text, in
+ * the format of {@link LoggerStrategyLogFile}.
+ * <p>
+ * The decoder does not depend on Android and can be run on log files pulled
+ * from a device:
+ *
+ * <pre>
+ * java -cp madrobot.jar com.madrobot.log.BinaryLogDecoder &lt;directory or segment&gt;...
+ * </pre>
+ *
+ * </p>
+ */
+public class BinaryLogDecoder {
+
+	private static final String[] LEVELS = { "Verbose", "Debug", "Info", "Warn", "Error",
+			"Assert" };
+
+	/**
+	 * Decodes the given segment files or directories of segment files to the
+	 * standard output.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: BinaryLogDecoder <directory or segment>...");
+			System.exit(1);
+		}
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"));
+		for (String arg : args) {
+			File file = new File(arg);
+			if (file.isDirectory()) {
+				decodeDirectory(file, out);
+			} else {
+				decode(file, out);
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Decodes all segments in <code>directory</code>, oldest first.
+	 */
+	public static void decodeDirectory(File directory, Writer out) throws IOException {
+		for (File segment : LoggerStrategyBinaryFile.listSegments(directory)) {
+			decode(segment, out);
+		}
+	}
+
+	/**
+	 * Decodes a single segment. A record cut short at the end of the segment is
+	 * ignored.
+	 *
+	 * @throws IOException
+	 *             if the file is not a segment or cannot be read
+	 */
+	public static void decode(File segment, Writer out) throws IOException {
+		ByteBuffer buffer;
+		FileInputStream in = new FileInputStream(segment);
+		try {
+			FileChannel channel = in.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			in.close();
+		}
+		if (buffer.remaining() < LoggerStrategyBinaryFile.HEADER_SIZE
+				|| buffer.getInt() != LoggerStrategyBinaryFile.MAGIC) {
+			throw new IOException("Not a log segment: " + segment);
+		}
+		byte version = buffer.get();
+		if (version != LoggerStrategyBinaryFile.VERSION) {
+			throw new IOException("Unsupported log segment version " + version + ": " + segment);
+		}
+		new BinaryLogDecoder(buffer, buffer.getLong()).decode(out);
+	}
+
+	private final ByteBuffer buffer;
+	private long time;
+	private final LongObjectMap<String> tags = new LongObjectMap<String>();
+	private final LongObjectMap<String> templates = new LongObjectMap<String>();
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat(
+			"yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+	private final StringBuilder line = new StringBuilder();
+
+	private BinaryLogDecoder(ByteBuffer buffer, long baseTime) {
+		this.buffer = buffer;
+		this.time = baseTime;
+	}
+
+	private void decode(Writer out) throws IOException {
+		try {
+			while (buffer.hasRemaining()) {
+				byte type = buffer.get();
+				switch (type) {
+				case LoggerStrategyBinaryFile.RECORD_END:
+					return;
+				case LoggerStrategyBinaryFile.RECORD_TAG:
+					tags.put(getVarLong(), getString());
+					break;
+				case LoggerStrategyBinaryFile.RECORD_TEMPLATE:
+					templates.put(getVarLong(), getString());
+					break;
+				case LoggerStrategyBinaryFile.RECORD_EVENT:
+					decodeEvent();
+					out.write(line.toString());
+					break;
+				default:
+					throw new IOException("Unknown log record type " + type + " at "
+							+ (buffer.position() - 1));
+				}
+			}
+		} catch (BufferUnderflowException e) {
+			// record cut short at the end of the segment
+		}
+	}
+
+	private void decodeEvent() throws IOException {
+		time += unZigZag(getVarLong());
+		int level = buffer.get();
+		long tagId = getVarLong();
+		long templateId = getVarLong();
+		Object[] args = new Object[(int) getVarLong()];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = getArg();
+		}
+
+		String message;
+		if (templateId == LoggerStrategyBinaryFile.PLAIN_MESSAGE) {
+			message = args.length == 0 ? "" : String.valueOf(args[0]);
+		} else {
+			String template = templates.get(templateId);
+			if (template == null) {
+				throw new IOException("Undefined log template " + templateId);
+			}
+			message = LoggerUtils.formatTemplate(template, args);
+		}
+		line.setLength(0);
+		line.append('[').append(dateFormat.format(new Date(time))).append("] ")
+				.append(levelToString(level)).append(" [").append(tags.get(tagId))
+				.append("] ").append(message).append("\r\n");
+	}
+
+	private Object getArg() throws IOException {
+		byte type = buffer.get();
+		switch (type) {
+		case LoggerStrategyBinaryFile.ARG_NULL:
+			return null;
+		case LoggerStrategyBinaryFile.ARG_INT:
+			return (int) unZigZag(getVarLong());
+		case LoggerStrategyBinaryFile.ARG_LONG:
+			return unZigZag(getVarLong());
+		case LoggerStrategyBinaryFile.ARG_DOUBLE:
+			return Double.longBitsToDouble(buffer.getLong());
+		case LoggerStrategyBinaryFile.ARG_BOOLEAN:
+			return buffer.get() != 0;
+		case LoggerStrategyBinaryFile.ARG_STRING:
+			return getString();
+		default:
+			throw new IOException("Unknown log argument type " + type + " at "
+					+ (buffer.position() - 1));
+		}
+	}
+
+	private String getString() {
+		long length = getVarLong();
+		if (length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[(int) length];
+		buffer.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new Error(e);
+		}
+	}
+
+	private long getVarLong() {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+		}
+		return value;
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static String levelToString(int level) {
+		int index = level - 2;
+		return index >= 0 && index < LEVELS.length ? LEVELS[index] : String.valueOf(level);
+	}
+}
@@ -26,4 +26,14 @@ abstract class LogMethod {
 
 	abstract void write(int level, String tag, String message);
 
+	/**
+	 * Logs a message built from a template and its arguments. Strategies that
+	 * can store the template and arguments separately override this.
+	 * 
+	 * @see LoggerUtils#formatTemplate(String, Object[])
+	 */
+	void write(int level, String tag, String template, Object[] args) {
+		write(level, tag, LoggerUtils.formatTemplate(template, args));
+	}
+
 }
@@ -10,6 +10,8 @@
  ******************************************************************************/
 package com.madrobot.log;
 
+import android.util.Log;
+
 /**
  * Logging framework entry point.
  * <p>
@@ -89,6 +91,48 @@ public class Logger {
 		logger.write(level, tag, message);
 	}
 
+	/**
+	 * Logs a message built from a template, where each <code>{}</code> is
+	 * replaced by the next argument.
+	 * <p>
+	 * The message is only formatted if the logging strategy needs the text.
+	 * {@link LoggerStrategyBinaryFile} stores the template and arguments as
+	 * they are.
+	 * </p>
+	 * 
+	 * @param level
+	 *            one of the {@link android.util.Log} priority constants
+	 * @param tag
+	 *            Log tag
+	 * @param template
+	 *            Message template
+	 * @param args
+	 *            Template arguments
+	 */
+	public static void write(int level, String tag, String template, Object... args) {
+		logger.write(level, tag, template, args);
+	}
+
+	public static void d(String tag, String template, Object... args) {
+		logger.write(Log.DEBUG, tag, template, args);
+	}
+
+	public static void e(String tag, String template, Object... args) {
+		logger.write(Log.ERROR, tag, template, args);
+	}
+
+	public static void i(String tag, String template, Object... args) {
+		logger.write(Log.INFO, tag, template, args);
+	}
+
+	public static void v(String tag, String template, Object... args) {
+		logger.write(Log.VERBOSE, tag, template, args);
+	}
+
+	public static void w(String tag, String template, Object... args) {
+		logger.write(Log.WARN, tag, template, args);
+	}
+
 	private Logger() {
 	}
 
@@ -0,0 +1,373 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import android.os.Environment;
+import android.util.Log;
+
+/**
+ * Log file strategy that writes on a background thread.
+ * <p>
+ * A log call only stores the time, level, tag and message in a preallocated
+ * ring buffer, without taking a lock. A single background thread formats the
+ * buffered records in the same format as {@link LoggerStrategyLogFile} and
+ * writes them in batches through a {@link FileChannel}. The timestamp is
+ * formatted once per second. Messages are not echoed to logcat.
+ * </p>
+ * <p>
+ * The log file is rolled over when it reaches a maximum size or has been
+ * written to for a given time. The rolled file is renamed by appending the
+ * time it was rolled, e.g. {@code app.log.20111231-235959}, followed by a
+ * counter if the file was rolled more than once in that second.
+ * </p>
+ * <p>
+ * When the buffer is full, a log call either drops its record or waits for
+ * room, as chosen at construction. Records logged after {@link #shutdown()}
+ * are dropped.
+ * </p>
+ */
+public class LoggerStrategyAsyncFile extends LogMethod implements LoggerStrategy {
+
+	/**
+	 * Default number of records the buffer holds
+	 */
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	/**
+	 * Default size at which the log file is rolled over
+	 */
+	public static final long DEFAULT_MAX_FILE_SIZE = 4 * 1024 * 1024;
+
+	private static final String[] LEVELS = { "Verbose", "Debug", "Info", "Warn", "Error" };
+
+	/**
+	 * Characters formatted before they are encoded and written
+	 */
+	private static final int BATCH_CHARS = 32 * 1024;
+
+	private final boolean blockWhenFull;
+	private final AtomicLong dropped = new AtomicLong();
+	private final File logFile;
+	private final long maxFileSize;
+	private final long rollIntervalMillis;
+
+	// ring buffer
+	private final int mask;
+	private final long[] times;
+	private final int[] levels;
+	private final String[] tags;
+	private final String[] messages;
+	/** Sequence number of the record published in each slot */
+	private final AtomicLongArray published;
+	/** Next sequence number to claim */
+	private final AtomicLong tail = new AtomicLong();
+	/** Next sequence number to drain; written by the drainer only */
+	private volatile long head;
+
+	private final Thread drainer;
+	private volatile boolean running = true;
+	private volatile boolean drainerParked;
+
+	// drainer state
+	private FileChannel channel;
+	private long fileSize;
+	private long fileOpened;
+	private final StringBuilder batch = new StringBuilder(BATCH_CHARS + 1024);
+	private final ByteBuffer bytes = ByteBuffer.allocate(BATCH_CHARS * 2);
+	private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	/** The timestamp format of {@link LoggerStrategyLogFile#formatDate(Date)} */
+	private final MessageFormat secondFormat = new MessageFormat("{0,date} {0,time}");
+	private final SimpleDateFormat rollFormat = new SimpleDateFormat("yyyyMMdd-HHmmss",
+			Locale.US);
+	private long formattedSecond = -1;
+	private String formattedSecondText;
+
+	/**
+	 * Creates a strategy logging to a file on the external storage, with the
+	 * default capacity and file size, no time based rolling, and dropping
+	 * records when the buffer is full.
+	 *
+	 * @param directory
+	 *            of the log file
+	 * @param fileName
+	 *            of the log file
+	 */
+	public LoggerStrategyAsyncFile(String directory, String fileName) {
+		this(new File(new File(Environment.getExternalStorageDirectory(), directory),
+				fileName), DEFAULT_CAPACITY, DEFAULT_MAX_FILE_SIZE, 0, false);
+	}
+
+	/**
+	 * @param logFile
+	 *            file to log to. Its directory is created if needed.
+	 * @param capacity
+	 *            number of records the buffer holds; rounded up to a power of
+	 *            two
+	 * @param maxFileSize
+	 *            size in bytes at which the log file is rolled over, or 0 for
+	 *            no size limit
+	 * @param rollIntervalMillis
+	 *            time after which the log file is rolled over, or 0 for no
+	 *            time limit
+	 * @param blockWhenFull
+	 *            true to make log calls wait while the buffer is full, false
+	 *            to drop their records
+	 */
+	public LoggerStrategyAsyncFile(File logFile, int capacity, long maxFileSize,
+			long rollIntervalMillis, boolean blockWhenFull) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity <= 0");
+		}
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.times = new long[size];
+		this.levels = new int[size];
+		this.tags = new String[size];
+		this.messages = new String[size];
+		this.published = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			published.set(i, -1);
+		}
+		this.logFile = logFile;
+		this.maxFileSize = maxFileSize;
+		this.rollIntervalMillis = rollIntervalMillis;
+		this.blockWhenFull = blockWhenFull;
+
+		drainer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "LoggerStrategyAsyncFile");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	@Override
+	void d(String tag, String message) {
+		write(Log.DEBUG, tag, message);
+	}
+
+	@Override
+	void e(String tag, String message) {
+		write(Log.ERROR, tag, message);
+	}
+
+	@Override
+	void i(String tag, String message) {
+		write(Log.INFO, tag, message);
+	}
+
+	@Override
+	void v(String tag, String message) {
+		write(Log.VERBOSE, tag, message);
+	}
+
+	@Override
+	void w(String tag, String message) {
+		write(Log.WARN, tag, message);
+	}
+
+	/**
+	 * Returns the number of records dropped because the buffer was full.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	@Override
+	void write(int level, String tag, String message) {
+		long now = System.currentTimeMillis();
+		long seq;
+		while (true) {
+			if (!running) {
+				dropped.incrementAndGet();
+				return;
+			}
+			seq = tail.get();
+			if (seq - head > mask) {
+				// full
+				if (!blockWhenFull) {
+					dropped.incrementAndGet();
+					return;
+				}
+				LockSupport.unpark(drainer);
+				LockSupport.parkNanos(100 * 1000L);
+				continue;
+			}
+			if (tail.compareAndSet(seq, seq + 1)) {
+				break;
+			}
+		}
+		int slot = (int) seq & mask;
+		times[slot] = now;
+		levels[slot] = level;
+		tags[slot] = tag;
+		messages[slot] = message;
+		published.set(slot, seq);
+		if (drainerParked) {
+			LockSupport.unpark(drainer);
+		}
+	}
+
+	/**
+	 * Drains the remaining records, then closes the log file.
+	 */
+	@Override
+	void shutdown() {
+		running = false;
+		LockSupport.unpark(drainer);
+		try {
+			drainer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			boolean stopping = !running;
+			int drained = drainBatch();
+			if (drained == 0) {
+				if (stopping && head == tail.get()) {
+					break;
+				}
+				// a writer that publishes after this check sees drainerParked
+				// and unparks
+				drainerParked = true;
+				if (published.get((int) head & mask) != head) {
+					LockSupport.park(this);
+				}
+				drainerParked = false;
+			}
+		}
+		closeFile();
+	}
+
+	/**
+	 * Formats and writes the records published so far, up to one batch.
+	 *
+	 * @return number of records written
+	 */
+	private int drainBatch() {
+		int drained = 0;
+		long seq = head;
+		while (batch.length() < BATCH_CHARS) {
+			int slot = (int) seq & mask;
+			if (published.get(slot) != seq) {
+				break;
+			}
+			format(times[slot], levels[slot], tags[slot], messages[slot]);
+			tags[slot] = null;
+			messages[slot] = null;
+			seq++;
+			head = seq;
+			drained++;
+		}
+		if (batch.length() > 0) {
+			try {
+				writeBatch();
+			} catch (IOException e) {
+				Log.e("Logger", "Could not write log file: " + e.getMessage());
+				closeFile();
+			}
+			batch.setLength(0);
+		}
+		return drained;
+	}
+
+	private void format(long time, int level, String tag, String message) {
+		long second = time / 1000;
+		if (second != formattedSecond) {
+			formattedSecond = second;
+			formattedSecondText = secondFormat.format(new Object[] { new Date(time) });
+		}
+		batch.append('[').append(formattedSecondText).append("] ")
+				.append(LEVELS[level - Log.VERBOSE]).append(" [")
+				.append(tag).append("] ").append(message).append("\r\n");
+	}
+
+	private void writeBatch() throws IOException {
+		long now = System.currentTimeMillis();
+		if (channel != null
+				&& ((maxFileSize > 0 && fileSize >= maxFileSize) || (rollIntervalMillis > 0 && now
+						- fileOpened >= rollIntervalMillis))) {
+			closeFile();
+			String rolledName = logFile.getPath() + "." + rollFormat.format(new Date(now));
+			File rolled = new File(rolledName);
+			for (int i = 1; rolled.exists(); i++) {
+				rolled = new File(rolledName + "-" + i);
+			}
+			logFile.renameTo(rolled);
+		}
+		if (channel == null) {
+			File directory = logFile.getParentFile();
+			if (directory != null && !directory.isDirectory()) {
+				directory.mkdirs();
+			}
+			channel = new FileOutputStream(logFile, true).getChannel();
+			fileSize = channel.size();
+			fileOpened = now;
+		}
+
+		CharBuffer chars = CharBuffer.wrap(batch);
+		encoder.reset();
+		boolean flushed = false;
+		while (true) {
+			CoderResult result = flushed ? encoder.flush(bytes) : encoder.encode(chars,
+					bytes, true);
+			bytes.flip();
+			while (bytes.hasRemaining()) {
+				fileSize += channel.write(bytes);
+			}
+			bytes.clear();
+			if (!result.isOverflow()) {
+				if (flushed) {
+					break;
+				}
+				flushed = true;
+			}
+		}
+	}
+
+	private void closeFile() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+			channel = null;
+		}
+	}
+}
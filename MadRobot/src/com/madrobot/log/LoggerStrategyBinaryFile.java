@@ -0,0 +1,423 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import android.os.Environment;
+import android.util.Log;
+
+/**
+ * Log strategy that writes compact binary records to rolling memory mapped
+ * segment files.
+ * <p>
+ * Each record holds the time since the previous record, the level, the id of
+ * the tag, the id of the message template and the template arguments. A tag or
+ * template is written once per segment, the first time it is used, and
+ * referred to by its id after that. Messages logged with
+ * {@link Logger#write(int, String, String, Object...)} and its shorthand
+ * methods keep their template and arguments apart, so the template is only
+ * stored once. Plain messages are stored as they are.
+ * </p>
+ * <p>
+ * Records are copied into a mapped segment, so a log call does not make a
+ * system call. The data reaches the file even if the process is killed. When
+ * a segment is full, the next one is mapped and the oldest segments beyond the
+ * configured count are deleted. Each segment can be decoded on its own with
+ * {@link BinaryLogDecoder}.
+ * </p>
+ * <p>
+ * <b>Segment format</b><br/>
+ * A header of the magic number <code>MRLG</code>, a version byte and the base
+ * time in milliseconds since the epoch, followed by records. A record is a
+ * type byte followed by its fields. Integers are variable length, strings are a
+ * variable length byte count followed by UTF-8 bytes. A zero type byte marks
+ * the end of the data.
+ * </p>
+ *
+ * @see BinaryLogDecoder
+ */
+public class LoggerStrategyBinaryFile extends LogMethod implements LoggerStrategy {
+
+	/**
+	 * Default size of a segment file
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+	/**
+	 * Default number of segment files kept
+	 */
+	public static final int DEFAULT_MAX_SEGMENTS = 8;
+
+	static final int MAGIC = 0x4D524C47;
+	static final byte VERSION = 1;
+	static final int HEADER_SIZE = 4 + 1 + 8;
+	static final String SEGMENT_SUFFIX = ".mrlog";
+
+	static final byte RECORD_END = 0;
+	static final byte RECORD_TAG = 1;
+	static final byte RECORD_TEMPLATE = 2;
+	static final byte RECORD_EVENT = 3;
+
+	/**
+	 * Template id of a plain message, stored as the only argument
+	 */
+	static final int PLAIN_MESSAGE = 0;
+
+	static final byte ARG_NULL = 0;
+	static final byte ARG_INT = 1;
+	static final byte ARG_LONG = 2;
+	static final byte ARG_DOUBLE = 3;
+	static final byte ARG_BOOLEAN = 4;
+	static final byte ARG_STRING = 5;
+
+	/**
+	 * Strings are truncated to this many bytes so that a record always fits
+	 * into an empty segment
+	 */
+	private static final int MAX_STRING_BYTES = 8 * 1024;
+
+	private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+
+	private static final Object[] NO_ARGS = new Object[0];
+
+	/**
+	 * Returns the segment files in <code>directory</code>, oldest first.
+	 */
+	static File[] listSegments(File directory) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return new File[0];
+		}
+		int count = 0;
+		for (File file : files) {
+			if (segmentNumber(file) >= 0) {
+				files[count++] = file;
+			}
+		}
+		File[] segments = new File[count];
+		System.arraycopy(files, 0, segments, 0, count);
+		Arrays.sort(segments, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				long left = segmentNumber(lhs);
+				long right = segmentNumber(rhs);
+				return left < right ? -1 : (left == right ? 0 : 1);
+			}
+		});
+		return segments;
+	}
+
+	/**
+	 * Returns the number of a segment file, or -1 if the file is not a
+	 * segment.
+	 */
+	static long segmentNumber(File file) {
+		String name = file.getName();
+		if (!name.endsWith(SEGMENT_SUFFIX)) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private final File directory;
+	private final int segmentSize;
+	private final int maxSegments;
+
+	private boolean closed;
+	private MappedByteBuffer segment;
+	private long segmentNumber;
+	private long lastTime;
+	private final HashMap<String, Integer> tagIds = new HashMap<String, Integer>();
+	private final HashMap<String, Integer> templateIds = new HashMap<String, Integer>();
+	/**
+	 * Tag and template defined by the record being encoded. They are only
+	 * added to the ids of the segment once the record is written.
+	 */
+	private String newTag;
+	private String newTemplate;
+
+	/** Records being encoded, before they are copied into the segment */
+	private byte[] record = new byte[256];
+	private int recordLength;
+
+	/**
+	 * Creates a strategy writing to a directory on the external storage, with
+	 * the default segment size and count.
+	 *
+	 * @param directory
+	 *            directory of the segment files
+	 */
+	public LoggerStrategyBinaryFile(String directory) {
+		this(new File(Environment.getExternalStorageDirectory(), directory),
+				DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+	}
+
+	/**
+	 * @param directory
+	 *            directory of the segment files. It is created if needed.
+	 *            Existing segments are kept and new records are written to a
+	 *            new segment.
+	 * @param segmentSize
+	 *            size of a segment file in bytes, at least 64KB
+	 * @param maxSegments
+	 *            number of segment files kept, including the one being
+	 *            written
+	 */
+	public LoggerStrategyBinaryFile(File directory, int segmentSize, int maxSegments) {
+		if (segmentSize < MIN_SEGMENT_SIZE) {
+			throw new IllegalArgumentException("segmentSize < " + MIN_SEGMENT_SIZE);
+		}
+		if (maxSegments < 1) {
+			throw new IllegalArgumentException("maxSegments < 1");
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		File[] segments = listSegments(directory);
+		segmentNumber = segments.length == 0 ? 0 : segmentNumber(segments[segments.length - 1]);
+	}
+
+	@Override
+	void d(String tag, String message) {
+		write(Log.DEBUG, tag, message);
+	}
+
+	@Override
+	void e(String tag, String message) {
+		write(Log.ERROR, tag, message);
+	}
+
+	@Override
+	void i(String tag, String message) {
+		write(Log.INFO, tag, message);
+	}
+
+	@Override
+	void v(String tag, String message) {
+		write(Log.VERBOSE, tag, message);
+	}
+
+	@Override
+	void w(String tag, String message) {
+		write(Log.WARN, tag, message);
+	}
+
+	@Override
+	void write(int level, String tag, String message) {
+		writeRecord(level, tag, null, new Object[] { message });
+	}
+
+	@Override
+	void write(int level, String tag, String template, Object[] args) {
+		writeRecord(level, tag, template, args == null ? NO_ARGS : args);
+	}
+
+	/**
+	 * Forces the current segment to the storage device.
+	 */
+	@Override
+	synchronized void shutdown() {
+		closed = true;
+		if (segment != null) {
+			segment.force();
+			segment = null;
+		}
+	}
+
+	private synchronized void writeRecord(int level, String tag, String template, Object[] args) {
+		if (closed) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		try {
+			if (segment == null) {
+				nextSegment(now);
+			}
+			encode(now, level, tag, template, args);
+			if (recordLength + 1 > segment.remaining()) {
+				nextSegment(now);
+				encode(now, level, tag, template, args);
+				if (recordLength + 1 > segment.remaining()) {
+					Log.e("Logger", "Log record larger than a segment: " + recordLength);
+					return;
+				}
+			}
+			if (newTag != null) {
+				tagIds.put(newTag, tagIds.size() + 1);
+			}
+			if (newTemplate != null) {
+				templateIds.put(newTemplate, templateIds.size() + 1);
+			}
+		} catch (IOException e) {
+			Log.e("Logger", "Could not write log segment: " + e.getMessage());
+			segment = null;
+			return;
+		}
+		// the first type byte is written last, so that a reader never sees a
+		// partially written record
+		int position = segment.position();
+		segment.position(position + 1);
+		segment.put(record, 1, recordLength - 1);
+		segment.put(position, record[0]);
+		lastTime = now;
+	}
+
+	private void nextSegment(long now) throws IOException {
+		// the previous segment is written back by the system
+		segment = null;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		}
+		segmentNumber++;
+		File file = new File(directory, segmentNumber + SEGMENT_SUFFIX);
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			segment = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		} finally {
+			out.close();
+		}
+		segment.putInt(MAGIC);
+		segment.put(VERSION);
+		segment.putLong(now);
+		lastTime = now;
+		tagIds.clear();
+		templateIds.clear();
+
+		File[] segments = listSegments(directory);
+		for (int i = 0; i < segments.length - maxSegments; i++) {
+			segments[i].delete();
+		}
+	}
+
+	/**
+	 * Encodes the event, preceded by the definitions of its tag and template
+	 * if they are new to the segment. The ids of new ones are left in
+	 * {@link #newTag} and {@link #newTemplate} for the caller to register, so
+	 * that a record that is not written, or is encoded again for the next
+	 * segment, leaves no ids without a definition.
+	 */
+	private void encode(long now, int level, String tag, String template, Object[] args) {
+		recordLength = 0;
+		tag = String.valueOf(tag);
+		int tagId = define(tagIds, RECORD_TAG, tag);
+		newTag = tagIds.containsKey(tag) ? null : tag;
+		int templateId = PLAIN_MESSAGE;
+		newTemplate = null;
+		if (template != null) {
+			templateId = define(templateIds, RECORD_TEMPLATE, template);
+			newTemplate = templateIds.containsKey(template) ? null : template;
+		}
+		putByte(RECORD_EVENT);
+		putVarLong(zigZag(now - lastTime));
+		putByte(level);
+		putVarLong(tagId);
+		putVarLong(templateId);
+		putVarLong(args.length);
+		for (Object arg : args) {
+			putArg(arg);
+		}
+	}
+
+	private int define(HashMap<String, Integer> ids, byte recordType, String value) {
+		Integer id = ids.get(value);
+		if (id == null) {
+			id = ids.size() + 1;
+			putByte(recordType);
+			putVarLong(id);
+			putString(value);
+		}
+		return id;
+	}
+
+	private void putArg(Object arg) {
+		if (arg == null) {
+			putByte(ARG_NULL);
+		} else if (arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+			putByte(ARG_INT);
+			putVarLong(zigZag(((Number) arg).intValue()));
+		} else if (arg instanceof Long) {
+			putByte(ARG_LONG);
+			putVarLong(zigZag((Long) arg));
+		} else if (arg instanceof Double || arg instanceof Float) {
+			putByte(ARG_DOUBLE);
+			long bits = Double.doubleToLongBits(((Number) arg).doubleValue());
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				putByte((int) (bits >>> shift));
+			}
+		} else if (arg instanceof Boolean) {
+			putByte(ARG_BOOLEAN);
+			putByte((Boolean) arg ? 1 : 0);
+		} else {
+			putByte(ARG_STRING);
+			putString(arg.toString());
+		}
+	}
+
+	private void putString(String value) {
+		byte[] bytes;
+		try {
+			bytes = value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new Error(e);
+		}
+		int length = bytes.length;
+		if (length > MAX_STRING_BYTES) {
+			// cut before the continuation bytes of a split character
+			length = MAX_STRING_BYTES;
+			while ((bytes[length] & 0xC0) == 0x80) {
+				length--;
+			}
+		}
+		putVarLong(length);
+		ensureCapacity(length);
+		System.arraycopy(bytes, 0, record, recordLength, length);
+		recordLength += length;
+	}
+
+	private void putVarLong(long value) {
+		ensureCapacity(10);
+		while ((value & ~0x7FL) != 0) {
+			record[recordLength++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		record[recordLength++] = (byte) value;
+	}
+
+	private void putByte(int value) {
+		ensureCapacity(1);
+		record[recordLength++] = (byte) value;
+	}
+
+	private void ensureCapacity(int bytes) {
+		if (recordLength + bytes > record.length) {
+			byte[] grown = new byte[Math.max(record.length * 2, recordLength + bytes)];
+			System.arraycopy(record, 0, grown, 0, recordLength);
+			record = grown;
+		}
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+}
@@ -16,6 +16,34 @@ import java.io.InputStreamReader;
 
 public class LoggerUtils {
 
+	/**
+	 * Replaces each <code>{}</code> in <code>template</code> with the next
+	 * argument. Placeholders without an argument are left as they are, and
+	 * arguments without a placeholder are ignored.
+	 * 
+	 * @param template
+	 *            message template
+	 * @param args
+	 *            template arguments, may be null
+	 * @return formatted message
+	 */
+	public static String formatTemplate(String template, Object[] args) {
+		if (args == null || args.length == 0) {
+			return template;
+		}
+		StringBuilder message = new StringBuilder(template.length() + 16 * args.length);
+		int start = 0;
+		for (int i = 0; i < args.length; i++) {
+			int placeholder = template.indexOf("{}", start);
+			if (placeholder < 0) {
+				break;
+			}
+			message.append(template, start, placeholder).append(args[i]);
+			start = placeholder + 2;
+		}
+		return message.append(template, start, template.length()).toString();
+	}
+
 	/**
 	 * 
 	 * @return Buffered reader instance, null if the operation failed.
@@ -0,0 +1,124 @@
+package com.madrobot.net.server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compressed copies of served files, kept on disk.
+ * <p>
+ * A file is compressed the first time it is requested by a client that
+ * accepts gzip, and the compressed copy is reused until the size or
+ * modification time of the file changes. Copies of older versions of a file
+ * are deleted when a new copy is made.
+ * </p>
+ */
+class GzipFileCache {
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Files larger than this are not compressed
+	 */
+	private static final long MAX_FILE_SIZE = 16 * 1024 * 1024;
+
+	private final File directory;
+
+	GzipFileCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns true for MIME types that compress well.
+	 */
+	static boolean isCompressible(String mime) {
+		return mime.startsWith("text/") || mime.endsWith("/javascript")
+				|| mime.endsWith("/json") || mime.endsWith("/xml") || mime.endsWith("+xml");
+	}
+
+	/**
+	 * Returns the compressed copy of {@code file}, or null if it is not worth
+	 * compressing or could not be compressed.
+	 *
+	 * @param version
+	 *            identifies the current content of the file
+	 */
+	File get(File file, long length, String version) {
+		if (length > MAX_FILE_SIZE) {
+			return null;
+		}
+		String prefix = hash(file.getAbsolutePath()) + "-";
+		File compressed = new File(directory, prefix + hash(version) + ".gz");
+		if (!compressed.exists()) {
+			try {
+				compress(file, compressed, prefix);
+			} catch (IOException e) {
+				return null;
+			}
+		}
+		return compressed.length() < length ? compressed : null;
+	}
+
+	private void compress(File file, File compressed, String prefix) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		}
+		File temp = File.createTempFile(prefix, ".tmp", directory);
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				OutputStream out = new GZIPOutputStream(new FileOutputStream(temp));
+				try {
+					byte[] buffer = new byte[8192];
+					int read;
+					while ((read = in.read(buffer)) != -1) {
+						out.write(buffer, 0, read);
+					}
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+
+			File[] stale = directory.listFiles();
+			if (stale != null) {
+				for (File old : stale) {
+					if (old.getName().startsWith(prefix) && old.getName().endsWith(".gz")
+							&& !old.equals(compressed)) {
+						old.delete();
+					}
+				}
+			}
+			if (!temp.renameTo(compressed) && !compressed.exists()) {
+				throw new IOException("Cannot rename " + temp);
+			}
+		} finally {
+			temp.delete();
+		}
+	}
+
+	private static String hash(String value) {
+		byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+		} catch (NoSuchAlgorithmException ex) {
+			throw new Error(ex);
+		} catch (UnsupportedEncodingException ex) {
+			throw new Error(ex);
+		}
+		char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+		}
+		return new String(hex);
+	}
+}
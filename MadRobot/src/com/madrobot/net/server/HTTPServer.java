@@ -15,6 +15,8 @@ import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -60,6 +62,9 @@ public class HTTPServer {
 	 */
 	protected Response serve(String uri, String method, Properties header, Properties parms,
 			Properties files) {
+		if (myOut == null)
+			return serveFile(uri, header, myRootDir, true);
+
 		myOut.println(method + " '" + uri + "' ");
 
 		Enumeration e = header.propertyNames();
@@ -140,21 +145,40 @@ public class HTTPServer {
 		 * Headers for the HTTP response. Use addHeader() to add lines.
 		 */
 		public Properties header = new Properties();
+
+		/**
+		 * Body held in memory, set by serveFile() for mapped files. The
+		 * non-blocking engine writes it directly instead of reading data.
+		 */
+		ByteBuffer buffer;
+
+		/**
+		 * File the body is a region of, set by serveFile(). The non-blocking
+		 * engine transfers the region to the socket instead of reading data.
+		 */
+		FileChannel fileChannel;
+		long fileOffset;
+		long fileLength;
 	}
 
 	/**
 	 * Some HTTP response status codes
 	 */
 	public static final String HTTP_OK = "200 OK",
-			HTTP_PARTIALCONTENT = "MadRobot-HttpServer: 206 Partial Content",
-			HTTP_RANGE_NOT_SATISFIABLE = "MadRobot-HttpServer: 416 Requested Range Not Satisfiable",
-			HTTP_REDIRECT = "MadRobot-HttpServer: 301 Moved Permanently",
-			HTTP_NOTMODIFIED = "MadRobot-HttpServer: 304 Not Modified",
-			HTTP_FORBIDDEN = "MadRobot-HttpServer: 403 Forbidden",
-			HTTP_NOTFOUND = "MadRobot-HttpServer: 404 Not Found",
-			HTTP_BADREQUEST = "MadRobot-HttpServer: 400 Bad Request",
-			HTTP_INTERNALERROR = "MadRobot-HttpServer: 500 Internal Server Error",
-			HTTP_NOTIMPLEMENTED = "MadRobot-HttpServer: 501 Not Implemented";
+			HTTP_PARTIALCONTENT = "206 Partial Content",
+			HTTP_RANGE_NOT_SATISFIABLE = "416 Requested Range Not Satisfiable",
+			HTTP_REDIRECT = "301 Moved Permanently", HTTP_NOTMODIFIED = "304 Not Modified",
+			HTTP_FORBIDDEN = "403 Forbidden", HTTP_NOTFOUND = "404 Not Found",
+			HTTP_BADREQUEST = "400 Bad Request",
+			HTTP_PAYLOAD_TOO_LARGE = "413 Payload Too Large",
+			HTTP_INTERNALERROR = "500 Internal Server Error",
+			HTTP_NOTIMPLEMENTED = "501 Not Implemented";
+
+	/**
+	 * Largest request body accepted unless set otherwise with
+	 * {@link #setMaxRequestBodySize(long)}
+	 */
+	public static final long DEFAULT_MAX_REQUEST_BODY_SIZE = 1024 * 1024;
 
 	/**
 	 * Common mime types for dynamic content
@@ -204,10 +228,48 @@ public class HTTPServer {
 		myThread.start();
 	}
 
+	/**
+	 * Start the http server with the non-blocking engine, using one selector
+	 * thread per two processors and four worker threads per processor.
+	 * 
+	 * @throws IOException
+	 * @see #startNonBlocking(int, int)
+	 */
+	public void startNonBlocking() throws IOException {
+		int processors = Runtime.getRuntime().availableProcessors();
+		startNonBlocking(Math.max(1, processors / 2), processors * 4);
+	}
+
+	/**
+	 * Start the http server with the non-blocking engine.
+	 * <p>
+	 * Instead of a thread per connection, connections are multiplexed over a
+	 * few selector threads, which read requests and write responses. Only
+	 * serve() runs on the worker threads. Connections are kept alive as
+	 * HTTP/1.1 allows, and pipelined requests on a connection are served in
+	 * order.
+	 * </p>
+	 * 
+	 * @param selectorCount
+	 *            number of selector threads
+	 * @param workerCount
+	 *            number of threads calling serve()
+	 * @throws IOException
+	 */
+	public void startNonBlocking(int selectorCount, int workerCount) throws IOException {
+		myEngine = new SelectorEngine(this, myTcpPort, selectorCount, workerCount);
+		myEngine.start();
+	}
+
 	/**
 	 * Stops the server.
 	 */
 	public void stop() {
+		if (myEngine != null) {
+			myEngine.stop();
+			myEngine = null;
+			return;
+		}
 		try {
 			myServerSocket.close();
 			myThread.join();
@@ -228,6 +290,12 @@ public class HTTPServer {
 			t.start();
 		}
 
+		/**
+		 * Creates a session without a socket, for {@link #respond}.
+		 */
+		HTTPSession() {
+		}
+
 		@Override
 		public void run() {
 			try {
@@ -250,7 +318,6 @@ public class HTTPServer {
 				Properties pre = new Properties();
 				Properties parms = new Properties();
 				Properties header = new Properties();
-				Properties files = new Properties();
 
 				// Decode the header into parms and header java properties
 				decodeHeader(hin, pre, parms, header);
@@ -264,6 +331,9 @@ public class HTTPServer {
 						size = Integer.parseInt(contentLength);
 					} catch (NumberFormatException ex) {
 					}
+					if (size > myMaxRequestBodySize)
+						sendError(HTTP_PAYLOAD_TOO_LARGE, "PAYLOAD TOO LARGE: Request body exceeds "
+								+ myMaxRequestBodySize + " bytes.");
 				}
 
 				// We are looking for the byte separating header from body.
@@ -310,62 +380,14 @@ public class HTTPServer {
 				// Get the raw body as a byte []
 				byte[] fbuf = f.toByteArray();
 
-				// Create a BufferedReader for easily reading it as string.
-				ByteArrayInputStream bin = new ByteArrayInputStream(fbuf);
-				BufferedReader in = new BufferedReader(new InputStreamReader(bin));
-
-				// If the method is POST, there may be parameters
-				// in data section, too, read it:
-				if (method.equalsIgnoreCase("POST")) {
-					String contentType = "";
-					String contentTypeHeader = header.getProperty("content-type");
-					StringTokenizer st = new StringTokenizer(contentTypeHeader, "; ");
-					if (st.hasMoreTokens()) {
-						contentType = st.nextToken();
-					}
-
-					if (contentType.equalsIgnoreCase("multipart/form-data")) {
-						// Handle multipart/form-data
-						if (!st.hasMoreTokens())
-							sendError(
-									HTTP_BADREQUEST,
-									"BAD REQUEST: Content type is multipart/form-data but boundary missing. Usage: GET /example/file.html");
-						String boundaryExp = st.nextToken();
-						st = new StringTokenizer(boundaryExp, "=");
-						if (st.countTokens() != 2)
-							sendError(
-									HTTP_BADREQUEST,
-									"BAD REQUEST: Content type is multipart/form-data but boundary syntax error. Usage: GET /example/file.html");
-						st.nextToken();
-						String boundary = st.nextToken();
-
-						decodeMultipartData(boundary, fbuf, in, parms, files);
-					} else {
-						// Handle application/x-www-form-urlencoded
-						String postLine = "";
-						char pbuf[] = new char[512];
-						int read = in.read(pbuf);
-						while (read >= 0 && !postLine.endsWith("\r\n")) {
-							postLine += String.valueOf(pbuf, 0, read);
-							read = in.read(pbuf);
-						}
-						postLine = postLine.trim();
-						decodeParms(postLine, parms);
-					}
-				}
-
-				if (method.equalsIgnoreCase("PUT"))
-					files.put("content", saveTmpFile(fbuf, 0, f.size()));
-
 				// Ok, now do the serve()
-				Response r = serve(uri, method, header, parms, files);
+				Response r = serveRequest(method, uri, header, parms, fbuf);
 				if (r == null)
 					sendError(HTTP_INTERNALERROR,
 							"SERVER INTERNAL ERROR: Serve() returned a null response.");
 				else
 					sendResponse(r.status, r.mimeType, r.header, r.data);
 
-				in.close();
 				is.close();
 			} catch (IOException ioe) {
 				try {
@@ -378,6 +400,97 @@ public class HTTPServer {
 			}
 		}
 
+		/**
+		 * Decodes the body of a request whose header has been decoded, and
+		 * passes the request to serve().
+		 */
+		private Response serveRequest(String method, String uri, Properties header,
+				Properties parms, byte[] fbuf) throws IOException, InterruptedException {
+			Properties files = new Properties();
+
+			// Create a BufferedReader for easily reading it as string.
+			ByteArrayInputStream bin = new ByteArrayInputStream(fbuf);
+			BufferedReader in = new BufferedReader(new InputStreamReader(bin));
+
+			// If the method is POST, there may be parameters
+			// in data section, too, read it:
+			if (method.equalsIgnoreCase("POST")) {
+				String contentType = "";
+				String contentTypeHeader = header.getProperty("content-type");
+				StringTokenizer st = new StringTokenizer(contentTypeHeader, "; ");
+				if (st.hasMoreTokens()) {
+					contentType = st.nextToken();
+				}
+
+				if (contentType.equalsIgnoreCase("multipart/form-data")) {
+					// Handle multipart/form-data
+					if (!st.hasMoreTokens())
+						sendError(
+								HTTP_BADREQUEST,
+								"BAD REQUEST: Content type is multipart/form-data but boundary missing. Usage: GET /example/file.html");
+					String boundaryExp = st.nextToken();
+					st = new StringTokenizer(boundaryExp, "=");
+					if (st.countTokens() != 2)
+						sendError(
+								HTTP_BADREQUEST,
+								"BAD REQUEST: Content type is multipart/form-data but boundary syntax error. Usage: GET /example/file.html");
+					st.nextToken();
+					String boundary = st.nextToken();
+
+					decodeMultipartData(boundary, fbuf, in, parms, files);
+				} else {
+					// Handle application/x-www-form-urlencoded
+					String postLine = "";
+					char pbuf[] = new char[512];
+					int read = in.read(pbuf);
+					while (read >= 0 && !postLine.endsWith("\r\n")) {
+						postLine += String.valueOf(pbuf, 0, read);
+						read = in.read(pbuf);
+					}
+					postLine = postLine.trim();
+					decodeParms(postLine, parms);
+				}
+			}
+
+			if (method.equalsIgnoreCase("PUT"))
+				files.put("content", saveTmpFile(fbuf, 0, fbuf.length));
+
+			Response r = serve(uri, method, header, parms, files);
+			in.close();
+			return r;
+		}
+
+		/**
+		 * Serves a request read by the non-blocking engine. Errors are
+		 * returned as responses instead of being sent.
+		 * 
+		 * @param uri
+		 *            the URI as sent, with parameters and percent encoding
+		 */
+		Response respond(String method, String uri, Properties header, byte[] body) {
+			Properties parms = new Properties();
+			try {
+				int qmi = uri.indexOf('?');
+				if (qmi >= 0) {
+					decodeParms(uri.substring(qmi + 1), parms);
+					uri = decodePercent(uri.substring(0, qmi));
+				} else
+					uri = decodePercent(uri);
+
+				Response r = serveRequest(method, uri, header, parms, body);
+				if (r == null)
+					return new Response(HTTP_INTERNALERROR, MIME_PLAINTEXT,
+							"SERVER INTERNAL ERROR: Serve() returned a null response.");
+				return r;
+			} catch (IOException ioe) {
+				return new Response(HTTP_INTERNALERROR, MIME_PLAINTEXT,
+						"SERVER INTERNAL ERROR: IOException: " + ioe.getMessage());
+			} catch (InterruptedException ie) {
+				// Thrown by sendError
+				return errorResponse;
+			}
+		}
+
 		/**
 		 * Decodes the sent headers and loads the data into java Properties' key
 		 * - value pairs
@@ -631,8 +744,11 @@ public class HTTPServer {
 		 * InterruptedException to stop further request processing.
 		 */
 		private void sendError(String status, String msg) throws InterruptedException {
-			sendResponse(status, MIME_PLAINTEXT, null,
-					new ByteArrayInputStream(msg.getBytes()));
+			if (mySocket == null)
+				errorResponse = new Response(status, MIME_PLAINTEXT, msg);
+			else
+				sendResponse(status, MIME_PLAINTEXT, null,
+						new ByteArrayInputStream(msg.getBytes()));
 			throw new InterruptedException();
 		}
 
@@ -653,7 +769,7 @@ public class HTTPServer {
 					pw.print("Content-Type: " + mime + "\r\n");
 
 				if (header == null || header.getProperty("Date") == null)
-					pw.print("Date: " + gmtFrmt.format(new Date()) + "\r\n");
+					pw.print("Date: " + formatDate(new Date()) + "\r\n");
 
 				if (header != null) {
 					Enumeration e = header.keys();
@@ -695,6 +811,18 @@ public class HTTPServer {
 		}
 
 		private Socket mySocket;
+
+		/**
+		 * Error raised by sendError() in a session without a socket
+		 */
+		private Response errorResponse;
+	}
+
+	/**
+	 * Decodes and serves a request read by the non-blocking engine.
+	 */
+	Response respond(String method, String uri, Properties header, byte[] body) {
+		return new HTTPSession().respond(method, uri, header, body);
 	}
 
 	/**
@@ -724,6 +852,12 @@ public class HTTPServer {
 	private ServerSocket myServerSocket;
 	private Thread myThread;
 	private File myRootDir;
+	private SelectorEngine myEngine;
+	private volatile long myMaxRequestBodySize = DEFAULT_MAX_REQUEST_BODY_SIZE;
+	private volatile MappedFileCache myMappedFiles = new MappedFileCache(32 * 1024 * 1024,
+			1024 * 1024);
+	private volatile GzipFileCache myGzipFiles = new GzipFileCache(new File(
+			System.getProperty("java.io.tmpdir"), "HTTPServer-gzip"));
 
 	// ==================================================
 	// File server code
@@ -840,67 +974,46 @@ public class HTTPServer {
 				if (mime == null)
 					mime = MIME_DEFAULT_BINARY;
 
-				// Calculate etag
-				String etag = Integer
-						.toHexString((f.getAbsolutePath() + f.lastModified() + "" + f.length())
-								.hashCode());
-
-				// Support (simple) skipping:
-				long startFrom = 0;
-				long endAt = -1;
-				String range = header.getProperty("range");
-				if (range != null) {
-					if (range.startsWith("bytes=")) {
-						range = range.substring("bytes=".length());
-						int minus = range.indexOf('-');
-						try {
-							if (minus > 0) {
-								startFrom = Long.parseLong(range.substring(0, minus));
-								endAt = Long.parseLong(range.substring(minus + 1));
-							}
-						} catch (NumberFormatException nfe) {
-						}
-					}
-				}
-
-				// Change return code and add Content-Range header when skipping
-				// is requested
+				// Calculate etag from size and modification time, so it
+				// changes with the content without reading the file
 				long fileLen = f.length();
-				if (range != null && startFrom >= 0) {
-					if (startFrom >= fileLen) {
-						res = new Response(HTTP_RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT, "");
-						res.addHeader("Content-Range", "bytes 0-0/" + fileLen);
-						res.addHeader("ETag", etag);
-					} else {
-						if (endAt < 0)
-							endAt = fileLen - 1;
-						long newLen = endAt - startFrom + 1;
-						if (newLen < 0)
-							newLen = 0;
-
-						final long dataLen = newLen;
-						FileInputStream fis = new FileInputStream(f) {
-							@Override
-							public int available() throws IOException {
-								return (int) dataLen;
-							}
-						};
-						fis.skip(startFrom);
-
-						res = new Response(HTTP_PARTIALCONTENT, mime, fis);
-						res.addHeader("Content-Length", "" + dataLen);
-						res.addHeader("Content-Range", "bytes " + startFrom + "-" + endAt
-								+ "/" + fileLen);
-						res.addHeader("ETag", etag);
-					}
+				long lastModified = f.lastModified();
+				String etag = "\"" + Long.toHexString(fileLen) + "-"
+						+ Long.toHexString(lastModified) + "\"";
+				String gzipEtag = etag.substring(0, etag.length() - 1) + "-gzip\"";
+
+				String ifNoneMatch = header.getProperty("if-none-match");
+				long[] range = parseRange(header.getProperty("range"), fileLen);
+				if (etagMatches(etag, ifNoneMatch) || etagMatches(gzipEtag, ifNoneMatch)) {
+					res = new Response(HTTP_NOTMODIFIED, mime, "");
+					res.addHeader("ETag", etagMatches(etag, ifNoneMatch) ? etag : gzipEtag);
+				} else if (range == UNSATISFIABLE_RANGE) {
+					res = new Response(HTTP_RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT, "");
+					res.addHeader("Content-Range", "bytes */" + fileLen);
+					res.addHeader("ETag", etag);
+				} else if (range != null) {
+					res = fileResponse(HTTP_PARTIALCONTENT, mime, f, lastModified, fileLen,
+							range[0], range[1] - range[0] + 1);
+					res.addHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/"
+							+ fileLen);
+					res.addHeader("ETag", etag);
 				} else {
-					if (etag.equals(header.getProperty("if-none-match")))
-						res = new Response(HTTP_NOTMODIFIED, mime, "");
-					else {
-						res = new Response(HTTP_OK, mime, new FileInputStream(f));
-						res.addHeader("Content-Length", "" + fileLen);
+					File gzipped = null;
+					if (myGzipFiles != null && GzipFileCache.isCompressible(mime)
+							&& acceptsGzip(header.getProperty("accept-encoding")))
+						gzipped = myGzipFiles.get(f, fileLen, etag);
+					if (gzipped != null) {
+						long gzipLen = gzipped.length();
+						res = fileResponse(HTTP_OK, mime, gzipped, gzipped.lastModified(),
+								gzipLen, 0, gzipLen);
+						res.addHeader("Content-Encoding", "gzip");
+						res.addHeader("ETag", gzipEtag);
+					} else {
+						res = fileResponse(HTTP_OK, mime, f, lastModified, fileLen, 0, fileLen);
 						res.addHeader("ETag", etag);
 					}
+					if (GzipFileCache.isCompressible(mime))
+						res.addHeader("Vary", "Accept-Encoding");
 				}
 			}
 		} catch (IOException ioe) {
@@ -914,6 +1027,187 @@ public class HTTPServer {
 		return res;
 	}
 
+	/**
+	 * Returns a response with {@code length} bytes of {@code file} from
+	 * {@code offset}. Files in the mapped file cache are sent from memory;
+	 * other files are sent by the non-blocking engine without copying them
+	 * through the heap.
+	 */
+	private Response fileResponse(String status, String mime, File file, long lastModified,
+			long fileLen, long offset, final long length) throws IOException {
+		Response res;
+		ByteBuffer mapped = myMappedFiles != null ? myMappedFiles.get(file, fileLen,
+				lastModified) : null;
+		if (mapped != null) {
+			mapped.position((int) offset);
+			mapped.limit((int) (offset + length));
+			ByteBuffer body = mapped.slice();
+			res = new Response(status, mime, new ByteBufferInputStream(body.duplicate()));
+			res.buffer = body;
+		} else {
+			FileInputStream fis = new FileInputStream(file) {
+				@Override
+				public int available() throws IOException {
+					// sendResponse() sends this many bytes
+					return (int) length;
+				}
+			};
+			fis.skip(offset);
+			res = new Response(status, mime, fis);
+			res.fileChannel = fis.getChannel();
+			res.fileOffset = offset;
+			res.fileLength = length;
+		}
+		res.addHeader("Content-Length", "" + length);
+		return res;
+	}
+
+	/**
+	 * Marks a Range header that cannot be satisfied
+	 */
+	private static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+	/**
+	 * Parses a single byte range, "bytes=first-last", "bytes=first-" or
+	 * "bytes=-suffixLength", into the first and last byte offsets. Returns
+	 * null if the whole file should be sent, which includes malformed and
+	 * multiple ranges, or {@link #UNSATISFIABLE_RANGE}.
+	 */
+	static long[] parseRange(String range, long fileLen) {
+		if (range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0)
+			return null;
+		range = range.substring("bytes=".length()).trim();
+		int minus = range.indexOf('-');
+		if (minus < 0)
+			return null;
+		long first;
+		long last;
+		try {
+			if (minus == 0) {
+				long suffix = Long.parseLong(range.substring(1));
+				if (suffix <= 0 || fileLen == 0)
+					return UNSATISFIABLE_RANGE;
+				first = Math.max(0, fileLen - suffix);
+				last = fileLen - 1;
+			} else {
+				first = Long.parseLong(range.substring(0, minus));
+				last = minus == range.length() - 1 ? fileLen - 1 : Long.parseLong(range
+						.substring(minus + 1));
+				if (first >= fileLen)
+					return UNSATISFIABLE_RANGE;
+				if (last < first)
+					return null;
+				last = Math.min(last, fileLen - 1);
+			}
+		} catch (NumberFormatException nfe) {
+			return null;
+		}
+		return new long[] { first, last };
+	}
+
+	/**
+	 * Returns true if an If-None-Match header value lists {@code etag}.
+	 */
+	static boolean etagMatches(String etag, String ifNoneMatch) {
+		if (ifNoneMatch == null)
+			return false;
+		StringTokenizer st = new StringTokenizer(ifNoneMatch, ",");
+		while (st.hasMoreTokens()) {
+			String candidate = st.nextToken().trim();
+			if (candidate.startsWith("W/"))
+				candidate = candidate.substring(2);
+			if (candidate.equals("*") || candidate.equals(etag))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if an Accept-Encoding header value accepts gzip.
+	 */
+	static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null)
+			return false;
+		StringTokenizer st = new StringTokenizer(acceptEncoding, ",");
+		while (st.hasMoreTokens()) {
+			String coding = st.nextToken().trim();
+			int semicolon = coding.indexOf(';');
+			String name = semicolon < 0 ? coding : coding.substring(0, semicolon).trim();
+			if (name.equalsIgnoreCase("gzip")) {
+				int q = semicolon < 0 ? -1 : coding.indexOf("q=", semicolon);
+				if (q < 0)
+					return true;
+				try {
+					return Double.parseDouble(coding.substring(q + 2).trim()) > 0;
+				} catch (NumberFormatException nfe) {
+					return false;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads a buffer, such as a mapped file
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining())
+				return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+	}
+
+	/**
+	 * Sets the directory where gzip compressed copies of served text files
+	 * are kept, or null to serve files uncompressed.
+	 */
+	public void setGzipCacheDir(File dir) {
+		myGzipFiles = dir != null ? new GzipFileCache(dir) : null;
+	}
+
+	/**
+	 * Sets the largest request body accepted, in bytes. Requests with a larger
+	 * Content-Length are answered with {@link #HTTP_PAYLOAD_TOO_LARGE} without
+	 * reading the body, since it is held in memory while serve() runs.
+	 */
+	public void setMaxRequestBodySize(long maxBytes) {
+		if (maxBytes < 0)
+			throw new IllegalArgumentException("maxBytes < 0");
+		myMaxRequestBodySize = maxBytes;
+	}
+
+	long getMaxRequestBodySize() {
+		return myMaxRequestBodySize;
+	}
+
+	/**
+	 * Sets the total size of the files serveFile() keeps mapped in memory,
+	 * and the size of the largest file mapped. Zero turns mapping off.
+	 */
+	public void setMappedFileCacheSize(long maxBytes, long maxFileBytes) {
+		myMappedFiles = maxBytes > 0 ? new MappedFileCache(maxBytes, maxFileBytes) : null;
+	}
+
 	/**
 	 * Hashtable mapping (String)FILENAME_EXTENSION -> (String)MIME_TYPE
 	 */
@@ -935,7 +1229,8 @@ public class HTTPServer {
 
 	private static int theBufferSize = 16 * 1024;
 
-	// Change this if you want to log to somewhere else than stdout
+	// Change this if you want to log to somewhere else than stdout, or set to
+	// null to stop logging every request
 	protected static PrintStream myOut = System.out;
 
 	/**
@@ -947,6 +1242,15 @@ public class HTTPServer {
 		gmtFrmt.setTimeZone(TimeZone.getTimeZone("GMT"));
 	}
 
+	/**
+	 * Formats a date for a HTTP header. Sessions format dates concurrently.
+	 */
+	static String formatDate(Date date) {
+		synchronized (gmtFrmt) {
+			return gmtFrmt.format(date);
+		}
+	}
+
 	/**
 	 * The distribution licence
 	 */
@@ -0,0 +1,90 @@
+package com.madrobot.net.server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Size-capped cache of files mapped into memory, for files served often.
+ * <p>
+ * A mapped file is read from the page cache without opening the file or
+ * copying it into the heap for each request. Files are mapped when first
+ * requested and the least recently served mappings are dropped when the total
+ * size of the mapped files exceeds the cap. A mapping is replaced when the
+ * size or modification time of its file changes. Dropped mappings are
+ * released by the garbage collector.
+ * </p>
+ */
+class MappedFileCache {
+
+	private static final class Entry {
+		final ByteBuffer buffer;
+		final long lastModified;
+
+		Entry(ByteBuffer buffer, long lastModified) {
+			this.buffer = buffer;
+			this.lastModified = lastModified;
+		}
+	}
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16,
+			0.75f, true);
+	private final long maxFileSize;
+	private final long maxSize;
+	private long size;
+
+	/**
+	 * @param maxSize
+	 *            total number of bytes of the mapped files
+	 * @param maxFileSize
+	 *            size of the largest file that is mapped
+	 */
+	MappedFileCache(long maxSize, long maxFileSize) {
+		this.maxSize = maxSize;
+		this.maxFileSize = maxFileSize;
+	}
+
+	/**
+	 * Returns the content of {@code file} as a read-only buffer of its own, or
+	 * null if the file is not cached.
+	 */
+	ByteBuffer get(File file, long length, long lastModified) throws IOException {
+		if (length == 0 || length > maxFileSize || length > maxSize) {
+			return null;
+		}
+		String key = file.getPath();
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.buffer.capacity() == length
+					&& entry.lastModified == lastModified) {
+				return entry.buffer.duplicate();
+			}
+		}
+
+		ByteBuffer mapped;
+		FileInputStream in = new FileInputStream(file);
+		try {
+			mapped = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+		} finally {
+			in.close();
+		}
+
+		synchronized (this) {
+			Entry previous = entries.put(key, new Entry(mapped, lastModified));
+			if (previous != null) {
+				size -= previous.buffer.capacity();
+			}
+			size += length;
+			Iterator<Entry> eldest = entries.values().iterator();
+			while (size > maxSize && eldest.hasNext()) {
+				size -= eldest.next().buffer.capacity();
+				eldest.remove();
+			}
+		}
+		return mapped.duplicate();
+	}
+}
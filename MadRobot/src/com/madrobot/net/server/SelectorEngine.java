@@ -0,0 +1,637 @@
+package com.madrobot.net.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.madrobot.net.server.HTTPServer.Response;
+
+/**
+ * Non-blocking connection handling for {@link HTTPServer}.
+ * <p>
+ * An acceptor thread hands new connections to a small number of selector
+ * threads in turn. A selector thread reads each request into a buffer that is
+ * reused for the life of the connection, looking for the end of the header
+ * only in the bytes that arrived since the last read. Once a request is
+ * complete, the connection stops reading and the request is passed to
+ * {@link HTTPServer#serve} on a worker thread. The response is written by the
+ * selector thread as the socket accepts it, after which the next request,
+ * possibly already buffered, is read. Files returned by
+ * {@link HTTPServer#serveFile} are transferred to the socket by the kernel,
+ * without being copied through the heap.
+ * </p>
+ *
+ * @see HTTPServer#startNonBlocking(int, int)
+ */
+class SelectorEngine {
+
+	/**
+	 * Largest request header accepted, like the blocking engine
+	 */
+	private static final int HEADER_LIMIT = 8192;
+
+	/**
+	 * Connections without a request in progress are closed after this time
+	 */
+	private static final long IDLE_TIMEOUT_MILLIS = 15000;
+
+	private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * Bounds of the pause after a failed accept, such as when the process is
+	 * out of file descriptors
+	 */
+	private static final long MIN_ACCEPT_BACKOFF_MILLIS = 10;
+	private static final long MAX_ACCEPT_BACKOFF_MILLIS = 1000;
+
+	private static final String ISO_8859_1 = "ISO-8859-1";
+
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			private AtomicInteger atomicInteger = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + atomicInteger.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * A request read from a connection.
+	 */
+	private static final class Request {
+		String method;
+		String uri;
+		Properties header;
+		boolean keepAlive;
+		long contentLength;
+	}
+
+	/**
+	 * State of one connection. Only accessed by the thread of its selector
+	 * loop.
+	 */
+	private final class Connection {
+		private final SocketChannel channel;
+		private final SelectorLoop loop;
+		private SelectionKey key;
+
+		/** Request bytes; {@link #headerBuffer} unless a large body is read */
+		private ByteBuffer in;
+		private final ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_LIMIT);
+		/** Bytes of {@link #in} already searched for the end of the header */
+		private int scanned;
+		/** Length of the current request's header, or -1 if not read yet */
+		private int headerLength = -1;
+		private Request request;
+		/** Whether a request is being served or its response written */
+		private boolean busy;
+		private long lastActive = System.currentTimeMillis();
+
+		private ByteBuffer head;
+		/** Closed when the response is complete */
+		private InputStream body;
+		private long bodyRemaining;
+		/** Body held in memory, if not read from {@link #body} */
+		private ByteBuffer bodyBuffer;
+		/** File the body is transferred from, if not read from {@link #body} */
+		private FileChannel bodyFile;
+		private long bodyFilePosition;
+		private ByteBuffer chunk;
+		private boolean closeAfterResponse;
+
+		Connection(SocketChannel channel, SelectorLoop loop) {
+			this.channel = channel;
+			this.loop = loop;
+			this.in = headerBuffer;
+		}
+
+		void onReadable() throws IOException {
+			if (channel.read(in) < 0) {
+				close();
+				return;
+			}
+			lastActive = System.currentTimeMillis();
+			readRequest();
+		}
+
+		/**
+		 * Dispatches the buffered request once it is complete.
+		 */
+		private void readRequest() throws IOException {
+			if (headerLength < 0) {
+				headerLength = findHeaderEnd();
+				if (headerLength < 0) {
+					if (!in.hasRemaining())
+						sendError(HTTPServer.HTTP_BADREQUEST, "BAD REQUEST: Header too large.");
+					return;
+				}
+				request = parseHeader();
+				if (request == null) {
+					sendError(HTTPServer.HTTP_BADREQUEST,
+							"BAD REQUEST: Syntax error. Usage: GET /example/file.html");
+					return;
+				}
+				long maxBody = server.getMaxRequestBodySize();
+				long requestLength = headerLength + request.contentLength;
+				if (request.contentLength > maxBody || requestLength > Integer.MAX_VALUE) {
+					sendError(HTTPServer.HTTP_PAYLOAD_TOO_LARGE,
+							"PAYLOAD TOO LARGE: Request body exceeds " + maxBody + " bytes.");
+					return;
+				}
+				if (requestLength > in.capacity()) {
+					ByteBuffer large = ByteBuffer.allocate((int) requestLength);
+					in.flip();
+					large.put(in);
+					in = large;
+				}
+			}
+			int requestLength = headerLength + (int) request.contentLength;
+			if (in.position() < requestLength)
+				return;
+
+			final byte[] content = new byte[(int) request.contentLength];
+			System.arraycopy(in.array(), headerLength, content, 0, content.length);
+			consume(requestLength);
+
+			final Request current = request;
+			request = null;
+			headerLength = -1;
+			busy = true;
+			key.interestOps(0);
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					Response response;
+					try {
+						response = server.respond(current.method, current.uri,
+								current.header, content);
+					} catch (RuntimeException e) {
+						response = server.new Response(HTTPServer.HTTP_INTERNALERROR,
+								HTTPServer.MIME_PLAINTEXT, "SERVER INTERNAL ERROR: " + e);
+					}
+					final Response result = response;
+					loop.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								startResponse(current, result);
+							} catch (IOException e) {
+								close();
+							} catch (CancelledKeyException e) {
+								close();
+							}
+						}
+					});
+				}
+			});
+		}
+
+		/**
+		 * Drops the first {@code length} bytes of the buffered input, keeping
+		 * the start of a pipelined request.
+		 */
+		private void consume(int length) {
+			int remaining = in.position() - length;
+			ByteBuffer next = remaining <= headerBuffer.capacity() ? headerBuffer : in;
+			System.arraycopy(in.array(), length, next.array(), 0, remaining);
+			next.clear();
+			next.position(remaining);
+			in = next;
+			scanned = 0;
+		}
+
+		/**
+		 * Returns the length of the header including its terminating empty
+		 * line, or -1 if the header has not been read completely.
+		 */
+		private int findHeaderEnd() {
+			byte[] bytes = in.array();
+			int end = in.position();
+			for (int i = Math.max(3, scanned); i < end; i++) {
+				if (bytes[i] == '\n' && bytes[i - 1] == '\r' && bytes[i - 2] == '\n'
+						&& bytes[i - 3] == '\r') {
+					scanned = i + 1;
+					return i + 1;
+				}
+			}
+			scanned = end;
+			return -1;
+		}
+
+		/**
+		 * Parses the request line and header fields, or returns null if they
+		 * are malformed. Header names are lower cased as by the blocking
+		 * engine.
+		 */
+		private Request parseHeader() throws UnsupportedEncodingException {
+			String text = new String(in.array(), 0, headerLength - 4, ISO_8859_1);
+			int lineEnd = text.indexOf("\r\n");
+			String requestLine = lineEnd < 0 ? text : text.substring(0, lineEnd);
+
+			int firstSpace = requestLine.indexOf(' ');
+			int lastSpace = requestLine.lastIndexOf(' ');
+			if (firstSpace <= 0 || lastSpace == firstSpace)
+				return null;
+			Request parsed = new Request();
+			parsed.method = requestLine.substring(0, firstSpace);
+			parsed.uri = requestLine.substring(firstSpace + 1, lastSpace).trim();
+			String version = requestLine.substring(lastSpace + 1);
+			parsed.header = new Properties();
+
+			int lineStart = lineEnd < 0 ? text.length() : lineEnd + 2;
+			while (lineStart < text.length()) {
+				lineEnd = text.indexOf("\r\n", lineStart);
+				if (lineEnd < 0)
+					lineEnd = text.length();
+				int colon = text.indexOf(':', lineStart);
+				if (colon >= 0 && colon < lineEnd)
+					parsed.header.put(text.substring(lineStart, colon).trim().toLowerCase(),
+							text.substring(colon + 1, lineEnd).trim());
+				lineStart = lineEnd + 2;
+			}
+
+			String contentLength = parsed.header.getProperty("content-length");
+			if (contentLength != null) {
+				try {
+					parsed.contentLength = Long.parseLong(contentLength);
+				} catch (NumberFormatException ex) {
+					return null;
+				}
+				if (parsed.contentLength < 0)
+					return null;
+			}
+			String connection = parsed.header.getProperty("connection", "").toLowerCase();
+			if ("HTTP/1.1".equals(version))
+				parsed.keepAlive = connection.indexOf("close") < 0;
+			else
+				parsed.keepAlive = connection.indexOf("keep-alive") >= 0;
+			return parsed;
+		}
+
+		private void sendError(String status, String msg) throws IOException {
+			busy = true;
+			Request failed = new Request();
+			failed.method = "GET";
+			startResponse(failed, server.new Response(status, HTTPServer.MIME_PLAINTEXT, msg));
+		}
+
+		/**
+		 * Encodes the status line and header of the response and starts
+		 * writing it.
+		 */
+		void startResponse(Request served, Response response) throws IOException {
+			if (!channel.isOpen()) {
+				closeQuietly(response.data);
+				return;
+			}
+			long length = -1;
+			String contentLength = response.header.getProperty("Content-Length");
+			if (contentLength != null) {
+				try {
+					length = Long.parseLong(contentLength);
+				} catch (NumberFormatException ex) {
+				}
+			} else if (response.data == null) {
+				length = 0;
+			} else if (response.data instanceof ByteArrayInputStream) {
+				length = response.data.available();
+			}
+			closeAfterResponse = !served.keepAlive || length < 0;
+
+			StringBuilder sb = new StringBuilder(256);
+			sb.append("HTTP/1.1 ").append(response.status).append("\r\n");
+			if (response.mimeType != null)
+				sb.append("Content-Type: ").append(response.mimeType).append("\r\n");
+			if (response.header.getProperty("Date") == null)
+				sb.append("Date: ").append(HTTPServer.formatDate(new Date())).append("\r\n");
+			Enumeration<?> e = response.header.keys();
+			while (e.hasMoreElements()) {
+				String name = (String) e.nextElement();
+				sb.append(name).append(": ").append(response.header.getProperty(name))
+						.append("\r\n");
+			}
+			if (contentLength == null && length >= 0)
+				sb.append("Content-Length: ").append(length).append("\r\n");
+			sb.append(closeAfterResponse ? "Connection: close\r\n"
+					: "Connection: keep-alive\r\n");
+			sb.append("\r\n");
+			head = ByteBuffer.wrap(sb.toString().getBytes(ISO_8859_1));
+
+			if ("HEAD".equalsIgnoreCase(served.method)) {
+				closeQuietly(response.data);
+				body = null;
+				bodyRemaining = 0;
+			} else {
+				body = response.data;
+				bodyRemaining = length < 0 ? Long.MAX_VALUE : length;
+				if (response.buffer != null) {
+					bodyBuffer = response.buffer.duplicate();
+				} else if (response.fileChannel != null) {
+					bodyFile = response.fileChannel;
+					bodyFilePosition = response.fileOffset;
+					bodyRemaining = response.fileLength;
+				}
+			}
+			if (chunk == null) {
+				chunk = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+			}
+			chunk.clear().flip();
+			key.interestOps(SelectionKey.OP_WRITE);
+			onWritable();
+		}
+
+		void onWritable() throws IOException {
+			while (true) {
+				if (head.hasRemaining()) {
+					channel.write(head);
+					if (head.hasRemaining())
+						return;
+				}
+				if (bodyBuffer != null) {
+					channel.write(bodyBuffer);
+					if (bodyBuffer.hasRemaining())
+						return;
+					break;
+				}
+				if (bodyFile != null) {
+					if (bodyRemaining == 0)
+						break;
+					long sent = bodyFile.transferTo(bodyFilePosition, bodyRemaining, channel);
+					if (sent == 0) {
+						if (bodyFilePosition < bodyFile.size())
+							return; // the socket is full
+						closeAfterResponse = true; // the file was truncated
+						break;
+					}
+					bodyFilePosition += sent;
+					bodyRemaining -= sent;
+					continue;
+				}
+				if (chunk.hasRemaining()) {
+					channel.write(chunk);
+					if (chunk.hasRemaining())
+						return;
+				}
+				if (body == null || bodyRemaining == 0)
+					break;
+				int read = body.read(chunk.array(), 0,
+						(int) Math.min(chunk.capacity(), bodyRemaining));
+				if (read < 0) {
+					if (bodyRemaining != Long.MAX_VALUE)
+						closeAfterResponse = true; // shorter than announced
+					break;
+				}
+				chunk.limit(read);
+				chunk.position(0);
+				bodyRemaining -= read;
+			}
+			finishResponse();
+		}
+
+		private void finishResponse() throws IOException {
+			closeQuietly(body);
+			body = null;
+			bodyBuffer = null;
+			bodyFile = null;
+			head = null;
+			if (closeAfterResponse) {
+				close();
+				return;
+			}
+			busy = false;
+			lastActive = System.currentTimeMillis();
+			key.interestOps(SelectionKey.OP_READ);
+			if (in.position() > 0)
+				readRequest(); // pipelined
+		}
+
+		boolean isIdle(long now) {
+			return !busy && now - lastActive > IDLE_TIMEOUT_MILLIS;
+		}
+
+		void close() {
+			closeQuietly(body);
+			body = null;
+			if (key != null)
+				key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * A selector thread and the connections registered with it.
+	 */
+	private final class SelectorLoop implements Runnable {
+		private final Selector selector;
+		private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+		private Thread thread;
+
+		SelectorLoop() throws IOException {
+			selector = Selector.open();
+		}
+
+		/**
+		 * Runs {@code task} on the selector thread.
+		 */
+		void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		void register(final SocketChannel channel) {
+			execute(new Runnable() {
+				@Override
+				public void run() {
+					Connection connection = new Connection(channel, SelectorLoop.this);
+					try {
+						connection.key = channel.register(selector, SelectionKey.OP_READ,
+								connection);
+					} catch (IOException e) {
+						connection.close();
+					}
+				}
+			});
+		}
+
+		@Override
+		public void run() {
+			long lastIdleCheck = System.currentTimeMillis();
+			while (running) {
+				try {
+					selector.select(1000);
+				} catch (IOException e) {
+					break;
+				}
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					Connection connection = (Connection) key.attachment();
+					try {
+						if (key.isReadable())
+							connection.onReadable();
+						else if (key.isWritable())
+							connection.onWritable();
+					} catch (IOException e) {
+						connection.close();
+					} catch (CancelledKeyException e) {
+						connection.close();
+					}
+				}
+				long now = System.currentTimeMillis();
+				if (now - lastIdleCheck >= 1000) {
+					lastIdleCheck = now;
+					for (SelectionKey key : selector.keys()) {
+						Connection connection = (Connection) key.attachment();
+						if (connection.isIdle(now))
+							connection.close();
+					}
+				}
+			}
+			for (SelectionKey key : selector.keys()) {
+				((Connection) key.attachment()).close();
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private static void closeQuietly(InputStream stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private final HTTPServer server;
+	private final ServerSocketChannel serverChannel;
+	private final SelectorLoop[] loops;
+	private final ExecutorService workers;
+	private Thread acceptor;
+	private volatile boolean running;
+
+	SelectorEngine(HTTPServer server, int port, int selectorCount, int workerCount)
+			throws IOException {
+		if (selectorCount <= 0 || workerCount <= 0)
+			throw new IllegalArgumentException("Thread counts must be positive");
+		this.server = server;
+		this.loops = new SelectorLoop[selectorCount];
+		for (int i = 0; i < selectorCount; i++) {
+			loops[i] = new SelectorLoop();
+		}
+		this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L,
+				TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				daemonThreads("HTTPWorker="));
+		this.serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(port));
+	}
+
+	void start() {
+		running = true;
+		ThreadFactory selectorThreads = daemonThreads("HTTPSelector=");
+		for (SelectorLoop loop : loops) {
+			loop.thread = selectorThreads.newThread(loop);
+			loop.thread.start();
+		}
+		acceptor = daemonThreads("HTTPAcceptor=").newThread(new Runnable() {
+			@Override
+			public void run() {
+				int next = 0;
+				long backoff = 0;
+				while (running) {
+					SocketChannel channel = null;
+					try {
+						channel = serverChannel.accept();
+						channel.configureBlocking(false);
+						channel.socket().setTcpNoDelay(true);
+					} catch (IOException e) {
+						if (channel != null) {
+							// the connection failed
+							closeQuietly(channel);
+							continue;
+						}
+						if (!running)
+							break; // closed by stop()
+						// accept keeps failing until resources are released;
+						// pause instead of spinning
+						backoff = Math.min(Math.max(backoff * 2, MIN_ACCEPT_BACKOFF_MILLIS),
+								MAX_ACCEPT_BACKOFF_MILLIS);
+						try {
+							Thread.sleep(backoff);
+						} catch (InterruptedException interrupted) {
+							break;
+						}
+						continue;
+					}
+					backoff = 0;
+					loops[next].register(channel);
+					next = (next + 1) % loops.length;
+				}
+			}
+		});
+		acceptor.start();
+	}
+
+	void stop() {
+		running = false;
+		try {
+			serverChannel.close();
+		} catch (IOException e) {
+		}
+		for (SelectorLoop loop : loops) {
+			loop.selector.wakeup();
+		}
+		workers.shutdownNow();
+		try {
+			acceptor.join();
+			for (SelectorLoop loop : loops) {
+				loop.thread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
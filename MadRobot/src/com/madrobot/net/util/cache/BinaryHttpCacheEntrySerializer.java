@@ -0,0 +1,202 @@
+package com.madrobot.net.util.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
+
+import com.madrobot.io.IOUtils;
+import com.madrobot.net.util.cache.annotation.Immutable;
+
+/**
+ * {@link HttpCacheEntrySerializer} implementation that writes a compact binary
+ * form of the entry instead of using Java serialization.
+ * <p>
+ * The entry is written as its metadata followed by the response body:
+ *
+ * <pre>
+ * byte    version
+ * long    request date, response date (milliseconds)
+ * string  protocol
+ * int     protocol major, protocol minor, status code
+ * string  reason phrase (may be null)
+ * int     header count, then name and value strings of each header
+ * int     variant count (-1 for none), then key and value strings of each
+ * long    body length, then the body bytes
+ * </pre>
+ *
+ * Strings are written as an {@code int} byte count (-1 for null) followed by
+ * their UTF-8 bytes. The body is streamed from the entry's {@link Resource};
+ * it is read back into a {@link HeapResource}.
+ *
+ * @see DiskLRUHttpCacheStorage
+ */
+@Immutable
+public class BinaryHttpCacheEntrySerializer implements HttpCacheEntrySerializer {
+
+	private static final byte VERSION_1 = 1;
+
+	/**
+	 * Everything in a cache entry but its response body.
+	 */
+	static final class Metadata {
+		private final Header[] headers;
+		private final Date requestDate;
+		private final Date responseDate;
+		private final StatusLine statusLine;
+		private final Map<String, String> variantMap;
+
+		private Metadata(Date requestDate, Date responseDate, StatusLine statusLine,
+				Header[] headers, Map<String, String> variantMap) {
+			this.requestDate = requestDate;
+			this.responseDate = responseDate;
+			this.statusLine = statusLine;
+			this.headers = headers;
+			this.variantMap = variantMap;
+		}
+
+		/**
+		 * Creates the entry with {@code resource} as its response body.
+		 */
+		HttpCacheEntry toEntry(Resource resource) {
+			return new HttpCacheEntry(requestDate, responseDate, statusLine, headers,
+					resource, variantMap);
+		}
+	}
+
+	/**
+	 * Reads the metadata written by {@link #writeMetadata}.
+	 */
+	static Metadata readMetadata(DataInputStream in) throws IOException {
+		byte version = in.readByte();
+		if (version != VERSION_1) {
+			throw new HttpCacheEntrySerializationException("Unknown cache entry version: "
+					+ version);
+		}
+		Date requestDate = new Date(in.readLong());
+		Date responseDate = new Date(in.readLong());
+		String protocol = readString(in);
+		ProtocolVersion protocolVersion = new ProtocolVersion(protocol, in.readInt(),
+				in.readInt());
+		int statusCode = in.readInt();
+		StatusLine statusLine = new BasicStatusLine(protocolVersion, statusCode,
+				readString(in));
+
+		Header[] headers = new Header[in.readInt()];
+		for (int i = 0; i < headers.length; i++) {
+			headers[i] = new BasicHeader(readString(in), readString(in));
+		}
+
+		Map<String, String> variantMap = null;
+		int variantCount = in.readInt();
+		if (variantCount >= 0) {
+			variantMap = new HashMap<String, String>(variantCount * 2);
+			for (int i = 0; i < variantCount; i++) {
+				variantMap.put(readString(in), readString(in));
+			}
+		}
+		return new Metadata(requestDate, responseDate, statusLine, headers, variantMap);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Writes everything but the response body of {@code entry}.
+	 */
+	static void writeMetadata(HttpCacheEntry entry, DataOutputStream out) throws IOException {
+		out.writeByte(VERSION_1);
+		out.writeLong(entry.getRequestDate().getTime());
+		out.writeLong(entry.getResponseDate().getTime());
+		ProtocolVersion protocolVersion = entry.getProtocolVersion();
+		writeString(out, protocolVersion.getProtocol());
+		out.writeInt(protocolVersion.getMajor());
+		out.writeInt(protocolVersion.getMinor());
+		out.writeInt(entry.getStatusCode());
+		writeString(out, entry.getReasonPhrase());
+
+		Header[] headers = entry.getAllHeaders();
+		out.writeInt(headers.length);
+		for (Header header : headers) {
+			writeString(out, header.getName());
+			writeString(out, header.getValue());
+		}
+
+		Map<String, String> variantMap = entry.getVariantMapOrNull();
+		if (variantMap == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(variantMap.size());
+		for (Map.Entry<String, String> variant : variantMap.entrySet()) {
+			writeString(out, variant.getKey());
+			writeString(out, variant.getValue());
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	@Override
+	public HttpCacheEntry readFrom(InputStream is) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+		try {
+			Metadata metadata = readMetadata(in);
+			long length = in.readLong();
+			if (length < 0 || length > Integer.MAX_VALUE) {
+				throw new HttpCacheEntrySerializationException("Invalid body length: "
+						+ length);
+			}
+			byte[] body = new byte[(int) length];
+			in.readFully(body);
+			return metadata.toEntry(new HeapResource(body));
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public void writeTo(HttpCacheEntry entry, OutputStream os) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+		try {
+			writeMetadata(entry, out);
+			Resource resource = entry.getResource();
+			out.writeLong(resource.length());
+			InputStream body = resource.getInputStream();
+			try {
+				IOUtils.copy(body, out);
+			} finally {
+				body.close();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+}
@@ -67,6 +67,16 @@ package com.madrobot.net.util.cache;
  * they can be idle before being reclaimed}. You can also control the
  * {@link CacheConfig#setRevalidationQueueSize(int) size of the queue} used for
  * revalidations when there aren't enough workers to keep up with demand.</b>
+ * </p>
+ * 
+ * <p>
+ * <b>Request collapsing</b>. When several requests for the same resource miss
+ * the cache at the same time, only the first is sent to the origin; the others
+ * wait for its response to be cached and are served from it. You can set the
+ * {@link CacheConfig#setCollapsedRequestTimeoutMillis(long) maximum time a
+ * collapsed request waits} before it goes to the origin itself, or turn
+ * collapsing off by setting it to zero.
+ * </p>
  */
 public class CacheConfig {
 
@@ -127,6 +137,12 @@ public class CacheConfig {
 	 */
 	public static final int DEFAULT_REVALIDATION_QUEUE_SIZE = 100;
 
+	/**
+	 * Default maximum time in milliseconds a request waits for a concurrent
+	 * request for the same resource to be answered by the origin.
+	 */
+	public static final long DEFAULT_COLLAPSED_REQUEST_TIMEOUT_MILLIS = 10000;
+
 	private long maxObjectSize = DEFAULT_MAX_OBJECT_SIZE_BYTES;
 	private int maxCacheEntries = DEFAULT_MAX_CACHE_ENTRIES;
 	private int maxUpdateRetries = DEFAULT_MAX_UPDATE_RETRIES;
@@ -138,6 +154,7 @@ public class CacheConfig {
 	private int asynchronousWorkersCore = DEFAULT_ASYNCHRONOUS_WORKERS_CORE;
 	private int asynchronousWorkerIdleLifetimeSecs = DEFAULT_ASYNCHRONOUS_WORKER_IDLE_LIFETIME_SECS;
 	private int revalidationQueueSize = DEFAULT_REVALIDATION_QUEUE_SIZE;
+	private long collapsedRequestTimeoutMillis = DEFAULT_COLLAPSED_REQUEST_TIMEOUT_MILLIS;
 
 	/**
 	 * Returns the current maximum response body size that will be cached.
@@ -384,4 +401,27 @@ public class CacheConfig {
 		this.revalidationQueueSize = size;
 	}
 
+	/**
+	 * Returns the maximum time in milliseconds a request waits for a
+	 * concurrent request for the same resource to be answered by the origin.
+	 * Zero means requests are never collapsed.
+	 */
+	public long getCollapsedRequestTimeoutMillis() {
+		return collapsedRequestTimeoutMillis;
+	}
+
+	/**
+	 * Sets the maximum time in milliseconds a request waits for a concurrent
+	 * request for the same resource to be answered by the origin. If the
+	 * response is not cached by then, the request is sent to the origin
+	 * itself.
+	 * 
+	 * @param millis
+	 *            wait time in milliseconds, or zero to turn off request
+	 *            collapsing
+	 */
+	public void setCollapsedRequestTimeoutMillis(long millis) {
+		this.collapsedRequestTimeoutMillis = millis;
+	}
+
 }
@@ -159,7 +159,7 @@ class CacheInvalidator {
 	}
 
 	private boolean notGetOrHeadRequest(String method) {
-		return !(HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method));
+		return !(HttpMethod.GET.name().equals(method) || HttpMethod.HEAD.name().equals(method));
 	}
 
 	/**
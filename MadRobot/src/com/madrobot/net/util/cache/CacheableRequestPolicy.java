@@ -36,7 +36,7 @@ class CacheableRequestPolicy {
 			return false;
 		}
 
-		if (!method.equals(HttpMethod.GET)) {
+		if (!HttpMethod.GET.name().equals(method)) {
 			Log.d("MadRobot", "non-GET request was not serveable from cache");
 			return false;
 		}
@@ -8,6 +8,9 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.http.Header;
@@ -103,6 +106,13 @@ public class CachingHttpClient implements HttpClient {
 	private final AtomicLong cacheHits = new AtomicLong();
 	private final AtomicLong cacheMisses = new AtomicLong();
 	private final AtomicLong cacheUpdates = new AtomicLong();
+	private final AtomicLong collapsedRequests = new AtomicLong();
+
+	/**
+	 * Origin requests in progress for cacheable requests, by cache key. The
+	 * latch is released once the response has been handled.
+	 */
+	private final ConcurrentHashMap<String, CountDownLatch> inFlightRequests = new ConcurrentHashMap<String, CountDownLatch>();
 
 	private final Map<ProtocolVersion, String> viaHeaders = new HashMap<ProtocolVersion, String>(
 			4);
@@ -125,6 +135,9 @@ public class CachingHttpClient implements HttpClient {
 
 	private final AsynchronousValidator asynchRevalidator;
 
+	private final CacheKeyGenerator cacheKeyGenerator;
+	private final long collapsedRequestTimeoutMillis;
+
 	CachingHttpClient(HttpClient client, HttpCache cache, CacheConfig config) {
 		super();
 		if (client == null) {
@@ -152,6 +165,8 @@ public class CachingHttpClient implements HttpClient {
 		this.requestCompliance = new RequestProtocolCompliance();
 
 		this.asynchRevalidator = makeAsynchronousValidator(config);
+		this.cacheKeyGenerator = new CacheKeyGenerator();
+		this.collapsedRequestTimeoutMillis = config.getCollapsedRequestTimeoutMillis();
 	}
 
 	/**
@@ -259,6 +274,8 @@ public class CachingHttpClient implements HttpClient {
 		this.responseCompliance = responseCompliance;
 		this.requestCompliance = requestCompliance;
 		this.asynchRevalidator = makeAsynchronousValidator(config);
+		this.cacheKeyGenerator = new CacheKeyGenerator();
+		this.collapsedRequestTimeoutMillis = config.getCollapsedRequestTimeoutMillis();
 	}
 
 	private AsynchronousValidator makeAsynchronousValidator(CacheConfig config) {
@@ -298,6 +315,17 @@ public class CachingHttpClient implements HttpClient {
 		return cacheUpdates.get();
 	}
 
+	/**
+	 * Reports the number of times that a request was answered from the
+	 * response to a concurrent request for the same resource instead of
+	 * contacting the origin server.
+	 * 
+	 * @return the number of collapsed requests
+	 */
+	public long getCollapsedRequests() {
+		return collapsedRequests.get();
+	}
+
 	@Override
 	public HttpResponse execute(HttpHost target, HttpRequest request) throws IOException {
 		HttpContext defaultContext = null;
@@ -435,13 +463,66 @@ public class CachingHttpClient implements HttpClient {
 		}
 
 		HttpCacheEntry entry = satisfyFromCache(target, request);
+		if (collapsedRequestTimeoutMillis > 0 && mayCallBackend(request)
+				&& (entry == null || !suitabilityChecker.canCachedResponseBeUsed(target,
+						request, entry, getCurrentDate()))) {
+			return handleCollapsibleRequest(target, request, context, entry);
+		}
+
+		return handleCacheLookup(target, request, context, entry);
+	}
+
+	private HttpResponse handleCacheLookup(HttpHost target, HttpRequest request,
+			HttpContext context, HttpCacheEntry entry) throws IOException {
 		if (entry == null) {
 			return handleCacheMiss(target, request, context);
 		}
-
 		return handleCacheHit(target, request, context, entry);
 	}
 
+	/**
+	 * Handles a request that has to go to the origin. Only the first of
+	 * concurrent requests for the same cache key does; the others wait for its
+	 * response to be cached and are answered from the cache if the new entry
+	 * suits them. A request that times out waiting, or that the new entry does
+	 * not suit, goes to the origin itself.
+	 */
+	private HttpResponse handleCollapsibleRequest(HttpHost target, HttpRequest request,
+			HttpContext context, HttpCacheEntry entry) throws IOException {
+		String key = cacheKeyGenerator.getURI(target, request);
+		CountDownLatch fetch = new CountDownLatch(1);
+		CountDownLatch inFlight = inFlightRequests.putIfAbsent(key, fetch);
+		if (inFlight == null) {
+			try {
+				return handleCacheLookup(target, request, context, entry);
+			} finally {
+				inFlightRequests.remove(key, fetch);
+				fetch.countDown();
+			}
+		}
+
+		if (awaitInFlightRequest(inFlight)) {
+			HttpCacheEntry shared = satisfyFromCache(target, request);
+			Date now = getCurrentDate();
+			if (shared != null
+					&& suitabilityChecker.canCachedResponseBeUsed(target, request, shared, now)) {
+				collapsedRequests.getAndIncrement();
+				recordCacheHit(target, request);
+				return generateCachedResponse(request, context, shared, now);
+			}
+		}
+		return handleCacheLookup(target, request, context, entry);
+	}
+
+	private boolean awaitInFlightRequest(CountDownLatch inFlight) {
+		try {
+			return inFlight.await(collapsedRequestTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
 	private HttpResponse handleCacheHit(HttpHost target, HttpRequest request,
 			HttpContext context, HttpCacheEntry entry) throws ClientProtocolException,
 			IOException {
@@ -704,7 +785,7 @@ public class CachingHttpClient implements HttpClient {
 	boolean clientRequestsOurOptions(HttpRequest request) {
 		RequestLine line = request.getRequestLine();
 
-		if (!HttpMethod.OPTIONS.equals(line.getMethod()))
+		if (!HttpMethod.OPTIONS.name().equals(line.getMethod()))
 			return false;
 
 		if (!"*".equals(line.getUri()))
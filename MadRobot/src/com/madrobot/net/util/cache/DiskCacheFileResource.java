@@ -0,0 +1,89 @@
+package com.madrobot.net.util.cache;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.madrobot.io.file.DiskLRUCache;
+import com.madrobot.net.util.cache.annotation.ThreadSafe;
+
+/**
+ * {@link FileResource} for a response body that is stored in a
+ * {@link DiskLRUHttpCacheStorage}.
+ * <p>
+ * The resource holds no open file. Each {@link #getInputStream()} opens a new
+ * {@link DiskLRUCache.Snapshot} of the entry and reads the body through it,
+ * so a concurrent update or eviction does not affect a stream once it is
+ * open. If the entry was updated or removed since it was read,
+ * {@link #getInputStream()} throws {@link IOException} rather than return a
+ * body that does not match the entry. The file belongs to the disk cache, so
+ * {@link #dispose()} leaves it in place.
+ */
+@ThreadSafe
+class DiskCacheFileResource extends FileResource {
+
+	/**
+	 * Body stream that closes the snapshot it reads from.
+	 */
+	private static final class SnapshotInputStream extends FilterInputStream {
+		private final DiskLRUCache.Snapshot snapshot;
+
+		private SnapshotInputStream(final DiskLRUCache.Snapshot snapshot, final int index) {
+			super(snapshot.getInputStream(index));
+			this.snapshot = snapshot;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.snapshot.close();
+		}
+	}
+
+	private static final long serialVersionUID = -3036125287712947213L;
+
+	/** Null once deserialized; the file is then read by name. */
+	private final transient DiskLRUCache cache;
+	private final transient int index;
+	private final transient String key;
+	private final long length;
+	private final transient long sequenceNumber;
+
+	/**
+	 * Creates the resource for the value {@code index} of {@code snapshot},
+	 * which need not stay open.
+	 */
+	DiskCacheFileResource(final DiskLRUCache cache, final String key,
+			final DiskLRUCache.Snapshot snapshot, final int index) throws IOException {
+		super(snapshot.getFile(index));
+		this.cache = cache;
+		this.key = key;
+		this.index = index;
+		this.sequenceNumber = snapshot.getSequenceNumber();
+		this.length = snapshot.getChannel(index).size();
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		if (this.cache == null) {
+			return super.getInputStream();
+		}
+		DiskLRUCache.Snapshot snapshot = this.cache.get(this.key);
+		if (snapshot == null || snapshot.getSequenceNumber() != this.sequenceNumber) {
+			if (snapshot != null) {
+				snapshot.close();
+			}
+			throw new IOException("Cache entry changed since it was read: " + this.key);
+		}
+		return new SnapshotInputStream(snapshot, this.index);
+	}
+
+	@Override
+	public long length() {
+		return this.length;
+	}
+
+	@Override
+	public void dispose() {
+	}
+
+}
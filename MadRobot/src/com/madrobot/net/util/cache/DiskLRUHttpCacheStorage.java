@@ -0,0 +1,256 @@
+package com.madrobot.net.util.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.madrobot.io.IOUtils;
+import com.madrobot.io.file.DiskLRUCache;
+import com.madrobot.net.util.cache.annotation.ThreadSafe;
+
+/**
+ * {@link HttpCacheStorage} implementation that persists cache entries in a
+ * {@link DiskLRUCache}, so the cache survives restarts and is bounded by disk
+ * space instead of heap.
+ * <p>
+ * Each entry is stored under the MD5 hash of its cache key with two values:
+ * the entry metadata in the format of {@link BinaryHttpCacheEntrySerializer},
+ * and the response body. Bodies are copied into the cache with a stream and
+ * are returned as a {@link FileResource} over the cache file, so they are
+ * never held on the heap. The returned resource holds no open file: each
+ * stream it opens pins the body it reads, and fails with an
+ * {@link IOException} if the entry was updated or evicted since it was
+ * returned. Disposing of it leaves the entry in the cache.
+ * <p>
+ * {@link #updateEntry} has compare-and-swap semantics: the update is only
+ * written if the entry did not change since it was handed to the callback.
+ * Otherwise the update is retried up to {@link CacheConfig#getMaxUpdateRetries()}
+ * times before {@link HttpCacheUpdateException} is thrown.
+ * <p>
+ * The size of this storage is limited in bytes;
+ * {@link CacheConfig#getMaxCacheEntries()} is not used.
+ */
+@ThreadSafe
+public class DiskLRUHttpCacheStorage implements HttpCacheStorage {
+
+	private static final int APP_VERSION = 1;
+	private static final int BODY_INDEX = 1;
+	private static final int METADATA_INDEX = 0;
+	private static final int VALUE_COUNT = 2;
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final DiskLRUCache cache;
+	private final int maxUpdateRetries;
+
+	/**
+	 * Opens or creates the storage in {@code directory}.
+	 *
+	 * @param directory
+	 *            a writable directory used only by this storage
+	 * @param maxSize
+	 *            the maximum number of bytes of metadata and bodies to store
+	 * @param config
+	 *            supplies the number of update retries
+	 */
+	public DiskLRUHttpCacheStorage(final File directory, final long maxSize,
+			final CacheConfig config) throws IOException {
+		super();
+		this.cache = DiskLRUCache.open(directory, APP_VERSION, VALUE_COUNT, maxSize, true);
+		this.maxUpdateRetries = config.getMaxUpdateRetries();
+	}
+
+	@Override
+	public void putEntry(final String url, final HttpCacheEntry entry) throws IOException {
+		if (url == null) {
+			throw new IllegalArgumentException("URL may not be null");
+		}
+		if (entry == null) {
+			throw new IllegalArgumentException("Cache entry may not be null");
+		}
+		DiskLRUCache.Editor editor = this.cache.edit(toDiskKey(url));
+		if (editor == null) {
+			return; // a concurrent write of the same entry wins
+		}
+		writeEntry(editor, url, entry, null);
+	}
+
+	@Override
+	public HttpCacheEntry getEntry(final String url) throws IOException {
+		if (url == null) {
+			throw new IllegalArgumentException("URL may not be null");
+		}
+		DiskLRUCache.Snapshot snapshot = this.cache.get(toDiskKey(url));
+		if (snapshot == null) {
+			return null;
+		}
+		try {
+			return readEntry(url, snapshot);
+		} finally {
+			snapshot.close();
+		}
+	}
+
+	@Override
+	public void removeEntry(final String url) throws IOException {
+		if (url == null) {
+			throw new IllegalArgumentException("URL may not be null");
+		}
+		this.cache.remove(toDiskKey(url));
+	}
+
+	@Override
+	public void updateEntry(final String url, final HttpCacheUpdateCallback callback)
+			throws IOException, HttpCacheUpdateException {
+		if (url == null) {
+			throw new IllegalArgumentException("URL may not be null");
+		}
+		if (callback == null) {
+			throw new IllegalArgumentException("Callback may not be null");
+		}
+		String key = toDiskKey(url);
+		int numRetries = 0;
+		do {
+			DiskLRUCache.Snapshot snapshot = this.cache.get(key);
+			try {
+				HttpCacheEntry existing = snapshot != null ? readEntry(url, snapshot) : null;
+				HttpCacheEntry updated = callback.update(existing);
+
+				DiskLRUCache.Editor editor;
+				if (snapshot != null) {
+					// null if the entry was changed since it was read
+					editor = snapshot.edit();
+				} else {
+					editor = this.cache.edit(key);
+					InputStream current = editor != null ? editor
+							.newInputStream(METADATA_INDEX) : null;
+					if (current != null) {
+						// the entry was created since it was found missing
+						current.close();
+						editor.abort();
+						editor = null;
+					}
+				}
+
+				if (editor != null) {
+					if (updated == null) {
+						editor.abort();
+						this.cache.remove(key);
+					} else {
+						writeEntry(editor, url, updated,
+								snapshot != null ? snapshot.getFile(BODY_INDEX) : null);
+					}
+					return;
+				}
+			} finally {
+				if (snapshot != null) {
+					snapshot.close();
+				}
+			}
+			numRetries++;
+		} while (numRetries <= this.maxUpdateRetries);
+		throw new HttpCacheUpdateException("Failed to update");
+	}
+
+	/**
+	 * Flushes pending journal writes and closes the underlying disk cache.
+	 * Stored entries remain on disk.
+	 */
+	public void shutdown() throws IOException {
+		this.cache.close();
+	}
+
+	/**
+	 * Returns the number of bytes the stored entries currently use.
+	 */
+	public long size() {
+		return this.cache.size();
+	}
+
+	/**
+	 * Reads the entry of {@code snapshot}. Its body resource does not use the
+	 * snapshot, which may be closed afterwards.
+	 */
+	private HttpCacheEntry readEntry(final String url, final DiskLRUCache.Snapshot snapshot)
+			throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				snapshot.getInputStream(METADATA_INDEX)));
+		try {
+			if (!url.equals(in.readUTF())) {
+				return null; // hash collision
+			}
+			BinaryHttpCacheEntrySerializer.Metadata metadata = BinaryHttpCacheEntrySerializer
+					.readMetadata(in);
+			return metadata.toEntry(new DiskCacheFileResource(this.cache, toDiskKey(url),
+					snapshot, BODY_INDEX));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes {@code entry} and commits the edit. The body is not copied when
+	 * it already is {@code currentBody}, the body file of the edited entry.
+	 */
+	private void writeEntry(final DiskLRUCache.Editor editor, final String url,
+			final HttpCacheEntry entry, final File currentBody) throws IOException {
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					editor.newOutputStream(METADATA_INDEX)));
+			try {
+				out.writeUTF(url);
+				BinaryHttpCacheEntrySerializer.writeMetadata(entry, out);
+			} finally {
+				out.close();
+			}
+
+			Resource resource = entry.getResource();
+			if (!(resource instanceof DiskCacheFileResource && ((DiskCacheFileResource) resource)
+					.getFile().equals(currentBody))) {
+				InputStream body = resource.getInputStream();
+				OutputStream bodyOut = editor.newOutputStream(BODY_INDEX);
+				IOUtils.copyAndClose(body, bodyOut);
+			}
+		} catch (IOException ex) {
+			editor.abort();
+			throw ex;
+		} catch (RuntimeException ex) {
+			editor.abort();
+			throw ex;
+		}
+		editor.commit();
+	}
+
+	/**
+	 * Cache keys are URIs; the disk cache needs file-name safe keys.
+	 */
+	private static String toDiskKey(final String url) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new Error(ex);
+		}
+		byte[] hash;
+		try {
+			hash = digest.digest(url.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException ex) {
+			throw new Error(ex);
+		}
+		char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+}
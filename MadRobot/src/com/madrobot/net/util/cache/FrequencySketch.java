@@ -0,0 +1,128 @@
+/*
+    Adapted from FrequencySketch of the Caffeine caching library
+    Copyright 2015 Ben Manes. All Rights Reserved.
+    https://github.com/ben-manes/caffeine
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package com.madrobot.net.util.cache;
+
+import com.madrobot.net.util.cache.annotation.NotThreadSafe;
+
+/**
+ * A probabilistic estimate of how often keys have been seen recently, used by
+ * {@link SegmentedHttpCacheStorage} to decide whether a new entry is worth
+ * evicting an old one (TinyLFU admission).
+ * <p>
+ * This is a count-min sketch of 4-bit counters, 16 to a {@code long}. Each key
+ * increments one counter in each of four rows; its frequency is the smallest
+ * of the four. Once the number of increments reaches ten times the expected
+ * number of entries, every counter is halved so that old popularity fades.
+ * The sketch, its seeds and its reset are taken from Caffeine's, with a
+ * table that is sized once.
+ */
+@NotThreadSafe
+final class FrequencySketch {
+
+	private static final long ONE_MASK = 0x1111111111111111L;
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+			0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+	private final int sampleSize;
+	private int size;
+	private final long[] table;
+	private final int tableMask;
+
+	/**
+	 * @param expectedEntries
+	 *            the number of entries the cache is expected to hold
+	 */
+	FrequencySketch(int expectedEntries) {
+		int maximum = Math.max(expectedEntries, 16);
+		int capacity = 1;
+		while (capacity < maximum) {
+			capacity <<= 1;
+		}
+		this.table = new long[capacity];
+		this.tableMask = capacity - 1;
+		this.sampleSize = 10 * maximum;
+	}
+
+	/**
+	 * Returns the estimated number of recent occurrences of {@code key}, at
+	 * most 15.
+	 */
+	int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+		int frequency = Integer.MAX_VALUE;
+		for (int i = 0; i < 4; i++) {
+			int index = indexOf(hash, i);
+			int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	/**
+	 * Records one occurrence of {@code key}.
+	 */
+	void increment(Object key) {
+		int hash = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+		boolean added = false;
+		for (int i = 0; i < 4; i++) {
+			added |= incrementAt(indexOf(hash, i), start + i);
+		}
+		if (added && ++size == sampleSize) {
+			reset();
+		}
+	}
+
+	private boolean incrementAt(int index, int counter) {
+		int offset = counter << 2;
+		long mask = 0xfL << offset;
+		if ((table[index] & mask) != mask) {
+			table[index] += 1L << offset;
+			return true;
+		}
+		return false;
+	}
+
+	private int indexOf(int hash, int row) {
+		long h = (hash + SEEDS[row]) * SEEDS[row];
+		h += h >>> 32;
+		return ((int) h) & tableMask;
+	}
+
+	/**
+	 * Halves every counter.
+	 */
+	private void reset() {
+		int odd = 0;
+		for (int i = 0; i < table.length; i++) {
+			odd += Long.bitCount(table[i] & ONE_MASK);
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		size = (size >>> 1) - (odd >>> 2);
+	}
+
+	private static int spread(int hash) {
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		return (hash >>> 16) ^ hash;
+	}
+
+}
@@ -0,0 +1,250 @@
+package com.madrobot.net.util.cache;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.http.Header;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicStatusLine;
+
+/**
+ * Replays a recorded URL trace against an {@link HttpCacheStorage} and reports
+ * how many requests it could have served.
+ * <p>
+ * A trace has one request per line: the URL, optionally followed by
+ * whitespace and the response body length in bytes. Lines that are empty or
+ * start with {@code #} are skipped. Every request that misses is stored with
+ * a response body of the recorded length, as the caching client would do.
+ * <p>
+ * {@link #main(String[])} compares a least recently used storage with
+ * {@link SegmentedHttpCacheStorage}, both bounded by the same number of bytes
+ * of response bodies. The expected number of entries only sizes the
+ * frequency sketch of the segmented storage; it defaults to the byte budget
+ * divided by {@value #DEFAULT_LENGTH}.
+ *
+ * <pre>
+ * HitRatioSimulator &lt;trace file&gt; &lt;max bytes&gt; [expected entries]
+ * </pre>
+ */
+public final class HitRatioSimulator {
+
+	/**
+	 * Outcome of replaying a trace.
+	 */
+	public static final class Result {
+		private long hitBytes;
+		private long hits;
+		private long requestBytes;
+		private long requests;
+
+		private Result() {
+		}
+
+		/**
+		 * Returns the ratio of response bytes that were served from the
+		 * cache.
+		 */
+		public double byteHitRatio() {
+			return requestBytes == 0 ? 0 : (double) hitBytes / requestBytes;
+		}
+
+		/**
+		 * Returns the ratio of requests that were served from the cache.
+		 */
+		public double hitRatio() {
+			return requests == 0 ? 0 : (double) hits / requests;
+		}
+
+		public long hits() {
+			return hits;
+		}
+
+		public long requests() {
+			return requests;
+		}
+
+		@Override
+		public String toString() {
+			return "requests=" + requests + ", hits=" + hits + ", hitRatio=" + hitRatio()
+					+ ", byteHitRatio=" + byteHitRatio();
+		}
+	}
+
+	/**
+	 * A response body that only has a length. Nothing is allocated for its
+	 * content.
+	 */
+	private static final class SimulatedResource implements Resource {
+
+		private static final long serialVersionUID = 3203616787014462345L;
+
+		private final long length;
+
+		SimulatedResource(long length) {
+			this.length = length;
+		}
+
+		@Override
+		public void dispose() {
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+
+		@Override
+		public long length() {
+			return length;
+		}
+	}
+
+	/**
+	 * A least recently used storage bounded by the total length of the
+	 * response bodies, the baseline {@link SegmentedHttpCacheStorage} is
+	 * compared with. {@link BasicHttpCacheStorage} counts entries instead, so
+	 * it would be compared at a different budget.
+	 */
+	private static final class LruHttpCacheStorage implements HttpCacheStorage {
+
+		private final LinkedHashMap<String, HttpCacheEntry> entries = new LinkedHashMap<String, HttpCacheEntry>(
+				16, 0.75f, true);
+		private final long maxWeight;
+		private long weight;
+
+		LruHttpCacheStorage(long maxWeight) {
+			this.maxWeight = maxWeight;
+		}
+
+		@Override
+		public HttpCacheEntry getEntry(String url) {
+			return entries.get(url);
+		}
+
+		@Override
+		public void putEntry(String url, HttpCacheEntry entry) {
+			removeEntry(url);
+			long length = weigh(entry);
+			if (length > maxWeight) {
+				return;
+			}
+			entries.put(url, entry);
+			weight += length;
+			Iterator<HttpCacheEntry> eldest = entries.values().iterator();
+			while (weight > maxWeight) {
+				weight -= weigh(eldest.next());
+				eldest.remove();
+			}
+		}
+
+		@Override
+		public void removeEntry(String url) {
+			HttpCacheEntry removed = entries.remove(url);
+			if (removed != null) {
+				weight -= weigh(removed);
+			}
+		}
+
+		@Override
+		public void updateEntry(String url, HttpCacheUpdateCallback callback)
+				throws IOException {
+			HttpCacheEntry updated = callback.update(entries.get(url));
+			if (updated == null) {
+				removeEntry(url);
+			} else {
+				putEntry(url, updated);
+			}
+		}
+
+		/** Weighs entries as {@link SegmentedHttpCacheStorage} does */
+		private static long weigh(HttpCacheEntry entry) {
+			return Math.max(1L, entry.getResource().length());
+		}
+	}
+
+	/** Body length used for trace lines without one. */
+	private static final long DEFAULT_LENGTH = 1024;
+
+	private static final Header[] NO_HEADERS = new Header[0];
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2 && args.length != 3) {
+			System.err
+					.println("usage: HitRatioSimulator <trace file> <max bytes> [expected entries]");
+			return;
+		}
+		long maxBytes = Long.parseLong(args[1]);
+		CacheConfig config = new CacheConfig();
+		config.setMaxCacheEntries(args.length == 3 ? Integer.parseInt(args[2]) : (int) Math
+				.min(Integer.MAX_VALUE, Math.max(1, maxBytes / DEFAULT_LENGTH)));
+
+		System.out.println("LRU:     " + replay(args[0], new LruHttpCacheStorage(maxBytes)));
+		System.out.println("TinyLFU: "
+				+ replay(args[0], new SegmentedHttpCacheStorage(config, maxBytes)));
+	}
+
+	/**
+	 * Replays the trace in {@code traceFile} against {@code storage}.
+	 */
+	public static Result replay(String traceFile, HttpCacheStorage storage) throws IOException {
+		BufferedReader trace = new BufferedReader(new FileReader(traceFile));
+		try {
+			return replay(trace, storage);
+		} finally {
+			trace.close();
+		}
+	}
+
+	/**
+	 * Replays {@code trace} against {@code storage}.
+	 */
+	public static Result replay(BufferedReader trace, HttpCacheStorage storage)
+			throws IOException {
+		Result result = new Result();
+		Date now = new Date();
+		String line;
+		while ((line = trace.readLine()) != null) {
+			line = line.trim();
+			if (line.length() == 0 || line.charAt(0) == '#') {
+				continue;
+			}
+			String url = line;
+			long length = DEFAULT_LENGTH;
+			int separator = indexOfWhitespace(line);
+			if (separator > 0) {
+				url = line.substring(0, separator);
+				length = Long.parseLong(line.substring(separator).trim());
+			}
+
+			result.requests++;
+			result.requestBytes += length;
+			if (storage.getEntry(url) != null) {
+				result.hits++;
+				result.hitBytes += length;
+			} else {
+				storage.putEntry(url, new HttpCacheEntry(now, now, new BasicStatusLine(
+						HttpVersion.HTTP_1_1, 200, "OK"), NO_HEADERS, new SimulatedResource(
+						length)));
+			}
+		}
+		return result;
+	}
+
+	private static int indexOfWhitespace(String line) {
+		for (int i = 0; i < line.length(); i++) {
+			if (Character.isWhitespace(line.charAt(i))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private HitRatioSimulator() {
+	}
+}
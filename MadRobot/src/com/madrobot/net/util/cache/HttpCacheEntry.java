@@ -207,6 +207,13 @@ public class HttpCacheEntry implements Serializable {
 		return Collections.unmodifiableMap(variantMap);
 	}
 
+	/**
+	 * Returns the variant map, or null if this entry was created without one.
+	 */
+	Map<String, String> getVariantMapOrNull() {
+		return variantMap != null ? Collections.unmodifiableMap(variantMap) : null;
+	}
+
 	/**
 	 * Provides a string representation of this instance suitable for human
 	 * consumption.
@@ -130,12 +130,12 @@ class RequestProtocolCompliance {
 	}
 
 	private boolean requestMustNotHaveEntity(HttpRequest request) {
-		return HttpMethod.TRACE.equals(request.getRequestLine().getMethod())
+		return HttpMethod.TRACE.name().equals(request.getRequestLine().getMethod())
 				&& request instanceof HttpEntityEnclosingRequest;
 	}
 
 	private void decrementOPTIONSMaxForwardsIfGreaterThen0(HttpRequest request) {
-		if (!HttpMethod.OPTIONS.equals(request.getRequestLine().getMethod())) {
+		if (!HttpMethod.OPTIONS.name().equals(request.getRequestLine().getMethod())) {
 			return;
 		}
 
@@ -151,7 +151,7 @@ class RequestProtocolCompliance {
 	}
 
 	private void verifyOPTIONSRequestWithBodyHasContentType(HttpRequest request) {
-		if (!HttpMethod.OPTIONS.equals(request.getRequestLine().getMethod())) {
+		if (!HttpMethod.OPTIONS.name().equals(request.getRequestLine().getMethod())) {
 			return;
 		}
 
@@ -311,7 +311,7 @@ class RequestProtocolCompliance {
 	private RequestProtocolError requestHasWeakETagAndRange(HttpRequest request) {
 		// TODO: Should these be looking at all the headers marked as Range?
 		String method = request.getRequestLine().getMethod();
-		if (!(HttpMethod.GET.equals(method))) {
+		if (!(HttpMethod.GET.name().equals(method))) {
 			return null;
 		}
 
@@ -336,7 +336,7 @@ class RequestProtocolCompliance {
 		// If-Match/If-None-Match?
 
 		String method = request.getRequestLine().getMethod();
-		if (!(HttpMethod.PUT.equals(method) || HttpMethod.DELETE.equals(method))) {
+		if (!(HttpMethod.PUT.name().equals(method) || HttpMethod.DELETE.name().equals(method))) {
 			return null;
 		}
 
@@ -56,7 +56,7 @@ class ResponseCachingPolicy {
 	public boolean isResponseCacheable(String httpMethod, HttpResponse response) {
 		boolean cacheable = false;
 
-		if (!HttpMethod.GET.equals(httpMethod)) {
+		if (!HttpMethod.GET.name().equals(httpMethod)) {
 			Log.d("MadRobot", "Response was not cacheable.");
 			return false;
 		}
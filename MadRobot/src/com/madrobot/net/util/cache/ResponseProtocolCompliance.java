@@ -193,7 +193,7 @@ class ResponseProtocolCompliance {
 
 	private boolean backendResponseMustNotHaveBody(HttpRequest request,
 			HttpResponse backendResponse) {
-		return HttpMethod.HEAD.equals(request.getRequestLine().getMethod())
+		return HttpMethod.HEAD.name().equals(request.getRequestLine().getMethod())
 				|| backendResponse.getStatusLine().getStatusCode() == HttpStatus.SC_NO_CONTENT
 				|| backendResponse.getStatusLine().getStatusCode() == HttpStatus.SC_RESET_CONTENT
 				|| backendResponse.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED;
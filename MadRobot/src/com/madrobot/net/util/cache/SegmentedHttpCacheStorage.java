@@ -0,0 +1,375 @@
+package com.madrobot.net.util.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.madrobot.net.util.cache.annotation.GuardedBy;
+import com.madrobot.net.util.cache.annotation.ThreadSafe;
+
+/**
+ * In-memory {@link HttpCacheStorage} implementation for caches that are read
+ * by many threads at once.
+ * <p>
+ * Entries are spread over a number of segments by the hash of their key. Each
+ * segment is an access-ordered map with its own lock, so lookups of keys in
+ * different segments never contend, unlike {@link BasicHttpCacheStorage}
+ * which serializes every lookup on one lock.
+ * <p>
+ * Entries are weighed by the length of their {@link Resource} instead of being
+ * counted, and each segment holds at most its share of the total weight. When
+ * a new entry does not fit, the least recently used entries are only evicted
+ * if the new key has been requested more often recently than each of them;
+ * otherwise the new entry is not stored. This TinyLFU admission policy keeps
+ * URLs that are requested once from flushing out popular entries. Request
+ * frequencies are estimated with a small count-min sketch per segment, sized
+ * from {@link CacheConfig#getMaxCacheEntries()}.
+ * <p>
+ * Entries too heavy for a segment's share are kept in one extra segment for
+ * large entries, which may use up to half of the total weight; the other
+ * segments share what it does not use, and shrink as it fills. Lookups that
+ * miss their segment also check it. An entry heavier than half of the total
+ * weight is never stored. An entry moves between its segment and the large
+ * segment holding the lock of its segment, which is always taken before the
+ * lock of the large segment, so a key is never stored in both.
+ * <p>
+ * Like {@link BasicHttpCacheStorage}, this storage does not deallocate the
+ * resources of evicted entries and is intended for use with
+ * {@link HeapResource}.
+ */
+@ThreadSafe
+public class SegmentedHttpCacheStorage implements HttpCacheStorage {
+
+	/**
+	 * Number of segments used when none is given.
+	 */
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	private final class Segment {
+
+		@GuardedBy("this")
+		private final LinkedHashMap<String, HttpCacheEntry> entries = new LinkedHashMap<String, HttpCacheEntry>(
+				16, 0.75f, true);
+		/** True for the segment of the large entries */
+		private final boolean large;
+		@GuardedBy("this")
+		private final FrequencySketch sketch;
+		/** Written holding the lock; read without it to size the other segments */
+		private volatile long weight;
+
+		Segment(boolean large, int expectedEntries) {
+			this.large = large;
+			this.sketch = new FrequencySketch(expectedEntries);
+		}
+
+		synchronized HttpCacheEntry get(String key) {
+			this.sketch.increment(key);
+			return this.entries.get(key);
+		}
+
+		synchronized void put(String key, HttpCacheEntry entry) {
+			this.sketch.increment(key);
+			store(key, entry);
+		}
+
+		synchronized void remove(String key) {
+			HttpCacheEntry removed = this.entries.remove(key);
+			if (removed != null) {
+				this.weight -= weigh(removed);
+			}
+		}
+
+		/**
+		 * Applies {@code callback} to the entry of {@code key} in this
+		 * segment. Unless {@code force} is set, nothing is done if the segment
+		 * has no entry for the key.
+		 *
+		 * @return null if nothing was done, the updated entry if it belongs in
+		 *         the other kind of segment and was removed from this one, or
+		 *         {@link #UPDATED}
+		 */
+		synchronized Object update(String key, HttpCacheUpdateCallback callback, boolean force)
+				throws IOException {
+			HttpCacheEntry existing = this.entries.get(key);
+			if (existing == null && !force) {
+				return null;
+			}
+			HttpCacheEntry updated = callback.update(existing);
+			if (updated == null) {
+				remove(key);
+			} else if (isLarge(weigh(updated)) != this.large) {
+				remove(key);
+				return updated;
+			} else {
+				store(key, updated);
+			}
+			return UPDATED;
+		}
+
+		/**
+		 * Replaces the entry of a key that is already stored, or runs the
+		 * admission policy for a new key.
+		 */
+		private void store(String key, HttpCacheEntry entry) {
+			long entryWeight = weigh(entry);
+			HttpCacheEntry previous = this.entries.get(key);
+			if (previous != null) {
+				this.weight -= weigh(previous);
+				this.entries.remove(key);
+			} else if (!admit(key, entryWeight)) {
+				return;
+			}
+			if (entryWeight > maxWeight()) {
+				return;
+			}
+			this.entries.put(key, entry);
+			this.weight += entryWeight;
+			evict();
+		}
+
+		/**
+		 * Returns true if {@code key} is requested more often than every entry
+		 * that would have to be evicted to make room for it.
+		 */
+		private boolean admit(String key, long entryWeight) {
+			long maxWeight = maxWeight();
+			if (entryWeight > maxWeight) {
+				return false;
+			}
+			long excess = this.weight + entryWeight - maxWeight;
+			if (excess <= 0) {
+				return true;
+			}
+			int candidateFrequency = this.sketch.frequency(key);
+			List<String> victims = new ArrayList<String>();
+			Iterator<Map.Entry<String, HttpCacheEntry>> eldest = this.entries.entrySet()
+					.iterator();
+			while (excess > 0 && eldest.hasNext()) {
+				Map.Entry<String, HttpCacheEntry> victim = eldest.next();
+				if (this.sketch.frequency(victim.getKey()) >= candidateFrequency) {
+					return false;
+				}
+				victims.add(victim.getKey());
+				excess -= weigh(victim.getValue());
+			}
+			for (String victim : victims) {
+				this.weight -= weigh(this.entries.remove(victim));
+			}
+			return true;
+		}
+
+		/**
+		 * Evicts the least recently used entries until the segment is within
+		 * its weight.
+		 */
+		private void evict() {
+			long maxWeight = maxWeight();
+			Iterator<HttpCacheEntry> eldest = this.entries.values().iterator();
+			while (this.weight > maxWeight && eldest.hasNext()) {
+				this.weight -= weigh(eldest.next());
+				eldest.remove();
+			}
+		}
+
+		/**
+		 * Evicts entries until the segment is within its weight, which
+		 * shrinks as large entries are added.
+		 */
+		synchronized void trim() {
+			evict();
+		}
+
+		/**
+		 * Returns the maximum weight of this segment. The large segment may
+		 * hold half of the storage's; the other segments share what it does
+		 * not use.
+		 */
+		private long maxWeight() {
+			if (this.large) {
+				return SegmentedHttpCacheStorage.this.maxWeight / 2;
+			}
+			return Math.max(1L, (SegmentedHttpCacheStorage.this.maxWeight - largeSegment.weight)
+					/ segments.length);
+		}
+
+		long weight() {
+			return this.weight;
+		}
+	}
+
+	/** Returned by {@link Segment#update} when the entry stays in the segment */
+	private static final Object UPDATED = new Object();
+
+	private static long weigh(HttpCacheEntry entry) {
+		return Math.max(1L, entry.getResource().length());
+	}
+
+	/** Holds the entries that are too heavy for a segment */
+	private final Segment largeSegment;
+	/** Entries heavier than this are kept in {@link #largeSegment} */
+	private final long largeThreshold;
+	private final long maxWeight;
+	private final int segmentMask;
+	private final Segment[] segments;
+
+	/**
+	 * Creates a storage with {@link #DEFAULT_CONCURRENCY_LEVEL} segments.
+	 *
+	 * @param maxWeight
+	 *            the maximum total length, in bytes, of the stored response
+	 *            bodies
+	 */
+	public SegmentedHttpCacheStorage(final CacheConfig config, final long maxWeight) {
+		this(config, maxWeight, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * @param maxWeight
+	 *            the maximum total length, in bytes, of the stored response
+	 *            bodies
+	 * @param concurrencyLevel
+	 *            the estimated number of threads using the storage at the same
+	 *            time. Rounded up to a power of two.
+	 */
+	public SegmentedHttpCacheStorage(final CacheConfig config, final long maxWeight,
+			final int concurrencyLevel) {
+		super();
+		if (maxWeight <= 0) {
+			throw new IllegalArgumentException("Maximum weight must be positive");
+		}
+		if (concurrencyLevel <= 0) {
+			throw new IllegalArgumentException("Concurrency level must be positive");
+		}
+		int segmentCount = 1;
+		while (segmentCount < concurrencyLevel) {
+			segmentCount <<= 1;
+		}
+		this.maxWeight = maxWeight;
+		this.segmentMask = segmentCount - 1;
+		this.segments = new Segment[segmentCount];
+		// a segment never shrinks below this, however many large entries
+		this.largeThreshold = Math.max(1L, (maxWeight - maxWeight / 2) / segmentCount);
+		int expectedEntries = Math.max(1, config.getMaxCacheEntries() / segmentCount);
+		for (int i = 0; i < segmentCount; i++) {
+			this.segments[i] = new Segment(false, expectedEntries);
+		}
+		this.largeSegment = new Segment(true, expectedEntries);
+	}
+
+	private boolean isLarge(long entryWeight) {
+		return entryWeight > this.largeThreshold;
+	}
+
+	/**
+	 * Trims the segments after large entries were added, which shrinks the
+	 * weight they share. The segment locks are taken one at a time, so this
+	 * must not be called holding one.
+	 */
+	private void trimSegments() {
+		for (Segment segment : this.segments) {
+			segment.trim();
+		}
+	}
+
+	private Segment segmentFor(final String url) {
+		int hash = url.hashCode();
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		hash ^= (hash >>> 7) ^ (hash >>> 4);
+		return this.segments[hash & this.segmentMask];
+	}
+
+	@Override
+	public void putEntry(final String url, final HttpCacheEntry entry) throws IOException {
+		if (url == null) {
+			throw new IllegalArgumentException("URL may not be null");
+		}
+		if (entry == null) {
+			throw new IllegalArgumentException("Cache entry may not be null");
+		}
+		Segment segment = segmentFor(url);
+		boolean grew = false;
+		synchronized (segment) {
+			if (isLarge(weigh(entry))) {
+				segment.remove(url);
+				long before = this.largeSegment.weight();
+				this.largeSegment.put(url, entry);
+				grew = this.largeSegment.weight() > before;
+			} else {
+				this.largeSegment.remove(url);
+				segment.put(url, entry);
+			}
+		}
+		if (grew) {
+			trimSegments();
+		}
+	}
+
+	@Override
+	public HttpCacheEntry getEntry(final String url) throws IOException {
+		if (url == null) {
+			throw new IllegalArgumentException("URL may not be null");
+		}
+		HttpCacheEntry entry = segmentFor(url).get(url);
+		return entry != null ? entry : this.largeSegment.get(url);
+	}
+
+	@Override
+	public void removeEntry(final String url) throws IOException {
+		if (url == null) {
+			throw new IllegalArgumentException("URL may not be null");
+		}
+		Segment segment = segmentFor(url);
+		synchronized (segment) {
+			segment.remove(url);
+			this.largeSegment.remove(url);
+		}
+	}
+
+	@Override
+	public void updateEntry(final String url, final HttpCacheUpdateCallback callback)
+			throws IOException {
+		if (url == null) {
+			throw new IllegalArgumentException("URL may not be null");
+		}
+		if (callback == null) {
+			throw new IllegalArgumentException("Callback may not be null");
+		}
+		Segment segment = segmentFor(url);
+		boolean grew;
+		synchronized (segment) {
+			Object result = this.largeSegment.update(url, callback, false);
+			if (result == null) {
+				// not a large entry; update it in its segment
+				result = segment.update(url, callback, true);
+				grew = result instanceof HttpCacheEntry;
+				if (grew) {
+					this.largeSegment.put(url, (HttpCacheEntry) result);
+				}
+			} else if (result instanceof HttpCacheEntry) {
+				segment.put(url, (HttpCacheEntry) result);
+				grew = false;
+			} else {
+				// the large entry may have grown
+				grew = true;
+			}
+		}
+		if (grew) {
+			trimSegments();
+		}
+	}
+
+	/**
+	 * Returns the total length of the stored response bodies.
+	 */
+	public long weight() {
+		long weight = 0;
+		for (Segment segment : this.segments) {
+			weight += segment.weight();
+		}
+		return weight + this.largeSegment.weight();
+	}
+
+}
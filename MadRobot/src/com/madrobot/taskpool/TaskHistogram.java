@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.taskpool;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in milliseconds.
+ * <p>
+ * Bucket 0 counts durations below 1ms, and bucket <i>i</i> counts durations
+ * from 2<sup>i-1</sup>ms up to 2<sup>i</sup>ms. The last bucket also counts
+ * everything longer. Recording is lock free, so counts read while tasks are
+ * running may be slightly inconsistent with each other.
+ * </p>
+ */
+public final class TaskHistogram {
+
+	/**
+	 * Number of buckets. The last bucket starts at about 9 minutes.
+	 */
+	public static final int BUCKET_COUNT = 21;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+	TaskHistogram() {
+	}
+
+	/**
+	 * Returns the upper bound in milliseconds of the durations counted by a
+	 * bucket, or {@link Long#MAX_VALUE} for the last bucket.
+	 */
+	public static long getBucketUpperBoundMillis(int bucket) {
+		return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+	}
+
+	/**
+	 * Returns the number of durations counted by {@code bucket}.
+	 */
+	public long getCount(int bucket) {
+		return buckets.get(bucket);
+	}
+
+	/**
+	 * Returns the total number of recorded durations.
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			count += buckets.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the upper bound of the bucket that holds the given percentile
+	 * of the recorded durations, or 0 if nothing was recorded.
+	 *
+	 * @param percentile
+	 *            between 0 and 100
+	 */
+	public long getPercentileMillis(double percentile) {
+		long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank && seen > 0) {
+				return getBucketUpperBoundMillis(i);
+			}
+		}
+		return getBucketUpperBoundMillis(BUCKET_COUNT - 1);
+	}
+
+	void record(long nanos) {
+		long millis = nanos / 1000000L;
+		int bucket = 0;
+		while (millis > 0 && bucket < BUCKET_COUNT - 1) {
+			millis >>= 1;
+			bucket++;
+		}
+		buckets.incrementAndGet(bucket);
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + ", p50<=" + getPercentileMillis(50) + "ms, p99<="
+				+ getPercentileMillis(99) + "ms";
+	}
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.taskpool;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings of the tasks of one {@link TaskPriority} lane.
+ *
+ * @see TaskPoolManager#getStats(TaskPriority)
+ */
+public final class TaskLaneStats {
+
+	private final AtomicLong expiredCount = new AtomicLong();
+	private final TaskHistogram queueWait = new TaskHistogram();
+	private final TaskHistogram runTime = new TaskHistogram();
+
+	TaskLaneStats() {
+	}
+
+	/**
+	 * Returns the number of tasks that were dropped because their deadline
+	 * passed before they started.
+	 */
+	public long getExpiredCount() {
+		return expiredCount.get();
+	}
+
+	/**
+	 * Returns the time started tasks spent in the queue.
+	 */
+	public TaskHistogram getQueueWait() {
+		return queueWait;
+	}
+
+	/**
+	 * Returns the time tasks spent running, from {@link Task#preExecute()} to
+	 * the end of {@link Task#call()}.
+	 */
+	public TaskHistogram getRunTime() {
+		return runTime;
+	}
+
+	void recordExpired() {
+		expiredCount.incrementAndGet();
+	}
+
+	@Override
+	public String toString() {
+		return "queueWait[" + queueWait + "], runTime[" + runTime + "], expired="
+				+ expiredCount;
+	}
+}
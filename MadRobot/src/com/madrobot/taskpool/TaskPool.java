@@ -10,7 +10,7 @@
  ******************************************************************************/
 package com.madrobot.taskpool;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -22,14 +22,16 @@ import com.madrobot.taskpool.TaskPoolManagerImpl.ManagedServiceTask;
  * 
  * A TaskThreadPool that executes each submitted task using one of possibly
  * several pooled threads.
+ * <p>
+ * Queued tasks are started in {@link TaskPriority} order, and in submission
+ * order within a priority.
+ * </p>
  * 
  */
 class TaskPool extends ThreadPoolExecutor {
 	// public static final int QUEUE_SIZE = 250;
 	// public static final int MAX_THREADS_COUNT = 2;
 
-	private static LinkedBlockingQueue<Runnable> blockingQueue = new LinkedBlockingQueue<Runnable>(
-			250);
 	private static final long serialVersionUID = 1L;
 
 	private static ThreadFactory threadFactory = new ThreadFactory() {
@@ -48,7 +50,8 @@ class TaskPool extends ThreadPoolExecutor {
 	 */
 	protected TaskPool() {
 		super(TaskPoolConstants.MAX_THREADS_COUNT, TaskPoolConstants.MAX_THREADS_COUNT, 0L,
-				TimeUnit.MILLISECONDS, blockingQueue, threadFactory);
+				TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(
+						TaskPoolConstants.QUEUE_SIZE), threadFactory);
 	}
 
 	/**
@@ -22,12 +22,41 @@ public class TaskPoolConstants {
 
 	/**
 	 * Total count of Task pool thread(s). Should be >1
+	 * <p>
+	 * Defaults to twice the number of processors, since most tasks spend their
+	 * time blocked on I/O.
+	 * </p>
 	 */
-	public static int MAX_THREADS_COUNT = 2;
+	public static int MAX_THREADS_COUNT = Math.max(2, Runtime.getRuntime()
+			.availableProcessors() * 2);
 
 	/**
-	 * Initial queue size threshold limit. Should be >1
+	 * Initial capacity of the task queue. Should be >1
+	 * <p>
+	 * The queue grows beyond it; submitted tasks are never rejected.
+	 * </p>
 	 */
 	public static int QUEUE_SIZE = 250;// 200;
 
+	/**
+	 * Runs each task on its own thread instead of in a pool of
+	 * {@link #MAX_THREADS_COUNT} threads. Virtual threads are used when the
+	 * runtime has them.
+	 * <p>
+	 * Suited to tasks that spend most of their time blocked on I/O. Tasks of a
+	 * class that has reached its concurrency limit wait in a queue, without a
+	 * thread, and are started in priority order. Deadlines still apply.
+	 * </p>
+	 * 
+	 * @see TaskPoolManager#setConcurrencyLimit(Class, int)
+	 */
+	public static boolean THREAD_PER_TASK = false;
+
+	/**
+	 * Number of tasks of one class that may run at the same time when
+	 * {@link #THREAD_PER_TASK} is set, unless set otherwise with
+	 * {@link TaskPoolManager#setConcurrencyLimit(Class, int)}. Should be >0
+	 */
+	public static int MAX_TASKS_PER_TYPE = 64;
+
 }
@@ -14,8 +14,39 @@ public interface TaskPoolManager {
 
 	public void cancelAllTasks();
 
+	/**
+	 * Returns the queue wait and run time statistics of a lane.
+	 */
+	public TaskLaneStats getStats(TaskPriority priority);
+
+	/**
+	 * Sets the number of tasks of class {@code taskType} that may run at the
+	 * same time. Only applies when {@link TaskPoolConstants#THREAD_PER_TASK}
+	 * is set; otherwise the pool size limits all tasks together.
+	 */
+	public void setConcurrencyLimit(Class<?> taskType, int maxConcurrentTasks);
+
 	public void shutdown();
 
+	/**
+	 * Submits a task in the {@link TaskPriority#VISIBLE} lane.
+	 */
 	public <T> void submit(Task<T> task);
 
+	/**
+	 * Submits a task in the given lane.
+	 */
+	public <T> void submit(Task<T> task, TaskPriority priority);
+
+	/**
+	 * Submits a task in the given lane that is dropped if it has not started
+	 * within {@code deadlineMillis}. A dropped task is cancelled like any
+	 * other; its {@link Task#preExecute()} and {@link Task#call()} are not
+	 * invoked.
+	 * 
+	 * @param deadlineMillis
+	 *            milliseconds from now, or 0 for no deadline
+	 */
+	public <T> void submit(Task<T> task, TaskPriority priority, long deadlineMillis);
+
 }
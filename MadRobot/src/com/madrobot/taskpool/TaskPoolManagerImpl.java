@@ -14,6 +14,7 @@ import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -23,10 +24,14 @@ public final class TaskPoolManagerImpl implements TaskPoolManager {
 	// Helper classes
 	/**
 	 * Subclass of FutureTask . Helper class to manage the active task
+	 * <p>
+	 * Tasks are ordered by priority, then by submission order.
+	 * </p>
 	 * 
 	 * @see FutureTask
 	 */
-	public class ManagedServiceTask<T> extends FutureTask<T> {
+	public class ManagedServiceTask<T> extends FutureTask<T> implements
+			Comparable<ManagedServiceTask<?>> {
 
 		/**
 		 * Field to hold the submitted active task
@@ -35,6 +40,21 @@ public final class TaskPoolManagerImpl implements TaskPoolManager {
 		private final Task<T> task;
 		private Throwable throwable;
 
+		private final TaskPriority priority;
+		/**
+		 * {@link System#nanoTime()} after which the task is dropped, valid if
+		 * {@link #hasDeadline}
+		 */
+		private final long deadlineNanos;
+		private final boolean hasDeadline;
+		private final long sequence;
+		private final long submitNanos;
+		/**
+		 * Set by the pool thread in {@link #preExecute()}, read by the same
+		 * thread in {@link #postExecute()}. Zero if the task was not started.
+		 */
+		private long startNanos;
+
 		/**
 		 * default constructor to hold the submitted active task
 		 * 
@@ -42,8 +62,29 @@ public final class TaskPoolManagerImpl implements TaskPoolManager {
 		 *            active task
 		 */
 		public ManagedServiceTask(Task<T> task) {
+			this(task, TaskPriority.VISIBLE, 0);
+		}
+
+		/**
+		 * @param task
+		 *            active task
+		 * @param priority
+		 *            lane of the task
+		 * @param deadlineMillis
+		 *            milliseconds from now after which the task is dropped if
+		 *            it has not started, or 0 for no deadline
+		 */
+		public ManagedServiceTask(Task<T> task, TaskPriority priority, long deadlineMillis) {
 			super(task);
+			if (priority == null) {
+				throw new IllegalArgumentException("priority == null");
+			}
 			this.task = task;
+			this.priority = priority;
+			this.sequence = taskSequence.getAndIncrement();
+			this.submitNanos = System.nanoTime();
+			this.hasDeadline = deadlineMillis > 0;
+			this.deadlineNanos = submitNanos + deadlineMillis * 1000000L;
 		}
 
 		/**
@@ -63,6 +104,15 @@ public final class TaskPoolManagerImpl implements TaskPoolManager {
 			return cancelSuccess;
 		}
 
+		@Override
+		public int compareTo(ManagedServiceTask<?> another) {
+			int order = priority.compareTo(another.priority);
+			if (order != 0) {
+				return order;
+			}
+			return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+		}
+
 		/**
 		 * Called the when the task get done
 		 */
@@ -76,6 +126,9 @@ public final class TaskPoolManagerImpl implements TaskPoolManager {
 		 * Called before postExecute
 		 */
 		public void postExecute() {
+			if (startNanos != 0) {
+				getStats(priority).getRunTime().record(System.nanoTime() - startNanos);
+			}
 
 			try {
 				if (!isCancelled()) {
@@ -93,6 +146,18 @@ public final class TaskPoolManagerImpl implements TaskPoolManager {
 		 * Called after the preExecute
 		 */
 		public void preExecute() {
+			long now = System.nanoTime();
+			if (hasDeadline && now - deadlineNanos > 0) {
+				getStats(priority).recordExpired();
+				cancel(false);
+				return;
+			}
+			if (isCancelled()) {
+				// cancelled while queued; the task will never run
+				return;
+			}
+			getStats(priority).getQueueWait().record(now - submitNanos);
+			startNanos = now;
 			try {
 				task.preExecute();
 			} catch (Throwable e) {
@@ -152,11 +217,27 @@ public final class TaskPoolManagerImpl implements TaskPoolManager {
 	 */
 	private final Lock listLock = new ReentrantLock();
 
+	/**
+	 * Statistics of each lane, indexed by {@link TaskPriority#ordinal()}
+	 */
+	private final TaskLaneStats[] laneStats;
+
+	/**
+	 * Orders tasks of the same priority
+	 */
+	private final AtomicLong taskSequence = new AtomicLong();
+
 	/**
 	 * Field to hold the thread pool executor instance
 	 */
 	private TaskPool sessionThreadPool;
 
+	/**
+	 * Field to hold the thread per task executor, used instead of
+	 * {@link #sessionThreadPool} if {@link TaskPoolConstants#THREAD_PER_TASK}
+	 */
+	private ThreadPerTaskPool threadPerTaskPool;
+
 	// ////////////////////////////////////////////////////////////
 	// Private methods
 	/**
@@ -165,6 +246,10 @@ public final class TaskPoolManagerImpl implements TaskPoolManager {
 	 * @see #initializeServiceHandler()
 	 */
 	private TaskPoolManagerImpl() {
+		laneStats = new TaskLaneStats[TaskPriority.values().length];
+		for (int i = 0; i < laneStats.length; i++) {
+			laneStats[i] = new TaskLaneStats();
+		}
 		initializeServiceHandler();
 	}
 
@@ -194,12 +279,12 @@ public final class TaskPoolManagerImpl implements TaskPoolManager {
 
 		try {
 
-			sessionThreadPool.purge();
+			purge();
 			for (ManagedServiceTask<?> t : activeTasks) {
 				t.cancel(true);
 			}
 			activeTasks.clear();
-			sessionThreadPool.purge();
+			purge();
 		} catch (ConcurrentModificationException e) {
 
 		} finally {
@@ -207,13 +292,41 @@ public final class TaskPoolManagerImpl implements TaskPoolManager {
 		}
 	}
 
+	@Override
+	public TaskLaneStats getStats(TaskPriority priority) {
+		return laneStats[priority.ordinal()];
+	}
+
 	/**
 	 * Initialize the thread pool
 	 * 
 	 * @see TaskPool
 	 */
 	private void initializeServiceHandler() {
-		sessionThreadPool = new TaskPool();
+		if (TaskPoolConstants.THREAD_PER_TASK) {
+			threadPerTaskPool = new ThreadPerTaskPool(TaskPoolConstants.MAX_TASKS_PER_TYPE);
+		} else {
+			sessionThreadPool = new TaskPool();
+		}
+	}
+
+	/**
+	 * Removes cancelled tasks from the pool queue
+	 */
+	private void purge() {
+		if (sessionThreadPool != null) {
+			sessionThreadPool.purge();
+		}
+	}
+
+	@Override
+	public void setConcurrencyLimit(Class<?> taskType, int maxConcurrentTasks) {
+		if (maxConcurrentTasks <= 0) {
+			throw new IllegalArgumentException("maxConcurrentTasks <= 0");
+		}
+		if (threadPerTaskPool != null) {
+			threadPerTaskPool.setTypeLimit(taskType, maxConcurrentTasks);
+		}
 	}
 
 	/**
@@ -224,7 +337,11 @@ public final class TaskPoolManagerImpl implements TaskPoolManager {
 	@Override
 	public void shutdown() {
 		isRunning = false;
-		sessionThreadPool.shutdownNow();
+		if (threadPerTaskPool != null) {
+			threadPerTaskPool.shutdownNow();
+		} else {
+			sessionThreadPool.shutdownNow();
+		}
 		TaskPoolManagerImpl.serviceManager = null;
 	}
 
@@ -235,10 +352,25 @@ public final class TaskPoolManagerImpl implements TaskPoolManager {
 	 */
 	@Override
 	public <T> void submit(Task<T> task) {
+		submit(task, TaskPriority.VISIBLE, 0);
+	}
+
+	@Override
+	public <T> void submit(Task<T> task, TaskPriority priority) {
+		submit(task, priority, 0);
+	}
+
+	@Override
+	public <T> void submit(Task<T> task, TaskPriority priority, long deadlineMillis) {
 		if (isRunning) {
-			ManagedServiceTask<T> managedTask = new ManagedServiceTask<T>(task);
+			ManagedServiceTask<T> managedTask = new ManagedServiceTask<T>(task, priority,
+					deadlineMillis);
 			addToActiveTasks(managedTask);
-			sessionThreadPool.execute(managedTask);
+			if (threadPerTaskPool != null) {
+				threadPerTaskPool.execute(managedTask, task.getClass());
+			} else {
+				sessionThreadPool.execute(managedTask);
+			}
 		}
 	}
 }
@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.taskpool;
+
+/**
+ * Lane a task is queued in.
+ * <p>
+ * A queued task is only started when no task of a higher priority lane is
+ * waiting. Tasks of the same lane start in the order they were submitted.
+ * </p>
+ *
+ * @see TaskPoolManager#submit(Task, TaskPriority)
+ */
+public enum TaskPriority {
+	/**
+	 * Work the user is waiting for, such as content that is on screen.
+	 */
+	VISIBLE,
+	/**
+	 * Work that is likely to be needed soon, such as content just off screen.
+	 */
+	PREFETCH,
+	/**
+	 * Work nobody is waiting for, such as cache maintenance or uploads.
+	 */
+	BACKGROUND
+}
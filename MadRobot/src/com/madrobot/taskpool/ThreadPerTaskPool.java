@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.taskpool;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.madrobot.taskpool.TaskPoolManagerImpl.ManagedServiceTask;
+
+/**
+ * Runs each submitted task on its own thread.
+ * <p>
+ * Tasks that block on I/O are not limited by a fixed number of pool threads.
+ * Instead, the number of tasks of each type that run at the same time is
+ * limited. A task over the limit of its type waits in a queue of that type,
+ * without a thread, and is started, in priority order, when a task of the
+ * type finishes. Virtual threads are used when the runtime provides them,
+ * otherwise idle platform threads are kept for reuse for a minute.
+ * </p>
+ *
+ * @see TaskPoolConstants#THREAD_PER_TASK
+ */
+class ThreadPerTaskPool {
+
+	/**
+	 * The running count, limit and waiting tasks of one task type.
+	 */
+	private final class TypeQueue {
+		private int limit;
+		private int running;
+		private final PriorityQueue<ManagedServiceTask<?>> waiting = new PriorityQueue<ManagedServiceTask<?>>();
+
+		TypeQueue(int limit) {
+			this.limit = limit;
+		}
+
+		synchronized void submit(ManagedServiceTask<?> managedTask) {
+			waiting.add(managedTask);
+			startWaiting();
+		}
+
+		synchronized void finished() {
+			running--;
+			startWaiting();
+		}
+
+		synchronized void setLimit(int limit) {
+			this.limit = limit;
+			startWaiting();
+		}
+
+		/**
+		 * Starts waiting tasks while the type is under its limit.
+		 */
+		private void startWaiting() {
+			while (running < limit && !waiting.isEmpty()) {
+				ManagedServiceTask<?> next = waiting.poll();
+				running++;
+				try {
+					executor.execute(new TypeRunner(this, next));
+				} catch (RejectedExecutionException e) {
+					running--;
+					next.cancel(false);
+				}
+			}
+		}
+
+		synchronized List<ManagedServiceTask<?>> drain() {
+			List<ManagedServiceTask<?>> drained = new ArrayList<ManagedServiceTask<?>>(waiting);
+			waiting.clear();
+			return drained;
+		}
+	}
+
+	/**
+	 * Runs one task and starts the next waiting task of its type.
+	 */
+	private static final class TypeRunner implements Runnable {
+		private final ManagedServiceTask<?> managedTask;
+		private final TypeQueue queue;
+
+		TypeRunner(TypeQueue queue, ManagedServiceTask<?> managedTask) {
+			this.queue = queue;
+			this.managedTask = managedTask;
+		}
+
+		@Override
+		public void run() {
+			try {
+				managedTask.preExecute();
+				managedTask.run();
+			} finally {
+				queue.finished();
+				managedTask.postExecute();
+			}
+		}
+	}
+
+	private static ThreadFactory threadFactory = new ThreadFactory() {
+
+		private AtomicInteger atomicInteger = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			String threadName = "TaskThread=" + atomicInteger.getAndIncrement();
+			return new Thread(runnable, threadName);
+		}
+	};
+
+	/**
+	 * Returns a virtual thread per task executor if the runtime has one.
+	 */
+	private static ExecutorService newExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+					new SynchronousQueue<Runnable>(), threadFactory);
+		}
+	}
+
+	private final int defaultTypeLimit;
+	private final ExecutorService executor = newExecutor();
+	private final ConcurrentHashMap<Class<?>, TypeQueue> typeQueues = new ConcurrentHashMap<Class<?>, TypeQueue>();
+
+	/**
+	 * @param defaultTypeLimit
+	 *            number of tasks of a type without its own limit that may run
+	 *            at the same time
+	 */
+	ThreadPerTaskPool(int defaultTypeLimit) {
+		this.defaultTypeLimit = defaultTypeLimit;
+	}
+
+	/**
+	 * Starts {@code managedTask} on a new thread if fewer tasks of
+	 * {@code type} than its limit are running, otherwise queues it until one
+	 * finishes.
+	 */
+	void execute(ManagedServiceTask<?> managedTask, Class<?> type) {
+		queueFor(type).submit(managedTask);
+	}
+
+	private TypeQueue queueFor(Class<?> type) {
+		TypeQueue queue = typeQueues.get(type);
+		if (queue == null) {
+			TypeQueue newQueue = new TypeQueue(defaultTypeLimit);
+			queue = typeQueues.putIfAbsent(type, newQueue);
+			if (queue == null) {
+				queue = newQueue;
+			}
+		}
+		return queue;
+	}
+
+	/**
+	 * Sets the number of tasks of {@code type} that may run at the same time.
+	 * Raising the limit starts waiting tasks at once; lowering it lets the
+	 * running tasks finish before further tasks are started.
+	 */
+	void setTypeLimit(Class<?> type, int maxConcurrentTasks) {
+		queueFor(type).setLimit(maxConcurrentTasks);
+	}
+
+	/**
+	 * Interrupts the running tasks and cancels the waiting ones.
+	 */
+	void shutdownNow() {
+		executor.shutdownNow();
+		for (TypeQueue queue : typeQueues.values()) {
+			for (ManagedServiceTask<?> waiting : queue.drain()) {
+				waiting.cancel(false);
+			}
+		}
+	}
+}
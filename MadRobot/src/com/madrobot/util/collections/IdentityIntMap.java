@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.util.collections;
+
+import java.util.Arrays;
+
+/**
+ * A map of objects, compared by identity, to <code>int</code> values, with no
+ * boxing and no entry objects.
+ * <p>
+ * The table works as in {@link IntIntMap}: open addressing with linear
+ * probing in a key array and a value array, hashed with
+ * {@link System#identityHashCode(Object)}. This suits tracking the objects
+ * already seen while walking an object graph, such as assigning each object
+ * an id, where {@link java.util.IdentityHashMap} would box the values.
+ * </p>
+ * <p>
+ * The entries are iterated by slot, without an iterator object:
+ * </p>
+ *
+ * <pre>
+ * for (int slot = map.nextSlot(-1); slot &gt;= 0; slot = map.nextSlot(slot)) {
+ * 	Object key = map.keyAt(slot);
+ * 	int value = map.valueAt(slot);
+ * }
+ * </pre>
+ * <p>
+ * Null keys are not allowed. The map is not synchronized.
+ * </p>
+ */
+public final class IdentityIntMap {
+
+	private final float loadFactor;
+	private Object[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+	private int threshold;
+
+	/**
+	 * Constructs an empty map with the default capacity and load factor.
+	 */
+	public IdentityIntMap() {
+		this(PrimitiveHash.DEFAULT_CAPACITY, PrimitiveHash.DEFAULT_LOAD_FACTOR);
+	}
+
+	/**
+	 * Constructs an empty map that holds <code>expectedSize</code> keys
+	 * without growing.
+	 */
+	public IdentityIntMap(int expectedSize) {
+		this(expectedSize, PrimitiveHash.DEFAULT_LOAD_FACTOR);
+	}
+
+	/**
+	 * Constructs an empty map that holds <code>expectedSize</code> keys
+	 * without growing.
+	 *
+	 * @param loadFactor
+	 *            the fraction of the table filled before it grows, above 0 and
+	 *            below 1
+	 * @throws IllegalArgumentException
+	 *             if the size is negative or the load factor out of range
+	 */
+	public IdentityIntMap(int expectedSize, float loadFactor) {
+		this.loadFactor = PrimitiveHash.checkLoadFactor(loadFactor);
+		allocate(PrimitiveHash.tableLength(expectedSize, loadFactor));
+	}
+
+	private void allocate(int length) {
+		keys = new Object[length];
+		values = new int[length];
+		mask = length - 1;
+		threshold = PrimitiveHash.threshold(length, loadFactor);
+	}
+
+	private static int hash(Object key) {
+		return PrimitiveHash.mix(System.identityHashCode(key));
+	}
+
+	/**
+	 * Returns the slot of <code>key</code>, or the free slot where it would be
+	 * added as <code>~slot</code>.
+	 */
+	private int find(Object key) {
+		if (key == null) {
+			throw new NullPointerException("Null key");
+		}
+		Object[] keys = this.keys;
+		int slot = hash(key) & mask;
+		Object existing;
+		while ((existing = keys[slot]) != null) {
+			if (existing == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return ~slot;
+	}
+
+	/**
+	 * Returns the value of <code>key</code>, or <code>defaultValue</code> if
+	 * the map has no such key.
+	 */
+	public int get(Object key, int defaultValue) {
+		int slot = find(key);
+		return slot >= 0 ? values[slot] : defaultValue;
+	}
+
+	/**
+	 * Returns true if the map has <code>key</code>.
+	 */
+	public boolean containsKey(Object key) {
+		return find(key) >= 0;
+	}
+
+	/**
+	 * Maps <code>key</code> to <code>value</code>.
+	 *
+	 * @return true if the key was added, false if its value was replaced
+	 */
+	public boolean put(Object key, int value) {
+		int slot = find(key);
+		if (slot >= 0) {
+			values[slot] = value;
+			return false;
+		}
+		slot = ~slot;
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size >= threshold) {
+			rehash(keys.length << 1);
+		}
+		return true;
+	}
+
+	private void rehash(int length) {
+		Object[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(length);
+		Object[] keys = this.keys;
+		for (int i = 0; i < oldKeys.length; i++) {
+			Object key = oldKeys[i];
+			if (key != null) {
+				int slot = hash(key) & mask;
+				while (keys[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Removes <code>key</code>.
+	 *
+	 * @return true if the map had the key
+	 */
+	public boolean remove(Object key) {
+		int slot = find(key);
+		if (slot < 0) {
+			return false;
+		}
+		shiftKeys(slot);
+		size--;
+		return true;
+	}
+
+	/**
+	 * Fills the slot <code>gap</code> with the next key of its probe run that
+	 * may move there, and so on until the run ends.
+	 */
+	private void shiftKeys(int gap) {
+		Object[] keys = this.keys;
+		int slot = gap;
+		while (true) {
+			slot = (slot + 1) & mask;
+			Object key = keys[slot];
+			if (key == null) {
+				break;
+			}
+			int ideal = hash(key) & mask;
+			// the key may move back if the gap is between its ideal slot and
+			// its slot
+			if (((slot - ideal) & mask) >= ((slot - gap) & mask)) {
+				keys[gap] = key;
+				values[gap] = values[slot];
+				gap = slot;
+			}
+		}
+		keys[gap] = null;
+		values[gap] = 0;
+	}
+
+	/**
+	 * Returns the number of keys.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all keys, keeping the table.
+	 */
+	public void clear() {
+		if (size > 0) {
+			Arrays.fill(keys, null);
+			Arrays.fill(values, 0);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Returns the next slot after <code>slot</code> that has an entry, or -1
+	 * if there is none. Pass -1 for the first slot.
+	 */
+	public int nextSlot(int slot) {
+		Object[] keys = this.keys;
+		for (int i = slot + 1; i < keys.length; i++) {
+			if (keys[i] != null) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the key at a slot returned by {@link #nextSlot(int)}.
+	 */
+	public Object keyAt(int slot) {
+		return keys[slot];
+	}
+
+	/**
+	 * Returns the value at a slot returned by {@link #nextSlot(int)}.
+	 */
+	public int valueAt(int slot) {
+		return values[slot];
+	}
+
+	/**
+	 * Replaces the value at a slot returned by {@link #nextSlot(int)}.
+	 */
+	public void setValueAt(int slot, int value) {
+		values[slot] = value;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(keys[slot]).append('=').append(values[slot]);
+		}
+		return sb.append('}').toString();
+	}
+}
@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.util.collections;
+
+import java.util.Arrays;
+
+/**
+ * A set of <code>int</code> values, with no boxing.
+ * <p>
+ * The table works as in {@link IntIntMap}: open addressing with linear
+ * probing in one array, and values iterated by slot without an iterator
+ * object:
+ * </p>
+ *
+ * <pre>
+ * for (int slot = set.nextSlot(-1); slot &gt;= 0; slot = set.nextSlot(slot)) {
+ * 	int value = set.valueAt(slot);
+ * }
+ * </pre>
+ * <p>
+ * The set must not be changed during the iteration. The set is not
+ * synchronized.
+ * </p>
+ */
+public final class IntHashSet {
+
+	private final float loadFactor;
+	private int[] keys;
+	private int mask;
+	/** Number of values in the table, not counting 0 */
+	private int assigned;
+	private int threshold;
+	private boolean hasZero;
+
+	/**
+	 * Constructs an empty set with the default capacity and load factor.
+	 */
+	public IntHashSet() {
+		this(PrimitiveHash.DEFAULT_CAPACITY, PrimitiveHash.DEFAULT_LOAD_FACTOR);
+	}
+
+	/**
+	 * Constructs an empty set that holds <code>expectedSize</code> values
+	 * without growing.
+	 */
+	public IntHashSet(int expectedSize) {
+		this(expectedSize, PrimitiveHash.DEFAULT_LOAD_FACTOR);
+	}
+
+	/**
+	 * Constructs an empty set that holds <code>expectedSize</code> values
+	 * without growing.
+	 *
+	 * @param loadFactor
+	 *            the fraction of the table filled before it grows, above 0 and
+	 *            below 1
+	 * @throws IllegalArgumentException
+	 *             if the size is negative or the load factor out of range
+	 */
+	public IntHashSet(int expectedSize, float loadFactor) {
+		this.loadFactor = PrimitiveHash.checkLoadFactor(loadFactor);
+		allocate(PrimitiveHash.tableLength(expectedSize, loadFactor));
+	}
+
+	private void allocate(int length) {
+		keys = new int[length];
+		mask = length - 1;
+		threshold = PrimitiveHash.threshold(length, loadFactor);
+	}
+
+	/**
+	 * Returns the slot of <code>value</code>, or the free slot where it would
+	 * be added as <code>~slot</code>.
+	 */
+	private int find(int value) {
+		int[] keys = this.keys;
+		int slot = PrimitiveHash.mix(value) & mask;
+		int existing;
+		while ((existing = keys[slot]) != 0) {
+			if (existing == value) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return ~slot;
+	}
+
+	/**
+	 * Returns true if the set has <code>value</code>.
+	 */
+	public boolean contains(int value) {
+		return value == 0 ? hasZero : find(value) >= 0;
+	}
+
+	/**
+	 * Adds <code>value</code>.
+	 *
+	 * @return true if the value was added, false if the set had it
+	 */
+	public boolean add(int value) {
+		if (value == 0) {
+			boolean added = !hasZero;
+			hasZero = true;
+			return added;
+		}
+		int slot = find(value);
+		if (slot >= 0) {
+			return false;
+		}
+		keys[~slot] = value;
+		if (++assigned >= threshold) {
+			rehash(keys.length << 1);
+		}
+		return true;
+	}
+
+	/**
+	 * Adds each of <code>values</code>.
+	 *
+	 * @return the number of values added
+	 */
+	public int addAll(int[] values) {
+		int added = 0;
+		for (int value : values) {
+			if (add(value)) {
+				added++;
+			}
+		}
+		return added;
+	}
+
+	private void rehash(int length) {
+		int[] oldKeys = keys;
+		allocate(length);
+		int[] keys = this.keys;
+		for (int key : oldKeys) {
+			if (key != 0) {
+				int slot = PrimitiveHash.mix(key) & mask;
+				while (keys[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+			}
+		}
+	}
+
+	/**
+	 * Removes <code>value</code>.
+	 *
+	 * @return true if the set had the value
+	 */
+	public boolean remove(int value) {
+		if (value == 0) {
+			boolean removed = hasZero;
+			hasZero = false;
+			return removed;
+		}
+		int slot = find(value);
+		if (slot < 0) {
+			return false;
+		}
+		shiftKeys(slot);
+		assigned--;
+		return true;
+	}
+
+	/**
+	 * Fills the slot <code>gap</code> with the next value of its probe run
+	 * that may move there, and so on until the run ends.
+	 */
+	private void shiftKeys(int gap) {
+		int[] keys = this.keys;
+		int slot = gap;
+		while (true) {
+			slot = (slot + 1) & mask;
+			int key = keys[slot];
+			if (key == 0) {
+				break;
+			}
+			int ideal = PrimitiveHash.mix(key) & mask;
+			// the value may move back if the gap is between its ideal slot and
+			// its slot
+			if (((slot - ideal) & mask) >= ((slot - gap) & mask)) {
+				keys[gap] = key;
+				gap = slot;
+			}
+		}
+		keys[gap] = 0;
+	}
+
+	/**
+	 * Returns the number of values.
+	 */
+	public int size() {
+		return assigned + (hasZero ? 1 : 0);
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Removes all values, keeping the table.
+	 */
+	public void clear() {
+		if (assigned > 0) {
+			Arrays.fill(keys, 0);
+			assigned = 0;
+		}
+		hasZero = false;
+	}
+
+	/**
+	 * Returns the next slot after <code>slot</code> that has a value, or -1 if
+	 * there is none. Pass -1 for the first slot.
+	 */
+	public int nextSlot(int slot) {
+		int[] keys = this.keys;
+		for (int i = slot + 1; i < keys.length; i++) {
+			if (keys[i] != 0) {
+				return i;
+			}
+		}
+		// 0 is at the slot after the table
+		return slot < keys.length && hasZero ? keys.length : -1;
+	}
+
+	/**
+	 * Returns the value at a slot returned by {@link #nextSlot(int)}.
+	 */
+	public int valueAt(int slot) {
+		return slot == keys.length ? 0 : keys[slot];
+	}
+
+	/**
+	 * Returns the values in iteration order.
+	 */
+	public int[] toArray() {
+		int[] result = new int[size()];
+		int i = 0;
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			result[i++] = valueAt(slot);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (!(o instanceof IntHashSet)) {
+			return false;
+		}
+		IntHashSet other = (IntHashSet) o;
+		if (other.size() != size()) {
+			return false;
+		}
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			if (!other.contains(valueAt(slot))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 0;
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			hash += valueAt(slot);
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(valueAt(slot));
+		}
+		return sb.append(']').toString();
+	}
+}
@@ -0,0 +1,355 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.util.collections;
+
+import java.util.Arrays;
+
+/**
+ * A map of <code>int</code> keys to <code>int</code> values, with no boxing.
+ * <p>
+ * The keys and values are held in two arrays with open addressing and linear
+ * probing, so a lookup reads adjacent array slots instead of following entry
+ * objects. The table grows when the number of keys reaches the load factor.
+ * Removal shifts the following keys back instead of leaving markers, so
+ * lookups do not slow down as keys come and go.
+ * </p>
+ * <p>
+ * The entries are iterated by slot, without an iterator object:
+ * </p>
+ *
+ * <pre>
+ * for (int slot = map.nextSlot(-1); slot &gt;= 0; slot = map.nextSlot(slot)) {
+ * 	int key = map.keyAt(slot);
+ * 	int value = map.valueAt(slot);
+ * }
+ * </pre>
+ * <p>
+ * The map must not be changed during the iteration, other than through
+ * {@link #setValueAt(int, int)}. The map is not synchronized.
+ * </p>
+ */
+public final class IntIntMap {
+
+	private final float loadFactor;
+	private int[] keys;
+	private int[] values;
+	private int mask;
+	/** Number of keys in the table, not counting the key 0 */
+	private int assigned;
+	private int threshold;
+	private boolean hasZeroKey;
+	private int zeroValue;
+
+	/**
+	 * Constructs an empty map with the default capacity and load factor.
+	 */
+	public IntIntMap() {
+		this(PrimitiveHash.DEFAULT_CAPACITY, PrimitiveHash.DEFAULT_LOAD_FACTOR);
+	}
+
+	/**
+	 * Constructs an empty map that holds <code>expectedSize</code> keys
+	 * without growing.
+	 */
+	public IntIntMap(int expectedSize) {
+		this(expectedSize, PrimitiveHash.DEFAULT_LOAD_FACTOR);
+	}
+
+	/**
+	 * Constructs an empty map that holds <code>expectedSize</code> keys
+	 * without growing.
+	 *
+	 * @param loadFactor
+	 *            the fraction of the table filled before it grows, above 0 and
+	 *            below 1
+	 * @throws IllegalArgumentException
+	 *             if the size is negative or the load factor out of range
+	 */
+	public IntIntMap(int expectedSize, float loadFactor) {
+		this.loadFactor = PrimitiveHash.checkLoadFactor(loadFactor);
+		allocate(PrimitiveHash.tableLength(expectedSize, loadFactor));
+	}
+
+	private void allocate(int length) {
+		keys = new int[length];
+		values = new int[length];
+		mask = length - 1;
+		threshold = PrimitiveHash.threshold(length, loadFactor);
+	}
+
+	/**
+	 * Returns the slot of <code>key</code>, or the free slot where it would be
+	 * added as <code>~slot</code>.
+	 */
+	private int find(int key) {
+		int[] keys = this.keys;
+		int slot = PrimitiveHash.mix(key) & mask;
+		int existing;
+		while ((existing = keys[slot]) != 0) {
+			if (existing == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return ~slot;
+	}
+
+	/**
+	 * Returns the value of <code>key</code>, or <code>defaultValue</code> if
+	 * the map has no such key.
+	 */
+	public int get(int key, int defaultValue) {
+		if (key == 0) {
+			return hasZeroKey ? zeroValue : defaultValue;
+		}
+		int slot = find(key);
+		return slot >= 0 ? values[slot] : defaultValue;
+	}
+
+	/**
+	 * Returns true if the map has <code>key</code>.
+	 */
+	public boolean containsKey(int key) {
+		return key == 0 ? hasZeroKey : find(key) >= 0;
+	}
+
+	/**
+	 * Maps <code>key</code> to <code>value</code>.
+	 *
+	 * @return true if the key was added, false if its value was replaced
+	 */
+	public boolean put(int key, int value) {
+		if (key == 0) {
+			boolean added = !hasZeroKey;
+			hasZeroKey = true;
+			zeroValue = value;
+			return added;
+		}
+		int slot = find(key);
+		if (slot >= 0) {
+			values[slot] = value;
+			return false;
+		}
+		insert(~slot, key, value);
+		return true;
+	}
+
+	/**
+	 * Adds <code>delta</code> to the value of <code>key</code>, taking the
+	 * value of a missing key as 0.
+	 *
+	 * @return the new value
+	 */
+	public int addTo(int key, int delta) {
+		if (key == 0) {
+			zeroValue = hasZeroKey ? zeroValue + delta : delta;
+			hasZeroKey = true;
+			return zeroValue;
+		}
+		int slot = find(key);
+		if (slot >= 0) {
+			return values[slot] += delta;
+		}
+		insert(~slot, key, delta);
+		return delta;
+	}
+
+	private void insert(int slot, int key, int value) {
+		keys[slot] = key;
+		values[slot] = value;
+		if (++assigned >= threshold) {
+			rehash(keys.length << 1);
+		}
+	}
+
+	private void rehash(int length) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(length);
+		int[] keys = this.keys;
+		for (int i = 0; i < oldKeys.length; i++) {
+			int key = oldKeys[i];
+			if (key != 0) {
+				int slot = PrimitiveHash.mix(key) & mask;
+				while (keys[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Removes <code>key</code>.
+	 *
+	 * @return true if the map had the key
+	 */
+	public boolean remove(int key) {
+		if (key == 0) {
+			boolean removed = hasZeroKey;
+			hasZeroKey = false;
+			zeroValue = 0;
+			return removed;
+		}
+		int slot = find(key);
+		if (slot < 0) {
+			return false;
+		}
+		shiftKeys(slot);
+		assigned--;
+		return true;
+	}
+
+	/**
+	 * Fills the slot <code>gap</code> with the next key of its probe run that
+	 * may move there, and so on until the run ends.
+	 */
+	private void shiftKeys(int gap) {
+		int[] keys = this.keys;
+		int slot = gap;
+		while (true) {
+			slot = (slot + 1) & mask;
+			int key = keys[slot];
+			if (key == 0) {
+				break;
+			}
+			int ideal = PrimitiveHash.mix(key) & mask;
+			// the key may move back if the gap is between its ideal slot and
+			// its slot
+			if (((slot - ideal) & mask) >= ((slot - gap) & mask)) {
+				keys[gap] = key;
+				values[gap] = values[slot];
+				gap = slot;
+			}
+		}
+		keys[gap] = 0;
+		values[gap] = 0;
+	}
+
+	/**
+	 * Returns the number of keys.
+	 */
+	public int size() {
+		return assigned + (hasZeroKey ? 1 : 0);
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Removes all keys, keeping the table.
+	 */
+	public void clear() {
+		if (assigned > 0) {
+			Arrays.fill(keys, 0);
+			Arrays.fill(values, 0);
+			assigned = 0;
+		}
+		hasZeroKey = false;
+		zeroValue = 0;
+	}
+
+	/**
+	 * Returns the next slot after <code>slot</code> that has an entry, or -1
+	 * if there is none. Pass -1 for the first slot.
+	 */
+	public int nextSlot(int slot) {
+		int[] keys = this.keys;
+		for (int i = slot + 1; i < keys.length; i++) {
+			if (keys[i] != 0) {
+				return i;
+			}
+		}
+		// the key 0 is at the slot after the table
+		return slot < keys.length && hasZeroKey ? keys.length : -1;
+	}
+
+	/**
+	 * Returns the key at a slot returned by {@link #nextSlot(int)}.
+	 */
+	public int keyAt(int slot) {
+		return slot == keys.length ? 0 : keys[slot];
+	}
+
+	/**
+	 * Returns the value at a slot returned by {@link #nextSlot(int)}.
+	 */
+	public int valueAt(int slot) {
+		return slot == keys.length ? zeroValue : values[slot];
+	}
+
+	/**
+	 * Replaces the value at a slot returned by {@link #nextSlot(int)}.
+	 */
+	public void setValueAt(int slot, int value) {
+		if (slot == keys.length) {
+			zeroValue = value;
+		} else {
+			values[slot] = value;
+		}
+	}
+
+	/**
+	 * Returns the keys in iteration order.
+	 */
+	public int[] keys() {
+		int[] result = new int[size()];
+		int i = 0;
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			result[i++] = keyAt(slot);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (!(o instanceof IntIntMap)) {
+			return false;
+		}
+		IntIntMap other = (IntIntMap) o;
+		if (other.size() != size()) {
+			return false;
+		}
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			int key = keyAt(slot);
+			if (!other.containsKey(key) || other.get(key, 0) != valueAt(slot)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 0;
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			hash += keyAt(slot) ^ valueAt(slot);
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(keyAt(slot)).append('=').append(valueAt(slot));
+		}
+		return sb.append('}').toString();
+	}
+}
@@ -0,0 +1,277 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.util.collections;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of <code>long</code> values, with no boxing.
+ * <p>
+ * The values are held in one array, so iterating with {@link #get(int)}
+ * creates no objects:
+ * </p>
+ *
+ * <pre>
+ * for (int i = 0; i &lt; list.size(); i++) {
+ * 	long value = list.get(i);
+ * }
+ * </pre>
+ * <p>
+ * The list is not synchronized.
+ * </p>
+ */
+public final class LongArrayList {
+
+	private static final int DEFAULT_CAPACITY = 10;
+
+	private static final long[] EMPTY = new long[0];
+
+	private long[] elements;
+	private int size;
+
+	/**
+	 * Constructs an empty list with the default capacity.
+	 */
+	public LongArrayList() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs an empty list that holds <code>initialCapacity</code> values
+	 * without growing.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the capacity is negative
+	 */
+	public LongArrayList(int initialCapacity) {
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException("Negative capacity: " + initialCapacity);
+		}
+		elements = initialCapacity == 0 ? EMPTY : new long[initialCapacity];
+	}
+
+	/**
+	 * Constructs a list of a copy of <code>values</code>.
+	 */
+	public LongArrayList(long[] values) {
+		this(values.length);
+		System.arraycopy(values, 0, elements, 0, values.length);
+		size = values.length;
+	}
+
+	/**
+	 * Makes room for at least <code>capacity</code> values.
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > elements.length) {
+			int grown = elements.length + (elements.length >> 1) + 1;
+			long[] resized = new long[Math.max(capacity, grown)];
+			System.arraycopy(elements, 0, resized, 0, size);
+			elements = resized;
+		}
+	}
+
+	/**
+	 * Shrinks the capacity to the size.
+	 */
+	public void trimToSize() {
+		if (size < elements.length) {
+			long[] trimmed = size == 0 ? EMPTY : new long[size];
+			System.arraycopy(elements, 0, trimmed, 0, size);
+			elements = trimmed;
+		}
+	}
+
+	/**
+	 * Appends <code>value</code>.
+	 */
+	public void add(long value) {
+		if (size == elements.length) {
+			ensureCapacity(size + 1);
+		}
+		elements[size++] = value;
+	}
+
+	/**
+	 * Inserts <code>value</code> at <code>index</code>, moving the following
+	 * values up.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             if the index is negative or above the size
+	 */
+	public void add(int index, long value) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		}
+		ensureCapacity(size + 1);
+		System.arraycopy(elements, index, elements, index + 1, size - index);
+		elements[index] = value;
+		size++;
+	}
+
+	/**
+	 * Appends all of <code>values</code>.
+	 */
+	public void addAll(long[] values) {
+		ensureCapacity(size + values.length);
+		System.arraycopy(values, 0, elements, size, values.length);
+		size += values.length;
+	}
+
+	/**
+	 * Appends all values of <code>list</code>.
+	 */
+	public void addAll(LongArrayList list) {
+		ensureCapacity(size + list.size);
+		System.arraycopy(list.elements, 0, elements, size, list.size);
+		size += list.size;
+	}
+
+	/**
+	 * Returns the value at <code>index</code>.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             if the index is not below the size
+	 */
+	public long get(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		}
+		return elements[index];
+	}
+
+	/**
+	 * Replaces the value at <code>index</code>.
+	 *
+	 * @return the previous value
+	 * @throws IndexOutOfBoundsException
+	 *             if the index is not below the size
+	 */
+	public long set(int index, long value) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		}
+		long previous = elements[index];
+		elements[index] = value;
+		return previous;
+	}
+
+	/**
+	 * Removes the value at <code>index</code>, moving the following values
+	 * down.
+	 *
+	 * @return the removed value
+	 * @throws IndexOutOfBoundsException
+	 *             if the index is not below the size
+	 */
+	public long removeAt(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		}
+		long removed = elements[index];
+		System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+		size--;
+		return removed;
+	}
+
+	/**
+	 * Returns the index of the first occurrence of <code>value</code>, or -1
+	 * if the list does not have it.
+	 */
+	public int indexOf(long value) {
+		for (int i = 0; i < size; i++) {
+			if (elements[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public boolean contains(long value) {
+		return indexOf(value) >= 0;
+	}
+
+	/**
+	 * Sorts the values in ascending order.
+	 */
+	public void sort() {
+		Arrays.sort(elements, 0, size);
+	}
+
+	/**
+	 * Returns the number of values.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all values, keeping the capacity.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Returns a copy of the values.
+	 */
+	public long[] toArray() {
+		long[] result = new long[size];
+		System.arraycopy(elements, 0, result, 0, size);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (!(o instanceof LongArrayList)) {
+			return false;
+		}
+		LongArrayList other = (LongArrayList) o;
+		if (other.size != size) {
+			return false;
+		}
+		for (int i = 0; i < size; i++) {
+			if (elements[i] != other.elements[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 1;
+		for (int i = 0; i < size; i++) {
+			long value = elements[i];
+			hash = 31 * hash + (int) (value ^ (value >>> 32));
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(elements[i]);
+		}
+		return sb.append(']').toString();
+	}
+}
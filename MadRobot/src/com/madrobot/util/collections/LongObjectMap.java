@@ -0,0 +1,342 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.util.collections;
+
+import java.util.Arrays;
+
+/**
+ * A map of <code>long</code> keys to objects, with no boxing of the keys.
+ * <p>
+ * The table works as in {@link IntIntMap}: open addressing with linear
+ * probing in a key array and a value array, and entries iterated by slot
+ * without an iterator object:
+ * </p>
+ *
+ * <pre>
+ * for (int slot = map.nextSlot(-1); slot &gt;= 0; slot = map.nextSlot(slot)) {
+ * 	long key = map.keyAt(slot);
+ * 	Order value = map.valueAt(slot);
+ * }
+ * </pre>
+ * <p>
+ * Null values are allowed; use {@link #containsKey(long)} to tell a null value
+ * from a missing key. The map is not synchronized.
+ * </p>
+ *
+ * @param <V>
+ *            type of the values
+ */
+public final class LongObjectMap<V> {
+
+	private final float loadFactor;
+	private long[] keys;
+	private Object[] values;
+	private int mask;
+	/** Number of keys in the table, not counting the key 0 */
+	private int assigned;
+	private int threshold;
+	private boolean hasZeroKey;
+	private Object zeroValue;
+
+	/**
+	 * Constructs an empty map with the default capacity and load factor.
+	 */
+	public LongObjectMap() {
+		this(PrimitiveHash.DEFAULT_CAPACITY, PrimitiveHash.DEFAULT_LOAD_FACTOR);
+	}
+
+	/**
+	 * Constructs an empty map that holds <code>expectedSize</code> keys
+	 * without growing.
+	 */
+	public LongObjectMap(int expectedSize) {
+		this(expectedSize, PrimitiveHash.DEFAULT_LOAD_FACTOR);
+	}
+
+	/**
+	 * Constructs an empty map that holds <code>expectedSize</code> keys
+	 * without growing.
+	 *
+	 * @param loadFactor
+	 *            the fraction of the table filled before it grows, above 0 and
+	 *            below 1
+	 * @throws IllegalArgumentException
+	 *             if the size is negative or the load factor out of range
+	 */
+	public LongObjectMap(int expectedSize, float loadFactor) {
+		this.loadFactor = PrimitiveHash.checkLoadFactor(loadFactor);
+		allocate(PrimitiveHash.tableLength(expectedSize, loadFactor));
+	}
+
+	private void allocate(int length) {
+		keys = new long[length];
+		values = new Object[length];
+		mask = length - 1;
+		threshold = PrimitiveHash.threshold(length, loadFactor);
+	}
+
+	/**
+	 * Returns the slot of <code>key</code>, or the free slot where it would be
+	 * added as <code>~slot</code>.
+	 */
+	private int find(long key) {
+		long[] keys = this.keys;
+		int slot = PrimitiveHash.mix(key) & mask;
+		long existing;
+		while ((existing = keys[slot]) != 0) {
+			if (existing == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return ~slot;
+	}
+
+	/**
+	 * Returns the value of <code>key</code>, or null if the map has no such
+	 * key.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		if (key == 0) {
+			return (V) zeroValue;
+		}
+		int slot = find(key);
+		return slot >= 0 ? (V) values[slot] : null;
+	}
+
+	/**
+	 * Returns true if the map has <code>key</code>.
+	 */
+	public boolean containsKey(long key) {
+		return key == 0 ? hasZeroKey : find(key) >= 0;
+	}
+
+	/**
+	 * Maps <code>key</code> to <code>value</code>.
+	 *
+	 * @return the previous value of the key, or null if it had none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		Object previous;
+		if (key == 0) {
+			previous = zeroValue;
+			hasZeroKey = true;
+			zeroValue = value;
+			return (V) previous;
+		}
+		int slot = find(key);
+		if (slot >= 0) {
+			previous = values[slot];
+			values[slot] = value;
+			return (V) previous;
+		}
+		slot = ~slot;
+		keys[slot] = key;
+		values[slot] = value;
+		if (++assigned >= threshold) {
+			rehash(keys.length << 1);
+		}
+		return null;
+	}
+
+	private void rehash(int length) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(length);
+		long[] keys = this.keys;
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if (key != 0) {
+				int slot = PrimitiveHash.mix(key) & mask;
+				while (keys[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Removes <code>key</code>.
+	 *
+	 * @return the value of the key, or null if it had none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		Object previous;
+		if (key == 0) {
+			previous = zeroValue;
+			hasZeroKey = false;
+			zeroValue = null;
+			return (V) previous;
+		}
+		int slot = find(key);
+		if (slot < 0) {
+			return null;
+		}
+		previous = values[slot];
+		shiftKeys(slot);
+		assigned--;
+		return (V) previous;
+	}
+
+	/**
+	 * Fills the slot <code>gap</code> with the next key of its probe run that
+	 * may move there, and so on until the run ends.
+	 */
+	private void shiftKeys(int gap) {
+		long[] keys = this.keys;
+		int slot = gap;
+		while (true) {
+			slot = (slot + 1) & mask;
+			long key = keys[slot];
+			if (key == 0) {
+				break;
+			}
+			int ideal = PrimitiveHash.mix(key) & mask;
+			// the key may move back if the gap is between its ideal slot and
+			// its slot
+			if (((slot - ideal) & mask) >= ((slot - gap) & mask)) {
+				keys[gap] = key;
+				values[gap] = values[slot];
+				gap = slot;
+			}
+		}
+		keys[gap] = 0;
+		values[gap] = null;
+	}
+
+	/**
+	 * Returns the number of keys.
+	 */
+	public int size() {
+		return assigned + (hasZeroKey ? 1 : 0);
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Removes all keys, keeping the table.
+	 */
+	public void clear() {
+		if (assigned > 0) {
+			Arrays.fill(keys, 0);
+			Arrays.fill(values, null);
+			assigned = 0;
+		}
+		hasZeroKey = false;
+		zeroValue = null;
+	}
+
+	/**
+	 * Returns the next slot after <code>slot</code> that has an entry, or -1
+	 * if there is none. Pass -1 for the first slot.
+	 */
+	public int nextSlot(int slot) {
+		long[] keys = this.keys;
+		for (int i = slot + 1; i < keys.length; i++) {
+			if (keys[i] != 0) {
+				return i;
+			}
+		}
+		// the key 0 is at the slot after the table
+		return slot < keys.length && hasZeroKey ? keys.length : -1;
+	}
+
+	/**
+	 * Returns the key at a slot returned by {@link #nextSlot(int)}.
+	 */
+	public long keyAt(int slot) {
+		return slot == keys.length ? 0 : keys[slot];
+	}
+
+	/**
+	 * Returns the value at a slot returned by {@link #nextSlot(int)}.
+	 */
+	@SuppressWarnings("unchecked")
+	public V valueAt(int slot) {
+		return (V) (slot == keys.length ? zeroValue : values[slot]);
+	}
+
+	/**
+	 * Replaces the value at a slot returned by {@link #nextSlot(int)}.
+	 */
+	public void setValueAt(int slot, V value) {
+		if (slot == keys.length) {
+			zeroValue = value;
+		} else {
+			values[slot] = value;
+		}
+	}
+
+	/**
+	 * Returns the keys in iteration order.
+	 */
+	public long[] keys() {
+		long[] result = new long[size()];
+		int i = 0;
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			result[i++] = keyAt(slot);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (!(o instanceof LongObjectMap<?>)) {
+			return false;
+		}
+		LongObjectMap<?> other = (LongObjectMap<?>) o;
+		if (other.size() != size()) {
+			return false;
+		}
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			long key = keyAt(slot);
+			Object value = valueAt(slot);
+			if (!other.containsKey(key)
+					|| !(value == null ? other.get(key) == null : value.equals(other.get(key)))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 0;
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			long key = keyAt(slot);
+			Object value = valueAt(slot);
+			hash += (int) (key ^ (key >>> 32)) ^ (value == null ? 0 : value.hashCode());
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(keyAt(slot)).append('=').append(valueAt(slot));
+		}
+		return sb.append('}').toString();
+	}
+}
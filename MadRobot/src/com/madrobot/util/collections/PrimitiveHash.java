@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2011 MadRobot.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *  Elton Kent - initial API and implementation
+ ******************************************************************************/
+package com.madrobot.util.collections;
+
+/**
+ * Sizing and hashing shared by the open addressing primitive maps and sets.
+ * <p>
+ * The tables have a power of two length and use linear probing, with the key
+ * 0 marking a free slot. The key 0 itself is kept outside the table. Keys are
+ * mixed before they are masked, so that keys that differ only in their high
+ * bits, such as multiples of a large power of two, do not collide.
+ * </p>
+ */
+final class PrimitiveHash {
+
+	static final int DEFAULT_CAPACITY = 16;
+
+	static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+	private static final int MAX_TABLE_LENGTH = 1 << 30;
+
+	private static final int GOLDEN_RATIO_32 = 0x9E3779B9;
+
+	private static final long GOLDEN_RATIO_64 = 0x9E3779B97F4A7C15L;
+
+	private PrimitiveHash() {
+	}
+
+	static int mix(int key) {
+		int h = key * GOLDEN_RATIO_32;
+		return h ^ (h >>> 16);
+	}
+
+	static int mix(long key) {
+		long h = key * GOLDEN_RATIO_64;
+		h ^= h >>> 32;
+		return (int) (h ^ (h >>> 16));
+	}
+
+	/**
+	 * Checks that a load factor is above 0 and below 1.
+	 */
+	static float checkLoadFactor(float loadFactor) {
+		if (!(loadFactor > 0 && loadFactor < 1)) {
+			throw new IllegalArgumentException("Load factor must be above 0 and below 1: "
+					+ loadFactor);
+		}
+		return loadFactor;
+	}
+
+	/**
+	 * Returns the table length needed to hold <code>size</code> keys without
+	 * exceeding the load factor.
+	 */
+	static int tableLength(int size, float loadFactor) {
+		if (size < 0) {
+			throw new IllegalArgumentException("Negative capacity: " + size);
+		}
+		long needed = (long) Math.ceil(Math.max(size, 1) / (double) loadFactor);
+		if (needed > MAX_TABLE_LENGTH) {
+			throw new IllegalArgumentException("Capacity too large: " + size);
+		}
+		int length = 2;
+		while (length < needed) {
+			length <<= 1;
+		}
+		return length;
+	}
+
+	/**
+	 * Returns the number of keys a table of <code>length</code> slots holds
+	 * before it grows. At least one slot is always left free, so that probes
+	 * end.
+	 */
+	static int threshold(int length, float loadFactor) {
+		return Math.min(length - 1, (int) Math.ceil(length * loadFactor));
+	}
+}